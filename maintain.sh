@@ -1,12 +1,10 @@
 #!/bin/bash
-
-# Unify locale settings temporarily to make sort produce the same order
-LC_ALL=C
-export LC_ALL
+set -e
 
 # Converts uppercase to lowercase, sorts, removes duplicates and removes allowlisted domains
-cat disposable_email_blocklist.conf | tr '[:upper:]' '[:lower:]' | sort -f | uniq -i  > temp.conf
-comm -23 temp.conf allowlist.conf > disposable_email_blocklist.conf
+# from disposable_email_blocklist.conf and writes the changes to
+# disposable_email_blocklist.conf.delta
+mvn -q compile dependency:build-classpath -Dmdep.outputFile=target/classpath.txt
+java -cp "target/classes:$(cat target/classpath.txt)" com.github.spamchecker.MxResolver export-blocklist disposable_email_blocklist.conf
 
-rm temp.conf
 echo "Done!"
@@ -0,0 +1,76 @@
+package com.github.spamchecker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.spamchecker.model.Classification;
+import com.github.spamchecker.model.DomainData;
+import com.github.spamchecker.model.Index;
+
+/**
+ * Propagating a changed domain classification to mail servers and addresses.
+ *
+ * <p>
+ * Each invocation toggles the classification of a random domain between disposable and
+ * regular, which requires recomputing the classification of all its mail servers.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class ClassificationBenchmark {
+
+	private static final int CHANGED_DOMAINS = 1024;
+
+	@Param({"10000", "100000", "1000000"})
+	int domains;
+
+	Index db;
+
+	XRefIndex index;
+
+	String[] names;
+
+	int next;
+
+	@Setup
+	public void setup() {
+		db = SyntheticIndex.create(domains);
+		index = new XRefIndex(db);
+
+		List<String> all = new ArrayList<>(db.getDomains().keySet());
+		Collections.sort(all);
+		Collections.shuffle(all, new Random(42));
+		names = all.subList(0, CHANGED_DOMAINS).toArray(new String[0]);
+	}
+
+	@Benchmark
+	public Set<String> updateClassifications() {
+		String name = names[next++ % CHANGED_DOMAINS];
+		DomainData domain = db.getDomains().get(name);
+		Classification before = domain.getKind();
+		domain.setKind(before == Classification.DISPOSABLE ? Classification.REGULAR : Classification.DISPOSABLE);
+		index.updateDomainKind(name, before);
+		return index.updateClassifications();
+	}
+
+}
@@ -0,0 +1,52 @@
+package com.github.spamchecker;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.spamchecker.compact.CompactIndex;
+import com.github.spamchecker.compact.CompactXRef;
+import com.github.spamchecker.model.Index;
+
+/**
+ * Building the cross references of a database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class IndexBenchmark {
+
+	@Param({"10000", "100000", "1000000"})
+	int domains;
+
+	Index db;
+
+	@Setup
+	public void setup() {
+		db = SyntheticIndex.create(domains);
+	}
+
+	@Benchmark
+	public XRefIndex buildIndex() {
+		return new XRefIndex(db);
+	}
+
+	@Benchmark
+	public CompactXRef buildCompactIndex() {
+		return CompactIndex.fromIndex(db).buildIndex();
+	}
+
+}
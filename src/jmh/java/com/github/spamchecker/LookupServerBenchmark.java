@@ -0,0 +1,186 @@
+package com.github.spamchecker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.spamchecker.model.LookupResult;
+import com.github.spamchecker.server.ClassificationTable;
+import com.github.spamchecker.server.LookupServer;
+
+/**
+ * Latency of classification requests answered by the {@link LookupServer}.
+ *
+ * <p>
+ * <code>lookup</code> measures the in-process lookup of a single domain, <code>httpLookup</code>
+ * a complete <code>GET /lookup?domain=...</code> round trip over a keep-alive connection to a
+ * server in the same JVM. Each benchmark thread uses its own connection, run with
+ * <code>-t 8</code> for concurrent clients. The sample mode reports latency percentiles, the
+ * throughput is the number of samples divided by the measurement time.
+ * </p>
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx4g", "-D" + LookupServer.NODELAY + "=true"})
+public class LookupServerBenchmark {
+
+	private static final int NAMES = 1024;
+
+	/**
+	 * The server, shared by all benchmark threads.
+	 */
+	@State(Scope.Benchmark)
+	public static class Server {
+
+		@Param({"100000", "1000000"})
+		int domains;
+
+		@Param("4")
+		int threads;
+
+		LookupServer server;
+
+		String[] names;
+
+		@Setup
+		public void setup() throws IOException {
+			ClassificationTable table = new ClassificationTable(SyntheticIndex.create(domains));
+			server = new LookupServer(table);
+			server.start(0, threads);
+
+			List<String> all = new ArrayList<>();
+			for (int n = 0; n < NAMES; n++) {
+				// Mix of known domains and misses.
+				all.add(n % 4 == 0 ? "new" + n + ".example" : "domain" + (n * 7919 % domains) + ".example");
+			}
+			Collections.shuffle(all, new Random(42));
+			names = all.toArray(new String[0]);
+		}
+
+		@TearDown
+		public void tearDown() {
+			server.stop();
+		}
+	}
+
+	/**
+	 * A keep-alive HTTP connection of a single benchmark thread.
+	 */
+	@State(Scope.Thread)
+	public static class Client {
+
+		Socket socket;
+
+		OutputStream out;
+
+		InputStream in;
+
+		byte[][] requests;
+
+		byte[] buffer = new byte[4096];
+
+		int next;
+
+		@Setup
+		public void setup(Server server) throws IOException {
+			socket = new Socket(InetAddress.getLoopbackAddress(), server.server.getPort());
+			socket.setTcpNoDelay(true);
+			out = socket.getOutputStream();
+			in = socket.getInputStream();
+
+			requests = new byte[NAMES][];
+			for (int n = 0; n < NAMES; n++) {
+				requests[n] = ("GET /lookup?domain=" + server.names[n] + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+			}
+		}
+
+		@TearDown
+		public void tearDown() throws IOException {
+			socket.close();
+		}
+
+		/**
+		 * Sends the next request and reads the response.
+		 *
+		 * @return The size of the response body.
+		 */
+		int request() throws IOException {
+			out.write(requests[next++ & (NAMES - 1)]);
+			out.flush();
+
+			// Read the header, then the body of the announced length.
+			int size = 0;
+			int headerEnd = -1;
+			while (headerEnd < 0) {
+				int cnt = in.read(buffer, size, buffer.length - size);
+				if (cnt < 0) {
+					throw new IOException("Connection closed.");
+				}
+				size += cnt;
+				headerEnd = headerEnd(size);
+			}
+			int length = contentLength(headerEnd);
+			while (size < headerEnd + length) {
+				int cnt = in.read(buffer, size, buffer.length - size);
+				if (cnt < 0) {
+					throw new IOException("Connection closed.");
+				}
+				size += cnt;
+			}
+			return length;
+		}
+
+		private int headerEnd(int size) {
+			for (int n = 3; n < size; n++) {
+				if (buffer[n] == '\n' && buffer[n - 1] == '\r' && buffer[n - 2] == '\n' && buffer[n - 3] == '\r') {
+					return n + 1;
+				}
+			}
+			return -1;
+		}
+
+		private int contentLength(int headerEnd) throws IOException {
+			String header = new String(buffer, 0, headerEnd, StandardCharsets.US_ASCII).toLowerCase();
+			int start = header.indexOf("content-length:");
+			if (start < 0) {
+				throw new IOException("Missing content length.");
+			}
+			start += "content-length:".length();
+			return Integer.parseInt(header.substring(start, header.indexOf('\r', start)).trim());
+		}
+	}
+
+	@Benchmark
+	public LookupResult lookup(Server server, Client client) {
+		return server.server.lookup(server.names[client.next++ & (NAMES - 1)]);
+	}
+
+	@Benchmark
+	public int httpLookup(Client client) throws IOException {
+		return client.request();
+	}
+
+}
@@ -0,0 +1,82 @@
+package com.github.spamchecker;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.spamchecker.compact.PublicSuffixList;
+
+/**
+ * Reducing domain names to their registrable domain with the public suffix list.
+ *
+ * <p>
+ * The list is read from <code>public_suffix_list.dat</code> in the working directory (see
+ * <code>verify.py</code>). Domain names are a mix of registrable domains and subdomains below
+ * generic, country code, wildcard and private suffixes.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1)
+public class NormalizationBenchmark {
+
+	private static final int NAMES = 4096;
+
+	private static final String[] PATTERNS = {
+		"d%d.com",
+		"mail.d%d.com",
+		"d%d.co.uk",
+		"x%d.mx.d%<d.co.uk",
+		"d%d.de",
+		"d%d.blogspot.com",
+		"a.b.d%d.kawasaki.jp",
+		"d%d.example",
+	};
+
+	@Param("public_suffix_list.dat")
+	String psl;
+
+	PublicSuffixList list;
+
+	String[] names;
+
+	int next;
+
+	@Setup
+	public void setup() throws IOException {
+		list = PublicSuffixList.read(new File(psl));
+
+		Random rnd = new Random(42);
+		names = new String[NAMES];
+		for (int n = 0; n < NAMES; n++) {
+			names[n] = String.format(PATTERNS[rnd.nextInt(PATTERNS.length)], rnd.nextInt(1_000_000));
+		}
+	}
+
+	@Benchmark
+	public int registrableStart() {
+		return list.registrableStart(names[next++ & (NAMES - 1)]);
+	}
+
+	@Benchmark
+	public String registrableDomain() {
+		return list.registrableDomain(names[next++ & (NAMES - 1)]);
+	}
+
+}
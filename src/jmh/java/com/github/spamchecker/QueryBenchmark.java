@@ -0,0 +1,77 @@
+package com.github.spamchecker;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.spamchecker.dns.DnsAnswer;
+import com.github.spamchecker.model.DomainData;
+import com.github.spamchecker.model.Index;
+
+/**
+ * Classifying a new domain from the cross references of the database.
+ *
+ * <p>
+ * DNS resolution is replaced with prepared answers. Each classified domain is removed from the
+ * database afterwards, so that the same domains can be classified again.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class QueryBenchmark {
+
+	private static final int NEW_DOMAINS = 1024;
+
+	@Param({"10000", "100000", "1000000"})
+	int domains;
+
+	Index db;
+
+	MxResolver resolver;
+
+	XRefIndex index;
+
+	String[] names;
+
+	DnsAnswer[] answers;
+
+	int next;
+
+	@Setup
+	public void setup() throws IOException {
+		db = SyntheticIndex.create(domains);
+		resolver = new MxResolver();
+		resolver.setDb(db);
+		index = resolver.index();
+
+		List<String> newNames = new ArrayList<>();
+		answers = SyntheticIndex.newDomains(db, NEW_DOMAINS, newNames).toArray(new DnsAnswer[0]);
+		names = newNames.toArray(new String[0]);
+	}
+
+	@Benchmark
+	public DomainData query() {
+		int n = next++ % NEW_DOMAINS;
+		DomainData result = resolver.query(names[n], index, answers[n]);
+		db.getDomains().remove(names[n]);
+		return result;
+	}
+
+}
@@ -0,0 +1,108 @@
+package com.github.spamchecker;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.spamchecker.model.Index;
+import com.github.spamchecker.store.StorageWriter;
+
+/**
+ * Reading and writing the JSON database and exporting the disposable domains.
+ *
+ * <p>
+ * The blocklist export rewrites a list of all disposable domains of the database with itself,
+ * the allowlist is read from <code>allowlist.conf</code> in the working directory, if present.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class StorageBenchmark {
+
+	@Param({"10000", "100000", "1000000"})
+	int domains;
+
+	Index db;
+
+	MxResolver resolver;
+
+	File file;
+
+	File blocklist;
+
+	@Setup
+	public void setup() throws IOException {
+		db = SyntheticIndex.create(domains);
+		resolver = new MxResolver();
+		resolver.setDb(db);
+
+		file = File.createTempFile("benchmark", ".json");
+		StorageWriter.write(db, new XRefIndex(db), new FileOutputStream(file));
+
+		blocklist = File.createTempFile("benchmark", ".conf");
+		try (Writer out = new OutputStreamWriter(new FileOutputStream(blocklist), StandardCharsets.UTF_8)) {
+			resolver.writeDisposables(out);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		file.delete();
+		blocklist.delete();
+		new File(blocklist.getPath() + ".delta").delete();
+	}
+
+	/**
+	 * Creating the cross references and writing the {@link com.github.spamchecker.model.Storage}
+	 * representation, as done by <code>store-db</code>.
+	 */
+	@Benchmark
+	public void writeStorage() throws IOException {
+		StorageWriter.write(db, new XRefIndex(db), OutputStream.nullOutputStream());
+	}
+
+	@Benchmark
+	public Index loadDb() throws IOException {
+		return resolver.loadDb(file);
+	}
+
+	/**
+	 * Sorting the disposable domains with bounded memory, as done by <code>dump-disposables</code>.
+	 */
+	@Benchmark
+	public void dumpDisposables() throws IOException {
+		resolver.writeDisposables(Writer.nullWriter());
+	}
+
+	/**
+	 * Merging the previous blocklist with the allowlist and writing the list and its delta, as
+	 * done by <code>export-blocklist</code>.
+	 */
+	@Benchmark
+	public void exportBlocklist() throws IOException {
+		resolver.exportBlocklist(blocklist.getPath());
+	}
+
+}
@@ -0,0 +1,162 @@
+package com.github.spamchecker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import com.github.spamchecker.dns.DnsAnswer;
+import com.github.spamchecker.model.Classification;
+import com.github.spamchecker.model.DomainData;
+import com.github.spamchecker.model.DomainInfo;
+import com.github.spamchecker.model.Heuristics;
+import com.github.spamchecker.model.Index;
+import com.github.spamchecker.model.MxData;
+import com.github.spamchecker.model.MxInfo;
+
+/**
+ * Generator for reproducible {@link Index}es of a given size for benchmarks.
+ *
+ * <p>
+ * The generated data resembles the real database: Half of the domains are hosted by a few
+ * hundred shared mail servers, whose use follows a power law, the other half runs its own mail
+ * server. Addresses of own mail servers are drawn from a pool half the size of the database,
+ * so that unrelated mail servers share addresses. About a third of the domains belong to a
+ * service. Mail server classifications are consistent with the domain classifications.
+ * </p>
+ */
+public class SyntheticIndex {
+
+	private static final long SEED = 4711;
+
+	private static final int SHARED_MX = 500;
+
+	private final Random _rnd;
+
+	private final int _size;
+
+	private final Index _db = Index.create();
+
+	private final List<String> _sharedMx = new ArrayList<>();
+
+	private final List<String> _services = new ArrayList<>();
+
+	private SyntheticIndex(int size, long seed) {
+		_size = size;
+		_rnd = new Random(seed);
+	}
+
+	/**
+	 * Creates an {@link Index} with the given number of domains.
+	 */
+	public static Index create(int domains) {
+		return new SyntheticIndex(domains, SEED).build();
+	}
+
+	/**
+	 * Creates the given number of domains not contained in the database of the given size
+	 * together with the DNS answers for them.
+	 *
+	 * <p>
+	 * The answers only refer to mail servers already contained in the database, as is the case
+	 * for most new domains when the database is large.
+	 * </p>
+	 *
+	 * @param db An {@link Index} created with {@link #create(int)}.
+	 * @param names Output for the names of the new domains.
+	 * @return The DNS answers for the domains in the given names list.
+	 */
+	public static List<DnsAnswer> newDomains(Index db, int count, List<String> names) {
+		Random rnd = new Random(SEED + 1);
+		List<String> mailServers = new ArrayList<>(db.getMailServers().keySet());
+		Collections.sort(mailServers);
+
+		List<DnsAnswer> result = new ArrayList<>(count);
+		for (int n = 0; n < count; n++) {
+			names.add("new" + n + ".example");
+
+			int mxCount = 1 + rnd.nextInt(2);
+			List<String> mx = new ArrayList<>(mxCount);
+			for (int k = 0; k < mxCount; k++) {
+				mx.add(mailServers.get(powerLaw(rnd, mailServers.size())));
+			}
+			result.add(new DnsAnswer(mx, Collections.emptyMap()));
+		}
+		return result;
+	}
+
+	private Index build() {
+		for (int n = 0, cnt = Math.max(5, _size / 200); n < cnt; n++) {
+			_services.add("https://service" + n + ".example/");
+		}
+
+		for (int n = 0; n < SHARED_MX; n++) {
+			String name = "mx" + n + ".hoster" + (n % 50) + ".example";
+			MxData mx = MxInfo.create();
+			int cluster = n % 50;
+			for (int k = 0, cnt = 1 + _rnd.nextInt(3); k < cnt; k++) {
+				mx.addAddresse("10." + cluster + "." + (n / 50) + "." + k);
+			}
+			_db.putMailServer(name, mx);
+			_sharedMx.add(name);
+		}
+
+		for (int n = 0; n < _size; n++) {
+			String name = "domain" + n + ".example";
+			DomainData domain = DomainInfo.create().setKind(kind()).setHeuristics(Heuristics.MANUAL);
+
+			if (_rnd.nextInt(3) == 0) {
+				domain.setService(_services.get(powerLaw(_rnd, _services.size())));
+			}
+
+			if (_rnd.nextBoolean()) {
+				for (int k = 0, cnt = 1 + _rnd.nextInt(2); k < cnt; k++) {
+					String mx = _sharedMx.get(powerLaw(_rnd, _sharedMx.size()));
+					if (!domain.getMailServers().contains(mx)) {
+						domain.addMailServer(mx);
+					}
+				}
+			} else if (domain.getKind() != Classification.DEAD) {
+				String mx = "mail." + name;
+				MxData mxInfo = MxInfo.create();
+				int address = _rnd.nextInt(Math.max(1, _size / 2));
+				mxInfo.addAddresse("172." + (16 + (address >>> 16)) + "." + ((address >>> 8) & 0xFF) + "." + (address & 0xFF));
+				_db.putMailServer(mx, mxInfo);
+				domain.addMailServer(mx);
+			}
+
+			_db.putDomain(name, domain);
+		}
+
+		for (DomainData domain : _db.getDomains().values()) {
+			for (String mx : domain.getMailServers()) {
+				MxData mxInfo = _db.getMailServers().get(mx);
+				mxInfo.setKind(MxResolver.combine(mxInfo.getKind(), domain.getKind()));
+			}
+		}
+		return _db;
+	}
+
+	private Classification kind() {
+		int p = _rnd.nextInt(100);
+		if (p < 20) {
+			return Classification.DISPOSABLE;
+		}
+		if (p < 25) {
+			return Classification.ALIAS;
+		}
+		if (p < 30) {
+			return Classification.DEAD;
+		}
+		return Classification.REGULAR;
+	}
+
+	/**
+	 * A random index below the given size, where small indexes are much more likely.
+	 */
+	private static int powerLaw(Random rnd, int size) {
+		double x = rnd.nextDouble();
+		return (int) (size * x * x * x);
+	}
+
+}
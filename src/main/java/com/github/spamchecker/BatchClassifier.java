@@ -0,0 +1,266 @@
+package com.github.spamchecker;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.function.Function;
+
+import com.github.spamchecker.dns.DnsAnswer;
+import com.github.spamchecker.dns.MailHostResolver;
+import com.github.spamchecker.dns.ResolverPipeline;
+import com.github.spamchecker.model.Classification;
+import com.github.spamchecker.model.DomainData;
+import com.github.spamchecker.model.Heuristics;
+import com.github.spamchecker.model.LookupResult;
+import com.github.spamchecker.model.MxData;
+
+/**
+ * Classifies a stream of domains against a read-only database and delivers each result as soon
+ * as it is available.
+ *
+ * <p>
+ * Known domains are answered immediately, all other domains are resolved concurrently and
+ * classified from their mail servers with the same heuristics as new domains entered into the
+ * database. Classified domains are not entered into the database. The evaluation of a mail
+ * server and its addresses is kept in a cache of limited size and shared by all domains using
+ * this mail server, its addresses are only resolved once. Memory use is bounded by the
+ * concurrency and the cache size, not by the number of domains classified.
+ * </p>
+ */
+public class BatchClassifier {
+
+	/**
+	 * Callback receiving classification results.
+	 */
+	public interface ResultHandler {
+		/**
+		 * Processes the result for a single domain.
+		 */
+		void handle(LookupResult result) throws IOException;
+	}
+
+	private final Function<String, DomainData> _knownDomains;
+
+	private final Function<String, MxData> _mailServers;
+
+	private final XRef _xref;
+
+	private final ResultHandler _handler;
+
+	private final ResolverPipeline _pipeline;
+
+	private final Map<String, MxEvaluation> _evaluations;
+
+	/**
+	 * Number of additional requests for domains being resolved.
+	 */
+	private final Map<String, Integer> _duplicates = new HashMap<>();
+
+	private long _classified;
+
+	private long _evaluationHits;
+
+	private long _evaluationMisses;
+
+	/**
+	 * Creates a {@link BatchClassifier}.
+	 *
+	 * @param knownDomains Lookup of domains that are classified without DNS information.
+	 * @param mailServers Lookup of known mail servers in the database.
+	 * @param xref Cross references of the database.
+	 * @param resolver The source of DNS information for new domains.
+	 * @param concurrency The maximum number of domains resolved at the same time.
+	 * @param cacheSize The maximum number of mail server evaluations to keep.
+	 * @param handler The callback receiving the results.
+	 */
+	public BatchClassifier(Function<String, DomainData> knownDomains, Function<String, MxData> mailServers, XRef xref,
+			MailHostResolver resolver, int concurrency, int cacheSize, ResultHandler handler) {
+		_knownDomains = knownDomains;
+		_mailServers = mailServers;
+		_xref = xref;
+		_handler = handler;
+		_pipeline = new ResolverPipeline(resolver, this::isEvaluated, Math.max(1, concurrency));
+
+		// Note: An evaluation must survive until the domains resolved concurrently with its
+		// creation are classified.
+		int maxEvaluations = Math.max(cacheSize, 16 * concurrency);
+		_evaluations = new LinkedHashMap<String, MxEvaluation>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Entry<String, MxEvaluation> eldest) {
+				return size() > maxEvaluations;
+			}
+		};
+	}
+
+	/**
+	 * Classifies the given normalized domain.
+	 *
+	 * <p>
+	 * The results of the given and of earlier domains are delivered to the handler, when they
+	 * become available. Blocks while the maximum number of domains is being resolved.
+	 * </p>
+	 */
+	public void submit(String domain) throws IOException {
+		DomainData known = _knownDomains.apply(domain);
+		if (known != null) {
+			deliver(domain, known.getKind(), known.getHeuristics(), known.getService());
+			return;
+		}
+
+		if (!_pipeline.submit(domain, answer -> classify(domain, answer))) {
+			_duplicates.merge(domain, 1, Integer::sum);
+		}
+	}
+
+	/**
+	 * Waits for all domains being resolved and delivers their results.
+	 */
+	public void finish() throws IOException {
+		_pipeline.finish();
+	}
+
+	/**
+	 * The number of results delivered so far.
+	 */
+	public long getClassified() {
+		return _classified;
+	}
+
+	/**
+	 * The number of domains resolved so far.
+	 */
+	public int getResolved() {
+		return _pipeline.getResolved();
+	}
+
+	/**
+	 * The number of mail servers found in the evaluation cache.
+	 */
+	public long getEvaluationHits() {
+		return _evaluationHits;
+	}
+
+	/**
+	 * The number of mail servers evaluated.
+	 */
+	public long getEvaluationMisses() {
+		return _evaluationMisses;
+	}
+
+	private boolean isEvaluated(String mx) {
+		return _evaluations.get(mx) != null || _mailServers.apply(mx) != null;
+	}
+
+	private void classify(String domain, DnsAnswer answer) throws IOException {
+		List<String> mailServers = answer.getMailServers();
+
+		Classification mxGuess = Classification.UNKNOWN;
+		Classification addressGuess = Classification.UNKNOWN;
+		Classification fingerprintGuess = Classification.UNKNOWN;
+		Set<String> mxServices = new HashSet<>();
+		Set<String> addressServices = new HashSet<>();
+		Set<String> fingerprintServices = new HashSet<>();
+		boolean alive = false;
+		for (String mx : mailServers == null ? Collections.singletonList(domain) : mailServers) {
+			MxEvaluation evaluation = evaluate(mx, answer);
+			if (!evaluation._alive) {
+				continue;
+			}
+			alive = true;
+
+			mxGuess = MxResolver.anyDisposable(mxGuess, evaluation._kind);
+			addressGuess = MxResolver.anyDisposable(addressGuess, evaluation._addressKind);
+			fingerprintGuess = MxResolver.anyDisposable(fingerprintGuess, evaluation._fingerprintKind);
+			mxServices.addAll(evaluation._mxServices);
+			addressServices.addAll(evaluation._addressServices);
+			fingerprintServices.addAll(evaluation._fingerprintServices);
+		}
+
+		int copies = 1 + _duplicates.getOrDefault(domain, 0);
+		_duplicates.remove(domain);
+		for (int n = 0; n < copies; n++) {
+			if (!alive) {
+				deliver(domain, Classification.DEAD, mailServers == null ? Heuristics.NO_FALLBACK_MX : Heuristics.NO_RESOLVABLE_MX, null);
+			} else if (mxGuess != Classification.UNKNOWN) {
+				deliver(domain, mxGuess, Heuristics.MX, service(mxServices));
+			} else if (addressGuess != Classification.UNKNOWN) {
+				deliver(domain, addressGuess, Heuristics.IP, service(addressServices));
+			} else if (fingerprintGuess != Classification.UNKNOWN) {
+				deliver(domain, fingerprintGuess, Heuristics.FINGERPRINT, service(fingerprintServices));
+			} else {
+				deliver(domain, Classification.UNKNOWN, Heuristics.NONE, null);
+			}
+		}
+	}
+
+	/**
+	 * The evaluation of the given mail server, computed on first use from the database or the
+	 * given DNS answer.
+	 */
+	private MxEvaluation evaluate(String mx, DnsAnswer answer) {
+		MxEvaluation result = _evaluations.get(mx);
+		if (result == null) {
+			_evaluationMisses++;
+			MxData known = _mailServers.apply(mx);
+			if (known != null) {
+				result = new MxEvaluation(mx, true, known.getKind(), known.getAddresses(), known.getFingerprint());
+			} else {
+				List<String> addresses = answer.getAddresses(mx);
+				result = new MxEvaluation(mx, !addresses.isEmpty(), Classification.UNKNOWN, addresses, null);
+			}
+			_evaluations.put(mx, result);
+		} else {
+			_evaluationHits++;
+		}
+		return result;
+	}
+
+	private static String service(Set<String> services) {
+		return services.size() == 1 ? services.iterator().next() : null;
+	}
+
+	private void deliver(String domain, Classification kind, Heuristics heuristics, String service) throws IOException {
+		_classified++;
+		_handler.handle(LookupResult.create().setDomain(domain).setKind(kind).setHeuristics(heuristics).setService(service));
+	}
+
+	/**
+	 * The contribution of a single mail server to the classification of the domains using it.
+	 */
+	private final class MxEvaluation {
+		final boolean _alive;
+		final Classification _kind;
+		final Classification _addressKind;
+		final Set<String> _mxServices;
+		final Set<String> _addressServices;
+		final Classification _fingerprintKind;
+		final Set<String> _fingerprintServices;
+
+		MxEvaluation(String mx, boolean alive, Classification kind, List<String> addresses, String fingerprint) {
+			_alive = alive;
+			_kind = kind;
+			_mxServices = _xref.getServicesByMx(mx);
+
+			Classification addressKind = Classification.UNKNOWN;
+			Set<String> addressServices = new HashSet<>();
+			for (String address : addresses) {
+				addressKind = MxResolver.anyDisposable(addressKind, _xref.getAddressClassification(address));
+				addressServices.addAll(_xref.getServicesByAddress(address));
+			}
+			_addressKind = addressKind;
+			_addressServices = addressServices.isEmpty() ? Collections.emptySet() : addressServices;
+
+			_fingerprintKind = fingerprint == null ? Classification.UNKNOWN : MxResolver.fingerprintGuess(_xref.getFingerprintClassification(fingerprint));
+			_fingerprintServices = _fingerprintKind == Classification.UNKNOWN ? Collections.emptySet() : _xref.getServicesByFingerprint(fingerprint);
+		}
+	}
+
+}
@@ -0,0 +1,200 @@
+package com.github.spamchecker;
+
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import com.github.spamchecker.model.Classification;
+import com.github.spamchecker.model.DomainData;
+import com.github.spamchecker.model.Index;
+import com.github.spamchecker.model.MxData;
+import com.github.spamchecker.model.MxInfo;
+
+/**
+ * Domains and mail servers entered concurrently by several import threads on top of an
+ * {@link Index}.
+ *
+ * <p>
+ * The {@link Index} and its entries are only read while the import threads run. New entries are
+ * kept in concurrent maps (lock-free reads, locking of single hash bins for updates) and are
+ * transferred to the {@link Index} in {@link #commit(XRefIndex)} afterwards. A new mail
+ * server is resolved exactly once, threads asking for a mail server that is being resolved wait
+ * for the result.
+ * </p>
+ *
+ * <p>
+ * The classification of new domains is propagated to their mail servers immediately. Since
+ * combining classifications does not depend on the order (see
+ * {@link MxResolver#combine(Classification, Classification)}), concurrent updates of the same
+ * mail server give the same result as sequential ones.
+ * </p>
+ */
+public class ConcurrentIndex {
+
+	private final Index _base;
+
+	private final ConcurrentHashMap<String, DomainData> _domains = new ConcurrentHashMap<>();
+
+	private final ConcurrentHashMap<String, CompletableFuture<MxData>> _mailServers = new ConcurrentHashMap<>();
+
+	/**
+	 * The classification of all mail servers that are used by new domains.
+	 */
+	private final ConcurrentHashMap<String, Classification> _mxKinds = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates a {@link ConcurrentIndex}.
+	 *
+	 * @param base The {@link Index} to add to. It must not be modified until
+	 *        {@link #commit(XRefIndex)}.
+	 */
+	public ConcurrentIndex(Index base) {
+		_base = base;
+	}
+
+	/**
+	 * Whether the given domain is either part of the base {@link Index} or was entered.
+	 */
+	public boolean hasDomain(String name) {
+		return _base.getDomains().containsKey(name) || _domains.containsKey(name);
+	}
+
+	/**
+	 * Whether the given mail server is part of the base {@link Index}.
+	 */
+	public boolean isKnownMx(String name) {
+		return _base.getMailServers().containsKey(name);
+	}
+
+	/**
+	 * The mail server with the given name, resolving it, if it is neither part of the base
+	 * {@link Index} nor already entered.
+	 *
+	 * @param lookup Function resolving the addresses of a mail server, called at most once per
+	 *        mail server.
+	 */
+	public MxData enterMailServer(String name, Function<String, List<String>> lookup) {
+		MxData known = _base.getMailServers().get(name);
+		if (known != null) {
+			return known;
+		}
+
+		CompletableFuture<MxData> entry = _mailServers.get(name);
+		if (entry == null) {
+			CompletableFuture<MxData> created = new CompletableFuture<>();
+			entry = _mailServers.putIfAbsent(name, created);
+			if (entry == null) {
+				try {
+					created.complete(MxInfo.create()
+						.setAddresses(lookup.apply(name))
+						.setResolved(System.currentTimeMillis()));
+				} catch (RuntimeException ex) {
+					_mailServers.remove(name, created);
+					created.completeExceptionally(ex);
+					throw ex;
+				}
+				entry = created;
+			}
+		}
+		return entry.join();
+	}
+
+	/**
+	 * Adds the given domain.
+	 *
+	 * <p>
+	 * All mail servers of the domain must have been entered with
+	 * {@link #enterMailServer(String, Function)} before.
+	 * </p>
+	 *
+	 * @return Whether the domain was added, <code>false</code> if a domain with the same name
+	 *         exists.
+	 */
+	public boolean putDomain(String name, DomainData domain) {
+		if (_base.getDomains().containsKey(name) || _domains.putIfAbsent(name, domain) != null) {
+			return false;
+		}
+
+		for (String mx : domain.getMailServers()) {
+			_mxKinds.compute(mx, (x, kind) -> MxResolver.combine(kind == null ? baseKind(mx) : kind, domain.getKind()));
+		}
+		return true;
+	}
+
+	private Classification baseKind(String mx) {
+		MxData known = _base.getMailServers().get(mx);
+		return known == null ? Classification.UNKNOWN : known.getKind();
+	}
+
+	/**
+	 * The current classification of the given mail server including all domains added so far.
+	 */
+	public Classification getMxKind(String name) {
+		Classification result = _mxKinds.get(name);
+		return result == null ? baseKind(name) : result;
+	}
+
+	/**
+	 * A copy of the given mail server with its current classification.
+	 */
+	public MxData snapshotMx(String name) {
+		MxData mx = _base.getMailServers().get(name);
+		if (mx == null) {
+			mx = _mailServers.get(name).join();
+		}
+		return MxInfo.create()
+			.setAddresses(mx.getAddresses())
+			.setKind(getMxKind(name))
+			.setResolved(mx.getResolved())
+			.setFingerprint(mx.getFingerprint())
+			.setProbed(mx.getProbed());
+	}
+
+	/**
+	 * The number of domains entered.
+	 */
+	public int getDomainCount() {
+		return _domains.size();
+	}
+
+	/**
+	 * The number of mail servers resolved.
+	 */
+	public int getMxCount() {
+		return _mailServers.size();
+	}
+
+	/**
+	 * Transfers all entered mail servers and domains to the base {@link Index}.
+	 *
+	 * <p>
+	 * Must only be called after all import threads have finished. The classification of the
+	 * mail servers is not updated, the domains are reported to the given {@link XRefIndex} for
+	 * {@link XRefIndex#updateClassifications()}.
+	 * </p>
+	 *
+	 * @param index The cross references of the base {@link Index}, <code>null</code> if there
+	 *        are none.
+	 */
+	public void commit(XRefIndex index) {
+		for (Entry<String, CompletableFuture<MxData>> entry : _mailServers.entrySet()) {
+			MxData mx = entry.getValue().join();
+			_base.getMailServers().put(entry.getKey(), mx);
+			if (index != null && !mx.getAddresses().isEmpty()) {
+				index.addMx(entry.getKey(), mx);
+			}
+		}
+		for (Entry<String, DomainData> entry : _domains.entrySet()) {
+			_base.putDomain(entry.getKey(), entry.getValue());
+			if (index != null) {
+				index.addDomain(entry.getKey(), entry.getValue());
+			}
+		}
+		_mailServers.clear();
+		_domains.clear();
+		_mxKinds.clear();
+	}
+
+}
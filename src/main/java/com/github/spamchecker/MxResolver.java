@@ -1,48 +1,95 @@
 package com.github.spamchecker;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.net.InetAddress;
-import java.net.UnknownHostException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.stream.Collectors;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
-import org.xbill.DNS.Address;
+import javax.management.JMException;
+
+import org.xbill.DNS.ExtendedResolver;
 import org.xbill.DNS.Lookup;
-import org.xbill.DNS.MXRecord;
-import org.xbill.DNS.Record;
+import org.xbill.DNS.Resolver;
+import org.xbill.DNS.ResolverConfig;
+import org.xbill.DNS.SimpleResolver;
 import org.xbill.DNS.TextParseException;
-import org.xbill.DNS.Type;
 
+import com.github.spamchecker.compact.CompactIndex;
+import com.github.spamchecker.compact.DomainTrie;
+import com.github.spamchecker.compact.PublicSuffixList;
+import com.github.spamchecker.compact.CompactXRef;
+import com.github.spamchecker.db.SqlStore;
+import com.github.spamchecker.dns.AsyncResolver;
+import com.github.spamchecker.dns.CachingResolver;
+import com.github.spamchecker.dns.DnsCache;
+import com.github.spamchecker.dns.DnsAnswer;
+import com.github.spamchecker.dns.HedgingResolver;
+import com.github.spamchecker.dns.LookupResolver;
+import com.github.spamchecker.dns.MailHostResolver;
+import com.github.spamchecker.dns.MeasuringResolver;
+import com.github.spamchecker.dns.RecordingResolver;
+import com.github.spamchecker.dns.ReplayResolver;
+import com.github.spamchecker.dns.ResolverPipeline;
+import com.github.spamchecker.graph.ClusterClassifier;
+
+import com.github.spamchecker.metrics.Metrics;
+import com.github.spamchecker.metrics.Metrics.Stage;
 import com.github.spamchecker.model.Classification;
 import com.github.spamchecker.model.Index;
-import com.github.spamchecker.model.Domain;
+import com.github.spamchecker.model.LookupResult;
+import com.github.spamchecker.pattern.AddressMatcher;
+import com.github.spamchecker.pattern.PatternCompiler;
 import com.github.spamchecker.model.DomainData;
 import com.github.spamchecker.model.DomainInfo;
 import com.github.spamchecker.model.Heuristics;
-import com.github.spamchecker.model.Host;
-import com.github.spamchecker.model.MailServer;
 import com.github.spamchecker.model.MxData;
 import com.github.spamchecker.model.MxInfo;
-import com.github.spamchecker.model.Service;
 import com.github.spamchecker.model.Storage;
+import com.github.spamchecker.server.ClassificationTable;
+import com.github.spamchecker.server.LookupServer;
+import com.github.spamchecker.smtp.SmtpProber;
+import com.github.spamchecker.store.BlocklistExport;
+import com.github.spamchecker.store.ExternalSorter;
+import com.github.spamchecker.store.ExternalSorter.Cursor;
+import com.github.spamchecker.store.Journal;
+import com.github.spamchecker.store.LookupFile;
+import com.github.spamchecker.store.Snapshot;
+import com.github.spamchecker.store.StorageWriter;
 
 import de.haumacher.msgbuf.data.DataObject;
 import de.haumacher.msgbuf.json.JsonReader;
@@ -56,12 +103,216 @@ public class MxResolver {
 		new MxResolver().run(args);
 	}
 	
+	/**
+	 * The journal is folded into the database file, when it grows larger than this fraction of
+	 * the database file.
+	 */
+	private static final int COMPACTION_RATIO = 4;
+
+	/**
+	 * The maximum number of mail server evaluations kept when streaming classification results.
+	 */
+	private static final int MX_CACHE_SIZE = 100_000;
+
+	/**
+	 * The maximum number of lines kept in memory when sorting domain lists.
+	 */
+	private static final int SORT_RUN_SIZE = 200_000;
+
 	private String _dbFile = "./fakedomain.json";
 
+	/**
+	 * Sample addresses of fake-mail services, see {@link PatternCompiler}.
+	 */
+	private String _patternFile = "./pattern.conf";
+
+	/**
+	 * Domains that are never written to the blocklist, see {@link #exportBlocklist(String)}.
+	 */
+	private String _allowlistFile = "./allowlist.conf";
+
+	/**
+	 * Files with additional domains for the blocklist, see {@link #exportBlocklist(String)}.
+	 */
+	private List<String> _blocklistSources = Collections.emptyList();
+
+	/**
+	 * Whether the disposable domains of the database are added to the blocklist, see
+	 * {@link #exportBlocklist(String)}.
+	 */
+	private boolean _blocklistDb;
+
+	/**
+	 * Matcher compiled from {@link #_patternFile}, created on first use.
+	 */
+	private AddressMatcher _addressMatcher;
+
+	/**
+	 * The public suffix list for reducing domains to their registrable domain, see
+	 * {@link #registrableDomain(String)}.
+	 */
+	private String _pslFile = "./public_suffix_list.dat";
+
+	/**
+	 * Rules compiled from {@link #_pslFile}, created on first use, <code>null</code> if the file
+	 * does not exist.
+	 */
+	private PublicSuffixList _publicSuffixes;
+
+	private boolean _publicSuffixesLoaded;
+
 	private Index _db;
 
+	/**
+	 * Cross references of {@link #_db}, created on first use, see {@link #index()}.
+	 */
+	private XRefIndex _index;
+
+	/**
+	 * Classified domains of {@link #_db} for finding the classification of subdomains, created
+	 * on first use.
+	 */
+	private DomainTrie<DomainData> _domainTrie;
+
+	/**
+	 * The relational store of the database, <code>null</code> if the database is kept in
+	 * {@link #_dbFile}.
+	 * 
+	 * <p>
+	 * With a relational store, {@link #_db} only holds the changes not yet stored and the mail
+	 * servers these refer to.
+	 * </p>
+	 */
+	private SqlStore _sql;
+
+	/**
+	 * The journal recording the domains entered by the current import, <code>null</code> if no
+	 * import is running, see {@link #load(String, Classification)}.
+	 */
+	private Journal _journal;
+
+	/**
+	 * Mail servers entered since the last journal record, including unresolvable ones not
+	 * referenced by any domain.
+	 */
+	private final Set<String> _newMx = new LinkedHashSet<>();
+
+	/**
+	 * The compaction of the journal running in the background, <code>null</code> if there is
+	 * none, see {@link #startCompaction()}.
+	 */
+	private FutureTask<Void> _compaction;
+
 	private String _outFile = "-";
 
+	/**
+	 * The number of concurrent DNS queries, <code>0</code> for sequential resolution.
+	 */
+	private int _concurrency = 0;
+
+	private Duration _dnsTimeout = Duration.ofSeconds(5);
+
+	/**
+	 * The name servers to use in the form <code>host[:port],...</code>, <code>null</code> for
+	 * the system default.
+	 */
+	private String _dnsServer;
+
+	/**
+	 * The quantile of the recent latencies of a name server after which a query is also sent to
+	 * another name server, <code>0</code> for no hedged queries, see {@link HedgingResolver}.
+	 */
+	private double _dnsHedgeQuantile = 0.95;
+
+	/**
+	 * The resolver distributing queries over several name servers, <code>null</code> if only a
+	 * single name server is used.
+	 */
+	private HedgingResolver _hedgingResolver;
+
+	/**
+	 * The file to persist DNS answers in, <code>null</code> for no caching.
+	 */
+	private String _dnsCacheFile;
+
+	private int _dnsCacheSize = 1_000_000;
+
+	private DnsCache _dnsCache;
+
+	/**
+	 * The resolver for all DNS queries, created on first use, see {@link #resolver()}.
+	 */
+	private Resolver _resolver;
+
+	/**
+	 * The file to record all DNS answers to, <code>null</code> for no recording.
+	 */
+	private String _dnsRecordFile;
+
+	/**
+	 * The file with recorded DNS answers to use instead of DNS, <code>null</code> for using DNS.
+	 */
+	private String _dnsReplayFile;
+
+	/**
+	 * The source of DNS information for classifying domains, created on first use, see
+	 * {@link #mailHostResolver()}.
+	 */
+	private MailHostResolver _mailHostResolver;
+
+	private RecordingResolver _recorder;
+
+	private ReplayResolver _replay;
+
+	/**
+	 * Whether to use the dictionary-encoded {@link CompactIndex} for classification and export.
+	 */
+	private boolean _compact;
+
+	/**
+	 * The threads for building cross references and writing the database, <code>null</code> for
+	 * sequential processing.
+	 */
+	private ForkJoinPool _pool;
+
+	/**
+	 * The number of threads entering domains concurrently during <code>load-*</code> imports into
+	 * the database file, <code>0</code> for a single thread, see {@link ConcurrentIndex}.
+	 */
+	private int _workers = 0;
+
+	/**
+	 * Instrumentation of DNS resolution and processing stages, see <code>-metrics</code>.
+	 */
+	private Metrics _metrics = Metrics.DISABLED;
+
+	/**
+	 * The time since the last resolution, before a domain or mail server is resolved again by
+	 * <code>refresh</code>.
+	 */
+	private Duration _refreshAge = Duration.ofDays(7);
+
+	/**
+	 * The port of mail servers probed for their SMTP fingerprint, see {@link SmtpProber}.
+	 */
+	private int _smtpPort = SmtpProber.SMTP_PORT;
+
+	/**
+	 * The maximum time for connecting to a mail server and for each of its replies.
+	 */
+	private Duration _smtpTimeout = Duration.ofSeconds(10);
+
+	/**
+	 * The maximum number of mail servers probed at the same time.
+	 */
+	private int _smtpConcurrency = 1000;
+
+	/**
+	 * Whether <code>query</code> probes new mail servers of the domain for their SMTP
+	 * fingerprint before classifying it.
+	 */
+	private boolean _smtpProbe;
+
 	public MxResolver() throws IOException {
 		loadDb();
 	}
@@ -79,15 +330,106 @@ public class MxResolver {
 			case "-out":
 				_outFile = args[++n];
 				break;
+			case "-concurrency":
+				_concurrency = Integer.parseInt(args[++n]);
+				resetResolver();
+				break;
+			case "-dns-timeout":
+				_dnsTimeout = Duration.ofMillis(Long.parseLong(args[++n]));
+				resetResolver();
+				break;
+			case "-dns-server":
+				_dnsServer = args[++n];
+				resetResolver();
+				break;
+			case "-dns-hedge":
+				_dnsHedgeQuantile = Double.parseDouble(args[++n]) / 100;
+				resetResolver();
+				break;
+			case "-dns-cache":
+				_dnsCacheFile = args[++n];
+				resetResolver();
+				break;
+			case "-dns-cache-size":
+				_dnsCacheSize = Integer.parseInt(args[++n]);
+				resetResolver();
+				break;
+			case "-dns-record":
+				_dnsRecordFile = args[++n];
+				resetResolver();
+				break;
+			case "-dns-replay":
+				_dnsReplayFile = args[++n];
+				resetResolver();
+				break;
+			case "-compact":
+				_compact = true;
+				break;
+			case "-metrics":
+				enableMetrics();
+				break;
+			case "-progress":
+				enableMetrics();
+				_metrics.startProgress(Integer.parseInt(args[++n]), System.err);
+				break;
+			case "-workers":
+				_workers = Integer.parseInt(args[++n]);
+				break;
+			case "-threads":
+				int threads = Integer.parseInt(args[++n]);
+				_pool = threads > 1 ? new ForkJoinPool(threads) : null;
+				break;
+			case "-patterns":
+				_patternFile = args[++n];
+				_addressMatcher = null;
+				break;
+			case "-psl":
+				_pslFile = args[++n];
+				_publicSuffixes = null;
+				_publicSuffixesLoaded = false;
+				break;
+			case "-allowlist":
+				_allowlistFile = args[++n];
+				break;
+			case "-blocklist-sources":
+				_blocklistSources = sources(args[++n]);
+				break;
+			case "-blocklist-db":
+				_blocklistDb = true;
+				break;
+			case "-refresh-age":
+				_refreshAge = Duration.ofDays(Long.parseLong(args[++n]));
+				break;
+			case "-smtp-port":
+				_smtpPort = Integer.parseInt(args[++n]);
+				break;
+			case "-smtp-timeout":
+				_smtpTimeout = Duration.ofMillis(Long.parseLong(args[++n]));
+				break;
+			case "-smtp-concurrency":
+				_smtpConcurrency = Integer.parseInt(args[++n]);
+				break;
+			case "-smtp-probe":
+				_smtpProbe = true;
+				break;
 				
 			case "query": 
 				String domain = args[++n];
-				DomainData result = query(domain);
-				System.out.println(domain + ": " + result);
+				String registrable = queryName(domain.trim().toLowerCase(), this::isKnown);
+				if (registrable != null) {
+					DomainData result = classified(query(registrable));
+					System.out.println(domain + ": " + result);
+				}
 				break;
 			case "classify": 
 				classify(args[++n]);
 				break;
+			case "classify-stream": 
+				classifyStream(args[++n]);
+				break;
+			case "classify-addresses": 
+				classifyAddresses(args[++n]);
+				break;
 			case "load": 
 				load(args[++n]);
 				break;
@@ -103,6 +445,12 @@ public class MxResolver {
 			case "load-dead": 
 				load(args[++n], Classification.DEAD);
 				break;
+			case "refresh": 
+				refresh(Integer.parseInt(args[++n]));
+				break;
+			case "fingerprint": 
+				fingerprint();
+				break;
 			case "reset": 
 				resetDb();
 				break;
@@ -115,238 +463,1088 @@ public class MxResolver {
 			case "store-db":
 				storeDb();
 				break;
+			case "use-sql":
+				useSql(new File(args[++n]));
+				break;
+			case "store-sql":
+				storeSql(new File(args[++n]));
+				break;
+			case "check-db":
+				checkDb();
+				break;
+			case "classify-graph":
+				classifyGraph();
+				break;
+			case "load-snapshot":
+				setDb(Snapshot.read(new File(args[++n])));
+				break;
+			case "store-snapshot":
+				Snapshot.write(fullDb(), new File(args[++n]));
+				break;
 			case "load-raw-from":
 				_dbFile = args[++n];
-				_db = loadDbRaw(new File(_dbFile));
+				setDb(loadDbRaw(new File(_dbFile)));
 				break;
 			case "dump-disposables":
 				dumpDisposables();
 				break;
+			case "export-blocklist":
+				exportBlocklist(args[++n]);
+				break;
+			case "export-lookup":
+				LookupFile.write(fullDb(), new File(args[++n]));
+				break;
+			case "serve":
+				serve(Integer.parseInt(args[++n]));
+				break;
 			default:
 				System.err.println("Unknown command: " + cmd);
 				System.exit(-1);
 			}
 		}
+		
+		storeRecording();
+		storeDnsCache();
+		reportUpstreams();
+		awaitCompaction();
+		
+		if (_metrics.isEnabled()) {
+			_metrics.stopProgress();
+			System.err.println(_metrics.toJson());
+		}
+		
+		if (_sql != null) {
+			_sql.close();
+		}
 	}
 
-	private void dumpDisposables() {
-		List<String> result = new ArrayList<>();
-		for (Entry<String, DomainData> entry : _db.getDomains().entrySet()) {
-			if (entry.getValue().getKind() == Classification.DISPOSABLE) {
-				result.add(entry.getKey());
-			}
+	/**
+	 * Switches to the relational store in the given file, the database file is no longer used.
+	 */
+	private void useSql(File file) throws IOException {
+		if (_sql != null) {
+			_sql.close();
 		}
-		Collections.sort(result);
-		for (String domain : result) {
-			System.out.println(domain);
+		_sql = SqlStore.open(file);
+		setDb(Index.create());
+	}
+
+	/**
+	 * Copies the complete current database to the relational store in the given file.
+	 */
+	private void storeSql(File file) throws IOException {
+		try (SqlStore store = SqlStore.open(file)) {
+			store.store(fullDb());
 		}
 	}
 
-	private void load(String fileName) throws IOException {
-		XRefIndex index = buildIndex(_db);
+	/**
+	 * The complete database, including the entries from the relational store, if one is used.
+	 */
+	private Index fullDb() {
+		if (_sql == null) {
+			return _db;
+		}
+		
+		Index result = _sql.loadIndex();
+		result.getMailServers().putAll(_db.getMailServers());
+		result.getDomains().putAll(_db.getDomains());
+		return result;
+	}
 
-		List<DomainData> domains = new ArrayList<>();
-		try (BufferedReader r = new BufferedReader(new InputStreamReader("-".equals(fileName) ? System.in : new FileInputStream(new File(fileName)), StandardCharsets.UTF_8))) {
-			String line;
-			while ((line = r.readLine()) != null) {
-				if (line.startsWith("#")) {
-					continue;
-				}
-				
-				String domain = line.trim().toLowerCase();
-				if (domain.isEmpty()) {
-					continue;
-				}
+	private void dumpDisposables() throws IOException {
+		Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+		writeDisposables(out);
+		out.flush();
+	}
 
-				DomainData info = query(domain, index);
-				System.err.println(domain + ": " + info);
-				domains.add(info);
+	/**
+	 * Writes the sorted names of all disposable domains to the given writer, one per line.
+	 */
+	void writeDisposables(Writer out) throws IOException {
+		try (ExternalSorter disposables = new ExternalSorter(SORT_RUN_SIZE, null)) {
+			addDisposables(disposables);
+			for (Cursor cursor = disposables.sorted(); cursor.current() != null; cursor.advance()) {
+				out.write(cursor.current());
+				out.write('\n');
 			}
 		}
-		
-		updateClassifications(_db);
-	}
-	
-	private void classify(String fileName) throws IOException {
-		Index db = Index.create();
-		classify(db, fileName);
-		writeTo(outStream(), toStorage(db));
 	}
 
-	private void classify(Index db, String fileName) throws IOException, TextParseException, FileNotFoundException {
-		XRefIndex index = buildIndex(_db);
+	/**
+	 * Adds the names of all disposable domains of the database to the given sorter.
+	 */
+	private void addDisposables(ExternalSorter sorter) throws IOException {
+		for (Entry<String, DomainData> entry : fullDb().getDomains().entrySet()) {
+			if (entry.getValue().getKind() == Classification.DISPOSABLE) {
+				sorter.add(entry.getKey());
+			}
+		}
+	}
 
-		try (BufferedReader r = new BufferedReader(new InputStreamReader("-".equals(fileName) ? System.in : new FileInputStream(new File(fileName)), StandardCharsets.UTF_8))) {
-			String line;
-			while ((line = r.readLine()) != null) {
-				if (line.startsWith("#")) {
-					continue;
+	/**
+	 * Writes the blocklist to the given file and the changes against its previous contents to
+	 * the same file with suffix <code>.delta</code>, see {@link BlocklistExport}.
+	 * 
+	 * <p>
+	 * By default, the blocklist is its previous contents in lower case, sorted and without
+	 * duplicates and without the domains in {@link #_allowlistFile}. Optionally, the domains in
+	 * {@link #_blocklistSources} and the disposable domains of the database
+	 * ({@link #_blocklistDb}) are added. Of these, only registrable domains are taken, public
+	 * suffixes and subdomains are not accepted in the published list. All inputs are sorted with
+	 * bounded memory and merged in a single pass.
+	 * </p>
+	 */
+	void exportBlocklist(String fileName) throws IOException {
+		boolean merge = _blocklistDb || !_blocklistSources.isEmpty();
+		PublicSuffixList publicSuffixes = merge ? publicSuffixes() : null;
+		if (merge && publicSuffixes == null) {
+			System.err.println("Additional blocklist sources require the public suffix list " + _pslFile + ", nothing exported.");
+			return;
+		}
+		
+		File list = new File(fileName);
+		File delta = new File(fileName + ".delta");
+		File dir = list.getAbsoluteFile().getParentFile();
+		try (ExternalSorter blocked = new ExternalSorter(SORT_RUN_SIZE, null);
+			ExternalSorter allowed = new ExternalSorter(SORT_RUN_SIZE, null);
+			ExternalSorter previous = new ExternalSorter(SORT_RUN_SIZE, null)) {
+			addDomains(list, blocked);
+			addDomains(list, previous);
+			
+			long[] skipped = new long[1];
+			DomainHandler registrable = domain -> {
+				if (domain.equals(publicSuffixes.registrableDomain(domain))) {
+					blocked.add(domain);
+				} else {
+					skipped[0]++;
 				}
-				
-				String domain = line.trim().toLowerCase();
-				if (domain.isEmpty()) {
-					continue;
+			};
+			if (_blocklistDb) {
+				for (Entry<String, DomainData> entry : fullDb().getDomains().entrySet()) {
+					if (entry.getValue().getKind() == Classification.DISPOSABLE) {
+						registrable.handle(entry.getKey());
+					}
 				}
-
-				DomainData info = query(domain, index);
-				System.err.println(domain + ": " + info);
-				db.getDomains().put(domain, info);
 			}
-		}
-		
-		// Copy mail server section to result.
-		for (DomainData domain : db.getDomains().values()) {
-			for (String mx : domain.getMailServers()) {
-				db.getMailServers().put(mx, _db.getMailServers().get(mx));
+			for (String source : _blocklistSources) {
+				File file = new File(source);
+				if (file.exists()) {
+					forEachDomain(file.getPath(), registrable);
+				}
+			}
+			if (skipped[0] > 0) {
+				System.err.println("Skipped " + skipped[0] + " additional domains that are no registrable domains.");
+			}
+			addDomains(new File(_allowlistFile), allowed);
+			
+			BlocklistExport export = new BlocklistExport();
+			File listTmp = File.createTempFile(list.getName(), "", dir);
+			File deltaTmp = File.createTempFile(delta.getName(), "", dir);
+			try (Writer listOut = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(listTmp), StandardCharsets.UTF_8), 1 << 16);
+				Writer deltaOut = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(deltaTmp), StandardCharsets.UTF_8))) {
+				export.write(blocked.sorted(), allowed.sorted(), previous.sorted(), listOut, deltaOut);
 			}
+			list.delete();
+			listTmp.renameTo(list);
+			delta.delete();
+			deltaTmp.renameTo(delta);
+			
+			System.err.println("Exported " + export.getSize() + " domains to " + list + " (" + export.getAdded() + " added, " + 
+				export.getRemoved() + " removed, " + export.getAllowed() + " allowed).");
 		}
-		updateClassifications(db);
 	}
 
-	private OutputStream outStream() throws FileNotFoundException {
-		return "-".equals(_outFile) ? System.out : new FileOutputStream(new File(_outFile));
+	/**
+	 * Adds all domains listed in the given file to the given sorter, a missing file is ignored.
+	 */
+	private static void addDomains(File file, ExternalSorter sorter) throws IOException {
+		if (file.exists()) {
+			forEachDomain(file.getPath(), sorter::add);
+		}
 	}
 
-	private DomainData query(String domain) throws TextParseException {
-		XRefIndex index = buildIndex(_db);
-		return query(domain, index);
+	/**
+	 * Starts a {@link LookupServer} answering classification requests from the current
+	 * database.
+	 */
+	private void serve(int port) throws IOException {
+		System.setProperty(LookupServer.NODELAY, "true");
+		ClassificationTable table = new ClassificationTable(fullDb());
+		new LookupServer(table).start(port, Runtime.getRuntime().availableProcessors() * 2);
+		System.err.println("Serving " + table.size() + " domains on port " + port + ".");
 	}
 
-	private static XRefIndex buildIndex(Index db) {
-		Map<String, Classification> addressClassification = buildAddressClassification(db);
-		Map<String, Set<String>> serviceByMx = buildServicesByMx(db);
-		Map<String, Set<String>> serviceByAddress = buildServicesByAddress(db);
+	private void load(String fileName) throws IOException {
+		queryAll(fileName, xref(), (domain, info) -> System.err.println(domain + ": " + info));
 		
-		return new XRefIndex(addressClassification, serviceByMx, serviceByAddress);
+		updateClassifications();
 	}
-
-	private DomainData query(String domain, XRefIndex index) throws TextParseException {
-		DomainData existingDomain = getDomain(domain);
-		if (existingDomain != null) {
-			return existingDomain;
+	
+	private void classify(String fileName) throws IOException {
+		if (_compact) {
+			classifyCompact(fileName);
+			return;
 		}
 		
-		DomainData newDomain = enterDomain(domain, null, Classification.UNKNOWN);
-		
-		Classification mxGuess = Classification.UNKNOWN;
-		Classification addressGuess = Classification.UNKNOWN;
-		Set<String> mxServices = new HashSet<>();
-		Set<String> addressServices = new HashSet<>();
-		for (String mx : newDomain.getMailServers()) {
-			MxData mxInfo = _db.getMailServers().get(mx);
-			mxGuess = anyDisposable(mxGuess, mxInfo.getKind());
+		Index db = Index.create();
+		classify(db, fileName);
+		XRefIndex index = xrefIndex(db);
+		long start = _metrics.start();
+		StorageWriter.write(db, index, outStream(), _pool);
+		_metrics.stage(Stage.SERIALIZE, start);
+	}
 
-			for (String address : mxInfo.getAddresses()) {
-				addressGuess = anyDisposable(addressGuess, index.addressClassification.getOrDefault(address, Classification.UNKNOWN));
-				
-				addressServices.addAll(index.serviceByAddress.getOrDefault(address, Collections.emptySet()));
+	/**
+	 * Same as {@link #classify(String)} but based on a {@link CompactIndex} of the current
+	 * database.
+	 */
+	private void classifyCompact(String fileName) throws IOException {
+		CompactIndex db = CompactIndex.fromIndex(fullDb());
+		CompactXRef index = db.buildIndex();
+		
+		DomainTrie<Integer> classified = new DomainTrie<>(2 * db.domains().size());
+		for (int id = 0, cnt = db.domains().size(); id < cnt; id++) {
+			if (isClassified(db.getDomainKind(id))) {
+				classified.put(db.domains().name(id), id);
 			}
-			
-			mxServices.addAll(index.serviceByMx.getOrDefault(mx, Collections.emptySet()));
 		}
 		
-		if (mxGuess != Classification.UNKNOWN) {
-			newDomain.setKind(mxGuess);
-			newDomain.setHeuristics(Heuristics.MX);
-			setService(newDomain, mxServices);
-			return newDomain;
-		}
+		BitSet result = new BitSet();
+		ObjIntConsumer<String> handler = (domain, id) -> {
+			System.err.println(domain + ": " + db.getDomainKind(id) + " (" + db.getDomainHeuristics(id) + ")");
+			result.set(id);
+			if (isClassified(db.getDomainKind(id))) {
+				classified.put(domain, id);
+			}
+		};
 		
-		if (addressGuess != Classification.UNKNOWN) {
-			newDomain.setKind(addressGuess);
-			newDomain.setHeuristics(Heuristics.IP);
-			setService(newDomain, addressServices);
-			return newDomain;
-		}
+		ResolverPipeline pipeline = createPipeline(db::hasMailServer);
+		forEachRegistrableDomain(fileName, domain -> db.domains().find(domain) >= 0 || classified.ancestor(domain) != null, domain -> {
+			int existing = db.domains().find(domain);
+			Integer ancestor;
+			if (existing >= 0) {
+				handler.accept(domain, existing);
+			} else if ((ancestor = classified.ancestor(domain)) != null) {
+				handler.accept(domain, db.inherit(domain, ancestor));
+			} else if (pipeline == null) {
+				handler.accept(domain, db.query(domain, resolve(domain, db::hasMailServer), index));
+			} else {
+				pipeline.submit(domain, answer -> handler.accept(domain, db.query(domain, answer, index)));
+			}
+		});
+		finish(pipeline);
 		
-		if (newDomain.getKind() != Classification.DEAD) {
-			newDomain.setHeuristics(Heuristics.NONE);
+		writeTo(outStream(), db.subset(result.stream().toArray()).xref());
+	}
+
+	/**
+	 * Classifies all domains listed in the given file without entering them into the database
+	 * and writes one JSON {@link LookupResult} line per domain as soon as it is classified.
+	 */
+	private void classifyStream(String fileName) throws IOException {
+		XRef xref = xref();
+		try (Writer out = new BufferedWriter(new OutputStreamWriter(outStream(), StandardCharsets.UTF_8), 1 << 16)) {
+			JsonWriter json = new JsonWriter(new WriterAdapter(out));
+			json.setLenient(true);
+			
+			BatchClassifier classifier = new BatchClassifier(this::knownDomain, this::storedMailServer, xref, mailHostResolver(), 
+				_concurrency, MX_CACHE_SIZE, result -> {
+					_metrics.classified(result.getHeuristics());
+					result.writeTo(json);
+					out.write('\n');
+					out.flush();
+				});
+			_metrics.gauge("mxCache.hits", classifier::getEvaluationHits);
+			_metrics.gauge("mxCache.misses", classifier::getEvaluationMisses);
+			forEachRegistrableDomain(fileName, this::isKnown, classifier::submit);
+			classifier.finish();
+			
+			System.err.println("Classified " + classifier.getClassified() + " domains, " + classifier.getResolved() + " resolved.");
 		}
-		return newDomain;
 	}
 
-	private void setService(DomainData newDomain, Set<String> mxServices) {
-		if (mxServices.size() == 1) {
-			newDomain.setService(mxServices.iterator().next());
-		} else {
-			newDomain.setPotentialServices(sorted(mxServices));
+	/**
+	 * Matches all e-mail addresses listed in the given file against the address patterns of
+	 * fake-mail services and writes one result line per address.
+	 */
+	private void classifyAddresses(String fileName) throws IOException {
+		AddressMatcher matcher = addressMatcher();
+		
+		long start = System.nanoTime();
+		long[] counts = new long[2];
+		try (Writer out = new BufferedWriter(new OutputStreamWriter(outStream(), StandardCharsets.UTF_8), 1 << 16)) {
+			forEachDomain(fileName, address -> {
+				String service = matcher.match(address);
+				out.write(address);
+				if (service == null) {
+					out.write(": unknown\n");
+				} else {
+					out.write(": disposable (");
+					out.write(service);
+					out.write(")\n");
+					counts[1]++;
+				}
+				counts[0]++;
+			});
 		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.err.println(String.format("Classified %d addresses, %d disposable (%.0f addresses/s).", counts[0], counts[1], counts[0] / seconds));
 	}
 
-	private static ArrayList<String> sorted(Collection<String> services) {
-		ArrayList<String> result = new ArrayList<>(services);
-		Collections.sort(result);
-		return result;
+	/**
+	 * The {@link AddressMatcher} compiled from the pattern file.
+	 */
+	private AddressMatcher addressMatcher() throws IOException {
+		if (_addressMatcher == null) {
+			PatternCompiler compiler = new PatternCompiler();
+			compiler.read(new File(_patternFile));
+			_addressMatcher = compiler.compile();
+			System.err.println("Compiled " + compiler.getSampleCount() + " address patterns and shapes " + compiler.getShapes() + " into " + _addressMatcher.getStateCount() + " states.");
+		}
+		return _addressMatcher;
 	}
 
-	private static Map<String, Set<String>> buildServicesByMx(Index db) {
-		Map<String, Set<String>> result = new HashMap<>();
+	private void classify(Index db, String fileName) throws IOException, TextParseException, FileNotFoundException {
+		queryAll(fileName, xref(), (domain, info) -> {
+			classified(info);
+			System.err.println(domain + ": " + info);
+			db.getDomains().put(domain, info);
+		});
+		
+		// Copy mail server section to result. Note: The classification of the copies is updated
+		// from the result domains only, the mail servers in the database must not be touched.
 		for (DomainData domain : db.getDomains().values()) {
-			String service = domain.getService();
-			if (service == null) {
-				continue;
-			}
-			
 			for (String mx : domain.getMailServers()) {
-				result.computeIfAbsent(mx, x -> new HashSet<>()).add(service);
+				MxData mxInfo = mailServer(mx);
+				db.getMailServers().put(mx, MxInfo.create().setAddresses(mxInfo.getAddresses()).setKind(mxInfo.getKind()).setResolved(mxInfo.getResolved())
+					.setFingerprint(mxInfo.getFingerprint()).setProbed(mxInfo.getProbed()));
+			}
+		}
+		recomputeClassifications(db);
+	}
+
+	/**
+	 * The non-empty entries of the given comma-separated list.
+	 */
+	private static List<String> sources(String list) {
+		List<String> result = new ArrayList<>();
+		for (String entry : list.split(",")) {
+			if (!entry.isBlank()) {
+				result.add(entry.trim());
 			}
 		}
-		
 		return result;
 	}
 
-	private static Map<String, Set<String>> buildServicesByAddress(Index db) {
-		Map<String, Set<String>> result = new HashMap<>();
-		for (DomainData domain : db.getDomains().values()) {
-			String service = domain.getService();
-			if (service == null) {
-				continue;
+	/**
+	 * Callback for {@link MxResolver#queryAll(String, XRef, QueryHandler)}.
+	 */
+	private interface QueryHandler {
+		void handle(String domain, DomainData info);
+	}
+
+	/**
+	 * Callback for {@link MxResolver#forEachDomain(String, DomainHandler)}.
+	 */
+	private interface DomainHandler {
+		void handle(String domain) throws IOException;
+	}
+
+	/**
+	 * Queries all domains listed in the given file.
+	 */
+	private void queryAll(String fileName, XRef index, QueryHandler handler) throws IOException {
+		ResolverPipeline pipeline = createPipeline();
+		forEachRegistrableDomain(fileName, this::isKnown, domain -> {
+			if (pipeline == null || knownDomain(domain) != null) {
+				handler.handle(domain, query(domain, index));
+			} else {
+				pipeline.submit(domain, answer -> handler.handle(domain, query(domain, index, answer)));
 			}
-			
-			for (String mx : domain.getMailServers()) {
-				MxData mxInfo = db.getMailServers().get(mx);
+		});
+		finish(pipeline);
+	}
+
+	/**
+	 * Callback for {@link MxResolver#forEachServiceDomain(String, ServiceDomainHandler)}.
+	 */
+	private interface ServiceDomainHandler {
+		void handle(String domain, String service) throws IOException;
+	}
+
+	/**
+	 * Calls the given handler for each domain listed in the given file together with its service.
+	 * 
+	 * <p>
+	 * A comment line <code># service</code> sets the service of the following domains up to the
+	 * next empty line. The lists are curated, subdomains are listed deliberately and are entered
+	 * as they are, not reduced to their registrable domain.
+	 * </p>
+	 */
+	private void forEachServiceDomain(String fileName, ServiceDomainHandler handler) throws IOException {
+		try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(new File(fileName)), StandardCharsets.UTF_8))) {
+			String line;
+			String service = null;
+			while ((line = r.readLine()) != null) {
+				if (line.startsWith("#")) {
+					service = line.substring(1).trim();
+					if (service.isEmpty()) {
+						service = null;
+					}
+					continue;
+				}
 				
-				for (String address : mxInfo.getAddresses()) {
-					result.computeIfAbsent(address, x -> new HashSet<>()).add(service);
+				String domain = line.trim().toLowerCase();
+				if (domain.isEmpty()) {
+					service = null;
+					continue;
 				}
+				
+				handler.handle(domain, service);
 			}
 		}
-		return result;
 	}
-	
-	private void updateClassifications() {
-		updateClassifications(_db);
+
+	/**
+	 * Calls the given handler for each domain listed in the given file, <code>-</code> reads from
+	 * standard input, see {@link #queryName(String, Predicate)}.
+	 */
+	private void forEachRegistrableDomain(String fileName, Predicate<String> known, DomainHandler handler) throws IOException {
+		forEachDomain(fileName, domain -> {
+			String name = queryName(domain, known);
+			if (name != null) {
+				handler.handle(name);
+			}
+		});
 	}
 
-	private void updateClassifications(Index db) {
-		// Reset mx classification.
-		for (MxData mx : db.getMailServers().values()) {
-			mx.setKind(Classification.UNKNOWN);
+	/**
+	 * The name under which the given normalized domain name is classified.
+	 * 
+	 * <p>
+	 * A name that is known, either itself or through a classified ancestor (see
+	 * {@link #knownDomain(String)}), is used as it is. Only unknown names are reduced to their
+	 * registrable domain, see {@link #registrableDomain(String)}.
+	 * </p>
+	 *
+	 * @return The name to classify, <code>null</code>, if the domain name is an unknown public
+	 *         suffix.
+	 */
+	private String queryName(String domain, Predicate<String> known) throws IOException {
+		if (known.test(domain)) {
+			return domain;
+		}
+		return registrableDomain(domain);
+	}
+
+	/**
+	 * Whether the given domain is classified without DNS work, see {@link #knownDomain(String)}.
+	 */
+	private boolean isKnown(String domain) {
+		return knownDomain(domain) != null;
+	}
+
+	/**
+	 * The registrable domain of the given normalized domain name, e.g.
+	 * <code>mailinator.com</code> for <code>x7.mailinator.com</code>.
+	 * 
+	 * <p>
+	 * Subdomains of a domain share its mail servers in almost all cases, reducing them avoids
+	 * resolving and storing each of them separately. Without public suffix list, domain names
+	 * are used unchanged.
+	 * </p>
+	 *
+	 * @return The registrable domain, <code>null</code>, if the domain name is a public suffix
+	 *         and must not be classified.
+	 */
+	private String registrableDomain(String domain) throws IOException {
+		PublicSuffixList publicSuffixes = publicSuffixes();
+		if (publicSuffixes == null) {
+			return domain;
 		}
 		
-		// Build mx classification from domain classification.
-		for (DomainData domain : db.getDomains().values()) {
-			for (String mx : domain.getMailServers()) {
-				MxData mxInfo = db.getMailServers().get(mx);
-				mxInfo.setKind(combine(mxInfo.getKind(), domain.getKind()));
-			}
+		String result = publicSuffixes.registrableDomain(domain);
+		if (result == null) {
+			System.err.println("Ignoring public suffix: " + domain);
 		}
+		return result;
 	}
 
-	private static Map<String, Classification> buildAddressClassification(Index db) {
-		Map<String, Classification> addressClassification = new HashMap<>();
-
-		// Build address classification from mx classification.
-		for (MxData mx : db.getMailServers().values()) {
-			for (String address : mx.getAddresses()) {
-				addressClassification.put(address, combine(addressClassification.getOrDefault(address, Classification.UNKNOWN), mx.getKind()));
+	/**
+	 * The {@link PublicSuffixList} read from {@link #_pslFile}, <code>null</code>, if there is
+	 * none.
+	 */
+	private PublicSuffixList publicSuffixes() throws IOException {
+		if (!_publicSuffixesLoaded) {
+			_publicSuffixesLoaded = true;
+			File file = new File(_pslFile);
+			if (file.exists()) {
+				_publicSuffixes = PublicSuffixList.read(file);
+			} else {
+				System.err.println("No public suffix list in " + file + ", domains are not reduced to registrable domains.");
 			}
 		}
-		
-		return addressClassification;
+		return _publicSuffixes;
 	}
 
-	private static Classification combine(Classification x, Classification y) {
+	/**
+	 * Calls the given handler for each normalized domain listed in the given file,
+	 * <code>-</code> reads from standard input.
+	 */
+	private static void forEachDomain(String fileName, DomainHandler handler) throws IOException {
+		try (BufferedReader r = new BufferedReader(new InputStreamReader("-".equals(fileName) ? System.in : new FileInputStream(new File(fileName)), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = r.readLine()) != null) {
+				if (line.startsWith("#")) {
+					continue;
+				}
+				
+				String domain = line.trim().toLowerCase();
+				if (domain.isEmpty()) {
+					continue;
+				}
+
+				handler.handle(domain);
+			}
+		}
+	}
+
+	private ResolverPipeline createPipeline() throws IOException {
+		return createPipeline(this::hasMailServer);
+	}
+
+	/**
+	 * Creates a {@link ResolverPipeline} for concurrent resolution, or <code>null</code>, if DNS
+	 * queries should be sent sequentially.
+	 * 
+	 * @param knownMx Test whether a mail server is already known and need not be resolved.
+	 */
+	private ResolverPipeline createPipeline(Predicate<String> knownMx) throws IOException {
+		if (_concurrency <= 0) {
+			return null;
+		}
+
+		return new ResolverPipeline(mailHostResolver(), knownMx, _concurrency);
+	}
+
+	/**
+	 * The {@link MailHostResolver} for classifying domains.
+	 * 
+	 * <p>
+	 * Answers are taken from a recording, if one is replayed, otherwise from DNS (concurrently,
+	 * if a concurrency is set). All answers are recorded, if a recording file is set.
+	 * </p>
+	 */
+	private MailHostResolver mailHostResolver() throws IOException {
+		if (_mailHostResolver == null) {
+			MailHostResolver result;
+			if (_dnsReplayFile != null) {
+				_replay = ReplayResolver.load(new File(_dnsReplayFile));
+				result = _replay;
+			} else if (_concurrency > 0) {
+				result = new AsyncResolver(resolver(), _concurrency, _dnsTimeout);
+			} else {
+				// Installs the default resolver for lookups.
+				resolver();
+				result = new LookupResolver();
+			}
+			
+			if (_metrics.isEnabled()) {
+				result = new MeasuringResolver(result, _metrics);
+			}
+			
+			if (_dnsRecordFile != null) {
+				_recorder = new RecordingResolver(result, ReplayResolver.load(new File(_dnsRecordFile)));
+				result = _recorder;
+			}
+			_mailHostResolver = result;
+		}
+		return _mailHostResolver;
+	}
+
+	/**
+	 * Drops all resolvers after their configuration has changed.
+	 */
+	private void resetResolver() throws IOException {
+		storeRecording();
+		reportUpstreams();
+		_resolver = null;
+		_mailHostResolver = null;
+	}
+
+	/**
+	 * Writes the recorded DNS answers, if answers are recorded.
+	 */
+	private void storeRecording() throws IOException {
+		if (_replay != null) {
+			System.err.println("DNS replay: " + _replay.getMisses() + " names not recorded.");
+			_replay = null;
+		}
+		if (_recorder == null) {
+			return;
+		}
+		
+		_recorder.store(new File(_dnsRecordFile));
+		System.err.println("Recorded " + _recorder.size() + " DNS answers to: " + _dnsRecordFile);
+		_recorder = null;
+	}
+
+	/**
+	 * The {@link Resolver} for all DNS queries.
+	 * 
+	 * <p>
+	 * The resolver is also installed as default for {@link Lookup}s, so that sequential
+	 * resolution uses the same name server and cache.
+	 * </p>
+	 */
+	private Resolver resolver() throws IOException {
+		if (_resolver == null) {
+			List<Resolver> upstreams = new ArrayList<>();
+			if (_dnsServer == null) {
+				for (InetSocketAddress server : ResolverConfig.getCurrentConfig().servers()) {
+					upstreams.add(new SimpleResolver(server));
+				}
+			} else {
+				for (String server : _dnsServer.split(",")) {
+					upstreams.add(nameServer(server.trim()));
+				}
+			}
+			
+			Resolver resolver;
+			if (upstreams.size() > 1) {
+				_hedgingResolver = new HedgingResolver(upstreams, _dnsHedgeQuantile);
+				_hedgingResolver.setTimeout(_dnsTimeout);
+				resolver = _hedgingResolver;
+				
+				HedgingResolver hedging = _hedgingResolver;
+				_metrics.gauge("dns.hedges", hedging::getHedges);
+				_metrics.gauge("dns.hedgeWins", hedging::getHedgeWins);
+				for (HedgingResolver.Upstream upstream : hedging.getUpstreams()) {
+					String prefix = "dns.upstream." + upstream.getName() + ".";
+					_metrics.gauge(prefix + "queries", upstream::getQueries);
+					_metrics.gauge(prefix + "errors", upstream::getErrors);
+					_metrics.gauge(prefix + "wins", upstream::getWins);
+				}
+			} else if (_dnsServer == null) {
+				resolver = new ExtendedResolver();
+			} else {
+				resolver = upstreams.get(0);
+			}
+			
+			if (_dnsCacheFile != null) {
+				if (_dnsCache == null) {
+					_dnsCache = DnsCache.load(new File(_dnsCacheFile), _dnsCacheSize);
+				}
+				resolver = new CachingResolver(resolver, _dnsCache);
+				
+				DnsCache cache = _dnsCache;
+				_metrics.gauge("dnsCache.hits", cache::getHits);
+				_metrics.gauge("dnsCache.misses", cache::getMisses);
+				_metrics.gauge("dnsCache.entries", cache::size);
+			}
+			
+			_resolver = resolver;
+			Lookup.setDefaultResolver(resolver);
+		}
+		return _resolver;
+	}
+
+	/**
+	 * Creates a resolver for a single name server in the form <code>host[:port]</code>.
+	 */
+	private static Resolver nameServer(String server) throws IOException {
+		int portSep = server.lastIndexOf(':');
+		if (portSep > 0 && server.indexOf(':') == portSep) {
+			SimpleResolver result = new SimpleResolver(server.substring(0, portSep));
+			result.setPort(Integer.parseInt(server.substring(portSep + 1)));
+			return result;
+		} else {
+			return new SimpleResolver(server);
+		}
+	}
+
+	/**
+	 * Prints the statistics of all name servers, if queries are distributed over several.
+	 */
+	private void reportUpstreams() {
+		if (_hedgingResolver == null) {
+			return;
+		}
+		
+		System.err.println(String.format("DNS: %d queries, %d hedged, %d answered by hedged queries.", 
+			_hedgingResolver.getQueries(), _hedgingResolver.getHedges(), _hedgingResolver.getHedgeWins()));
+		for (HedgingResolver.Upstream upstream : _hedgingResolver.getUpstreams()) {
+			System.err.println(String.format("  %s: %d queries, %d errors, %d answers used, %.1f ms mean latency%s.", 
+				upstream.getName(), upstream.getQueries(), upstream.getErrors(), upstream.getWins(), 
+				upstream.getMeanMillis(), upstream.isHealthy() ? "" : ", unhealthy"));
+		}
+		_hedgingResolver = null;
+	}
+
+	/**
+	 * Persists the DNS cache, if one was used.
+	 */
+	private void storeDnsCache() throws IOException {
+		if (_dnsCache == null) {
+			return;
+		}
+		
+		_dnsCache.store(new File(_dnsCacheFile));
+		System.err.println(String.format("DNS cache: %d hits, %d misses (%.1f%% hit rate), %d entries.", 
+			_dnsCache.getHits(), _dnsCache.getMisses(), 100 * _dnsCache.getHitRate(), _dnsCache.size()));
+	}
+
+	private void finish(ResolverPipeline pipeline) throws IOException {
+		if (pipeline == null) {
+			return;
+		}
+
+		pipeline.finish();
+		System.err.println(String.format("Resolved %d domains (%.1f domains/s).", pipeline.getResolved(), pipeline.getThroughput()));
+	}
+
+	private OutputStream outStream() throws FileNotFoundException {
+		return "-".equals(_outFile) ? System.out : new FileOutputStream(new File(_outFile));
+	}
+
+	private DomainData query(String domain) throws IOException {
+		XRef index = xref();
+		if (!_smtpProbe || knownDomain(domain) != null) {
+			return query(domain, index);
+		}
+		
+		DomainData newDomain = enterDomain(domain, null, Classification.UNKNOWN);
+		List<String> unprobed = new ArrayList<>();
+		for (String mx : newDomain.getMailServers()) {
+			if (mailServer(mx).getProbed() == 0) {
+				unprobed.add(mx);
+			}
+		}
+		if (!unprobed.isEmpty()) {
+			probeMailServers(unprobed);
+		}
+		return guessClassification(newDomain, index);
+	}
+
+	/**
+	 * The cross references of the complete database, including the relational store, if one is
+	 * used.
+	 */
+	private XRef xref() {
+		return _sql == null ? index() : _sql.xref(index());
+	}
+
+	/**
+	 * The {@link XRefIndex} of the current database.
+	 */
+	XRefIndex index() {
+		if (_index == null) {
+			_index = xrefIndex(_db);
+		}
+		return _index;
+	}
+
+	/**
+	 * Creates the {@link XRefIndex} of the given database.
+	 */
+	private XRefIndex xrefIndex(Index db) {
+		long start = _metrics.start();
+		XRefIndex result = _pool == null ? new XRefIndex(db) : XRefIndex.build(db, _pool);
+		_metrics.stage(Stage.INDEX, start);
+		return result;
+	}
+
+	/**
+	 * Records the instrumentation from now on and publishes it as JMX bean.
+	 */
+	private void enableMetrics() throws IOException {
+		if (_metrics.isEnabled()) {
+			return;
+		}
+		
+		_metrics = new Metrics();
+		try {
+			_metrics.register();
+		} catch (JMException ex) {
+			System.err.println("Cannot register metrics bean: " + ex.getMessage());
+		}
+		
+		// Measure DNS lookups.
+		resetResolver();
+	}
+
+	/**
+	 * Counts the result of classifying a domain.
+	 */
+	private DomainData classified(DomainData domain) {
+		_metrics.classified(domain.getHeuristics());
+		return domain;
+	}
+
+	void setDb(Index db) {
+		_db = db;
+		_index = null;
+		_domainTrie = null;
+	}
+
+	/**
+	 * The {@link DomainTrie} of all classified domains of the current database.
+	 */
+	private DomainTrie<DomainData> domainTrie() {
+		if (_domainTrie == null) {
+			DomainTrie<DomainData> trie = new DomainTrie<>(2 * _db.getDomains().size());
+			for (Entry<String, DomainData> entry : _db.getDomains().entrySet()) {
+				if (isClassified(entry.getValue())) {
+					trie.put(entry.getKey(), entry.getValue());
+				}
+			}
+			_domainTrie = trie;
+		}
+		return _domainTrie;
+	}
+
+	/**
+	 * Whether the given domain has a classification that is inherited by its subdomains.
+	 */
+	private static boolean isClassified(DomainData domain) {
+		return isClassified(domain.getKind());
+	}
+
+	/**
+	 * Whether the given classification is inherited by subdomains.
+	 */
+	public static boolean isClassified(Classification kind) {
+		switch (kind) {
+		case DISPOSABLE:
+		case ALIAS:
+		case REGULAR:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * The known classification of the given domain without doing any DNS work, <code>null</code>,
+	 * if the domain must be resolved.
+	 * 
+	 * <p>
+	 * A domain not in the database is classified like its nearest classified ancestor, e.g.
+	 * <code>x7.mailinator.com</code> like <code>mailinator.com</code>.
+	 * </p>
+	 */
+	private DomainData knownDomain(String domain) {
+		DomainData result = getDomain(domain);
+		if (result != null) {
+			return result;
+		}
+		
+		DomainData parent = classifiedAncestor(domain);
+		if (parent == null) {
+			return null;
+		}
+		return DomainInfo.create()
+			.setKind(parent.getKind())
+			.setHeuristics(Heuristics.PARENT)
+			.setService(parent.getService());
+	}
+
+	/**
+	 * The nearest classified ancestor of the given domain, <code>null</code>, if there is none.
+	 */
+	private DomainData classifiedAncestor(String domain) {
+		if (_sql == null) {
+			return domainTrie().ancestor(domain);
+		}
+		
+		// The current changes only contain a part of the database, look up ancestors by name.
+		for (int dot = domain.indexOf('.'); dot >= 0; dot = domain.indexOf('.', dot + 1)) {
+			DomainData ancestor = getDomain(domain.substring(dot + 1));
+			if (ancestor != null && isClassified(ancestor)) {
+				return ancestor;
+			}
+		}
+		return null;
+	}
+
+	private DomainData query(String domain, XRef index) throws IOException {
+		DomainData knownDomain = knownDomain(domain);
+		if (knownDomain != null) {
+			return knownDomain;
+		}
+		
+		return guessClassification(enterDomain(domain, null, Classification.UNKNOWN), index);
+	}
+
+	DomainData query(String domain, XRef index, DnsAnswer answer) {
+		return guessClassification(enterDomain(domain, null, Classification.UNKNOWN, answer), index);
+	}
+
+	private DomainData guessClassification(DomainData newDomain, XRef index) {
+		Classification mxGuess = Classification.UNKNOWN;
+		Classification addressGuess = Classification.UNKNOWN;
+		Classification fingerprintGuess = Classification.UNKNOWN;
+		Set<String> mxServices = new HashSet<>();
+		Set<String> addressServices = new HashSet<>();
+		Set<String> fingerprintServices = new HashSet<>();
+		for (String mx : newDomain.getMailServers()) {
+			MxData mxInfo = mailServer(mx);
+			mxGuess = anyDisposable(mxGuess, mxInfo.getKind());
+
+			for (String address : mxInfo.getAddresses()) {
+				addressGuess = anyDisposable(addressGuess, index.getAddressClassification(address));
+				
+				addressServices.addAll(index.getServicesByAddress(address));
+			}
+			
+			mxServices.addAll(index.getServicesByMx(mx));
+			
+			String fingerprint = mxInfo.getFingerprint();
+			if (fingerprint != null) {
+				Classification fingerprintKind = fingerprintGuess(index.getFingerprintClassification(fingerprint));
+				if (fingerprintKind != Classification.UNKNOWN) {
+					fingerprintGuess = anyDisposable(fingerprintGuess, fingerprintKind);
+					fingerprintServices.addAll(index.getServicesByFingerprint(fingerprint));
+				}
+			}
+		}
+		
+		if (mxGuess != Classification.UNKNOWN) {
+			newDomain.setKind(mxGuess);
+			newDomain.setHeuristics(Heuristics.MX);
+			setService(newDomain, mxServices);
+			return newDomain;
+		}
+		
+		if (addressGuess != Classification.UNKNOWN) {
+			newDomain.setKind(addressGuess);
+			newDomain.setHeuristics(Heuristics.IP);
+			setService(newDomain, addressServices);
+			return newDomain;
+		}
+		
+		if (fingerprintGuess != Classification.UNKNOWN) {
+			newDomain.setKind(fingerprintGuess);
+			newDomain.setHeuristics(Heuristics.FINGERPRINT);
+			setService(newDomain, fingerprintServices);
+			return newDomain;
+		}
+		
+		if (newDomain.getKind() != Classification.DEAD) {
+			newDomain.setHeuristics(Heuristics.NONE);
+		}
+		return newDomain;
+	}
+
+	private void setService(DomainData newDomain, Set<String> mxServices) {
+		if (mxServices.size() == 1) {
+			String service = mxServices.iterator().next();
+			newDomain.setService(service);
+			if (_index != null) {
+				_index.addService(newDomain, service);
+			}
+		} else {
+			newDomain.setPotentialServices(sorted(mxServices));
+		}
+	}
+
+	private static ArrayList<String> sorted(Collection<String> services) {
+		ArrayList<String> result = new ArrayList<>(services);
+		Collections.sort(result);
+		return result;
+	}
+
+	/**
+	 * Propagates the classification of domains added or changed since the last update to their
+	 * mail servers and addresses.
+	 */
+	private void updateClassifications() {
+		long start = _metrics.start();
+		if (_index == null) {
+			// Changes have not been tracked.
+			recomputeClassifications(_db);
+		} else {
+			_index.updateClassifications();
+		}
+		_metrics.stage(Stage.CLASSIFICATIONS, start);
+	}
+
+	/**
+	 * Verifies that the mail server classification is consistent with the domain
+	 * classification and repairs it, if not.
+	 */
+	private void checkDb() {
+		if (_sql != null) {
+			setDb(fullDb());
+		}
+		
+		XRefIndex index = index();
+		index.updateClassifications();
+		
+		int inconsistent = 0;
+		for (Entry<String, MxData> entry : _db.getMailServers().entrySet()) {
+			MxData mx = entry.getValue();
+			Classification expected = index.computeMxKind(entry.getKey());
+			if (mx.getKind() != expected) {
+				System.err.println("Inconsistent classification of mail server '" + entry.getKey() + "': " + mx.getKind() + " (expected " + expected + ")");
+				inconsistent++;
+			}
+		}
+		
+		if (inconsistent > 0) {
+			recomputeClassifications(_db);
+			index.updateAddressClassifications();
+		}
+		System.err.println("Checked " + _db.getMailServers().size() + " mail servers, " + inconsistent + " repaired.");
+	}
+
+	/**
+	 * Classifies all domains from the manually classified domains connected to them through
+	 * shared mail servers and addresses, see {@link ClusterClassifier}.
+	 */
+	private void classifyGraph() {
+		if (_sql != null) {
+			setDb(fullDb());
+		}
+		
+		long start = _metrics.start();
+		ClusterClassifier classifier = new ClusterClassifier(_db);
+		classifier.classify();
+		recomputeClassifications(_db);
+		_metrics.stage(Stage.CLASSIFICATIONS, start);
+		
+		// Kinds and services have changed everywhere.
+		setDb(_db);
+		
+		System.err.println("Classified " + classifier.getClassified() + " domains in " + classifier.getClusterCount() + 
+			" clusters (largest " + classifier.getLargestCluster() + " nodes, " + classifier.getMixedClusters() + " mixed), " + 
+			classifier.getChanged() + " changed.");
+	}
+
+	/**
+	 * Recomputes the classification of all mail servers from the classification of the domains
+	 * using them.
+	 */
+	static void recomputeClassifications(Index db) {
+		// Reset mx classification.
+		for (MxData mx : db.getMailServers().values()) {
+			mx.setKind(Classification.UNKNOWN);
+		}
+		
+		// Build mx classification from domain classification.
+		for (DomainData domain : db.getDomains().values()) {
+			for (String mx : domain.getMailServers()) {
+				MxData mxInfo = db.getMailServers().get(mx);
+				mxInfo.setKind(combine(mxInfo.getKind(), domain.getKind()));
+			}
+		}
+	}
+
+	/**
+	 * Combines the classifications of domains sharing a mail server or address.
+	 */
+	public static Classification combine(Classification x, Classification y) {
 		if (y == Classification.UNKNOWN) {
 			return x;
 		}
@@ -358,7 +1556,24 @@ public class MxResolver {
 		}
 		return Classification.MIXED;	}
 
-	private Classification anyDisposable(Classification x, Classification y) {
+	/**
+	 * The classification of a mail server guessed from the given combined classification of all
+	 * mail servers sharing its SMTP fingerprint.
+	 * 
+	 * <p>
+	 * Other than a mail server name or address, a fingerprint is not specific to a single
+	 * operator, the default setup of common mail server software is used by all kinds of
+	 * domains. Only a fingerprint that is used exclusively for a single classification counts.
+	 * </p>
+	 */
+	public static Classification fingerprintGuess(Classification shared) {
+		return shared == Classification.MIXED ? Classification.UNKNOWN : shared;
+	}
+
+	/**
+	 * Combines classification guesses, where a disposable guess wins over all others.
+	 */
+	public static Classification anyDisposable(Classification x, Classification y) {
 		if (y == Classification.UNKNOWN) {
 			return x;
 		}
@@ -378,72 +1593,536 @@ public class MxResolver {
 	}
 
 	private void load(String fileName, Classification classification) throws IOException, SQLException {
+		if (_workers > 0 && _sql == null) {
+			loadConcurrently(fileName, classification);
+			return;
+		}
+		
+		// Make sure, new domains are tracked for updating the classification.
+		index();
+		
+		if (_sql == null) {
+			_journal = Journal.open(journalFile());
+		}
 		try {
-			try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(new File(fileName)), StandardCharsets.UTF_8))) {
-				String line;
-				String service = null;
-				while ((line = r.readLine()) != null) {
-					if (line.startsWith("#")) {
-						service = line.substring(1).trim();
-						if (service.isEmpty()) {
-							service = null;
-						}
-						continue;
+			ResolverPipeline pipeline = createPipeline();
+			forEachServiceDomain(fileName, (domain, service) -> {
+				if (getDomain(domain) != null) {
+					// Already present.
+				} else {
+					System.err.println("Analyzing domain: " + domain + (service != null ? " (" + service + ")" : ""));
+					if (pipeline == null) {
+						journal(domain, classified(enterDomain(domain, service, classification)));
+					} else {
+						pipeline.submit(domain, answer -> journal(domain, classified(enterDomain(domain, service, classification, answer))));
 					}
-					
-					String domain = line.trim().toLowerCase();
-					if (domain.isEmpty()) {
-						service = null;
-						continue;
+				}
+			});
+			finish(pipeline);
+
+			updateClassifications();
+		} finally {
+			if (_journal == null) {
+				storeDb();
+			} else {
+				closeJournal();
+			}
+		}
+	}
+
+	/**
+	 * Imports the domains listed in the given file with {@link #_workers} threads, each resolving
+	 * a single domain at a time.
+	 * 
+	 * <p>
+	 * The database is not modified while the threads run, new domains and mail servers are
+	 * collected in a {@link ConcurrentIndex} and added to the database afterwards. The journal
+	 * is written by all threads, each domain is recorded together with the current state of its
+	 * mail servers as in a sequential import.
+	 * </p>
+	 */
+	private void loadConcurrently(String fileName, Classification classification) throws IOException {
+		long start = System.nanoTime();
+		MailHostResolver resolver = mailHostResolver();
+		ConcurrentIndex staged = new ConcurrentIndex(_db);
+		
+		// Make sure, new domains are tracked for updating the classification.
+		index();
+		
+		Journal journal = Journal.open(journalFile());
+		_journal = journal;
+		
+		ExecutorService workers = Executors.newFixedThreadPool(_workers);
+		Semaphore slots = new Semaphore(4 * _workers);
+		AtomicReference<Throwable> problem = new AtomicReference<>();
+		try {
+			forEachServiceDomain(fileName, (domain, service) -> {
+				if (staged.hasDomain(domain)) {
+					// Already present.
+					return;
+				}
+				
+				try {
+					slots.acquire();
+				} catch (InterruptedException ex) {
+					throw new InterruptedIOException("Interrupted while waiting for import threads.");
+				}
+				if (problem.get() != null) {
+					slots.release();
+					return;
+				}
+				workers.execute(() -> {
+					try {
+						enterConcurrently(staged, resolver, journal, domain, service, classification);
+					} catch (IOException | RuntimeException ex) {
+						problem.compareAndSet(null, ex);
+					} finally {
+						slots.release();
 					}
+				});
+			});
+		} finally {
+			workers.shutdown();
+			try {
+				workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			
+			int domains = staged.getDomainCount();
+			int mailServers = staged.getMxCount();
+			staged.commit(_index);
+			_domainTrie = null;
+			updateClassifications();
+			closeJournal();
+			
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.err.println(String.format("Imported %d domains with %d new mail servers using %d threads (%.1f domains/s).", 
+				domains, mailServers, _workers, seconds > 0 ? domains / seconds : 0));
+		}
+		
+		Throwable ex = problem.get();
+		if (ex instanceof IOException) {
+			throw (IOException) ex;
+		} else if (ex != null) {
+			throw (RuntimeException) ex;
+		}
+	}
 
-					if (getDomain(domain) != null) {
-						// Already present.
+	/**
+	 * Resolves the given domain and enters it into the given {@link ConcurrentIndex}, called
+	 * from an import thread.
+	 */
+	private void enterConcurrently(ConcurrentIndex staged, MailHostResolver resolver, Journal journal, String domain,
+			String service, Classification classification) throws IOException {
+		System.err.println("Analyzing domain: " + domain + (service != null ? " (" + service + ")" : ""));
+
+		// Null, if the domain is its own mail server.
+		List<String> mailServers = resolver.lookupMx(domain).join();
+		List<String> hosts = mailServers == null ? Collections.singletonList(domain) : mailServers;
+		
+		DomainData domainInfo = createDomain(domain, service, classification);
+		boolean alive = false;
+		for (String host : hosts) {
+			MxData mx = staged.enterMailServer(host, name -> resolver.lookupAddresses(name).join());
+			if (staged.isKnownMx(host) || !mx.getAddresses().isEmpty()) {
+				domainInfo.getMailServers().add(host);
+				alive = true;
+			}
+		}
+		if (!alive) {
+			domainInfo.setKind(Classification.DEAD);
+			domainInfo.setHeuristics(mailServers == null ? Heuristics.NO_FALLBACK_MX : Heuristics.NO_RESOLVABLE_MX);
+		}
+		domainInfo.setResolved(System.currentTimeMillis());
+		
+		if (!staged.putDomain(domain, domainInfo)) {
+			// Entered concurrently by another thread.
+			return;
+		}
+		classified(domainInfo);
+		
+		// Note: The classification of a mail server only grows when domains are added. Since each
+		// thread writes the mail servers after propagating its domain, the last record of a mail
+		// server carries its final classification.
+		synchronized (journal) {
+			for (String host : hosts) {
+				journal.appendMx(host, staged.snapshotMx(host));
+			}
+			journal.appendDomain(domain, domainInfo);
+			journal.flush();
+		}
+	}
+
+	/**
+	 * Closes the journal of an import and starts its compaction, if it has grown too large.
+	 */
+	private void closeJournal() throws IOException {
+		_journal.close();
+		_journal = null;
+		_newMx.clear();
+		
+		if (journalFile().length() > dbFile().length() / COMPACTION_RATIO) {
+			startCompaction();
+		}
+	}
+
+	/**
+	 * Probes all mail servers that have not been probed within the refresh age for their SMTP
+	 * fingerprint and writes the database.
+	 */
+	private void fingerprint() throws IOException {
+		if (_sql != null) {
+			System.err.println("Fingerprinting is only supported for the database file.");
+			return;
+		}
+		
+		long now = System.currentTimeMillis();
+		List<String> selected = new ArrayList<>();
+		for (Entry<String, MxData> entry : _db.getMailServers().entrySet()) {
+			MxData mx = entry.getValue();
+			if (!mx.getAddresses().isEmpty() && now - mx.getProbed() >= _refreshAge.toMillis()) {
+				selected.add(entry.getKey());
+			}
+		}
+		
+		// Make sure, fingerprints are tracked.
+		index();
+		
+		long start = System.nanoTime();
+		SmtpProber prober = probeMailServers(selected);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		
+		Set<String> fingerprints = new HashSet<>();
+		int fingerprinted = 0;
+		for (String mx : selected) {
+			String fingerprint = _db.getMailServers().get(mx).getFingerprint();
+			if (fingerprint != null) {
+				fingerprints.add(fingerprint);
+				fingerprinted++;
+			}
+		}
+		
+		// Note: Most mail servers change, a journal record for each is as large as the database.
+		storeDb();
+		
+		System.err.println(String.format("Probed %d mail servers at %d addresses (%d answered, %d timed out, %d failed, %.0f probes/s), " + 
+			"%d with fingerprint, %d distinct.", selected.size(), prober.getProbed(), prober.getAnswered(), prober.getTimeouts(), 
+			prober.getFailed(), seconds > 0 ? prober.getProbed() / seconds : 0, fingerprinted, fingerprints.size()));
+	}
+
+	/**
+	 * Probes the addresses of the given mail servers with a {@link SmtpProber} and stores their
+	 * SMTP fingerprint.
+	 * 
+	 * <p>
+	 * Each address is probed once, even if shared by several mail servers. A mail server gets
+	 * the fingerprint of its first address that answers. A mail server that does not answer
+	 * keeps its last fingerprint, since it is most likely unreachable only temporarily.
+	 * </p>
+	 */
+	private SmtpProber probeMailServers(Collection<String> mailServers) throws IOException {
+		Set<String> addresses = new LinkedHashSet<>();
+		for (String mx : mailServers) {
+			addresses.addAll(mailServer(mx).getAddresses());
+		}
+		
+		Map<String, String> fingerprints = new HashMap<>();
+		SmtpProber prober = new SmtpProber(_smtpConcurrency, _smtpPort, _smtpTimeout, _smtpTimeout, "localhost");
+		prober.probe(addresses.iterator(), (address, fingerprint) -> {
+			if (fingerprint != null) {
+				fingerprints.put(address, fingerprint);
+			}
+		});
+		
+		long now = System.currentTimeMillis();
+		for (String name : mailServers) {
+			MxData mx = mailServer(name);
+			mx.setProbed(now);
+			
+			String fingerprint = null;
+			for (String address : mx.getAddresses()) {
+				fingerprint = fingerprints.get(address);
+				if (fingerprint != null) {
+					break;
+				}
+			}
+			
+			String before = mx.getFingerprint();
+			if (fingerprint != null && !fingerprint.equals(before)) {
+				mx.setFingerprint(fingerprint);
+				if (_index != null) {
+					_index.updateFingerprint(name, mx, before);
+				}
+			}
+		}
+		return prober;
+	}
+
+	/**
+	 * Resolves the given number of domains and mail servers again and updates the database with
+	 * the changes, see {@link RefreshQueue} for the selection.
+	 * 
+	 * <p>
+	 * Mail servers are resolved first, so that domains moving to a refreshed mail server are
+	 * classified with its current addresses.
+	 * </p>
+	 */
+	private void refresh(int budget) throws IOException {
+		if (_sql != null) {
+			System.err.println("Refresh is only supported for the database file.");
+			return;
+		}
+		
+		Refresh refresh = new Refresh(System.currentTimeMillis());
+		RefreshQueue queue = new RefreshQueue(budget, refresh._now, _refreshAge.toMillis());
+		for (Entry<String, MxData> entry : _db.getMailServers().entrySet()) {
+			queue.offerMx(entry.getKey(), entry.getValue());
+		}
+		for (Entry<String, DomainData> entry : _db.getDomains().entrySet()) {
+			queue.offerDomain(entry.getKey(), entry.getValue());
+		}
+		List<RefreshQueue.Entry> selected = queue.getSelected();
+		
+		// Make sure, changes are tracked for updating the classification.
+		index();
+		
+		_journal = Journal.open(journalFile());
+		try {
+			MailHostResolver resolver = mailHostResolver();
+			List<String> mailServers = new ArrayList<>();
+			List<CompletableFuture<List<String>>> lookups = new ArrayList<>();
+			for (RefreshQueue.Entry entry : selected) {
+				if (entry.isMx()) {
+					mailServers.add(entry.getName());
+					lookups.add(resolver.lookupAddresses(entry.getName()));
+				}
+			}
+			for (int n = 0, cnt = mailServers.size(); n < cnt; n++) {
+				refresh.mx(mailServers.get(n), lookups.get(n).join());
+			}
+			
+			ResolverPipeline pipeline = createPipeline();
+			for (RefreshQueue.Entry entry : selected) {
+				if (entry.isMx()) {
+					continue;
+				}
+				String domain = entry.getName();
+				if (pipeline == null) {
+					refresh.domain(domain, resolve(domain, this::hasMailServer));
+				} else {
+					pipeline.submit(domain, answer -> refresh.domain(domain, answer));
+				}
+			}
+			finish(pipeline);
+		} finally {
+			closeJournal();
+		}
+		
+		System.err.println(refresh);
+	}
+
+	/**
+	 * State of a single {@link MxResolver#refresh(int)} run.
+	 */
+	private final class Refresh {
+		final long _now;
+		
+		int _domains;
+		int _movedDomains;
+		int _reclassified;
+		int _revived;
+		int _mailServers;
+		int _changedMailServers;
+		int _failed;
+		
+		Refresh(long now) {
+			_now = now;
+		}
+
+		/**
+		 * Updates the given mail server with its current addresses.
+		 */
+		void mx(String name, List<String> addresses) throws IOException {
+			MxData mx = _db.getMailServers().get(name);
+			if (addresses.isEmpty() && !mx.getAddresses().isEmpty()) {
+				// A failed lookup cannot be told apart from a removed record, keep the addresses
+				// and try again with the next refresh.
+				_failed++;
+				return;
+			}
+			
+			_mailServers++;
+			List<String> before = new ArrayList<>(mx.getAddresses());
+			mx.setResolved(_now);
+			if (!new HashSet<>(before).equals(new HashSet<>(addresses))) {
+				mx.setAddresses(addresses);
+				_index.updateAddresses(name, mx, before);
+				_changedMailServers++;
+			}
+			_journal.appendMx(name, mx);
+			_journal.flush();
+		}
+
+		/**
+		 * Updates the given domain with its current mail servers.
+		 * 
+		 * <p>
+		 * A domain that was not classified manually is classified again, if its mail servers
+		 * have changed or if their classification no longer matches the classification of the
+		 * domain.
+		 * </p>
+		 */
+		void domain(String name, DnsAnswer answer) throws IOException {
+			DomainData domain = _db.getDomains().get(name);
+			DomainData current = createDomain(name, null, Classification.UNKNOWN);
+			fillFromAnswer(name, current, answer);
+			if (current.getKind() == Classification.DEAD && domain.getKind() != Classification.DEAD) {
+				// Possibly a failed lookup, see above.
+				_failed++;
+				return;
+			}
+			
+			_domains++;
+			domain.setResolved(_now);
+			List<String> before = new ArrayList<>(domain.getMailServers());
+			Classification kindBefore = domain.getKind();
+			boolean moved = !new HashSet<>(before).equals(new HashSet<>(current.getMailServers()));
+			boolean manual = domain.getHeuristics() == Heuristics.MANUAL;
+			boolean reclassify = !manual && (moved || (kindBefore != Classification.DEAD && _index.guessKind(name, domain) != kindBefore));
+			if (moved || reclassify) {
+				if (moved) {
+					_movedDomains++;
+				}
+				
+				if (reclassify) {
+					// The domain must not contribute to the classification of the mail servers
+					// it is classified from.
+					domain.setKind(Classification.UNKNOWN);
+					domain.setService(null);
+					domain.setPotentialServices(Collections.emptyList());
+					_index.updateDomainKind(name, kindBefore);
+				}
+				
+				if (moved) {
+					domain.setMailServers(current.getMailServers());
+					_newMx.addAll(_index.updateMailServers(name, domain, before));
+				}
+				_newMx.addAll(_index.updateClassifications());
+				
+				if (reclassify) {
+					if (current.getKind() == Classification.DEAD) {
+						domain.setKind(Classification.DEAD);
+						domain.setHeuristics(current.getHeuristics());
 					} else {
-						System.err.println("Analyzing domain: " + domain + (service != null ? " (" + service + ")" : ""));
-						enterDomain(domain, service, classification);
+						guessClassification(domain, _index);
+					}
+					_index.updateDomainKind(name, Classification.UNKNOWN);
+					_newMx.addAll(_index.updateClassifications());
+					
+					if (domain.getKind() != kindBefore) {
+						_reclassified++;
+						if (kindBefore == Classification.DEAD) {
+							_revived++;
+						}
+						
+						// The trie may contain a classification the domain no longer has.
+						_domainTrie = null;
 					}
 				}
 			}
+			journal(name, domain);
+		}
 
-			updateClassifications();
-		} finally {
-			storeDb();
+		@Override
+		public String toString() {
+			return "Refreshed " + _mailServers + " mail servers (" + _changedMailServers + " with changed addresses) and " + 
+				_domains + " domains (" + _movedDomains + " with changed mail servers, " + _reclassified + " reclassified, " + 
+				_revived + " revived), " + _failed + " lookups failed.";
 		}
 	}
 
-	private DomainData enterDomain(String domain, String service, Classification classification) throws TextParseException { 
+	/**
+	 * Appends the given new domain together with its mail servers to the journal.
+	 * 
+	 * <p>
+	 * The classification of the domain is propagated to its mail servers first, so that the
+	 * journal is consistent after each domain.
+	 * </p>
+	 */
+	private void journal(String domain, DomainData domainInfo) throws IOException {
+		if (_journal == null) {
+			// Changes are written to the relational store at the end of the import.
+			return;
+		}
+		
+		long start = _metrics.start();
+		_index.updateClassifications();
+		_metrics.stage(Stage.CLASSIFICATIONS, start);
+		
+		_newMx.addAll(domainInfo.getMailServers());
+		for (String mx : _newMx) {
+			_journal.appendMx(mx, _db.getMailServers().get(mx));
+		}
+		_newMx.clear();
+		_journal.appendDomain(domain, domainInfo);
+		_journal.flush();
+	}
+
+	private DomainData enterDomain(String domain, String service, Classification classification) throws IOException { 
+		String normalizedDomain = domain.toLowerCase();
+		
+		return enterDomain(normalizedDomain, service, classification, resolve(normalizedDomain, this::hasMailServer));
+	}
+
+	private DomainData enterDomain(String domain, String service, Classification classification, DnsAnswer answer) { 
 		String normalizedDomain = domain.toLowerCase();
 		
 		DomainData domainInfo = createDomain(normalizedDomain, service, classification);
-		fillFromDNS(normalizedDomain, domainInfo);
+		fillFromAnswer(normalizedDomain, domainInfo, answer);
+		domainInfo.setResolved(System.currentTimeMillis());
 		storeDomain(normalizedDomain, domainInfo);
 		return domainInfo;
 	}
 
-	private void fillFromDNS(String domain, DomainData domainInfo) throws TextParseException {
-		Record[] records = new Lookup(domain, Type.MX).run();
+	/**
+	 * Resolves the MX records of the given domain and the addresses of all its mail servers that
+	 * are not yet known.
+	 * 
+	 * @param knownMx Test whether a mail server is already known and need not be resolved.
+	 */
+	private DnsAnswer resolve(String domain, Predicate<String> knownMx) throws IOException {
+		MailHostResolver resolver = mailHostResolver();
 		
-		if (records == null) {
+		// Null, if the domain is its own mail server.
+		List<String> mailServers = resolver.lookupMx(domain).join();
+		
+		Map<String, List<String>> addresses = new HashMap<>();
+		for (String mailServer : mailServers == null ? Collections.singletonList(domain) : mailServers) {
+			if (knownMx.test(mailServer) || addresses.containsKey(mailServer)) {
+				continue;
+			}
+			
+			addresses.put(mailServer, resolver.lookupAddresses(mailServer).join());
+		}
+		return new DnsAnswer(mailServers, addresses);
+	}
+
+	/**
+	 * Enters the mail servers from the given {@link DnsAnswer} into the given domain.
+	 */
+	private void fillFromAnswer(String domain, DomainData domainInfo, DnsAnswer answer) {
+		List<String> mailServers = answer.getMailServers();
+		if (mailServers == null) {
 			// Domain is its own mail server.
-			try {
-				enterMx(domainInfo, domain);
-			} catch (UnknownHostException ex) {
+			if (!enterMx(domainInfo, domain, answer)) {
 				domainInfo.setKind(Classification.DEAD);
 				domainInfo.setHeuristics(Heuristics.NO_FALLBACK_MX);
 			}
 		} else {
 			boolean alive = false;
-			for (int i = 0; i < records.length; i++) {
-				MXRecord mx = (MXRecord) records[i];
-				String mailServer = mx.getTarget().toString(true).toLowerCase();
-				
-				try {
-					enterMx(domainInfo, mailServer);
-					alive = true;
-				} catch (UnknownHostException ex) {
-					// Ignore.
-				}
+			for (String mailServer : mailServers) {
+				alive |= enterMx(domainInfo, mailServer, answer);
 			}
 			if (!alive) {
 				domainInfo.setKind(Classification.DEAD);
@@ -453,7 +2132,53 @@ public class MxResolver {
 	}
 
 	private DomainData getDomain(String domain) {
-		return _db.getDomains().get(domain);
+		DomainData result = _db.getDomains().get(domain);
+		if (result == null && _sql != null) {
+			result = _sql.getDomain(domain);
+		}
+		return result;
+	}
+
+	/**
+	 * Whether the given mail server is known, either from the current changes or from the
+	 * relational store.
+	 */
+	private boolean hasMailServer(String mx) {
+		return _db.getMailServers().containsKey(mx) || (_sql != null && _sql.hasMailServer(mx));
+	}
+
+	/**
+	 * The mail server with the given name without copying it to the current changes,
+	 * <code>null</code> if it is unknown.
+	 */
+	private MxData storedMailServer(String mx) {
+		MxData result = _db.getMailServers().get(mx);
+		if (result == null && _sql != null) {
+			result = _sql.getMailServer(mx);
+		}
+		return result;
+	}
+
+	/**
+	 * The mail server with the given name, <code>null</code> if it is unknown.
+	 * 
+	 * <p>
+	 * A mail server from the relational store is copied to the current changes, so that
+	 * classification updates from new domains apply to it.
+	 * </p>
+	 */
+	private MxData mailServer(String mx) {
+		MxData result = _db.getMailServers().get(mx);
+		if (result == null && _sql != null) {
+			result = _sql.getMailServer(mx);
+			if (result != null) {
+				_db.getMailServers().put(mx, result);
+				if (_index != null) {
+					_index.addMx(mx, result);
+				}
+			}
+		}
+		return result;
 	}
 
 	private DomainData createDomain(String domain, String service, Classification classification) {
@@ -462,44 +2187,175 @@ public class MxResolver {
 
 	private void storeDomain(String domain, DomainData domainInfo) {
 		_db.putDomain(domain, domainInfo);
+		if (_index != null) {
+			_index.addDomain(domain, domainInfo);
+		}
+		if (_domainTrie != null && isClassified(domainInfo)) {
+			_domainTrie.put(domain, domainInfo);
+		}
 	}
 
-	private void enterMx(DomainData domain, String mailServer) throws UnknownHostException {
-		MxData mxInfo = _db.getMailServers().get(mailServer);
+	/**
+	 * Adds the given mail server to the given domain, unknown mail servers are entered with
+	 * addresses from the given {@link DnsAnswer}.
+	 * 
+	 * @return Whether the mail server is resolvable.
+	 */
+	private boolean enterMx(DomainData domain, String mailServer, DnsAnswer answer) {
+		MxData mxInfo = mailServer(mailServer);
 		if (mxInfo == null) {
-			mxInfo = MxInfo.create();
+			mxInfo = MxInfo.create().setResolved(System.currentTimeMillis());
 			_db.getMailServers().put(mailServer, mxInfo);
+			if (_journal != null) {
+				_newMx.add(mailServer);
+			}
 			
-			InetAddress[] addresses = Address.getAllByName(mailServer);
-			for (InetAddress address : addresses) {
-				String hostAddress = address.getHostAddress();
-				
-				mxInfo.addAddresse(hostAddress);
+			List<String> addresses = answer.getAddresses(mailServer);
+			if (addresses.isEmpty()) {
+				return false;
+			}
+			for (String address : addresses) {
+				mxInfo.addAddresse(address);
+			}
+			if (_index != null) {
+				_index.addMx(mailServer, mxInfo);
 			}
 		}
 		
 		// Found new mail server. 
 		domain.getMailServers().add(mailServer);
+		return true;
 	}
 
 	private File dbFile() {
 		return new File(_dbFile);
 	}
 
+	/**
+	 * The journal of changes not yet written to {@link #dbFile()}.
+	 */
+	private File journalFile() {
+		return new File(_dbFile + ".journal");
+	}
+
+	/**
+	 * The journal that is currently folded into {@link #dbFile()} by a compaction.
+	 */
+	private File compactingFile() {
+		return new File(_dbFile + ".journal.compacting");
+	}
+
 	private void loadDb() throws IOException {
+		if (_sql != null) {
+			// Entries are read from the relational store on demand.
+			setDb(Index.create());
+			return;
+		}
+		
+		awaitCompaction();
+		setDb(loadDbFile());
+	}
+
+	/**
+	 * Reads the database file and applies all journals not yet folded into it.
+	 */
+	private Index loadDbFile() throws IOException {
 		File file = dbFile();
-		if (file.exists()) {
-			_db = loadDb(file);
-		} else {
-			_db = Index.create();
+		Index db = file.exists() ? loadDb(file) : Index.create();
+		
+		int records = Journal.replay(compactingFile(), db) + Journal.replay(journalFile(), db);
+		if (records > 0) {
+			System.err.println("Replayed " + records + " journal records.");
 		}
+		return db;
 	}
 
-	private void storeDb() throws IOException {
+	/**
+	 * Folds the journal into the database file in a background thread.
+	 * 
+	 * <p>
+	 * The journal is renamed, so that further imports start a new journal. The compaction reads
+	 * the database file and the renamed journal into a separate {@link Index}, the current
+	 * database is not touched. If the process is terminated during compaction, the renamed
+	 * journal is replayed on the next start.
+	 * </p>
+	 */
+	private void startCompaction() throws IOException {
+		awaitCompaction();
+		
+		File compacting = compactingFile();
+		if (!compacting.exists() && !journalFile().renameTo(compacting)) {
+			throw new IOException("Cannot rename journal: " + journalFile());
+		}
+		
 		File dbFile = dbFile();
+		_compaction = new FutureTask<>(() -> {
+			Index db = dbFile.exists() ? loadDb(dbFile) : Index.create();
+			Journal.replay(compacting, db);
+			writeDb(db, () -> xrefIndex(db), dbFile);
+			compacting.delete();
+			return null;
+		});
 		
+		Thread thread = new Thread(_compaction, "Journal compaction");
+		thread.start();
+	}
+
+	/**
+	 * Waits for a running compaction to complete.
+	 */
+	private void awaitCompaction() throws IOException {
+		if (_compaction == null) {
+			return;
+		}
+		
+		try {
+			_compaction.get();
+			System.err.println("Compacted journal into: " + dbFile());
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for journal compaction.", ex);
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof IOException) {
+				throw (IOException) ex.getCause();
+			}
+			throw new IOException(ex.getCause());
+		} finally {
+			_compaction = null;
+		}
+	}
+
+	private void storeDb() throws IOException {
+		long start = _metrics.start();
+		if (_sql != null) {
+			_sql.store(_db);
+			setDb(Index.create());
+		} else {
+			awaitCompaction();
+			writeDb(_db, this::index, dbFile());
+			
+			// The journals are contained in the written database.
+			compactingFile().delete();
+			journalFile().delete();
+		}
+		_metrics.stage(Stage.STORE, start);
+	}
+
+	/**
+	 * Replaces the given database file with the contents of the given {@link Index}.
+	 */
+	private void writeDb(Index db, Supplier<XRefIndex> index, File dbFile) throws IOException {
 		File tmp = File.createTempFile(dbFile.getName(), "", dbFile.getParentFile());
-		writeTo(new FileOutputStream(tmp), toStorage(_db));
+		if (_compact) {
+			long start = _metrics.start();
+			writeTo(new FileOutputStream(tmp), CompactIndex.fromIndex(db).xref());
+			_metrics.stage(Stage.SERIALIZE, start);
+		} else {
+			XRefIndex xref = index.get();
+			long start = _metrics.start();
+			StorageWriter.write(db, xref, new FileOutputStream(tmp), _pool);
+			_metrics.stage(Stage.SERIALIZE, start);
+		}
 
 		File backup = new File(dbFile.getParentFile(), dbFile.getName() + "~");
 		dbFile.renameTo(backup);
@@ -508,9 +2364,12 @@ public class MxResolver {
 		backup.delete();
 	}
 
-	private Index loadDb(File file) throws IOException, FileNotFoundException {
+	Index loadDb(File file) throws IOException, FileNotFoundException {
+		long start = _metrics.start();
 		try (JsonReader r = new JsonReader(new ReaderAdapter(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)))) {
 			return toDb(Storage.readStorage(r));
+		} finally {
+			_metrics.stage(Stage.LOAD, start);
 		}
 	}
 
@@ -526,139 +2385,6 @@ public class MxResolver {
 			.setMailServers(storage.getMailServers().stream().collect(Collectors.toMap(m -> m.getName(), m -> m)));
 	}
 
-	private Storage toStorage(Index db) {
-		return xref(Storage.create()
-			.setDomains(db.getDomains()
-				.entrySet()
-				.stream()
-				.map(entry -> Domain.create()
-					.setName(entry.getKey())
-					.setHeuristics(entry.getValue().getHeuristics())
-					.setKind(entry.getValue().getKind())
-					.setMailServers(entry.getValue().getMailServers().stream().sorted().collect(Collectors.toList()))
-					.setPotentialServices(entry.getValue().getPotentialServices().stream().sorted().collect(Collectors.toList()))
-					.setService(entry.getValue().getService()))
-				.sorted((x, y) -> x.getName().compareTo(y.getName()))
-				.collect(Collectors.toList()))
-			.setMailServers(db.getMailServers()
-				.entrySet()
-				.stream()
-				.map(entry -> MailServer.create()
-					.setName(entry.getKey())
-					.setAddresses(entry.getValue().getAddresses().stream().sorted().collect(Collectors.toList()))
-					.setKind(entry.getValue().getKind()))
-				.sorted((x, y) -> x.getName().compareTo(y.getName()))
-				.collect(Collectors.toList())));
-	}
-
-	private Storage xref(Storage storage) {
-		Map<String, MailServer> mailServerByName = storage.getMailServers().stream().collect(Collectors.toMap(s -> s.getName(), s -> s));
-		
-		Map<String, Service> serviceByName = new HashMap<>();
-		Map<String, Set<String>> domainsByAddress = new HashMap<>();
-		Map<String, Set<String>> domainsByMx = new HashMap<>();
-		for (Domain domain : storage.getDomains()) {
-			// Add domain to service.
-			String serviceName = domain.getService();
-			if (serviceName != null) {
-				Service service = serviceByName.computeIfAbsent(serviceName, name -> Service.create().setName(name));
-				service.getDomains().add(domain.getName());
-				
-				for (String mailServer : domain.getMailServers()) {
-					MailServer host = mailServerByName.get(mailServer);
-					host.addService(serviceName);
-
-					service.getAddresses().addAll(host.getAddresses());
-				}
-			}
-			
-			// Add domain to potential service.
-			for (String potentialServiceName : domain.getPotentialServices()) {
-				Service potentialService = serviceByName.computeIfAbsent(potentialServiceName, name -> Service.create().setName(name));
-				potentialService.getDomains().add(domain.getName());
-
-				for (String mailServer : domain.getMailServers()) {
-					MailServer host = mailServerByName.get(mailServer);
-					host.addService(potentialServiceName);
-					
-					potentialService.getAddresses().addAll(host.getAddresses());
-				}
-			}
-			
-			for (String mailServer : domain.getMailServers()) {
-				MailServer mx = mailServerByName.get(mailServer);
-				
-				domainsByMx.computeIfAbsent(mx.getName(), x -> new HashSet<>()).add(domain.getName());
-				
-				for (String address : mx.getAddresses()) {
-					domainsByAddress.computeIfAbsent(address, x -> new HashSet<>()).add(domain.getName());
-				}
-			}
-		}
-		
-		Map<String, Set<String>> mxByAddress = new HashMap<>();
-		Map<String, Set<String>> servicesByAddress = new HashMap<>();
-		for (MailServer mx : storage.getMailServers()) {
-			mx.setDomains(sorted(domainsByMx.getOrDefault(mx.getName(), Collections.emptySet())));
-			
-			for (String service : mx.getServices()) {
-				// Add mail server to service.
-				serviceByName.computeIfAbsent(service, name -> Service.create().setName(name)).getMailServers().add(mx.getName());
-			}
-			
-			for (String address : mx.getAddresses()) {
-				// Add service to address;
-				servicesByAddress.computeIfAbsent(address, x -> new HashSet<>()).addAll(mx.getServices());
-				mxByAddress.computeIfAbsent(address, x -> new HashSet<>()).add(mx.getName());
-			}
-		}
-		
-		storage.setServices(
-			serviceByName.values().stream().sorted(Comparator.comparing(s -> s.getName())).collect(Collectors.toList()));
-		
-		storage.setHosts(
-			servicesByAddress.entrySet()
-				.stream()
-				.map(e -> Host.create()
-					.setAddress(e.getKey())
-					.setServices(sorted(e.getValue()))
-					.setDomains(sorted(domainsByAddress.getOrDefault(e.getKey(), Collections.emptySet())))
-					.setMailServers(sorted(mxByAddress.getOrDefault(e.getKey(), Collections.emptySet()))))
-				.sorted(Comparator.comparing(h -> h.getAddress()))
-				.collect(Collectors.toList()));
-		
-		return sort(storage);
-	}
-
-	private Storage sort(Storage storage) {
-		for (MailServer server : storage.getMailServers()) {
-			server.setServices(sorted(server.getServices()));
-			server.setAddresses(sorted(server.getAddresses()));
-		}
-
-		for (Domain domain : storage.getDomains()) {
-			domain.setMailServers(sorted(domain.getMailServers()));
-			domain.setPotentialServices(sorted(domain.getPotentialServices()));
-		}
-
-		for (Host host : storage.getHosts()) {
-			host.setMailServers(sorted(host.getMailServers()));
-			host.setServices(sorted(host.getServices()));
-		}
-		
-		for (Service service : storage.getServices()) {
-			service.setAddresses(sorted(service.getAddresses()));
-			service.setDomains(sorted(service.getDomains()));
-			service.setMailServers(sorted(service.getMailServers()));
-		}
-		
-		return storage;
-	}
-
-	private List<? extends String> sorted(List<String> s) {
-		return s.stream().sorted().distinct().collect(Collectors.toList());
-	}
-
 	private void writeTo(OutputStream out, DataObject obj) throws IOException {
 		try (JsonWriter w = new JsonWriter(new WriterAdapter(new OutputStreamWriter(out, StandardCharsets.UTF_8)))) {
 			w.setIndent("\t");
@@ -668,7 +2394,7 @@ public class MxResolver {
 	}
 
 	private void resetDb() {
-		_db = Index.create();
+		setDb(Index.create());
 	}
 
 }
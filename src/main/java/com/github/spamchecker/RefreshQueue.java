@@ -0,0 +1,138 @@
+package com.github.spamchecker;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.github.spamchecker.model.Classification;
+import com.github.spamchecker.model.DomainData;
+import com.github.spamchecker.model.MxData;
+
+/**
+ * Selection of a limited number of domains and mail servers to resolve again.
+ *
+ * <p>
+ * The priority of an entry is the time since its last resolution weighted by the importance of
+ * its classification: Disposable and alias entries matter most, because their services move to
+ * new infrastructure, followed by dead entries that may have been revived. Regular entries are
+ * refreshed least often. Entries resolved less than a minimum age ago are not selected. Only the
+ * selected entries are kept, so that the memory needed is bounded by the budget, not by the size
+ * of the database.
+ * </p>
+ */
+public class RefreshQueue {
+
+	/**
+	 * A domain or mail server selected for resolution.
+	 */
+	public static final class Entry {
+		private final String _name;
+
+		private final boolean _mx;
+
+		private final double _priority;
+
+		Entry(String name, boolean mx, double priority) {
+			_name = name;
+			_mx = mx;
+			_priority = priority;
+		}
+
+		/**
+		 * The name of the domain or mail server.
+		 */
+		public String getName() {
+			return _name;
+		}
+
+		/**
+		 * Whether this is a mail server, otherwise a domain.
+		 */
+		public boolean isMx() {
+			return _mx;
+		}
+	}
+
+	private static final Comparator<Entry> BY_PRIORITY = Comparator.comparingDouble(e -> e._priority);
+
+	private final int _budget;
+
+	private final long _now;
+
+	private final long _minAge;
+
+	/**
+	 * The entries with the highest priority seen so far, the lowest first.
+	 */
+	private final PriorityQueue<Entry> _selected;
+
+	/**
+	 * Creates a {@link RefreshQueue}.
+	 *
+	 * @param budget The maximum number of entries to select.
+	 * @param now The current time in milliseconds since 1970.
+	 * @param minAge The time in milliseconds since the last resolution, before an entry may be
+	 *        selected.
+	 */
+	public RefreshQueue(int budget, long now, long minAge) {
+		_budget = budget;
+		_now = now;
+		_minAge = minAge;
+		_selected = new PriorityQueue<>(Math.max(1, budget), BY_PRIORITY);
+	}
+
+	/**
+	 * Considers the given domain for resolution.
+	 */
+	public void offerDomain(String name, DomainData domain) {
+		offer(name, false, domain.getResolved(), domain.getKind());
+	}
+
+	/**
+	 * Considers the given mail server for resolution.
+	 */
+	public void offerMx(String name, MxData mx) {
+		offer(name, true, mx.getResolved(), mx.getKind());
+	}
+
+	private void offer(String name, boolean mx, long resolved, Classification kind) {
+		long age = _now - resolved;
+		if (age < _minAge || _budget <= 0) {
+			return;
+		}
+
+		double priority = (double) age * weight(kind);
+		if (_selected.size() < _budget) {
+			_selected.add(new Entry(name, mx, priority));
+		} else if (priority > _selected.peek()._priority) {
+			_selected.poll();
+			_selected.add(new Entry(name, mx, priority));
+		}
+	}
+
+	private static int weight(Classification kind) {
+		switch (kind) {
+		case DISPOSABLE:
+		case ALIAS:
+			return 4;
+		case DEAD:
+			return 3;
+		case UNKNOWN:
+		case MIXED:
+			return 2;
+		default:
+			return 1;
+		}
+	}
+
+	/**
+	 * The selected entries, the highest priority first.
+	 */
+	public List<Entry> getSelected() {
+		List<Entry> result = new ArrayList<>(_selected);
+		result.sort(BY_PRIORITY.reversed());
+		return result;
+	}
+
+}
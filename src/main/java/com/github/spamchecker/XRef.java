@@ -0,0 +1,39 @@
+package com.github.spamchecker;
+
+import java.util.Set;
+
+import com.github.spamchecker.model.Classification;
+
+/**
+ * Cross references used to guess the classification of a new domain from the domains sharing
+ * its mail servers or their addresses.
+ */
+public interface XRef {
+
+	/**
+	 * The combined classification of all mail servers with the given address.
+	 */
+	Classification getAddressClassification(String address);
+
+	/**
+	 * The services of all domains using the given mail server.
+	 */
+	Set<String> getServicesByMx(String mx);
+
+	/**
+	 * The services of all domains using a mail server with the given address.
+	 */
+	Set<String> getServicesByAddress(String address);
+
+	/**
+	 * The combined classification of all mail servers with the given SMTP fingerprint, see
+	 * {@link com.github.spamchecker.smtp.SmtpFingerprint}.
+	 */
+	Classification getFingerprintClassification(String fingerprint);
+
+	/**
+	 * The services of all domains using a mail server with the given SMTP fingerprint.
+	 */
+	Set<String> getServicesByFingerprint(String fingerprint);
+
+}
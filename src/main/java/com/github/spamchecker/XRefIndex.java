@@ -1,19 +1,644 @@
 package com.github.spamchecker;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import com.github.spamchecker.model.Classification;
+import com.github.spamchecker.model.DomainData;
+import com.github.spamchecker.model.Index;
+import com.github.spamchecker.model.MxData;
 
-public class XRefIndex {
-	public Map<String, Classification> addressClassification;
-	public Map<String, Set<String>> serviceByMx;
-	public Map<String, Set<String>> serviceByAddress;
+/**
+ * Cross references between domains, mail servers, addresses and services of an {@link Index}.
+ *
+ * <p>
+ * The index is kept up to date while the {@link Index} is modified, all operations touch only the
+ * entries related to the modified domain or mail server.
+ * </p>
+ *
+ * <p>
+ * Added domains and domains with changed classification are recorded and propagated to their
+ * mail servers and addresses in {@link #updateClassifications()}.
+ * </p>
+ */
+public class XRefIndex implements XRef {
 
-	public XRefIndex(Map<String, Classification> addressClassification, Map<String, Set<String>> serviceByMx,
-			Map<String, Set<String>> serviceByAddress) {
-		this.addressClassification = addressClassification;
-		this.serviceByMx = serviceByMx;
-		this.serviceByAddress = serviceByAddress;
+	private final Index _db;
+
+	private final Map<String, Classification> _addressClassification = new HashMap<>();
+	private final Map<String, Set<String>> _serviceByMx = new HashMap<>();
+	private final Map<String, Set<String>> _serviceByAddress = new HashMap<>();
+
+	private final Map<String, Set<String>> _domainsByMx = new HashMap<>();
+	private final Map<String, Set<String>> _mxByAddress = new HashMap<>();
+
+	/**
+	 * The number of mail servers with an SMTP fingerprint by fingerprint and classification
+	 * ordinal.
+	 */
+	private final Map<String, int[]> _fingerprintKinds = new HashMap<>();
+	private final Map<String, Set<String>> _mxByFingerprint = new HashMap<>();
+
+	/**
+	 * Domains whose classification has not yet been propagated to their mail servers, mapped to
+	 * the classification that was last propagated.
+	 */
+	private final Map<String, Classification> _changedDomains = new HashMap<>();
+
+	/**
+	 * Creates a {@link XRefIndex} for all domains and mail servers currently in the given
+	 * {@link Index}.
+	 */
+	public XRefIndex(Index db) {
+		this(db, db.getMailServers().entrySet(), db.getDomains().entrySet());
+	}
+
+	/**
+	 * Creates a {@link XRefIndex} for the given part of the mail servers and domains of the given
+	 * {@link Index}.
+	 */
+	private XRefIndex(Index db, Collection<Entry<String, MxData>> mailServers, Collection<Entry<String, DomainData>> domains) {
+		_db = db;
+
+		for (Entry<String, MxData> entry : mailServers) {
+			addMx(entry.getKey(), entry.getValue());
+		}
+		for (Entry<String, DomainData> entry : domains) {
+			addDomain(entry.getKey(), entry.getValue());
+		}
+		
+		// The classification stored in the database is expected to be consistent.
+		_changedDomains.clear();
+	}
+
+	/**
+	 * Creates a {@link XRefIndex} for all domains and mail servers currently in the given
+	 * {@link Index} using the threads of the given pool.
+	 *
+	 * <p>
+	 * Mail servers and domains are partitioned, the cross references of each partition are
+	 * built in a separate task and merged afterwards. The result is the same as
+	 * {@link #XRefIndex(Index)}.
+	 * </p>
+	 */
+	public static XRefIndex build(Index db, ForkJoinPool pool) {
+		List<Entry<String, MxData>> mailServers = new ArrayList<>(db.getMailServers().entrySet());
+		List<Entry<String, DomainData>> domains = new ArrayList<>(db.getDomains().entrySet());
+		int partitions = 4 * pool.getParallelism();
+		return pool.invoke(new Build(db, mailServers, domains, 0, partitions, partitions));
+	}
+
+	/**
+	 * Builds the {@link XRefIndex} of a range of partitions and merges the results.
+	 */
+	private static final class Build extends RecursiveTask<XRefIndex> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Index _db;
+		private final List<Entry<String, MxData>> _mailServers;
+		private final List<Entry<String, DomainData>> _domains;
+		private final int _from;
+		private final int _to;
+		private final int _partitions;
+
+		Build(Index db, List<Entry<String, MxData>> mailServers, List<Entry<String, DomainData>> domains, int from, int to, int partitions) {
+			_db = db;
+			_mailServers = mailServers;
+			_domains = domains;
+			_from = from;
+			_to = to;
+			_partitions = partitions;
+		}
+
+		@Override
+		protected XRefIndex compute() {
+			if (_to - _from == 1) {
+				return new XRefIndex(_db, range(_mailServers), range(_domains));
+			}
+			
+			int middle = (_from + _to) / 2;
+			Build second = new Build(_db, _mailServers, _domains, middle, _to, _partitions);
+			second.fork();
+			XRefIndex result = new Build(_db, _mailServers, _domains, _from, middle, _partitions).compute();
+			result.merge(second.join());
+			return result;
+		}
+
+		private <T> List<T> range(List<T> entries) {
+			int size = entries.size();
+			return entries.subList(
+				(int) ((long) size * _from / _partitions),
+				(int) ((long) size * _to / _partitions));
+		}
+
+	}
+
+	/**
+	 * Adds the cross references of the given {@link XRefIndex} built from another part of the same
+	 * {@link Index}.
+	 */
+	private void merge(XRefIndex other) {
+		for (Entry<String, Classification> entry : other._addressClassification.entrySet()) {
+			_addressClassification.merge(entry.getKey(), entry.getValue(), MxResolver::combine);
+		}
+		merge(_serviceByMx, other._serviceByMx);
+		merge(_serviceByAddress, other._serviceByAddress);
+		merge(_domainsByMx, other._domainsByMx);
+		merge(_mxByAddress, other._mxByAddress);
+		merge(_mxByFingerprint, other._mxByFingerprint);
+		for (Entry<String, int[]> entry : other._fingerprintKinds.entrySet()) {
+			int[] existing = _fingerprintKinds.putIfAbsent(entry.getKey(), entry.getValue());
+			if (existing != null) {
+				for (int n = 0; n < existing.length; n++) {
+					existing[n] += entry.getValue()[n];
+				}
+			}
+		}
+	}
+
+	private static void merge(Map<String, Set<String>> target, Map<String, Set<String>> source) {
+		for (Entry<String, Set<String>> entry : source.entrySet()) {
+			Set<String> existing = target.putIfAbsent(entry.getKey(), entry.getValue());
+			if (existing != null) {
+				existing.addAll(entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * The combined classification of all mail servers with the given address.
+	 */
+	@Override
+	public Classification getAddressClassification(String address) {
+		return _addressClassification.getOrDefault(address, Classification.UNKNOWN);
+	}
+
+	/**
+	 * The services of all domains using the given mail server.
+	 */
+	@Override
+	public Set<String> getServicesByMx(String mx) {
+		return _serviceByMx.getOrDefault(mx, Collections.emptySet());
+	}
+
+	/**
+	 * The services of all domains using a mail server with the given address.
+	 */
+	@Override
+	public Set<String> getServicesByAddress(String address) {
+		return _serviceByAddress.getOrDefault(address, Collections.emptySet());
+	}
+
+	/**
+	 * The combined classification of all mail servers with the given SMTP fingerprint.
+	 */
+	@Override
+	public Classification getFingerprintClassification(String fingerprint) {
+		int[] counts = _fingerprintKinds.get(fingerprint);
+		return counts == null ? Classification.UNKNOWN : combined(counts);
+	}
+
+	/**
+	 * The combination of all classifications with a positive count.
+	 */
+	private static Classification combined(int[] counts) {
+		// Note: Combining is idempotent, each classification counts once.
+		Classification result = Classification.UNKNOWN;
+		for (Classification kind : Classification.values()) {
+			if (counts[kind.ordinal()] > 0) {
+				result = MxResolver.combine(result, kind);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The services of all domains using a mail server with the given SMTP fingerprint.
+	 */
+	@Override
+	public Set<String> getServicesByFingerprint(String fingerprint) {
+		Set<String> result = new HashSet<>();
+		for (String mx : _mxByFingerprint.getOrDefault(fingerprint, Collections.emptySet())) {
+			result.addAll(getServicesByMx(mx));
+		}
+		return result;
+	}
+
+	/**
+	 * The names of all domains using the given mail server.
+	 */
+	public Set<String> getDomainsByMx(String mx) {
+		return _domainsByMx.getOrDefault(mx, Collections.emptySet());
+	}
+
+	/**
+	 * The names of all mail servers with the given address.
+	 */
+	public Set<String> getMxByAddress(String address) {
+		return _mxByAddress.getOrDefault(address, Collections.emptySet());
+	}
+
+	/**
+	 * Updates the index after a mail server with its addresses was added to the {@link Index}.
+	 */
+	public void addMx(String name, MxData mx) {
+		Set<String> services = getServicesByMx(name);
+		for (String address : mx.getAddresses()) {
+			_mxByAddress.computeIfAbsent(address, x -> new HashSet<>()).add(name);
+
+			_addressClassification.put(address, MxResolver.combine(getAddressClassification(address), mx.getKind()));
+
+			if (!services.isEmpty()) {
+				_serviceByAddress.computeIfAbsent(address, x -> new HashSet<>()).addAll(services);
+			}
+		}
+		
+		String fingerprint = mx.getFingerprint();
+		if (fingerprint != null) {
+			_mxByFingerprint.computeIfAbsent(fingerprint, x -> new HashSet<>()).add(name);
+			countFingerprint(fingerprint, mx.getKind(), 1);
+		}
 	}
-}
\ No newline at end of file
+
+	private void countFingerprint(String fingerprint, Classification kind, int delta) {
+		_fingerprintKinds.computeIfAbsent(fingerprint, x -> new int[Classification.values().length])[kind.ordinal()] += delta;
+	}
+
+	/**
+	 * Updates the index after the SMTP fingerprint of the given mail server has changed.
+	 *
+	 * @param before The fingerprint of the mail server before the change.
+	 */
+	public void updateFingerprint(String name, MxData mx, String before) {
+		if (before != null) {
+			Set<String> mailServers = _mxByFingerprint.get(before);
+			if (mailServers != null && mailServers.remove(name)) {
+				countFingerprint(before, mx.getKind(), -1);
+				if (mailServers.isEmpty()) {
+					_mxByFingerprint.remove(before);
+					_fingerprintKinds.remove(before);
+				}
+			}
+		}
+		
+		String fingerprint = mx.getFingerprint();
+		if (fingerprint != null && _mxByFingerprint.computeIfAbsent(fingerprint, x -> new HashSet<>()).add(name)) {
+			countFingerprint(fingerprint, mx.getKind(), 1);
+		}
+	}
+
+	/**
+	 * Updates the index after a domain was added to the {@link Index}.
+	 *
+	 * <p>
+	 * All mail servers of the domain must already be part of the {@link Index}.
+	 * </p>
+	 */
+	public void addDomain(String name, DomainData domain) {
+		for (String mx : domain.getMailServers()) {
+			_domainsByMx.computeIfAbsent(mx, x -> new HashSet<>()).add(name);
+		}
+
+		String service = domain.getService();
+		if (service != null) {
+			addService(domain, service);
+		}
+		
+		// A new domain has not contributed to the classification of its mail servers yet.
+		_changedDomains.putIfAbsent(name, Classification.UNKNOWN);
+	}
+
+	/**
+	 * Records that the classification of the given domain has changed.
+	 *
+	 * @param before The classification of the domain before the change.
+	 */
+	public void updateDomainKind(String name, Classification before) {
+		_changedDomains.putIfAbsent(name, before);
+	}
+
+	/**
+	 * Updates the index after the given service was assigned to the given domain.
+	 */
+	public void addService(DomainData domain, String service) {
+		for (String mx : domain.getMailServers()) {
+			_serviceByMx.computeIfAbsent(mx, x -> new HashSet<>()).add(service);
+
+			MxData mxInfo = _db.getMailServers().get(mx);
+			for (String address : mxInfo.getAddresses()) {
+				_serviceByAddress.computeIfAbsent(address, x -> new HashSet<>()).add(service);
+			}
+		}
+	}
+
+	/**
+	 * Updates the index after the mail servers of the given domain have been replaced, e.g.
+	 * because the domain moved to another mail provider.
+	 *
+	 * <p>
+	 * The classification of mail servers no longer used by the domain and of mail servers
+	 * newly used by the domain is recomputed, the services of all its mail servers are
+	 * recomputed from its current service. All new mail servers must already be part of the
+	 * {@link Index}.
+	 * </p>
+	 *
+	 * @param before The mail servers of the domain before the change.
+	 * @return The names of all mail servers whose classification has changed.
+	 */
+	public Set<String> updateMailServers(String name, DomainData domain, Collection<String> before) {
+		Set<String> after = new HashSet<>(domain.getMailServers());
+		Set<String> touched = new HashSet<>();
+		for (String mx : before) {
+			if (!after.contains(mx)) {
+				Set<String> domains = _domainsByMx.get(mx);
+				if (domains != null) {
+					domains.remove(name);
+					if (domains.isEmpty()) {
+						_domainsByMx.remove(mx);
+					}
+				}
+				touched.add(mx);
+			}
+			
+			// The service of the domain may have changed, too.
+			updateMxServices(mx);
+		}
+		for (String mx : after) {
+			if (before.contains(mx)) {
+				continue;
+			}
+			_domainsByMx.computeIfAbsent(mx, x -> new HashSet<>()).add(name);
+			touched.add(mx);
+		}
+
+		String service = domain.getService();
+		if (service != null) {
+			addService(domain, service);
+		}
+
+		Set<String> changedMx = new HashSet<>();
+		for (String mx : touched) {
+			MxData mxInfo = _db.getMailServers().get(mx);
+			Classification kindBefore = mxInfo.getKind();
+			Classification kind = computeMxKind(mx);
+			if (kind != kindBefore) {
+				mxInfo.setKind(kind);
+				updateMxKind(mxInfo, kindBefore);
+				changedMx.add(mx);
+			}
+		}
+		return changedMx;
+	}
+
+	/**
+	 * Updates the index after the addresses of the given mail server have been replaced.
+	 *
+	 * @param before The addresses of the mail server before the change.
+	 */
+	public void updateAddresses(String name, MxData mx, Collection<String> before) {
+		Set<String> after = new HashSet<>(mx.getAddresses());
+		for (String address : before) {
+			if (after.contains(address)) {
+				continue;
+			}
+			Set<String> mailServers = _mxByAddress.get(address);
+			if (mailServers != null) {
+				mailServers.remove(name);
+				if (mailServers.isEmpty()) {
+					_mxByAddress.remove(address);
+					_addressClassification.remove(address);
+					_serviceByAddress.remove(address);
+					continue;
+				}
+			}
+			updateAddressClassification(address);
+			updateAddressServices(address);
+		}
+
+		Set<String> services = getServicesByMx(name);
+		for (String address : after) {
+			if (before.contains(address)) {
+				continue;
+			}
+			_mxByAddress.computeIfAbsent(address, x -> new HashSet<>()).add(name);
+			updateAddressClassification(address);
+			if (!services.isEmpty()) {
+				_serviceByAddress.computeIfAbsent(address, x -> new HashSet<>()).addAll(services);
+			}
+		}
+	}
+
+	/**
+	 * Recomputes the services of the given mail server from the domains using it.
+	 */
+	private void updateMxServices(String mx) {
+		Set<String> services = new HashSet<>();
+		for (String domain : getDomainsByMx(mx)) {
+			String service = _db.getDomains().get(domain).getService();
+			if (service != null) {
+				services.add(service);
+			}
+		}
+		if (services.isEmpty()) {
+			_serviceByMx.remove(mx);
+		} else {
+			_serviceByMx.put(mx, services);
+		}
+
+		MxData mxInfo = _db.getMailServers().get(mx);
+		if (mxInfo != null) {
+			for (String address : mxInfo.getAddresses()) {
+				updateAddressServices(address);
+			}
+		}
+	}
+
+	/**
+	 * Recomputes the services of the given address from the mail servers using it.
+	 */
+	private void updateAddressServices(String address) {
+		Set<String> services = new HashSet<>();
+		for (String mx : getMxByAddress(address)) {
+			services.addAll(getServicesByMx(mx));
+		}
+		if (services.isEmpty()) {
+			_serviceByAddress.remove(address);
+		} else {
+			_serviceByAddress.put(address, services);
+		}
+	}
+
+	/**
+	 * Updates the index after the classification of the given mail server has changed.
+	 *
+	 * @param before The classification of the mail server before the change.
+	 */
+	public void updateMxKind(MxData mx, Classification before) {
+		for (String address : mx.getAddresses()) {
+			updateAddressClassification(address);
+		}
+		
+		String fingerprint = mx.getFingerprint();
+		if (fingerprint != null) {
+			countFingerprint(fingerprint, before, -1);
+			countFingerprint(fingerprint, mx.getKind(), 1);
+		}
+	}
+
+	/**
+	 * Propagates the classification of all changed domains to their mail servers and their
+	 * addresses.
+	 *
+	 * <p>
+	 * A mail server is classified as the combination of the classification of all domains using
+	 * it. The effort is proportional to the number of mail servers and addresses of changed
+	 * domains.
+	 * </p>
+	 *
+	 * @return The names of all mail servers whose classification has changed.
+	 */
+	public Set<String> updateClassifications() {
+		Map<String, Classification> changedMx = new HashMap<>();
+		for (Entry<String, Classification> entry : _changedDomains.entrySet()) {
+			DomainData domain = _db.getDomains().get(entry.getKey());
+			if (domain == null) {
+				continue;
+			}
+			
+			// Adding a classification can only make mail server classification more specific.
+			boolean additive = entry.getValue() == Classification.UNKNOWN;
+			for (String mx : domain.getMailServers()) {
+				MxData mxInfo = _db.getMailServers().get(mx);
+				Classification before = mxInfo.getKind();
+				Classification after = additive ? MxResolver.combine(before, domain.getKind()) : computeMxKind(mx);
+				if (after != before) {
+					mxInfo.setKind(after);
+					changedMx.putIfAbsent(mx, before);
+				}
+			}
+		}
+		_changedDomains.clear();
+		
+		for (Entry<String, Classification> entry : changedMx.entrySet()) {
+			updateMxKind(_db.getMailServers().get(entry.getKey()), entry.getValue());
+		}
+		return changedMx.keySet();
+	}
+
+	/**
+	 * Computes the classification of the given mail server from the domains using it.
+	 */
+	public Classification computeMxKind(String mx) {
+		return computeMxKind(mx, null);
+	}
+
+	/**
+	 * Computes the classification of the given mail server from the domains using it except the
+	 * given one.
+	 */
+	private Classification computeMxKind(String mx, String excludedDomain) {
+		Classification result = Classification.UNKNOWN;
+		for (String domain : getDomainsByMx(mx)) {
+			if (!domain.equals(excludedDomain)) {
+				result = MxResolver.combine(result, _db.getDomains().get(domain).getKind());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The classification of the given domain guessed from the classification of its mail
+	 * servers and their addresses, as if the domain itself did not contribute to them.
+	 *
+	 * <p>
+	 * This is the classification a new domain with the same mail servers would get. The effort
+	 * is proportional to the number of domains sharing mail servers with the given domain.
+	 * </p>
+	 */
+	public Classification guessKind(String name, DomainData domain) {
+		Classification mxGuess = Classification.UNKNOWN;
+		Classification addressGuess = Classification.UNKNOWN;
+		for (String mx : domain.getMailServers()) {
+			mxGuess = MxResolver.anyDisposable(mxGuess, computeMxKind(mx, name));
+
+			for (String address : _db.getMailServers().get(mx).getAddresses()) {
+				Classification addressKind = Classification.UNKNOWN;
+				for (String other : getMxByAddress(address)) {
+					Classification otherKind = getDomainsByMx(other).contains(name) ? computeMxKind(other, name) : _db.getMailServers().get(other).getKind();
+					addressKind = MxResolver.combine(addressKind, otherKind);
+				}
+				addressGuess = MxResolver.anyDisposable(addressGuess, addressKind);
+			}
+		}
+		if (mxGuess != Classification.UNKNOWN) {
+			return mxGuess;
+		}
+		if (addressGuess != Classification.UNKNOWN) {
+			return addressGuess;
+		}
+		return guessFingerprintKind(name, domain);
+	}
+
+	/**
+	 * The classification of the given domain guessed from the SMTP fingerprints of its mail
+	 * servers, as if the domain itself did not contribute to the classification of its mail
+	 * servers.
+	 */
+	private Classification guessFingerprintKind(String name, DomainData domain) {
+		Classification result = Classification.UNKNOWN;
+		for (String mx : domain.getMailServers()) {
+			String fingerprint = _db.getMailServers().get(mx).getFingerprint();
+			int[] counts = fingerprint == null ? null : _fingerprintKinds.get(fingerprint);
+			if (counts == null) {
+				continue;
+			}
+			
+			counts = counts.clone();
+			for (String other : domain.getMailServers()) {
+				MxData otherMx = _db.getMailServers().get(other);
+				if (fingerprint.equals(otherMx.getFingerprint())) {
+					counts[otherMx.getKind().ordinal()]--;
+					counts[computeMxKind(other, name).ordinal()]++;
+				}
+			}
+			result = MxResolver.anyDisposable(result, MxResolver.fingerprintGuess(combined(counts)));
+		}
+		return result;
+	}
+
+	private void updateAddressClassification(String address) {
+		Classification classification = Classification.UNKNOWN;
+		for (String mx : getMxByAddress(address)) {
+			classification = MxResolver.combine(classification, _db.getMailServers().get(mx).getKind());
+		}
+		_addressClassification.put(address, classification);
+	}
+
+	/**
+	 * Recomputes the classification of all addresses and SMTP fingerprints, e.g. after all mail
+	 * servers have been reclassified.
+	 */
+	public void updateAddressClassifications() {
+		for (String address : _mxByAddress.keySet()) {
+			updateAddressClassification(address);
+		}
+		
+		_fingerprintKinds.clear();
+		for (Entry<String, Set<String>> entry : _mxByFingerprint.entrySet()) {
+			for (String mx : entry.getValue()) {
+				countFingerprint(entry.getKey(), _db.getMailServers().get(mx).getKind(), 1);
+			}
+		}
+	}
+
+}
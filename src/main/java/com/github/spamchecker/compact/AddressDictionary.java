@@ -0,0 +1,208 @@
+package com.github.spamchecker.compact;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.xbill.DNS.Address;
+
+/**
+ * Assigns consecutive int IDs to IP addresses.
+ *
+ * <p>
+ * Addresses are stored as packed 128 bit values (IPv4 addresses in their IPv4-mapped IPv6 form)
+ * in two primitive arrays. The textual form is recreated on demand. Addresses whose textual form
+ * is not the canonical one produced by {@link InetAddress#getHostAddress()} are kept as strings
+ * to reproduce them exactly.
+ * </p>
+ */
+public final class AddressDictionary {
+
+	private static final long IPV4_PREFIX = 0xFFFF00000000L;
+
+	private long[] _high;
+
+	private long[] _low;
+
+	private int[] _table;
+
+	private int _size;
+
+	private final Map<String, Integer> _irregularIds = new HashMap<>();
+
+	private final Map<Integer, String> _irregularNames = new HashMap<>();
+
+	/**
+	 * Creates a {@link AddressDictionary}.
+	 */
+	public AddressDictionary(int expectedSize) {
+		int capacity = Math.max(16, expectedSize);
+		_high = new long[capacity];
+		_low = new long[capacity];
+		_table = newTable(capacity);
+	}
+
+	/**
+	 * The number of addresses in this dictionary.
+	 */
+	public int size() {
+		return _size;
+	}
+
+	/**
+	 * The textual form of the address with the given ID.
+	 */
+	public String name(int id) {
+		String irregular = _irregularNames.get(id);
+		if (irregular != null) {
+			return irregular;
+		}
+		return format(_high[id], _low[id]);
+	}
+
+	/**
+	 * The ID of the given address, <code>-1</code>, if not contained.
+	 */
+	public int find(String address) {
+		Integer irregular = _irregularIds.get(address);
+		if (irregular != null) {
+			return irregular.intValue();
+		}
+
+		long[] packed = pack(address);
+		if (packed == null) {
+			return -1;
+		}
+
+		int mask = _table.length - 1;
+		for (int slot = hash(packed[0], packed[1]) & mask; ; slot = (slot + 1) & mask) {
+			int id = _table[slot];
+			if (id < 0) {
+				return -1;
+			}
+			if (_high[id] == packed[0] && _low[id] == packed[1]) {
+				// A non-canonical form of a known address is a different entry.
+				return format(packed[0], packed[1]).equals(address) ? id : -1;
+			}
+		}
+	}
+
+	/**
+	 * The ID of the given address, the address is added, if it was not yet contained.
+	 */
+	public int intern(String address) {
+		long[] packed = pack(address);
+		if (packed == null || !format(packed[0], packed[1]).equals(address)) {
+			Integer existing = _irregularIds.get(address);
+			if (existing != null) {
+				return existing.intValue();
+			}
+			int id = allocate(-1L, -1L);
+			_irregularIds.put(address, id);
+			_irregularNames.put(id, address);
+			return id;
+		}
+
+		long high = packed[0];
+		long low = packed[1];
+		int mask = _table.length - 1;
+		int slot = hash(high, low) & mask;
+		for (; ; slot = (slot + 1) & mask) {
+			int id = _table[slot];
+			if (id < 0) {
+				break;
+			}
+			if (_high[id] == high && _low[id] == low) {
+				return id;
+			}
+		}
+
+		int id = allocate(high, low);
+		_table[slot] = id;
+		if (2 * _size > _table.length) {
+			rehash();
+		}
+		return id;
+	}
+
+	private int allocate(long high, long low) {
+		int id = _size++;
+		if (id == _high.length) {
+			_high = Arrays.copyOf(_high, 2 * id);
+			_low = Arrays.copyOf(_low, 2 * id);
+		}
+		_high[id] = high;
+		_low[id] = low;
+		return id;
+	}
+
+	private void rehash() {
+		_table = newTable(2 * _table.length);
+		int mask = _table.length - 1;
+		for (int id = 0; id < _size; id++) {
+			if (_irregularNames.containsKey(id)) {
+				continue;
+			}
+			int slot = hash(_high[id], _low[id]) & mask;
+			while (_table[slot] >= 0) {
+				slot = (slot + 1) & mask;
+			}
+			_table[slot] = id;
+		}
+	}
+
+	/**
+	 * Packs the given textual IP address into two longs, <code>null</code>, if the given value is
+	 * not an IP address.
+	 */
+	static long[] pack(String address) {
+		byte[] bytes = Address.toByteArray(address, Address.IPv4);
+		if (bytes != null) {
+			return new long[] {0, IPV4_PREFIX | (toLong(bytes, 0, 4) & 0xFFFFFFFFL)};
+		}
+		bytes = Address.toByteArray(address, Address.IPv6);
+		if (bytes != null) {
+			return new long[] {toLong(bytes, 0, 8), toLong(bytes, 8, 8)};
+		}
+		return null;
+	}
+
+	private static long toLong(byte[] bytes, int offset, int length) {
+		long result = 0;
+		for (int n = offset, end = offset + length; n < end; n++) {
+			result = (result << 8) | (bytes[n] & 0xFF);
+		}
+		return result;
+	}
+
+	static String format(long high, long low) {
+		if (high == 0 && (low & 0xFFFFFFFF00000000L) == IPV4_PREFIX) {
+			return ((low >>> 24) & 0xFF) + "." + ((low >>> 16) & 0xFF) + "." + ((low >>> 8) & 0xFF) + "." + (low & 0xFF);
+		}
+
+		byte[] bytes = new byte[16];
+		for (int n = 0; n < 8; n++) {
+			bytes[n] = (byte) (high >>> (56 - 8 * n));
+			bytes[8 + n] = (byte) (low >>> (56 - 8 * n));
+		}
+		try {
+			return InetAddress.getByAddress(bytes).getHostAddress();
+		} catch (UnknownHostException ex) {
+			throw new IllegalArgumentException(ex);
+		}
+	}
+
+	private static int[] newTable(int minSize) {
+		int[] result = new int[Integer.highestOneBit(minSize - 1) << 2];
+		Arrays.fill(result, -1);
+		return result;
+	}
+
+	private static int hash(long high, long low) {
+		long h = high * 0x9E3779B97F4A7C15L ^ low * 0xC2B2AE3D27D4EB4FL;
+		return (int) (h ^ (h >>> 32));
+	}
+
+}
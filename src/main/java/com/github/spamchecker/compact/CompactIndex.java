@@ -0,0 +1,641 @@
+package com.github.spamchecker.compact;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.function.IntFunction;
+
+import com.github.spamchecker.MxResolver;
+import com.github.spamchecker.dns.DnsAnswer;
+import com.github.spamchecker.model.Classification;
+import com.github.spamchecker.model.Domain;
+import com.github.spamchecker.model.DomainData;
+import com.github.spamchecker.model.Heuristics;
+import com.github.spamchecker.model.Host;
+import com.github.spamchecker.model.Index;
+import com.github.spamchecker.model.MailServer;
+import com.github.spamchecker.model.MxData;
+import com.github.spamchecker.model.Service;
+import com.github.spamchecker.model.Storage;
+
+/**
+ * Dictionary-encoded alternative to {@link Index}.
+ *
+ * <p>
+ * Domain, mail server and service names and SMTP fingerprints are interned to consecutive int
+ * IDs, IP addresses are stored as packed primitives (see {@link AddressDictionary}). All properties of domains and mail
+ * servers are kept in primitive arrays indexed by ID, references between them are int arrays.
+ * </p>
+ */
+public final class CompactIndex {
+
+	private static final Classification[] KINDS = Classification.values();
+
+	private static final Heuristics[] HEURISTICS = Heuristics.values();
+
+	private final NameDictionary _domains;
+
+	private final NameDictionary _mailServers;
+
+	private final NameDictionary _services;
+
+	private final AddressDictionary _addresses;
+
+	private final NameDictionary _fingerprints;
+
+	private byte[] _mxKind;
+
+	private int[][] _mxAddresses;
+
+	private long[] _mxResolved;
+
+	private int[] _mxFingerprint;
+
+	private long[] _mxProbed;
+
+	private byte[] _domainKind;
+
+	private byte[] _domainHeuristics;
+
+	private int[] _domainService;
+
+	private int[][] _domainMx;
+
+	private int[][] _domainPotentialServices;
+
+	private long[] _domainResolved;
+
+	/**
+	 * Creates an empty {@link CompactIndex}.
+	 */
+	public CompactIndex(int expectedDomains, int expectedMailServers) {
+		int domainCapacity = Math.max(16, expectedDomains);
+		int mxCapacity = Math.max(16, expectedMailServers);
+
+		_domains = new NameDictionary(domainCapacity);
+		_mailServers = new NameDictionary(mxCapacity);
+		_services = new NameDictionary(16);
+		_addresses = new AddressDictionary(mxCapacity);
+		_fingerprints = new NameDictionary(16);
+
+		_mxKind = new byte[mxCapacity];
+		_mxAddresses = new int[mxCapacity][];
+		_mxResolved = new long[mxCapacity];
+		_mxFingerprint = new int[mxCapacity];
+		_mxProbed = new long[mxCapacity];
+
+		_domainKind = new byte[domainCapacity];
+		_domainHeuristics = new byte[domainCapacity];
+		_domainService = new int[domainCapacity];
+		_domainMx = new int[domainCapacity][];
+		_domainPotentialServices = new int[domainCapacity][];
+		_domainResolved = new long[domainCapacity];
+	}
+
+	/**
+	 * Creates a {@link CompactIndex} with the contents of the given {@link Index}.
+	 */
+	public static CompactIndex fromIndex(Index db) {
+		CompactIndex result = new CompactIndex(db.getDomains().size(), db.getMailServers().size());
+		for (Entry<String, MxData> entry : db.getMailServers().entrySet()) {
+			MxData mx = entry.getValue();
+			int id = result.addMx(entry.getKey(), mx.getKind(), mx.getAddresses());
+			result._mxResolved[id] = mx.getResolved();
+			result._mxFingerprint[id] = mx.getFingerprint() == null ? -1 : result._fingerprints.intern(mx.getFingerprint());
+			result._mxProbed[id] = mx.getProbed();
+		}
+		for (Entry<String, DomainData> entry : db.getDomains().entrySet()) {
+			result.addDomain(entry.getKey(), entry.getValue());
+		}
+		return result;
+	}
+
+	/**
+	 * The domain names, the ID of a name is the ID of the domain.
+	 */
+	public NameDictionary domains() {
+		return _domains;
+	}
+
+	/**
+	 * The mail server names, the ID of a name is the ID of the mail server.
+	 */
+	public NameDictionary mailServers() {
+		return _mailServers;
+	}
+
+	/**
+	 * The service names.
+	 */
+	public NameDictionary services() {
+		return _services;
+	}
+
+	/**
+	 * The addresses of all mail servers.
+	 */
+	public AddressDictionary addresses() {
+		return _addresses;
+	}
+
+	/**
+	 * Whether the given mail server is known.
+	 */
+	public boolean hasMailServer(String mx) {
+		return _mailServers.find(mx) >= 0;
+	}
+
+	/**
+	 * The classification of the domain with the given ID.
+	 */
+	public Classification getDomainKind(int domain) {
+		return KINDS[_domainKind[domain]];
+	}
+
+	/**
+	 * The heuristics that classified the domain with the given ID.
+	 */
+	public Heuristics getDomainHeuristics(int domain) {
+		return HEURISTICS[_domainHeuristics[domain]];
+	}
+
+	/**
+	 * The service ID of the domain with the given ID, <code>-1</code>, if none.
+	 */
+	public int getDomainService(int domain) {
+		return _domainService[domain];
+	}
+
+	/**
+	 * The mail server IDs of the domain with the given ID.
+	 */
+	public int[] getDomainMx(int domain) {
+		return _domainMx[domain];
+	}
+
+	/**
+	 * The IDs of the services the domain with the given ID may belong to.
+	 */
+	public int[] getDomainPotentialServices(int domain) {
+		return _domainPotentialServices[domain];
+	}
+
+	/**
+	 * The time of the last resolution of the domain with the given ID in milliseconds since 1970.
+	 */
+	public long getDomainResolved(int domain) {
+		return _domainResolved[domain];
+	}
+
+	/**
+	 * The classification of the mail server with the given ID.
+	 */
+	public Classification getMxKind(int mx) {
+		return KINDS[_mxKind[mx]];
+	}
+
+	/**
+	 * The address IDs of the mail server with the given ID.
+	 */
+	public int[] getMxAddresses(int mx) {
+		return _mxAddresses[mx];
+	}
+
+	/**
+	 * The time of the last resolution of the mail server with the given ID in milliseconds since
+	 * 1970.
+	 */
+	public long getMxResolved(int mx) {
+		return _mxResolved[mx];
+	}
+
+	/**
+	 * The SMTP fingerprint of the mail server with the given ID, <code>null</code>, if none.
+	 */
+	public String getMxFingerprint(int mx) {
+		int fingerprint = _mxFingerprint[mx];
+		return fingerprint < 0 ? null : _fingerprints.name(fingerprint);
+	}
+
+	/**
+	 * The time of the last SMTP probe of the mail server with the given ID in milliseconds since
+	 * 1970, <code>0</code>, if never probed.
+	 */
+	public long getMxProbed(int mx) {
+		return _mxProbed[mx];
+	}
+
+	private int addMx(String name, Classification kind, Collection<String> addresses) {
+		int mx = mxId(name);
+		_mxKind[mx] = (byte) kind.ordinal();
+
+		int[] ids = new int[addresses.size()];
+		int n = 0;
+		for (String address : addresses) {
+			ids[n++] = _addresses.intern(address);
+		}
+		_mxAddresses[mx] = ids;
+		return mx;
+	}
+
+	private int addDomain(String name, DomainData data) {
+		int domain = domainId(name);
+		_domainKind[domain] = (byte) data.getKind().ordinal();
+		_domainHeuristics[domain] = (byte) data.getHeuristics().ordinal();
+		_domainService[domain] = data.getService() == null ? -1 : _services.intern(data.getService());
+		_domainResolved[domain] = data.getResolved();
+
+		List<String> mailServers = data.getMailServers();
+		int[] mxIds = new int[mailServers.size()];
+		for (int n = 0, cnt = mxIds.length; n < cnt; n++) {
+			mxIds[n] = mxId(mailServers.get(n));
+		}
+		_domainMx[domain] = mxIds;
+
+		List<String> potentialServices = data.getPotentialServices();
+		int[] serviceIds = new int[potentialServices.size()];
+		for (int n = 0, cnt = serviceIds.length; n < cnt; n++) {
+			serviceIds[n] = _services.intern(potentialServices.get(n));
+		}
+		_domainPotentialServices[domain] = serviceIds;
+		return domain;
+	}
+
+	private int domainId(String name) {
+		int domain = _domains.intern(name);
+		if (domain >= _domainKind.length) {
+			int capacity = Math.max(domain + 1, 2 * _domainKind.length);
+			_domainKind = Arrays.copyOf(_domainKind, capacity);
+			_domainHeuristics = Arrays.copyOf(_domainHeuristics, capacity);
+			_domainService = Arrays.copyOf(_domainService, capacity);
+			_domainMx = Arrays.copyOf(_domainMx, capacity);
+			_domainPotentialServices = Arrays.copyOf(_domainPotentialServices, capacity);
+			_domainResolved = Arrays.copyOf(_domainResolved, capacity);
+		}
+		if (_domainMx[domain] == null) {
+			_domainService[domain] = -1;
+			_domainMx[domain] = IntSets.EMPTY;
+			_domainPotentialServices[domain] = IntSets.EMPTY;
+		}
+		return domain;
+	}
+
+	private int mxId(String name) {
+		int mx = _mailServers.intern(name);
+		if (mx >= _mxKind.length) {
+			int capacity = Math.max(mx + 1, 2 * _mxKind.length);
+			_mxKind = Arrays.copyOf(_mxKind, capacity);
+			_mxAddresses = Arrays.copyOf(_mxAddresses, capacity);
+			_mxResolved = Arrays.copyOf(_mxResolved, capacity);
+			_mxFingerprint = Arrays.copyOf(_mxFingerprint, capacity);
+			_mxProbed = Arrays.copyOf(_mxProbed, capacity);
+		}
+		if (_mxAddresses[mx] == null) {
+			_mxAddresses[mx] = IntSets.EMPTY;
+			_mxFingerprint[mx] = -1;
+		}
+		return mx;
+	}
+
+	/**
+	 * Builds the cross references for classifying new domains with
+	 * {@link #query(String, DnsAnswer, CompactXRef)}.
+	 */
+	public CompactXRef buildIndex() {
+		return new CompactXRef(this);
+	}
+
+	/**
+	 * Enters the given domain with the given DNS information and guesses its classification.
+	 *
+	 * @return The ID of the domain. If the domain is already known, its ID is returned without
+	 *         modification.
+	 */
+	public int query(String domain, DnsAnswer answer, CompactXRef index) {
+		int existing = _domains.find(domain);
+		if (existing >= 0) {
+			return existing;
+		}
+
+		int id = domainId(domain);
+		_domainResolved[id] = System.currentTimeMillis();
+		fillFromAnswer(id, domain, answer);
+		guessClassification(id, index);
+		return id;
+	}
+
+	/**
+	 * Enters the given domain without DNS information, classified like the given ancestor domain
+	 * (see {@link Heuristics#PARENT}).
+	 *
+	 * @return The ID of the domain. If the domain is already known, its ID is returned without
+	 *         modification.
+	 */
+	public int inherit(String domain, int ancestor) {
+		int existing = _domains.find(domain);
+		if (existing >= 0) {
+			return existing;
+		}
+
+		int id = domainId(domain);
+		setKind(id, getDomainKind(ancestor), Heuristics.PARENT);
+		_domainService[id] = _domainService[ancestor];
+		return id;
+	}
+
+	private void fillFromAnswer(int domain, String name, DnsAnswer answer) {
+		List<String> mailServers = answer.getMailServers();
+		if (mailServers == null) {
+			// Domain is its own mail server.
+			if (!enterMx(domain, name, answer)) {
+				setKind(domain, Classification.DEAD, Heuristics.NO_FALLBACK_MX);
+			}
+		} else {
+			boolean alive = false;
+			for (String mailServer : mailServers) {
+				alive |= enterMx(domain, mailServer, answer);
+			}
+			if (!alive) {
+				setKind(domain, Classification.DEAD, Heuristics.NO_RESOLVABLE_MX);
+			}
+		}
+	}
+
+	private boolean enterMx(int domain, String mailServer, DnsAnswer answer) {
+		int mx = _mailServers.find(mailServer);
+		if (mx < 0) {
+			List<String> addresses = answer.getAddresses(mailServer);
+			mx = addMx(mailServer, Classification.UNKNOWN, addresses);
+			_mxResolved[mx] = System.currentTimeMillis();
+			if (addresses.isEmpty()) {
+				return false;
+			}
+		}
+
+		int[] mxIds = _domainMx[domain];
+		mxIds = Arrays.copyOf(mxIds, mxIds.length + 1);
+		mxIds[mxIds.length - 1] = mx;
+		_domainMx[domain] = mxIds;
+		return true;
+	}
+
+	private void guessClassification(int domain, CompactXRef index) {
+		Classification mxGuess = Classification.UNKNOWN;
+		Classification addressGuess = Classification.UNKNOWN;
+		int[] mxServices = IntSets.EMPTY;
+		int[] addressServices = IntSets.EMPTY;
+		for (int mx : _domainMx[domain]) {
+			mxGuess = MxResolver.anyDisposable(mxGuess, getMxKind(mx));
+
+			for (int address : _mxAddresses[mx]) {
+				addressGuess = MxResolver.anyDisposable(addressGuess, index.getAddressClassification(address));
+
+				addressServices = IntSets.addAll(addressServices, index.getServicesByAddress(address));
+			}
+
+			mxServices = IntSets.addAll(mxServices, index.getServicesByMx(mx));
+		}
+
+		if (mxGuess != Classification.UNKNOWN) {
+			setKind(domain, mxGuess, Heuristics.MX);
+			setService(domain, mxServices, index);
+			return;
+		}
+
+		if (addressGuess != Classification.UNKNOWN) {
+			setKind(domain, addressGuess, Heuristics.IP);
+			setService(domain, addressServices, index);
+			return;
+		}
+
+		if (getDomainKind(domain) != Classification.DEAD) {
+			_domainHeuristics[domain] = (byte) Heuristics.NONE.ordinal();
+		}
+	}
+
+	private void setKind(int domain, Classification kind, Heuristics heuristics) {
+		_domainKind[domain] = (byte) kind.ordinal();
+		_domainHeuristics[domain] = (byte) heuristics.ordinal();
+	}
+
+	private void setService(int domain, int[] services, CompactXRef index) {
+		if (services.length == 1) {
+			_domainService[domain] = services[0];
+			index.addService(this, domain, services[0]);
+		} else {
+			_domainPotentialServices[domain] = services;
+		}
+	}
+
+	/**
+	 * Creates a {@link CompactIndex} with the given domains and the mail servers they use.
+	 *
+	 * <p>
+	 * The classification of the mail servers in the result is computed from the given domains
+	 * only.
+	 * </p>
+	 */
+	public CompactIndex subset(int[] domains) {
+		CompactIndex result = new CompactIndex(domains.length, domains.length);
+		for (int domain : domains) {
+			int copy = result.domainId(_domains.name(domain));
+			result._domainKind[copy] = _domainKind[domain];
+			result._domainHeuristics[copy] = _domainHeuristics[domain];
+			result._domainResolved[copy] = _domainResolved[domain];
+
+			int service = _domainService[domain];
+			result._domainService[copy] = service < 0 ? -1 : result._services.intern(_services.name(service));
+
+			int[] potentialServices = _domainPotentialServices[domain];
+			int[] potentialCopy = new int[potentialServices.length];
+			for (int n = 0; n < potentialCopy.length; n++) {
+				potentialCopy[n] = result._services.intern(_services.name(potentialServices[n]));
+			}
+			result._domainPotentialServices[copy] = potentialCopy;
+
+			int[] mxIds = _domainMx[domain];
+			int[] mxCopy = new int[mxIds.length];
+			for (int n = 0; n < mxCopy.length; n++) {
+				int mx = mxIds[n];
+				String name = _mailServers.name(mx);
+				int existing = result._mailServers.find(name);
+				if (existing >= 0) {
+					mxCopy[n] = existing;
+				} else {
+					int[] addresses = _mxAddresses[mx];
+					List<String> addressNames = new ArrayList<>(addresses.length);
+					for (int address : addresses) {
+						addressNames.add(_addresses.name(address));
+					}
+					mxCopy[n] = result.addMx(name, Classification.UNKNOWN, addressNames);
+					result._mxResolved[mxCopy[n]] = _mxResolved[mx];
+					String fingerprint = getMxFingerprint(mx);
+					result._mxFingerprint[mxCopy[n]] = fingerprint == null ? -1 : result._fingerprints.intern(fingerprint);
+					result._mxProbed[mxCopy[n]] = _mxProbed[mx];
+				}
+			}
+			result._domainMx[copy] = mxCopy;
+		}
+		result.recomputeClassifications();
+		return result;
+	}
+
+	/**
+	 * Recomputes the classification of all mail servers from the classification of the domains
+	 * using them.
+	 */
+	public void recomputeClassifications() {
+		Arrays.fill(_mxKind, (byte) Classification.UNKNOWN.ordinal());
+		for (int domain = 0, cnt = _domains.size(); domain < cnt; domain++) {
+			Classification kind = getDomainKind(domain);
+			for (int mx : _domainMx[domain]) {
+				_mxKind[mx] = (byte) MxResolver.combine(getMxKind(mx), kind).ordinal();
+			}
+		}
+	}
+
+	/**
+	 * Creates the cross-referenced {@link Storage} representation.
+	 *
+	 * <p>
+	 * The result is the same as the one created from the equivalent {@link Index}.
+	 * </p>
+	 */
+	public Storage xref() {
+		int domainCount = _domains.size();
+		int mxCount = _mailServers.size();
+		int serviceCount = _services.size();
+		int addressCount = _addresses.size();
+
+		int[][] domainMx = new int[domainCount][];
+		int[][] domainServices = new int[domainCount][];
+		for (int domain = 0; domain < domainCount; domain++) {
+			domainMx[domain] = IntSets.of(_domainMx[domain], _domainMx[domain].length);
+
+			int[] potentialServices = _domainPotentialServices[domain];
+			int[] services = IntSets.of(potentialServices, potentialServices.length);
+			if (_domainService[domain] >= 0) {
+				services = IntSets.add(services, _domainService[domain]);
+			}
+			domainServices[domain] = services;
+		}
+
+		int[][] mxAddresses = new int[mxCount][];
+		for (int mx = 0; mx < mxCount; mx++) {
+			mxAddresses[mx] = IntSets.of(_mxAddresses[mx], _mxAddresses[mx].length);
+		}
+
+		int[][] mxDomains = invert(domainMx, mxCount);
+		int[][] mxServices = new int[mxCount][];
+		for (int mx = 0; mx < mxCount; mx++) {
+			mxServices[mx] = IntSets.union(domainServices, mxDomains[mx]);
+		}
+
+		int[][] serviceDomains = invert(domainServices, serviceCount);
+		int[][] serviceMx = invert(mxServices, serviceCount);
+		int[][] addressMx = invert(mxAddresses, addressCount);
+
+		List<Domain> domains = new ArrayList<>(domainCount);
+		for (int domain = 0; domain < domainCount; domain++) {
+			int service = _domainService[domain];
+			domains.add(Domain.create()
+				.setName(_domains.name(domain))
+				.setHeuristics(getDomainHeuristics(domain))
+				.setKind(getDomainKind(domain))
+				.setMailServers(names(domainMx[domain], _mailServers::name))
+				.setPotentialServices(names(IntSets.of(_domainPotentialServices[domain], _domainPotentialServices[domain].length), _services::name))
+				.setService(service < 0 ? null : _services.name(service))
+				.setResolved(_domainResolved[domain]));
+		}
+		domains.sort((x, y) -> x.getName().compareTo(y.getName()));
+
+		List<MailServer> mailServers = new ArrayList<>(mxCount);
+		for (int mx = 0; mx < mxCount; mx++) {
+			mailServers.add(MailServer.create()
+				.setName(_mailServers.name(mx))
+				.setAddresses(names(mxAddresses[mx], _addresses::name))
+				.setKind(getMxKind(mx))
+				.setResolved(_mxResolved[mx])
+				.setFingerprint(getMxFingerprint(mx))
+				.setProbed(_mxProbed[mx])
+				.setServices(names(mxServices[mx], _services::name))
+				.setDomains(names(mxDomains[mx], _domains::name)));
+		}
+		mailServers.sort((x, y) -> x.getName().compareTo(y.getName()));
+
+		List<Service> services = new ArrayList<>(serviceCount);
+		for (int service = 0; service < serviceCount; service++) {
+			if (serviceDomains[service].length == 0) {
+				continue;
+			}
+			services.add(Service.create()
+				.setName(_services.name(service))
+				.setDomains(names(serviceDomains[service], _domains::name))
+				.setMailServers(names(serviceMx[service], _mailServers::name))
+				.setAddresses(names(IntSets.union(mxAddresses, serviceMx[service]), _addresses::name)));
+		}
+		services.sort((x, y) -> x.getName().compareTo(y.getName()));
+
+		List<Host> hosts = new ArrayList<>();
+		for (int address = 0; address < addressCount; address++) {
+			int[] mxIds = addressMx[address];
+			if (mxIds.length == 0) {
+				continue;
+			}
+			hosts.add(Host.create()
+				.setAddress(_addresses.name(address))
+				.setServices(names(IntSets.union(mxServices, mxIds), _services::name))
+				.setDomains(names(IntSets.union(mxDomains, mxIds), _domains::name))
+				.setMailServers(names(mxIds, _mailServers::name)));
+		}
+		hosts.sort((x, y) -> x.getAddress().compareTo(y.getAddress()));
+
+		return Storage.create()
+			.setDomains(domains)
+			.setMailServers(mailServers)
+			.setServices(services)
+			.setHosts(hosts);
+	}
+
+	/**
+	 * Computes the reverse relation of the given relation of sets.
+	 */
+	private static int[][] invert(int[][] relation, int targetCount) {
+		int[] counts = new int[targetCount];
+		for (int[] targets : relation) {
+			for (int target : targets) {
+				counts[target]++;
+			}
+		}
+
+		int[][] result = new int[targetCount][];
+		for (int target = 0; target < targetCount; target++) {
+			result[target] = counts[target] == 0 ? IntSets.EMPTY : new int[counts[target]];
+		}
+
+		// Sources are added in ascending order, the result sets are sorted.
+		Arrays.fill(counts, 0);
+		for (int source = 0; source < relation.length; source++) {
+			for (int target : relation[source]) {
+				result[target][counts[target]++] = source;
+			}
+		}
+		return result;
+	}
+
+	private static List<String> names(int[] ids, IntFunction<String> name) {
+		if (ids.length == 0) {
+			return Collections.emptyList();
+		}
+		List<String> result = new ArrayList<>(ids.length);
+		for (int id : ids) {
+			result.add(name.apply(id));
+		}
+		Collections.sort(result);
+		return result;
+	}
+
+}
@@ -0,0 +1,95 @@
+package com.github.spamchecker.compact;
+
+import java.util.Arrays;
+
+import com.github.spamchecker.MxResolver;
+import com.github.spamchecker.model.Classification;
+
+/**
+ * Cross references of a {@link CompactIndex}, all references are int IDs of the
+ * {@link CompactIndex}.
+ *
+ * @see CompactIndex#buildIndex()
+ */
+public final class CompactXRef {
+
+	private static final Classification[] KINDS = Classification.values();
+
+	private byte[] _addressKind;
+
+	private int[][] _servicesByMx;
+
+	private int[][] _servicesByAddress;
+
+	CompactXRef(CompactIndex db) {
+		int addressCount = db.addresses().size();
+		int mxCount = db.mailServers().size();
+
+		_addressKind = new byte[addressCount];
+		_servicesByMx = new int[mxCount][];
+		_servicesByAddress = new int[addressCount][];
+		Arrays.fill(_servicesByMx, IntSets.EMPTY);
+		Arrays.fill(_servicesByAddress, IntSets.EMPTY);
+
+		for (int mx = 0; mx < mxCount; mx++) {
+			Classification kind = db.getMxKind(mx);
+			for (int address : db.getMxAddresses(mx)) {
+				_addressKind[address] = (byte) MxResolver.combine(KINDS[_addressKind[address]], kind).ordinal();
+			}
+		}
+
+		for (int domain = 0, cnt = db.domains().size(); domain < cnt; domain++) {
+			int service = db.getDomainService(domain);
+			if (service >= 0) {
+				addService(db, domain, service);
+			}
+		}
+	}
+
+	/**
+	 * The combined classification of all mail servers with the given address.
+	 */
+	public Classification getAddressClassification(int address) {
+		return address < _addressKind.length ? KINDS[_addressKind[address]] : Classification.UNKNOWN;
+	}
+
+	/**
+	 * The services of all domains using the given mail server.
+	 */
+	public int[] getServicesByMx(int mx) {
+		return mx < _servicesByMx.length ? _servicesByMx[mx] : IntSets.EMPTY;
+	}
+
+	/**
+	 * The services of all domains using a mail server with the given address.
+	 */
+	public int[] getServicesByAddress(int address) {
+		return address < _servicesByAddress.length ? _servicesByAddress[address] : IntSets.EMPTY;
+	}
+
+	/**
+	 * Updates the index after the given service was assigned to the given domain.
+	 */
+	void addService(CompactIndex db, int domain, int service) {
+		for (int mx : db.getDomainMx(domain)) {
+			if (mx >= _servicesByMx.length) {
+				_servicesByMx = grow(_servicesByMx, db.mailServers().size());
+			}
+			_servicesByMx[mx] = IntSets.add(_servicesByMx[mx], service);
+
+			for (int address : db.getMxAddresses(mx)) {
+				if (address >= _servicesByAddress.length) {
+					_servicesByAddress = grow(_servicesByAddress, db.addresses().size());
+				}
+				_servicesByAddress[address] = IntSets.add(_servicesByAddress[address], service);
+			}
+		}
+	}
+
+	private static int[][] grow(int[][] array, int size) {
+		int[][] result = Arrays.copyOf(array, Math.max(size, 2 * array.length));
+		Arrays.fill(result, array.length, result.length, IntSets.EMPTY);
+		return result;
+	}
+
+}
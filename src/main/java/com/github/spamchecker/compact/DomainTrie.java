@@ -0,0 +1,187 @@
+package com.github.spamchecker.compact;
+
+import java.util.Arrays;
+
+/**
+ * Trie of domain names with labels in reverse order, answering the nearest ancestor of a domain
+ * that is contained in the trie.
+ *
+ * <p>
+ * Each node represents a single label below its parent node, e.g. <code>com</code> &rarr;
+ * <code>mailinator</code> &rarr; <code>x7</code>. Labels are not copied but referenced as region of
+ * the domain name that created the node. Children are found through a single open-addressing hash
+ * table keyed by parent node and label. A lookup visits one node per label and does not allocate.
+ * </p>
+ *
+ * @param <T> Type of values associated with domain names.
+ */
+public final class DomainTrie<T> {
+
+	private static final int ROOT = 0;
+
+	private int[] _parent;
+
+	private String[] _source;
+
+	private int[] _start;
+
+	private int[] _end;
+
+	private int[] _hash;
+
+	private Object[] _values;
+
+	private int[] _table;
+
+	private int _size;
+
+	/**
+	 * Creates a {@link DomainTrie}.
+	 */
+	public DomainTrie(int expectedSize) {
+		int capacity = Math.max(16, expectedSize);
+		_parent = new int[capacity];
+		_source = new String[capacity];
+		_start = new int[capacity];
+		_end = new int[capacity];
+		_hash = new int[capacity];
+		_values = new Object[capacity];
+		_table = newTable(capacity);
+
+		_parent[ROOT] = -1;
+		_size = 1;
+	}
+
+	/**
+	 * Associates the given value with the given normalized domain name.
+	 */
+	public void put(String domain, T value) {
+		int node = ROOT;
+		int end = domain.length();
+		while (true) {
+			int dot = domain.lastIndexOf('.', end - 1);
+			node = child(node, domain, dot + 1, end, true);
+			if (dot < 0) {
+				break;
+			}
+			end = dot;
+		}
+		_values[node] = value;
+	}
+
+	/**
+	 * The value of the nearest proper ancestor of the given normalized domain name that is
+	 * contained in this trie, e.g. the value of <code>mailinator.com</code> for
+	 * <code>x7.mailinator.com</code>.
+	 *
+	 * @return The value of the longest contained suffix of the domain name starting at a label
+	 *         boundary, <code>null</code>, if no ancestor is contained.
+	 */
+	public T ancestor(String domain) {
+		T result = null;
+		int node = ROOT;
+		int end = domain.length();
+		while (true) {
+			int dot = domain.lastIndexOf('.', end - 1);
+			if (dot < 0) {
+				// The remaining label belongs to the domain itself.
+				return result;
+			}
+
+			node = child(node, domain, dot + 1, end, false);
+			if (node < 0) {
+				return result;
+			}
+			if (_values[node] != null) {
+				result = value(node);
+			}
+			end = dot;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private T value(int node) {
+		return (T) _values[node];
+	}
+
+	/**
+	 * Finds the child of the given node with the label between start and end in the given
+	 * domain name.
+	 *
+	 * @param create Whether to create a missing child.
+	 * @return The child node, <code>-1</code>, if it does not exist and was not created.
+	 */
+	private int child(int parent, String domain, int start, int end, boolean create) {
+		int hash = hash(parent, domain, start, end);
+		int length = end - start;
+		int mask = _table.length - 1;
+		int slot = hash & mask;
+		for (; ; slot = (slot + 1) & mask) {
+			int node = _table[slot];
+			if (node < 0) {
+				break;
+			}
+			if (_hash[node] == hash && _parent[node] == parent && _end[node] - _start[node] == length
+				&& domain.regionMatches(start, _source[node], _start[node], length)) {
+				return node;
+			}
+		}
+		if (!create) {
+			return -1;
+		}
+
+		int node = _size++;
+		if (node == _parent.length) {
+			grow();
+		}
+		_parent[node] = parent;
+		_source[node] = domain;
+		_start[node] = start;
+		_end[node] = end;
+		_hash[node] = hash;
+		_table[slot] = node;
+
+		if (2 * _size > _table.length) {
+			rehash();
+		}
+		return node;
+	}
+
+	private void grow() {
+		int capacity = 2 * _parent.length;
+		_parent = Arrays.copyOf(_parent, capacity);
+		_source = Arrays.copyOf(_source, capacity);
+		_start = Arrays.copyOf(_start, capacity);
+		_end = Arrays.copyOf(_end, capacity);
+		_hash = Arrays.copyOf(_hash, capacity);
+		_values = Arrays.copyOf(_values, capacity);
+	}
+
+	private void rehash() {
+		_table = newTable(2 * _table.length);
+		int mask = _table.length - 1;
+		for (int node = ROOT + 1; node < _size; node++) {
+			int slot = _hash[node] & mask;
+			while (_table[slot] >= 0) {
+				slot = (slot + 1) & mask;
+			}
+			_table[slot] = node;
+		}
+	}
+
+	private static int[] newTable(int minSize) {
+		int[] result = new int[Integer.highestOneBit(minSize - 1) << 2];
+		Arrays.fill(result, -1);
+		return result;
+	}
+
+	private static int hash(int parent, String domain, int start, int end) {
+		int h = parent;
+		for (int n = start; n < end; n++) {
+			h = 31 * h + domain.charAt(n);
+		}
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+}
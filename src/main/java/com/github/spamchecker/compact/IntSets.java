@@ -0,0 +1,85 @@
+package com.github.spamchecker.compact;
+
+import java.util.Arrays;
+
+/**
+ * Small sets of int values represented as sorted arrays without duplicates.
+ */
+final class IntSets {
+
+	static final int[] EMPTY = {};
+
+	private IntSets() {
+		// Utility class.
+	}
+
+	/**
+	 * Adds the given value to the given set.
+	 *
+	 * @return The given set, if it already contains the value, a new set otherwise.
+	 */
+	static int[] add(int[] set, int value) {
+		int pos = Arrays.binarySearch(set, value);
+		if (pos >= 0) {
+			return set;
+		}
+
+		int insert = -pos - 1;
+		int[] result = new int[set.length + 1];
+		System.arraycopy(set, 0, result, 0, insert);
+		result[insert] = value;
+		System.arraycopy(set, insert, result, insert + 1, set.length - insert);
+		return result;
+	}
+
+	/**
+	 * Adds all values of the given set to the given set.
+	 */
+	static int[] addAll(int[] set, int[] values) {
+		int[] result = set;
+		for (int value : values) {
+			result = add(result, value);
+		}
+		return result;
+	}
+
+	/**
+	 * The union of the sets with the given indices.
+	 */
+	static int[] union(int[][] sets, int[] selection) {
+		if (selection.length == 1) {
+			return sets[selection[0]];
+		}
+		int length = 0;
+		for (int n : selection) {
+			length += sets[n].length;
+		}
+		int[] values = new int[length];
+		int pos = 0;
+		for (int n : selection) {
+			int[] set = sets[n];
+			System.arraycopy(set, 0, values, pos, set.length);
+			pos += set.length;
+		}
+		return of(values, length);
+	}
+
+	/**
+	 * Sorts the given values and removes duplicates.
+	 */
+	static int[] of(int[] values, int length) {
+		if (length == 0) {
+			return EMPTY;
+		}
+		int[] sorted = Arrays.copyOf(values, length);
+		Arrays.sort(sorted);
+		int size = 1;
+		for (int n = 1; n < length; n++) {
+			if (sorted[n] != sorted[size - 1]) {
+				sorted[size++] = sorted[n];
+			}
+		}
+		return size == length ? sorted : Arrays.copyOf(sorted, size);
+	}
+
+}
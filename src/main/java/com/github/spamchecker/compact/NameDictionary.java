@@ -0,0 +1,111 @@
+package com.github.spamchecker.compact;
+
+import java.util.Arrays;
+
+/**
+ * Assigns consecutive int IDs to names.
+ *
+ * <p>
+ * Names are kept in an array indexed by ID, the reverse mapping is an open-addressing hash table
+ * of IDs. No objects are allocated per entry besides the name itself.
+ * </p>
+ */
+public final class NameDictionary {
+
+	private String[] _names;
+
+	private int[] _table;
+
+	private int _size;
+
+	/**
+	 * Creates a {@link NameDictionary}.
+	 */
+	public NameDictionary(int expectedSize) {
+		_names = new String[Math.max(16, expectedSize)];
+		_table = newTable(_names.length);
+	}
+
+	/**
+	 * The number of names in this dictionary.
+	 */
+	public int size() {
+		return _size;
+	}
+
+	/**
+	 * The name with the given ID.
+	 */
+	public String name(int id) {
+		return _names[id];
+	}
+
+	/**
+	 * The ID of the given name, <code>-1</code>, if not contained.
+	 */
+	public int find(String name) {
+		int mask = _table.length - 1;
+		for (int slot = hash(name) & mask; ; slot = (slot + 1) & mask) {
+			int id = _table[slot];
+			if (id < 0) {
+				return -1;
+			}
+			if (_names[id].equals(name)) {
+				return id;
+			}
+		}
+	}
+
+	/**
+	 * The ID of the given name, the name is added, if it was not yet contained.
+	 */
+	public int intern(String name) {
+		int mask = _table.length - 1;
+		int slot = hash(name) & mask;
+		for (; ; slot = (slot + 1) & mask) {
+			int id = _table[slot];
+			if (id < 0) {
+				break;
+			}
+			if (_names[id].equals(name)) {
+				return id;
+			}
+		}
+
+		int id = _size++;
+		if (id == _names.length) {
+			_names = Arrays.copyOf(_names, id * 2);
+		}
+		_names[id] = name;
+		_table[slot] = id;
+
+		if (2 * _size > _table.length) {
+			rehash();
+		}
+		return id;
+	}
+
+	private void rehash() {
+		_table = newTable(2 * _table.length);
+		int mask = _table.length - 1;
+		for (int id = 0; id < _size; id++) {
+			int slot = hash(_names[id]) & mask;
+			while (_table[slot] >= 0) {
+				slot = (slot + 1) & mask;
+			}
+			_table[slot] = id;
+		}
+	}
+
+	private static int[] newTable(int minSize) {
+		int[] result = new int[Integer.highestOneBit(minSize - 1) << 2];
+		Arrays.fill(result, -1);
+		return result;
+	}
+
+	private static int hash(String name) {
+		int h = name.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+}
@@ -0,0 +1,344 @@
+package com.github.spamchecker.compact;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.IDN;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * The rules of the public suffix list (<code>public_suffix_list.dat</code>) compiled to a trie
+ * of labels in reverse order, answering the registrable domain of a domain name.
+ *
+ * <p>
+ * Each node represents a single label of a rule below its parent node, e.g. <code>jp</code>
+ * &rarr; <code>kyoto</code>. Flags mark nodes that are a rule themselves, whose children all
+ * are rules (<code>*.ck</code>), or that are exception rules (<code>!www.ck</code>). The root
+ * node is a wildcard, which implements the default rule <code>*</code>. Labels are stored in a
+ * single char array, children are found through a single open-addressing hash table keyed by
+ * parent node and label. A lookup visits at most one node per label and does not allocate.
+ * </p>
+ *
+ * <p>
+ * Wildcards are only supported as leftmost label of a rule, which is the case for all rules of
+ * the list. Rules with internationalized labels are added both in Unicode and in ASCII
+ * (punycode) form.
+ * </p>
+ */
+public final class PublicSuffixList {
+
+	private static final int ROOT = 0;
+
+	/**
+	 * The node is a rule.
+	 */
+	private static final byte RULE = 1;
+
+	/**
+	 * All children of the node are rules, including children not contained in the trie.
+	 */
+	private static final byte WILDCARD = 2;
+
+	/**
+	 * The node is an exception rule, its parent node is the public suffix.
+	 */
+	private static final byte EXCEPTION = 4;
+
+	private int[] _parent;
+
+	private int[] _start;
+
+	private int[] _end;
+
+	private int[] _hash;
+
+	private byte[] _flags;
+
+	private char[] _labels;
+
+	private int _labelsSize;
+
+	private int[] _table;
+
+	private int _size;
+
+	private int _rules;
+
+	/**
+	 * Creates an empty {@link PublicSuffixList} with only the default rule <code>*</code>.
+	 */
+	public PublicSuffixList() {
+		int capacity = 1 << 10;
+		_parent = new int[capacity];
+		_start = new int[capacity];
+		_end = new int[capacity];
+		_hash = new int[capacity];
+		_flags = new byte[capacity];
+		_labels = new char[8 * capacity];
+		_table = newTable(capacity);
+
+		_parent[ROOT] = -1;
+		_flags[ROOT] = WILDCARD;
+		_size = 1;
+	}
+
+	/**
+	 * Reads the rules from the given file in the format of <code>public_suffix_list.dat</code>.
+	 */
+	public static PublicSuffixList read(File file) throws IOException {
+		PublicSuffixList result = new PublicSuffixList();
+		try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = r.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("//")) {
+					continue;
+				}
+
+				// Only the text up to the first whitespace is the rule.
+				int space = 0;
+				while (space < line.length() && !Character.isWhitespace(line.charAt(space))) {
+					space++;
+				}
+				result.add(line.substring(0, space));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Adds the given rule, e.g. <code>co.uk</code>, <code>*.ck</code>, or <code>!www.ck</code>.
+	 */
+	public void add(String rule) {
+		String normalized = rule.toLowerCase(Locale.ROOT);
+		addRule(normalized);
+
+		String ascii = ascii(normalized);
+		if (ascii != null) {
+			addRule(ascii);
+		}
+	}
+
+	/**
+	 * The ASCII form of the given rule, <code>null</code>, if it is ASCII already or cannot be
+	 * converted.
+	 */
+	private static String ascii(String rule) {
+		int n = 0;
+		while (n < rule.length() && rule.charAt(n) < 0x80) {
+			n++;
+		}
+		if (n == rule.length()) {
+			return null;
+		}
+		try {
+			return IDN.toASCII(rule, IDN.ALLOW_UNASSIGNED).toLowerCase(Locale.ROOT);
+		} catch (IllegalArgumentException ex) {
+			return null;
+		}
+	}
+
+	private void addRule(String rule) {
+		byte flag = RULE;
+		if (rule.startsWith("!")) {
+			rule = rule.substring(1);
+			flag = EXCEPTION;
+		} else if (rule.equals("*") || rule.startsWith("*.")) {
+			rule = rule.substring(1);
+			flag = WILDCARD;
+		}
+
+		int node = ROOT;
+		int end = rule.length();
+		while (end > 0) {
+			int dot = rule.lastIndexOf('.', end - 1);
+			node = child(node, rule, dot + 1, end, true);
+			end = dot;
+		}
+		_flags[node] |= flag;
+		_rules++;
+	}
+
+	/**
+	 * The number of rules added, counting internationalized rules twice.
+	 */
+	public int getRuleCount() {
+		return _rules;
+	}
+
+	/**
+	 * The number of nodes of the trie.
+	 */
+	public int getNodeCount() {
+		return _size;
+	}
+
+	/**
+	 * The index of the first character of the registrable domain of the given normalized domain
+	 * name, e.g. <code>3</code> for <code>x7.mailinator.co.uk</code>.
+	 *
+	 * @return The start of the registrable domain, <code>-1</code>, if the domain name is a
+	 *         public suffix itself.
+	 */
+	public int registrableStart(String domain) {
+		int end = domain.length();
+		if (end == 0) {
+			return -1;
+		}
+
+		// The start of the longest public suffix of the domain found so far.
+		int suffix = -1;
+		int node = ROOT;
+		while (true) {
+			int dot = domain.lastIndexOf('.', end - 1);
+			int start = dot + 1;
+
+			int child = child(node, domain, start, end, false);
+			if (child >= 0 && (_flags[child] & EXCEPTION) != 0) {
+				// The suffix is the parent rule without the excepted label.
+				suffix = end + 1;
+				break;
+			}
+			if ((_flags[node] & WILDCARD) != 0) {
+				suffix = start;
+			}
+			if (child < 0) {
+				break;
+			}
+			if ((_flags[child] & RULE) != 0) {
+				suffix = start;
+			}
+			if (dot < 0) {
+				break;
+			}
+			node = child;
+			end = dot;
+		}
+
+		if (suffix <= 0) {
+			return -1;
+		}
+		return domain.lastIndexOf('.', suffix - 2) + 1;
+	}
+
+	/**
+	 * The registrable domain of the given normalized domain name, e.g.
+	 * <code>mailinator.co.uk</code> for <code>x7.mailinator.co.uk</code>.
+	 *
+	 * @return The registrable domain, <code>null</code>, if the domain name is a public suffix
+	 *         itself.
+	 */
+	public String registrableDomain(String domain) {
+		int start = registrableStart(domain);
+		if (start < 0) {
+			return null;
+		}
+		return start == 0 ? domain : domain.substring(start);
+	}
+
+	/**
+	 * Whether the given normalized domain name is a public suffix.
+	 */
+	public boolean isPublicSuffix(String domain) {
+		return registrableStart(domain) < 0;
+	}
+
+	/**
+	 * Finds the child of the given node with the label between start and end in the given
+	 * domain name.
+	 *
+	 * @param create Whether to create a missing child.
+	 * @return The child node, <code>-1</code>, if it does not exist and was not created.
+	 */
+	private int child(int parent, String domain, int start, int end, boolean create) {
+		int hash = hash(parent, domain, start, end);
+		int length = end - start;
+		int mask = _table.length - 1;
+		int slot = hash & mask;
+		for (; ; slot = (slot + 1) & mask) {
+			int node = _table[slot];
+			if (node < 0) {
+				break;
+			}
+			if (_hash[node] == hash && _parent[node] == parent && _end[node] - _start[node] == length
+				&& matches(node, domain, start, length)) {
+				return node;
+			}
+		}
+		if (!create) {
+			return -1;
+		}
+
+		int node = _size++;
+		if (node == _parent.length) {
+			grow();
+		}
+		if (_labelsSize + length > _labels.length) {
+			_labels = Arrays.copyOf(_labels, Math.max(2 * _labels.length, _labelsSize + length));
+		}
+		domain.getChars(start, end, _labels, _labelsSize);
+		_parent[node] = parent;
+		_start[node] = _labelsSize;
+		_end[node] = _labelsSize + length;
+		_hash[node] = hash;
+		_labelsSize += length;
+		_table[slot] = node;
+
+		if (2 * _size > _table.length) {
+			rehash();
+		}
+		return node;
+	}
+
+	private boolean matches(int node, String domain, int start, int length) {
+		char[] labels = _labels;
+		int offset = _start[node];
+		for (int n = 0; n < length; n++) {
+			if (labels[offset + n] != domain.charAt(start + n)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void grow() {
+		int capacity = 2 * _parent.length;
+		_parent = Arrays.copyOf(_parent, capacity);
+		_start = Arrays.copyOf(_start, capacity);
+		_end = Arrays.copyOf(_end, capacity);
+		_hash = Arrays.copyOf(_hash, capacity);
+		_flags = Arrays.copyOf(_flags, capacity);
+	}
+
+	private void rehash() {
+		_table = newTable(2 * _table.length);
+		int mask = _table.length - 1;
+		for (int node = ROOT + 1; node < _size; node++) {
+			int slot = _hash[node] & mask;
+			while (_table[slot] >= 0) {
+				slot = (slot + 1) & mask;
+			}
+			_table[slot] = node;
+		}
+	}
+
+	private static int[] newTable(int minSize) {
+		int[] result = new int[Integer.highestOneBit(minSize - 1) << 2];
+		Arrays.fill(result, -1);
+		return result;
+	}
+
+	private static int hash(int parent, String domain, int start, int end) {
+		int h = parent;
+		for (int n = start; n < end; n++) {
+			h = 31 * h + domain.charAt(n);
+		}
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+}
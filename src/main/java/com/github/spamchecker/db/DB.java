@@ -1,56 +1,114 @@
 package com.github.spamchecker.db;
 import java.util.List;
 
+import org.apache.ibatis.annotations.Delete;
 import org.apache.ibatis.annotations.Insert;
-import org.apache.ibatis.annotations.Options;
+import org.apache.ibatis.annotations.ResultType;
 import org.apache.ibatis.annotations.Select;
-import org.apache.ibatis.annotations.Update;
+import org.apache.ibatis.session.ResultHandler;
 
 import com.github.spamchecker.db.model.Domain;
 import com.github.spamchecker.db.model.Ip;
+import com.github.spamchecker.db.model.IpUsage;
 import com.github.spamchecker.db.model.Mx;
+import com.github.spamchecker.db.model.MxUsage;
+import com.github.spamchecker.db.model.PotentialProvider;
+import com.github.spamchecker.db.model.Provider;
 
+/**
+ * SQL mapper for the relational domain database, see <code>db-schema.sql</code>.
+ *
+ * <p>
+ * All write operations are <code>MERGE</code> statements identifying rows by their unique name,
+ * so that they can be run in batches without reading generated keys. The references of a domain
+ * or mail server are replaced by deleting them before merging the current ones.
+ * </p>
+ */
 public interface DB {
 
-	@Select("select CLASSIFICATION from DOMAIN where NAME=#{domain}")
-	Boolean lookupDisposable(String domain);
-
-	@Insert("insert into DOMAIN (NAME, PROVIDER, CLASSIFICATION, HEURISTICS) values (#{name}, #{provider}, #{classification}, #{heuristics})")
-    @Options(flushCache = Options.FlushCachePolicy.TRUE, useGeneratedKeys = true, keyProperty = "id", keyColumn="ID")
-	int insertDomain(Domain domain);
-	
-	@Insert("insert into MX (NAME, CLASSIFICATION, HEURISTICS) values (#{name}, #{classification}, #{heuristics})")
-	@Options(flushCache = Options.FlushCachePolicy.TRUE, useGeneratedKeys = true, keyProperty = "id", keyColumn="ID")
-	int insertMx(Mx mx);
-	
-	@Select("select ID from MX where NAME=#{name}")
-	long getMxId(String name);
-
-	@Select("select ADDRESS from IP where MX=#{mx}")
+	@Select("select ID, NAME, PROVIDER, CLASSIFICATION, HEURISTICS from DOMAIN where NAME=#{name}")
+	Domain getDomain(String name);
+
+	@Select("select m.NAME from MX_USAGE u join MX m on m.ID=u.MX where u.DOMAIN=#{domain}")
+	List<String> getMailServers(long domain);
+
+	@Select("select p.URL from POTENTIAL_PROVIDER u join PROVIDER p on p.ID=u.PROVIDER where u.DOMAIN=#{domain}")
+	List<String> getPotentialServices(long domain);
+
+	@Select("select URL from PROVIDER where ID=#{id}")
+	String getServiceUrl(long id);
+
+	@Select("select ID, NAME, CLASSIFICATION from MX where NAME=#{name}")
+	Mx getMx(String name);
+
+	@Select("select i.ADDRESS from IP_USAGE u join IP i on i.ID=u.IP where u.MX=#{mx}")
 	List<String> getAddresses(long mx);
 
-	@Insert("insert into IP (ADDRESS, CLASSIFICATION, HEURISTICS) values (#{address}, #{classification}, #{heuristics})")
-	int insertIp(Ip ip);
+	@Select("select distinct m.CLASSIFICATION from IP i join IP_USAGE u on u.IP=i.ID join MX m on m.ID=u.MX where i.ADDRESS=#{address}")
+	List<String> getAddressClassifications(String address);
+
+	@Select("select distinct p.URL from MX m join MX_USAGE u on u.MX=m.ID join DOMAIN d on d.ID=u.DOMAIN join PROVIDER p on p.ID=d.PROVIDER where m.NAME=#{mx}")
+	List<String> getServicesByMx(String mx);
+
+	@Select("select distinct p.URL from IP i join IP_USAGE iu on iu.IP=i.ID join MX_USAGE mu on mu.MX=iu.MX join DOMAIN d on d.ID=mu.DOMAIN join PROVIDER p on p.ID=d.PROVIDER where i.ADDRESS=#{address}")
+	List<String> getServicesByAddress(String address);
+
+	@Select("select ID, URL from PROVIDER")
+	@ResultType(Provider.class)
+	void scanProviders(ResultHandler<Provider> handler);
+
+	@Select("select ID, NAME, PROVIDER, CLASSIFICATION, HEURISTICS from DOMAIN")
+	@ResultType(Domain.class)
+	void scanDomains(ResultHandler<Domain> handler);
+
+	@Select("select DOMAIN, PROVIDER from POTENTIAL_PROVIDER")
+	@ResultType(PotentialProvider.class)
+	void scanPotentialProviders(ResultHandler<PotentialProvider> handler);
+
+	@Select("select ID, NAME, CLASSIFICATION from MX")
+	@ResultType(Mx.class)
+	void scanMx(ResultHandler<Mx> handler);
+
+	@Select("select DOMAIN, MX from MX_USAGE")
+	@ResultType(MxUsage.class)
+	void scanMxUsages(ResultHandler<MxUsage> handler);
+
+	@Select("select ID, ADDRESS from IP")
+	@ResultType(Ip.class)
+	void scanIps(ResultHandler<Ip> handler);
+
+	@Select("select MX, IP from IP_USAGE")
+	@ResultType(IpUsage.class)
+	void scanIpUsages(ResultHandler<IpUsage> handler);
+
+	@Insert("merge into PROVIDER (URL) key (URL) values (#{url})")
+	int mergeService(String url);
+
+	@Insert("merge into DOMAIN (NAME, PROVIDER, CLASSIFICATION, HEURISTICS) key (NAME) values (#{name}, (select ID from PROVIDER where URL=#{service}), #{classification}, #{heuristics})")
+	int mergeDomain(String name, String service, String classification, String heuristics);
+
+	@Delete("delete from POTENTIAL_PROVIDER where DOMAIN=(select ID from DOMAIN where NAME=#{domain})")
+	int deletePotentialServices(String domain);
+
+	@Insert("merge into POTENTIAL_PROVIDER (DOMAIN, PROVIDER) key (DOMAIN, PROVIDER) select d.ID, p.ID from DOMAIN d, PROVIDER p where d.NAME=#{domain} and p.URL=#{service}")
+	int mergePotentialService(String domain, String service);
+
+	@Insert("merge into MX (NAME, CLASSIFICATION) key (NAME) values (#{name}, #{classification})")
+	int mergeMx(String name, String classification);
 
-	@Insert("insert into IP_USAGE (MX, IP) values (#{mx}, #{ip},)")
-	int insertIpUsage(long mx, long ip);
-	
-	@Insert("insert into MX_USAGE (DOMAIN, MX) values (#{domain}, #{mx},)")
-	int insertMxUsage(long domain, long mx);
-	
-	@Select("select ID from PROVIDER where URL=#{url}")
-	Long getServiceId(String url);
+	@Delete("delete from MX_USAGE where DOMAIN=(select ID from DOMAIN where NAME=#{domain})")
+	int deleteMxUsages(String domain);
 
-	@Insert("insert into PROVIDER (URL) values (#{url})")
-	int insertService(String url);
+	@Insert("merge into MX_USAGE (DOMAIN, MX) key (DOMAIN, MX) select d.ID, m.ID from DOMAIN d, MX m where d.NAME=#{domain} and m.NAME=#{mx}")
+	int mergeMxUsage(String domain, String mx);
 
-	@Select("select CLASSIFICATION from MAIL_HOST where NAME=#{mailServer}")
-	Boolean getHostState(String mailServer);
+	@Insert("merge into IP (ADDRESS) key (ADDRESS) values (#{address})")
+	int mergeIp(String address);
 
-	@Insert("insert into MAIL_HOST (NAME) values (#{mailServer})")
-	int insertMailHost(String mailServer);
+	@Delete("delete from IP_USAGE where MX=(select ID from MX where NAME=#{mx})")
+	int deleteIpUsages(String mx);
 
-	@Update("update MAIL_DOMAIN set SERVICE=#{serviceId} where NAME=#{domain} and SERVICE is null")
-	int updateDomain(String domain, Long serviceId);
+	@Insert("merge into IP_USAGE (MX, IP) key (MX, IP) select m.ID, i.ID from MX m, IP i where m.NAME=#{mx} and i.ADDRESS=#{address}")
+	int mergeIpUsage(String mx, String address);
 
 }
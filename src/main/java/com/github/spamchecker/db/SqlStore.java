@@ -0,0 +1,391 @@
+package com.github.spamchecker.db;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.apache.ibatis.jdbc.ScriptRunner;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.reflection.factory.DefaultObjectFactory;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.TransactionFactory;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.h2.jdbcx.JdbcDataSource;
+
+import com.github.spamchecker.MxResolver;
+import com.github.spamchecker.XRef;
+import com.github.spamchecker.db.model.Domain;
+import com.github.spamchecker.db.model.Ip;
+import com.github.spamchecker.db.model.IpUsage;
+import com.github.spamchecker.db.model.Mx;
+import com.github.spamchecker.db.model.MxUsage;
+import com.github.spamchecker.db.model.PotentialProvider;
+import com.github.spamchecker.db.model.Provider;
+import com.github.spamchecker.model.Classification;
+import com.github.spamchecker.model.DomainData;
+import com.github.spamchecker.model.DomainInfo;
+import com.github.spamchecker.model.Heuristics;
+import com.github.spamchecker.model.Index;
+import com.github.spamchecker.model.MxData;
+import com.github.spamchecker.model.MxInfo;
+
+/**
+ * Relational store of the domain database in an H2 database file.
+ *
+ * <p>
+ * Single domains and mail servers are looked up through unique indexes, the cross references
+ * for classifying new domains are answered by SQL joins. Changes are written with
+ * {@link #store(Index)} in batches, the effort is proportional to the size of the changes, not to
+ * the size of the database.
+ * </p>
+ */
+public class SqlStore implements Closeable {
+
+	/**
+	 * The number of statements sent to the database in a single batch.
+	 */
+	private static final int BATCH_SIZE = 10_000;
+
+	private JdbcConnectionPool _pool;
+
+	private final SqlSessionFactory _sessionFactory;
+
+	private final SqlSession _session;
+
+	private final DB _db;
+
+	private SqlStore(JdbcConnectionPool pool) {
+		_pool = pool;
+
+		TransactionFactory transactionFactory = new JdbcTransactionFactory();
+		Environment environment = new Environment("spamchecker", transactionFactory, _pool);
+		Configuration configuration = new Configuration(environment);
+		configuration.setUseActualParamName(true);
+		configuration.setObjectFactory(new ModelFactory());
+		configuration.addMapper(DB.class);
+		_sessionFactory = new SqlSessionFactoryBuilder().build(configuration);
+
+		_session = _sessionFactory.openSession(ExecutorType.REUSE);
+		_db = _session.getMapper(DB.class);
+	}
+
+	/**
+	 * Opens the H2 database with the given file name (without the <code>.mv.db</code> suffix),
+	 * the database and its schema are created, if they do not exist.
+	 */
+	public static SqlStore open(File file) {
+		JdbcDataSource dataSource = new JdbcDataSource();
+		dataSource.setUrl("jdbc:h2:" + file.getAbsolutePath());
+		dataSource.setUser("user");
+		dataSource.setPassword("passwd");
+
+		SqlStore result = new SqlStore(JdbcConnectionPool.create(dataSource));
+		result.initSchema();
+		return result;
+	}
+
+	private void initSchema() {
+		try (SqlSession session = _sessionFactory.openSession()) {
+			ScriptRunner sr = new ScriptRunner(session.getConnection());
+			sr.setLogWriter(null);
+			sr.setAutoCommit(true);
+			sr.setDelimiter(";");
+			sr.runScript(new InputStreamReader(SqlStore.class.getResourceAsStream("db-schema.sql"), StandardCharsets.UTF_8));
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (_pool != null) {
+			_session.close();
+			_pool.dispose();
+			_pool = null;
+		}
+	}
+
+	/**
+	 * The domain with the given name, <code>null</code>, if it is not stored.
+	 */
+	public DomainData getDomain(String name) {
+		Domain domain = _db.getDomain(name);
+		if (domain == null) {
+			return null;
+		}
+
+		DomainData result = DomainInfo.create()
+			.setKind(Classification.valueOfProtocol(domain.getClassification()))
+			.setHeuristics(Heuristics.valueOfProtocol(domain.getHeuristics()))
+			.setMailServers(_db.getMailServers(domain.getId()))
+			.setPotentialServices(_db.getPotentialServices(domain.getId()));
+		if (domain.getProvider() != null) {
+			result.setService(_db.getServiceUrl(domain.getProvider()));
+		}
+		return result;
+	}
+
+	/**
+	 * The mail server with the given name, <code>null</code>, if it is not stored.
+	 */
+	public MxData getMailServer(String name) {
+		Mx mx = _db.getMx(name);
+		if (mx == null) {
+			return null;
+		}
+		return MxInfo.create()
+			.setKind(Classification.valueOfProtocol(mx.getClassification()))
+			.setAddresses(_db.getAddresses(mx.getId()));
+	}
+
+	/**
+	 * Whether a mail server with the given name is stored.
+	 */
+	public boolean hasMailServer(String name) {
+		return _db.getMx(name) != null;
+	}
+
+	/**
+	 * Cross references of the stored data combined with the given cross references of changes
+	 * not yet stored.
+	 */
+	public XRef xref(XRef changes) {
+		return new XRef() {
+			@Override
+			public Classification getAddressClassification(String address) {
+				Classification result = changes.getAddressClassification(address);
+				for (String kind : _db.getAddressClassifications(address)) {
+					result = MxResolver.combine(result, Classification.valueOfProtocol(kind));
+				}
+				return result;
+			}
+
+			@Override
+			public Set<String> getServicesByMx(String mx) {
+				return union(_db.getServicesByMx(mx), changes.getServicesByMx(mx));
+			}
+
+			@Override
+			public Set<String> getServicesByAddress(String address) {
+				return union(_db.getServicesByAddress(address), changes.getServicesByAddress(address));
+			}
+
+			// Note: SMTP fingerprints are not part of the relational store.
+			@Override
+			public Classification getFingerprintClassification(String fingerprint) {
+				return changes.getFingerprintClassification(fingerprint);
+			}
+
+			@Override
+			public Set<String> getServicesByFingerprint(String fingerprint) {
+				return changes.getServicesByFingerprint(fingerprint);
+			}
+		};
+	}
+
+	static Set<String> union(List<String> stored, Set<String> changes) {
+		Set<String> result = new HashSet<>(stored);
+		result.addAll(changes);
+		return result;
+	}
+
+	/**
+	 * Reads the complete database.
+	 */
+	public Index loadIndex() {
+		Map<Long, String> services = new HashMap<>();
+		_db.scanProviders(context -> {
+			Provider provider = context.getResultObject();
+			services.put(provider.getId(), provider.getUrl());
+		});
+
+		Index result = Index.create();
+		Map<Long, MxData> mailServers = new HashMap<>();
+		Map<Long, String> mxNames = new HashMap<>();
+		_db.scanMx(context -> {
+			Mx mx = context.getResultObject();
+			MxData mxInfo = MxInfo.create().setKind(Classification.valueOfProtocol(mx.getClassification()));
+			result.putMailServer(mx.getName(), mxInfo);
+			mailServers.put(mx.getId(), mxInfo);
+			mxNames.put(mx.getId(), mx.getName());
+		});
+
+		Map<Long, String> addresses = new HashMap<>();
+		_db.scanIps(context -> {
+			Ip ip = context.getResultObject();
+			addresses.put(ip.getId(), ip.getAddress());
+		});
+		_db.scanIpUsages(context -> {
+			IpUsage usage = context.getResultObject();
+			mailServers.get(usage.getMx()).addAddresse(addresses.get(usage.getIp()));
+		});
+		addresses.clear();
+		mailServers.clear();
+
+		Map<Long, DomainData> domains = new HashMap<>();
+		_db.scanDomains(context -> {
+			Domain domain = context.getResultObject();
+			DomainData domainInfo = DomainInfo.create()
+				.setKind(Classification.valueOfProtocol(domain.getClassification()))
+				.setHeuristics(Heuristics.valueOfProtocol(domain.getHeuristics()));
+			if (domain.getProvider() != null) {
+				domainInfo.setService(services.get(domain.getProvider()));
+			}
+			result.putDomain(domain.getName(), domainInfo);
+			domains.put(domain.getId(), domainInfo);
+		});
+		_db.scanPotentialProviders(context -> {
+			PotentialProvider usage = context.getResultObject();
+			domains.get(usage.getDomain()).addPotentialService(services.get(usage.getProvider()));
+		});
+		_db.scanMxUsages(context -> {
+			MxUsage usage = context.getResultObject();
+			domains.get(usage.getDomain()).addMailServer(mxNames.get(usage.getMx()));
+		});
+		return result;
+	}
+
+	/**
+	 * Writes all domains and mail servers of the given {@link Index} to the database.
+	 *
+	 * <p>
+	 * Entries not yet stored are inserted, existing entries are updated. The stored mail servers
+	 * and potential services of a domain and the stored addresses of a mail server are replaced
+	 * by the given ones.
+	 * </p>
+	 */
+	public void store(Index db) {
+		try (SqlSession session = _sessionFactory.openSession(ExecutorType.BATCH)) {
+			DB batch = session.getMapper(DB.class);
+			int[] pending = {0};
+			Runnable statement = () -> {
+				if (++pending[0] == BATCH_SIZE) {
+					// Note: Committing each batch keeps the transaction log small. Since all
+					// statements are merges or replace references completely, an interrupted
+					// store can simply be repeated.
+					session.commit();
+					pending[0] = 0;
+				}
+			};
+
+			Set<String> services = new HashSet<>();
+			for (DomainData domain : db.getDomains().values()) {
+				if (domain.getService() != null) {
+					services.add(domain.getService());
+				}
+				services.addAll(domain.getPotentialServices());
+			}
+			for (String service : services) {
+				batch.mergeService(service);
+				statement.run();
+			}
+
+			Set<String> addresses = new HashSet<>();
+			for (MxData mx : db.getMailServers().values()) {
+				addresses.addAll(mx.getAddresses());
+			}
+			for (String address : addresses) {
+				batch.mergeIp(address);
+				statement.run();
+			}
+
+			for (Entry<String, MxData> entry : db.getMailServers().entrySet()) {
+				batch.mergeMx(entry.getKey(), entry.getValue().getKind().protocolName());
+				statement.run();
+			}
+			session.commit();
+			pending[0] = 0;
+
+			// References are replaced in chunks of entries: All deletes of a chunk are sent before
+			// its merges, so that statements of the same kind are batched, and each chunk is
+			// committed as a whole.
+			List<Entry<String, MxData>> mailServers = new ArrayList<>(db.getMailServers().entrySet());
+			for (int start = 0; start < mailServers.size(); start += BATCH_SIZE) {
+				List<Entry<String, MxData>> chunk = mailServers.subList(start, Math.min(mailServers.size(), start + BATCH_SIZE));
+				for (Entry<String, MxData> entry : chunk) {
+					batch.deleteIpUsages(entry.getKey());
+				}
+				for (Entry<String, MxData> entry : chunk) {
+					for (String address : entry.getValue().getAddresses()) {
+						batch.mergeIpUsage(entry.getKey(), address);
+					}
+				}
+				session.commit();
+			}
+
+			for (Entry<String, DomainData> entry : db.getDomains().entrySet()) {
+				DomainData domain = entry.getValue();
+				batch.mergeDomain(entry.getKey(), domain.getService(), domain.getKind().protocolName(), domain.getHeuristics().protocolName());
+				statement.run();
+			}
+			session.commit();
+
+			List<Entry<String, DomainData>> domains = new ArrayList<>(db.getDomains().entrySet());
+			for (int start = 0; start < domains.size(); start += BATCH_SIZE) {
+				List<Entry<String, DomainData>> chunk = domains.subList(start, Math.min(domains.size(), start + BATCH_SIZE));
+				for (Entry<String, DomainData> entry : chunk) {
+					batch.deleteMxUsages(entry.getKey());
+				}
+				for (Entry<String, DomainData> entry : chunk) {
+					for (String mx : entry.getValue().getMailServers()) {
+						batch.mergeMxUsage(entry.getKey(), mx);
+					}
+				}
+				for (Entry<String, DomainData> entry : chunk) {
+					batch.deletePotentialServices(entry.getKey());
+				}
+				for (Entry<String, DomainData> entry : chunk) {
+					for (String service : entry.getValue().getPotentialServices()) {
+						batch.mergePotentialService(entry.getKey(), service);
+					}
+				}
+				session.commit();
+			}
+		}
+
+		// Lookups must not answer from results cached before the store.
+		_session.clearCache();
+	}
+
+	/**
+	 * Creates the msgbuf row types of the {@link DB} mapper.
+	 */
+	private static final class ModelFactory extends DefaultObjectFactory {
+
+		private static final long serialVersionUID = 1L;
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public <T> T create(Class<T> type) {
+			if (type == Domain.class) {
+				return (T) Domain.create();
+			} else if (type == Mx.class) {
+				return (T) Mx.create();
+			} else if (type == Ip.class) {
+				return (T) Ip.create();
+			} else if (type == Provider.class) {
+				return (T) Provider.create();
+			} else if (type == MxUsage.class) {
+				return (T) MxUsage.create();
+			} else if (type == IpUsage.class) {
+				return (T) IpUsage.create();
+			} else if (type == PotentialProvider.class) {
+				return (T) PotentialProvider.create();
+			}
+			return super.create(type);
+		}
+	}
+
+}
@@ -1,84 +1,75 @@
 -- PUBLIC.PROVIDER definition
 
--- Drop table
-
--- DROP TABLE PROVIDER;
-
-CREATE TABLE PROVIDER (
+CREATE TABLE IF NOT EXISTS PROVIDER (
 	ID BIGINT NOT NULL AUTO_INCREMENT,
 	URL CHARACTER VARYING(255) NOT NULL,
 	CONSTRAINT PROVIDER_PK PRIMARY KEY (ID)
 );
+CREATE UNIQUE INDEX IF NOT EXISTS PROVIDER_URL ON PROVIDER (URL);
 
 -- PUBLIC."DOMAIN" definition
 
--- Drop table
-
--- DROP TABLE "DOMAIN";
-
-CREATE TABLE "DOMAIN" (
+CREATE TABLE IF NOT EXISTS "DOMAIN" (
 	ID BIGINT NOT NULL AUTO_INCREMENT,
 	NAME CHARACTER VARYING(255) NOT NULL,
 	PROVIDER BIGINT,
 	CLASSIFICATION CHARACTER VARYING(32) NOT NULL,
 	HEURISTICS CHARACTER VARYING(32) NOT NULL,
 
-	CONSTRAINT DOMAIN_PK PRIMARY KEY (ID)
+	CONSTRAINT DOMAIN_PK PRIMARY KEY (ID),
+	CONSTRAINT DOMAIN_FK FOREIGN KEY (PROVIDER) REFERENCES PROVIDER(ID) ON DELETE CASCADE ON UPDATE RESTRICT
 );
-ALTER TABLE PUBLIC."DOMAIN" ADD CONSTRAINT DOMAIN_FK FOREIGN KEY (PROVIDER) REFERENCES PUBLIC.PROVIDER(ID) ON DELETE CASCADE ON UPDATE RESTRICT;
+CREATE UNIQUE INDEX IF NOT EXISTS DOMAIN_NAME ON "DOMAIN" (NAME);
 
+-- PUBLIC.POTENTIAL_PROVIDER definition
 
--- PUBLIC.MX definition
+CREATE TABLE IF NOT EXISTS POTENTIAL_PROVIDER (
+	"DOMAIN" BIGINT NOT NULL,
+	PROVIDER BIGINT NOT NULL,
 
--- Drop table
+	CONSTRAINT POTENTIAL_PROVIDER_PK PRIMARY KEY ("DOMAIN", PROVIDER),
+	CONSTRAINT POTENTIAL_PROVIDER_FK1 FOREIGN KEY ("DOMAIN") REFERENCES "DOMAIN"(ID) ON DELETE CASCADE ON UPDATE RESTRICT,
+	CONSTRAINT POTENTIAL_PROVIDER_FK2 FOREIGN KEY (PROVIDER) REFERENCES PROVIDER(ID) ON DELETE CASCADE ON UPDATE RESTRICT
+);
 
--- DROP TABLE MX;
+-- PUBLIC.MX definition
 
-CREATE TABLE MX (
+CREATE TABLE IF NOT EXISTS MX (
 	ID BIGINT NOT NULL AUTO_INCREMENT,
-	NAME BINARY VARYING(255) NOT NULL,
+	NAME CHARACTER VARYING(255) NOT NULL,
 
 	CLASSIFICATION CHARACTER VARYING(32) NOT NULL,
-	HEURISTICS CHARACTER VARYING(32) NOT NULL,
 
 	CONSTRAINT MX_PK PRIMARY KEY (ID)
 );
+CREATE UNIQUE INDEX IF NOT EXISTS MX_NAME ON MX (NAME);
 
-CREATE TABLE MX_USAGE (
-	DOMAIN BIGINT NOT NULL AUTO_INCREMENT,
-	MX BIGINT NOT NULL AUTO_INCREMENT,
-	CONSTRAINT MX_USAGE_PK PRIMARY KEY (DOMAIN, MX)
-);
-
--- PUBLIC.MX foreign keys
-
-ALTER TABLE PUBLIC.MX_USAGE ADD CONSTRAINT MX_USAGE_FK1 FOREIGN KEY ("DOMAIN") REFERENCES "DOMAIN"(ID) ON DELETE CASCADE ON UPDATE RESTRICT;
-ALTER TABLE PUBLIC.MX_USAGE ADD CONSTRAINT MX_USAGE_FK2 FOREIGN KEY ("MX") REFERENCES "MX"(ID) ON DELETE CASCADE ON UPDATE RESTRICT;
+CREATE TABLE IF NOT EXISTS MX_USAGE (
+	"DOMAIN" BIGINT NOT NULL,
+	MX BIGINT NOT NULL,
 
+	CONSTRAINT MX_USAGE_PK PRIMARY KEY ("DOMAIN", MX),
+	CONSTRAINT MX_USAGE_FK1 FOREIGN KEY ("DOMAIN") REFERENCES "DOMAIN"(ID) ON DELETE CASCADE ON UPDATE RESTRICT,
+	CONSTRAINT MX_USAGE_FK2 FOREIGN KEY (MX) REFERENCES MX(ID) ON DELETE CASCADE ON UPDATE RESTRICT
+);
+CREATE INDEX IF NOT EXISTS MX_USAGE_MX ON MX_USAGE (MX);
 
 -- PUBLIC.IP definition
 
--- Drop table
-
--- DROP TABLE IP;
-
-CREATE TABLE IP (
+CREATE TABLE IF NOT EXISTS IP (
 	ID BIGINT NOT NULL AUTO_INCREMENT,
-	ADDRESS CHARACTER VARYING NOT NULL,
-	
-	CLASSIFICATION CHARACTER VARYING(32) NOT NULL,
-	HEURISTICS CHARACTER VARYING(32) NOT NULL,
+	ADDRESS CHARACTER VARYING(64) NOT NULL,
 
 	CONSTRAINT IP_PK PRIMARY KEY (ID)
 );
+CREATE UNIQUE INDEX IF NOT EXISTS IP_ADDRESS ON IP (ADDRESS);
 
-CREATE TABLE IP_USAGE (
+CREATE TABLE IF NOT EXISTS IP_USAGE (
 	MX BIGINT NOT NULL,
 	IP BIGINT NOT NULL,
-	
-	CONSTRAINT IP_USAGE_PK PRIMARY KEY (MX, IP)
-);
-
-ALTER TABLE PUBLIC.IP_USAGE ADD CONSTRAINT IP_USAGE_FK1 FOREIGN KEY ("MX") REFERENCES "MX"(ID) ON DELETE CASCADE ON UPDATE RESTRICT;
-ALTER TABLE PUBLIC.IP_USAGE ADD CONSTRAINT IP_USAGE_FK2 FOREIGN KEY ("IP") REFERENCES "IP"(ID) ON DELETE CASCADE ON UPDATE RESTRICT;
 
+	CONSTRAINT IP_USAGE_PK PRIMARY KEY (MX, IP),
+	CONSTRAINT IP_USAGE_FK1 FOREIGN KEY (MX) REFERENCES MX(ID) ON DELETE CASCADE ON UPDATE RESTRICT,
+	CONSTRAINT IP_USAGE_FK2 FOREIGN KEY (IP) REFERENCES IP(ID) ON DELETE CASCADE ON UPDATE RESTRICT
+);
+CREATE INDEX IF NOT EXISTS IP_USAGE_IP ON IP_USAGE (IP);
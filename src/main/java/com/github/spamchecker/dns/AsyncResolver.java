@@ -0,0 +1,219 @@
+package com.github.spamchecker.dns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.xbill.DNS.AAAARecord;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.Address;
+import org.xbill.DNS.ExtendedResolver;
+import org.xbill.DNS.MXRecord;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Resolver;
+import org.xbill.DNS.TextParseException;
+import org.xbill.DNS.Type;
+import org.xbill.DNS.lookup.LookupResult;
+import org.xbill.DNS.lookup.LookupSession;
+
+/**
+ * Non-blocking MX and address resolution based on the dnsjava {@link LookupSession}.
+ *
+ * <p>
+ * At most a configured number of queries is sent concurrently, further queries are queued until
+ * a running query completes. Concurrent address lookups for the same host are merged into a
+ * single query.
+ * </p>
+ */
+public class AsyncResolver implements MailHostResolver {
+
+	private final LookupSession _session;
+
+	private final Duration _timeout;
+
+	private final int _maxInFlight;
+
+	private int _inFlight;
+
+	private final Queue<Runnable> _waiting = new ArrayDeque<>();
+
+	private final ConcurrentHashMap<String, CompletableFuture<List<String>>> _pendingAddresses = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates a {@link AsyncResolver} using the system's default name servers.
+	 */
+	public AsyncResolver(int maxInFlight, Duration timeout) {
+		this(new ExtendedResolver(), maxInFlight, timeout);
+	}
+
+	/**
+	 * Creates a {@link AsyncResolver}.
+	 *
+	 * @param resolver The resolver to send queries to.
+	 * @param maxInFlight The maximum number of queries to run concurrently.
+	 * @param timeout The time after which a single query is considered failed.
+	 */
+	public AsyncResolver(Resolver resolver, int maxInFlight, Duration timeout) {
+		resolver.setTimeout(timeout);
+
+		_session = LookupSession.defaultBuilder().resolver(resolver).build();
+		_maxInFlight = maxInFlight;
+		_timeout = timeout;
+	}
+
+	@Override
+	public CompletableFuture<List<String>> lookupMx(String domain) {
+		return lookup(domain, Type.MX).thenApply(records -> {
+			if (records == null) {
+				return null;
+			}
+
+			List<String> result = new ArrayList<>(records.size());
+			for (Record record : records) {
+				result.add(((MXRecord) record).getTarget().toString(true).toLowerCase());
+			}
+			return result;
+		});
+	}
+
+	/**
+	 * Looks up the IPv4 and IPv6 addresses of the given host.
+	 *
+	 * <p>
+	 * A lookup for a host that is currently being resolved is answered from the running query.
+	 * </p>
+	 *
+	 * @return The addresses in the same order as {@link Address#getAllByName(String)} reports
+	 *         them, an empty list if the host cannot be resolved.
+	 */
+	@Override
+	public CompletableFuture<List<String>> lookupAddresses(String host) {
+		CompletableFuture<List<String>> running = _pendingAddresses.get(host);
+		if (running != null) {
+			return running;
+		}
+
+		CompletableFuture<List<String>> result = new CompletableFuture<>();
+		running = _pendingAddresses.putIfAbsent(host, result);
+		if (running != null) {
+			return running;
+		}
+
+		resolveAddresses(host).whenComplete((addresses, ex) -> {
+			_pendingAddresses.remove(host);
+			result.complete(ex == null ? addresses : Collections.emptyList());
+		});
+		return result;
+	}
+
+	private CompletableFuture<List<String>> resolveAddresses(String host) {
+		String literal = literalAddress(host);
+		if (literal != null) {
+			return CompletableFuture.completedFuture(Collections.singletonList(literal));
+		}
+
+		CompletableFuture<List<Record>> v4 = lookup(host, Type.A);
+		CompletableFuture<List<Record>> v6 = lookup(host, Type.AAAA);
+		return v4.thenCombine(v6, (a, aaaa) -> {
+			List<String> result = new ArrayList<>();
+			if (a != null) {
+				for (Record record : a) {
+					result.add(((ARecord) record).getAddress().getHostAddress());
+				}
+			}
+			if (aaaa != null) {
+				for (Record record : aaaa) {
+					result.add(((AAAARecord) record).getAddress().getHostAddress());
+				}
+			}
+			return result;
+		});
+	}
+
+	private static String literalAddress(String host) {
+		try {
+			byte[] ip = Address.toByteArray(host, Address.IPv4);
+			if (ip == null) {
+				ip = Address.toByteArray(host, Address.IPv6);
+			}
+			return ip == null ? null : InetAddress.getByAddress(ip).getHostAddress();
+		} catch (UnknownHostException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Looks up records of the given type.
+	 *
+	 * @return The records found, or <code>null</code>, if the lookup failed for any reason.
+	 */
+	private CompletableFuture<List<Record>> lookup(String name, int type) {
+		Name query;
+		try {
+			query = Name.fromString(name, Name.root);
+		} catch (TextParseException ex) {
+			return CompletableFuture.completedFuture(null);
+		}
+
+		return throttled(() -> _session.lookupAsync(query, type))
+			.handle((result, ex) -> ex == null && !result.getRecords().isEmpty() ? result.getRecords() : null);
+	}
+
+	private CompletableFuture<LookupResult> throttled(Supplier<CompletionStage<LookupResult>> query) {
+		CompletableFuture<LookupResult> result = new CompletableFuture<>();
+		Runnable start = () -> {
+			CompletableFuture<LookupResult> answer;
+			try {
+				answer = query.get().toCompletableFuture();
+			} catch (RuntimeException ex) {
+				answer = CompletableFuture.failedFuture(ex);
+			}
+			answer.orTimeout(_timeout.toMillis(), TimeUnit.MILLISECONDS).whenComplete((value, ex) -> {
+				release();
+
+				if (ex != null) {
+					result.completeExceptionally(ex);
+				} else {
+					result.complete(value);
+				}
+			});
+		};
+
+		synchronized (this) {
+			if (_inFlight >= _maxInFlight) {
+				_waiting.add(start);
+				return result;
+			}
+			_inFlight++;
+		}
+		start.run();
+		return result;
+	}
+
+	private void release() {
+		Runnable next;
+		synchronized (this) {
+			next = _waiting.poll();
+			if (next == null) {
+				_inFlight--;
+				return;
+			}
+		}
+
+		// Start the next query from another thread to prevent unbounded recursion, if answers
+		// are delivered synchronously from a cache.
+		CompletableFuture.runAsync(next);
+	}
+
+}
@@ -0,0 +1,112 @@
+package com.github.spamchecker.dns;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import org.xbill.DNS.EDNSOption;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Resolver;
+import org.xbill.DNS.TSIG;
+
+/**
+ * {@link Resolver} answering queries from a {@link DnsCache} and sending only cache misses to
+ * another {@link Resolver}.
+ */
+public class CachingResolver implements Resolver {
+
+	private final Resolver _resolver;
+
+	private final DnsCache _cache;
+
+	/**
+	 * Creates a {@link CachingResolver}.
+	 *
+	 * @param resolver The resolver to send queries to that cannot be answered from the cache.
+	 * @param cache The cache to use.
+	 */
+	public CachingResolver(Resolver resolver, DnsCache cache) {
+		_resolver = resolver;
+		_cache = cache;
+	}
+
+	@Override
+	public Message send(Message query) throws IOException {
+		try {
+			return sendAsync(query).toCompletableFuture().get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for DNS answer.", ex);
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof IOException) {
+				throw (IOException) ex.getCause();
+			}
+			throw new IOException(ex.getCause());
+		}
+	}
+
+	@Override
+	public CompletionStage<Message> sendAsync(Message query) {
+		return sendAsync(query, ForkJoinPool.commonPool());
+	}
+
+	@Override
+	public CompletionStage<Message> sendAsync(Message query, Executor executor) {
+		Message cached;
+		try {
+			cached = _cache.lookup(query);
+		} catch (IOException ex) {
+			// Corrupt entry, ask upstream.
+			cached = null;
+		}
+		if (cached != null) {
+			return CompletableFuture.completedFuture(cached);
+		}
+
+		return _resolver.sendAsync(query, executor).thenApply(response -> {
+			_cache.put(response);
+			return response;
+		});
+	}
+
+	@Override
+	public void setPort(int port) {
+		_resolver.setPort(port);
+	}
+
+	@Override
+	public void setTCP(boolean flag) {
+		_resolver.setTCP(flag);
+	}
+
+	@Override
+	public void setIgnoreTruncation(boolean flag) {
+		_resolver.setIgnoreTruncation(flag);
+	}
+
+	@Override
+	public void setEDNS(int version, int payloadSize, int flags, List<EDNSOption> options) {
+		_resolver.setEDNS(version, payloadSize, flags, options);
+	}
+
+	@Override
+	public void setTSIGKey(TSIG key) {
+		_resolver.setTSIGKey(key);
+	}
+
+	@Override
+	public void setTimeout(Duration timeout) {
+		_resolver.setTimeout(timeout);
+	}
+
+	@Override
+	public Duration getTimeout() {
+		return _resolver.getTimeout();
+	}
+
+}
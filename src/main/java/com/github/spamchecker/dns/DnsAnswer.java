@@ -0,0 +1,47 @@
+package com.github.spamchecker.dns;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The DNS information gathered for a single e-mail domain.
+ */
+public class DnsAnswer {
+
+	private final List<String> _mailServers;
+
+	private final Map<String, List<String>> _addresses;
+
+	/**
+	 * Creates a {@link DnsAnswer}.
+	 *
+	 * @param mailServers See {@link #getMailServers()}.
+	 * @param addresses See {@link #getAddresses(String)}.
+	 */
+	public DnsAnswer(List<String> mailServers, Map<String, List<String>> addresses) {
+		_mailServers = mailServers;
+		_addresses = addresses;
+	}
+
+	/**
+	 * The names of the domain's MX hosts in the order of the DNS answer, or <code>null</code>,
+	 * if the domain has no MX records and is its own fallback mail server.
+	 */
+	public List<String> getMailServers() {
+		return _mailServers;
+	}
+
+	/**
+	 * The addresses of the given mail server.
+	 *
+	 * <p>
+	 * Only mail servers that were not yet known when the domain was resolved are looked up. For
+	 * all other mail servers, an empty list is returned.
+	 * </p>
+	 */
+	public List<String> getAddresses(String mailServer) {
+		return _addresses.getOrDefault(mailServer, Collections.emptyList());
+	}
+
+}
@@ -0,0 +1,241 @@
+package com.github.spamchecker.dns;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.SOARecord;
+import org.xbill.DNS.Section;
+
+/**
+ * Bounded cache of DNS responses that respects the TTL of the cached records and can be persisted
+ * to a local file.
+ *
+ * <p>
+ * Positive answers expire with the smallest TTL of their answer records. Negative answers
+ * (<code>NXDOMAIN</code> and empty answers) expire after the negative TTL of the zone, the minimum
+ * of the SOA record's TTL and its minimum field. Responses without a TTL, e.g. server failures or
+ * negative answers without SOA record, are not cached.
+ * </p>
+ *
+ * <p>
+ * When the cache is full, the least recently used entry is evicted.
+ * </p>
+ *
+ * <pre>
+ * file  = MAGIC VERSION count entry*
+ * entry = expires (int64, epoch millis) length (int32) message (wire format)
+ * </pre>
+ */
+public class DnsCache {
+
+	private static final int MAGIC = 0x53504443;
+
+	private static final int VERSION = 1;
+
+	private final Map<String, CacheEntry> _entries;
+
+	private long _hits;
+
+	private long _misses;
+
+	private static final class CacheEntry {
+		final byte[] _message;
+		final long _expires;
+
+		CacheEntry(byte[] message, long expires) {
+			_message = message;
+			_expires = expires;
+		}
+	}
+
+	/**
+	 * Creates an empty {@link DnsCache}.
+	 *
+	 * @param maxEntries The maximum number of responses to keep.
+	 */
+	public DnsCache(int maxEntries) {
+		_entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Creates a {@link DnsCache} with the entries of the given file that are not yet expired.
+	 *
+	 * <p>
+	 * A missing file results in an empty cache.
+	 * </p>
+	 */
+	public static DnsCache load(File file, int maxEntries) throws IOException {
+		DnsCache result = new DnsCache(maxEntries);
+		if (!file.exists()) {
+			return result;
+		}
+
+		long now = System.currentTimeMillis();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not a DNS cache file: " + file);
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported DNS cache version: " + version);
+			}
+			for (int n = 0, cnt = in.readInt(); n < cnt; n++) {
+				long expires = in.readLong();
+				byte[] message = new byte[in.readInt()];
+				in.readFully(message);
+				if (expires > now) {
+					result._entries.put(key(new Message(message)), new CacheEntry(message, expires));
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Writes all entries that are not yet expired to the given file.
+	 */
+	public synchronized void store(File file) throws IOException {
+		long now = System.currentTimeMillis();
+		_entries.values().removeIf(entry -> entry._expires <= now);
+
+		File tmp = File.createTempFile(file.getName(), "", file.getAbsoluteFile().getParentFile());
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(_entries.size());
+			for (CacheEntry entry : _entries.values()) {
+				out.writeLong(entry._expires);
+				out.writeInt(entry._message.length);
+				out.write(entry._message);
+			}
+		}
+		if (!tmp.renameTo(file)) {
+			file.delete();
+			if (!tmp.renameTo(file)) {
+				throw new IOException("Cannot replace DNS cache file: " + file);
+			}
+		}
+	}
+
+	/**
+	 * The cached response to the given query, <code>null</code> if there is none or it has
+	 * expired.
+	 */
+	public synchronized Message lookup(Message query) throws IOException {
+		String key = key(query);
+		CacheEntry entry = _entries.get(key);
+		if (entry == null) {
+			_misses++;
+			return null;
+		}
+		if (entry._expires <= System.currentTimeMillis()) {
+			_entries.remove(key);
+			_misses++;
+			return null;
+		}
+		_hits++;
+
+		Message response = new Message(entry._message);
+		response.getHeader().setID(query.getHeader().getID());
+		return response;
+	}
+
+	/**
+	 * Caches the given response, if it has a TTL.
+	 */
+	public void put(Message response) {
+		long ttl = ttl(response);
+		if (ttl <= 0) {
+			return;
+		}
+
+		byte[] message = response.toWire();
+		long expires = System.currentTimeMillis() + 1000 * ttl;
+		synchronized (this) {
+			_entries.put(key(response), new CacheEntry(message, expires));
+		}
+	}
+
+	/**
+	 * The number of cached responses.
+	 */
+	public synchronized int size() {
+		return _entries.size();
+	}
+
+	/**
+	 * The number of queries answered from this cache.
+	 */
+	public synchronized long getHits() {
+		return _hits;
+	}
+
+	/**
+	 * The number of queries that were not found in this cache.
+	 */
+	public synchronized long getMisses() {
+		return _misses;
+	}
+
+	/**
+	 * The fraction of queries answered from this cache.
+	 */
+	public synchronized double getHitRate() {
+		long total = _hits + _misses;
+		return total == 0 ? 0.0 : (double) _hits / total;
+	}
+
+	/**
+	 * The number of seconds the given response may be cached, <code>0</code>, if it must not be
+	 * cached.
+	 */
+	static long ttl(Message response) {
+		if (response.getHeader().getFlag(Flags.TC) || response.getQuestion() == null) {
+			return 0;
+		}
+
+		int rcode = response.getRcode();
+		if (rcode == Rcode.NOERROR) {
+			long ttl = Long.MAX_VALUE;
+			for (Record record : response.getSection(Section.ANSWER)) {
+				ttl = Math.min(ttl, record.getTTL());
+			}
+			if (ttl != Long.MAX_VALUE) {
+				return ttl;
+			}
+		} else if (rcode != Rcode.NXDOMAIN) {
+			return 0;
+		}
+
+		// Negative answer.
+		for (Record record : response.getSection(Section.AUTHORITY)) {
+			if (record instanceof SOARecord) {
+				return Math.min(record.getTTL(), ((SOARecord) record).getMinimum());
+			}
+		}
+		return 0;
+	}
+
+	private static String key(Message message) {
+		Record question = message.getQuestion();
+		return question.getName().toString().toLowerCase() + '/' + question.getType() + '/' + question.getDClass();
+	}
+
+}
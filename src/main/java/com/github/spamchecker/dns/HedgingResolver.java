@@ -0,0 +1,556 @@
+package com.github.spamchecker.dns;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xbill.DNS.EDNSOption;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Resolver;
+import org.xbill.DNS.SimpleResolver;
+import org.xbill.DNS.TSIG;
+
+/**
+ * {@link Resolver} spreading queries over several upstream name servers.
+ *
+ * <p>
+ * Each query is sent to the better of two randomly chosen upstreams, rated by their recent
+ * latency and error rate. If no answer arrives within a quantile of the recent latencies of
+ * this upstream, a duplicate (hedged) query is sent to another upstream and the first answer
+ * wins. To keep the additional load bounded, at most {@link #HEDGE_BUDGET} of all queries are
+ * hedged. A query failing with an error, a timeout, <code>SERVFAIL</code> or
+ * <code>REFUSED</code> is immediately retried with another upstream.
+ * </p>
+ *
+ * <p>
+ * An upstream failing {@link #MAX_FAILURES} times in a row is considered unhealthy and receives
+ * no queries until a back-off period has passed. Afterwards, a single probe query decides,
+ * whether it is used again or the back-off period is doubled.
+ * </p>
+ */
+public class HedgingResolver implements Resolver {
+
+	/**
+	 * The maximum fraction of queries that are hedged.
+	 */
+	public static final double HEDGE_BUDGET = 0.1;
+
+	/**
+	 * The number of consecutive failures after which an upstream is considered unhealthy.
+	 */
+	public static final int MAX_FAILURES = 3;
+
+	private static final long INITIAL_BACKOFF = TimeUnit.SECONDS.toNanos(1);
+
+	private static final long MAX_BACKOFF = TimeUnit.MINUTES.toNanos(1);
+
+	/**
+	 * The hedge delay used before an upstream has answered enough queries to estimate its
+	 * latency.
+	 */
+	private static final long INITIAL_HEDGE_DELAY = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private static final long MIN_HEDGE_DELAY = TimeUnit.MILLISECONDS.toNanos(1);
+
+	/**
+	 * Weight of a new sample in the moving averages of latency and error rate.
+	 */
+	private static final double ALPHA = 0.1;
+
+	private final Upstream[] _upstreams;
+
+	private final double _hedgeQuantile;
+
+	private Duration _timeout = Duration.ofSeconds(5);
+
+	private final AtomicLong _queries = new AtomicLong();
+
+	private final AtomicLong _hedges = new AtomicLong();
+
+	private final AtomicLong _hedgeWins = new AtomicLong();
+
+	/**
+	 * Creates a {@link HedgingResolver}.
+	 *
+	 * @param upstreams The name servers to send queries to.
+	 * @param hedgeQuantile The quantile of the recent latencies of an upstream after which a
+	 *        query is hedged, e.g. <code>0.95</code>, <code>0</code> for sending no hedged
+	 *        queries.
+	 */
+	public HedgingResolver(List<? extends Resolver> upstreams, double hedgeQuantile) {
+		if (upstreams.isEmpty()) {
+			throw new IllegalArgumentException("No upstream name servers given.");
+		}
+		_upstreams = new Upstream[upstreams.size()];
+		for (int n = 0; n < _upstreams.length; n++) {
+			_upstreams[n] = new Upstream(upstreams.get(n), n);
+		}
+		_hedgeQuantile = hedgeQuantile;
+	}
+
+	/**
+	 * Statistics of all upstreams.
+	 */
+	public List<Upstream> getUpstreams() {
+		return Collections.unmodifiableList(Arrays.asList(_upstreams));
+	}
+
+	/**
+	 * The number of queries answered.
+	 */
+	public long getQueries() {
+		return _queries.get();
+	}
+
+	/**
+	 * The number of hedged queries sent.
+	 */
+	public long getHedges() {
+		return _hedges.get();
+	}
+
+	/**
+	 * The number of queries answered by a hedged query.
+	 */
+	public long getHedgeWins() {
+		return _hedgeWins.get();
+	}
+
+	@Override
+	public Message send(Message query) throws IOException {
+		try {
+			return sendAsync(query).toCompletableFuture().get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for DNS answer.", ex);
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof IOException) {
+				throw (IOException) ex.getCause();
+			}
+			throw new IOException(ex.getCause());
+		}
+	}
+
+	@Override
+	public CompletionStage<Message> sendAsync(Message query) {
+		return sendAsync(query, ForkJoinPool.commonPool());
+	}
+
+	@Override
+	public CompletionStage<Message> sendAsync(Message query, Executor executor) {
+		_queries.incrementAndGet();
+		return new Query(query, executor).start();
+	}
+
+	/**
+	 * Chooses the upstream for the next attempt of a query.
+	 *
+	 * @param used The upstreams already asked.
+	 * @param first Whether this is the first attempt, which must not fail for lack of healthy
+	 *        upstreams.
+	 * @return The upstream chosen, or <code>null</code> if no further upstream should be asked.
+	 */
+	private Upstream select(boolean[] used, boolean first) {
+		long now = System.nanoTime();
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+
+		// Power of two choices: Compare two random candidates, so that load is spread over all
+		// healthy upstreams but faster upstreams receive more queries.
+		Upstream best = null;
+		int candidates = 0;
+		int offset = random.nextInt(_upstreams.length);
+		for (int n = 0; n < _upstreams.length && candidates < 2; n++) {
+			int index = (offset + n) % _upstreams.length;
+			Upstream upstream = _upstreams[index];
+			if (used[index] || !upstream.isHealthy(now)) {
+				continue;
+			}
+			candidates++;
+			if (best == null || upstream.score() < best.score()) {
+				best = upstream;
+			}
+		}
+
+		if (best == null && first) {
+			// All upstreams are backing off, ask the one that recovers first.
+			for (int index = 0; index < _upstreams.length; index++) {
+				Upstream upstream = _upstreams[index];
+				if (!used[index] && (best == null || upstream.retryAt() - best.retryAt() < 0)) {
+					best = upstream;
+				}
+			}
+		}
+
+		if (best != null) {
+			used[best._index] = true;
+			best.started(now);
+		}
+		return best;
+	}
+
+	private boolean hedgeAllowed() {
+		// Note: A small allowance permits hedging before enough queries are counted.
+		return _hedges.get() < 10 + HEDGE_BUDGET * _queries.get();
+	}
+
+	/**
+	 * A single query sent to one or more upstreams.
+	 */
+	private final class Query {
+		private final Message _query;
+
+		private final Executor _executor;
+
+		private final CompletableFuture<Message> _result = new CompletableFuture<>();
+
+		private final boolean[] _used = new boolean[_upstreams.length];
+
+		private int _pending;
+
+		private Message _lastAnswer;
+
+		private Throwable _lastError;
+
+		Query(Message query, Executor executor) {
+			_query = query;
+			_executor = executor;
+		}
+
+		CompletableFuture<Message> start() {
+			Upstream upstream;
+			synchronized (this) {
+				upstream = select(_used, true);
+				_pending++;
+			}
+			send(upstream, false);
+			return _result;
+		}
+
+		/**
+		 * Sends the query to the given upstream.
+		 *
+		 * @param hedge Whether this is a hedged query, otherwise a hedged query is scheduled.
+		 */
+		private void send(Upstream upstream, boolean hedge) {
+			if (_hedgeQuantile > 0 && !hedge) {
+				CompletableFuture.delayedExecutor(upstream.hedgeDelay(_hedgeQuantile, _timeout), TimeUnit.NANOSECONDS, _executor)
+					.execute(this::hedge);
+			}
+
+			long start = System.nanoTime();
+			CompletionStage<Message> answer;
+			try {
+				answer = upstream._resolver.sendAsync(_query.clone(), _executor);
+			} catch (RuntimeException ex) {
+				answer = CompletableFuture.failedFuture(ex);
+			}
+			answer.whenComplete((response, ex) -> completed(upstream, hedge, System.nanoTime() - start, response, ex));
+		}
+
+		private void hedge() {
+			Upstream upstream;
+			synchronized (this) {
+				if (_result.isDone() || !hedgeAllowed()) {
+					return;
+				}
+				upstream = select(_used, false);
+				if (upstream == null) {
+					return;
+				}
+				_pending++;
+			}
+			_hedges.incrementAndGet();
+			send(upstream, true);
+		}
+
+		private void completed(Upstream upstream, boolean hedge, long nanos, Message response, Throwable ex) {
+			boolean failed = ex != null || isFailure(response);
+			if (failed) {
+				upstream.failure(System.nanoTime());
+			} else {
+				upstream.success(nanos);
+			}
+
+			Upstream retry;
+			synchronized (this) {
+				_pending--;
+				if (_result.isDone()) {
+					return;
+				}
+				if (!failed) {
+					upstream.won();
+					if (hedge) {
+						_hedgeWins.incrementAndGet();
+					}
+					_result.complete(response);
+					return;
+				}
+
+				if (response != null) {
+					_lastAnswer = response;
+				} else {
+					_lastError = ex;
+				}
+
+				retry = select(_used, false);
+				if (retry == null) {
+					if (_pending == 0) {
+						if (_lastAnswer != null) {
+							_result.complete(_lastAnswer);
+						} else {
+							_result.completeExceptionally(_lastError);
+						}
+					}
+					return;
+				}
+				_pending++;
+			}
+			send(retry, false);
+		}
+	}
+
+	private static boolean isFailure(Message response) {
+		int rcode = response.getRcode();
+		return rcode == Rcode.SERVFAIL || rcode == Rcode.REFUSED;
+	}
+
+	@Override
+	public void setPort(int port) {
+		for (Upstream upstream : _upstreams) {
+			upstream._resolver.setPort(port);
+		}
+	}
+
+	@Override
+	public void setTCP(boolean flag) {
+		for (Upstream upstream : _upstreams) {
+			upstream._resolver.setTCP(flag);
+		}
+	}
+
+	@Override
+	public void setIgnoreTruncation(boolean flag) {
+		for (Upstream upstream : _upstreams) {
+			upstream._resolver.setIgnoreTruncation(flag);
+		}
+	}
+
+	@Override
+	public void setEDNS(int version, int payloadSize, int flags, List<EDNSOption> options) {
+		for (Upstream upstream : _upstreams) {
+			upstream._resolver.setEDNS(version, payloadSize, flags, options);
+		}
+	}
+
+	@Override
+	public void setTSIGKey(TSIG key) {
+		for (Upstream upstream : _upstreams) {
+			upstream._resolver.setTSIGKey(key);
+		}
+	}
+
+	/**
+	 * Sets the time after which a query is considered failed.
+	 *
+	 * <p>
+	 * A single upstream gets half of this time, so that a query not answered by an unresponsive
+	 * upstream can still be answered by another one.
+	 * </p>
+	 */
+	@Override
+	public void setTimeout(Duration timeout) {
+		_timeout = timeout;
+		for (Upstream upstream : _upstreams) {
+			upstream._resolver.setTimeout(timeout.dividedBy(2));
+		}
+	}
+
+	@Override
+	public Duration getTimeout() {
+		return _timeout;
+	}
+
+	/**
+	 * An upstream name server with its health and latency statistics.
+	 */
+	public static final class Upstream {
+
+		/**
+		 * The number of recent latencies to compute the hedge delay from.
+		 */
+		private static final int SAMPLES = 128;
+
+		/**
+		 * The number of new samples after which the hedge delay is recomputed.
+		 */
+		private static final int SAMPLE_INTERVAL = 16;
+
+		final Resolver _resolver;
+
+		final int _index;
+
+		private final long[] _samples = new long[SAMPLES];
+
+		private long _sampleCount;
+
+		private long _hedgeDelay = INITIAL_HEDGE_DELAY;
+
+		/**
+		 * The moving average of the latency in nanoseconds.
+		 */
+		private double _latency;
+
+		private long _latencySum;
+
+		private double _errorRate;
+
+		private int _failures;
+
+		private long _backoff = INITIAL_BACKOFF;
+
+		private long _retryAt;
+
+		private long _queries;
+
+		private long _errors;
+
+		private long _wins;
+
+		Upstream(Resolver resolver, int index) {
+			_resolver = resolver;
+			_index = index;
+		}
+
+		/**
+		 * The name server address.
+		 */
+		public String getName() {
+			if (_resolver instanceof SimpleResolver) {
+				InetSocketAddress address = ((SimpleResolver) _resolver).getAddress();
+				return address.getAddress().getHostAddress() + ":" + address.getPort();
+			}
+			return _resolver.toString();
+		}
+
+		/**
+		 * The number of queries sent to this upstream.
+		 */
+		public synchronized long getQueries() {
+			return _queries;
+		}
+
+		/**
+		 * The number of queries that failed with an error or timeout.
+		 */
+		public synchronized long getErrors() {
+			return _errors;
+		}
+
+		/**
+		 * The number of queries answered first by this upstream.
+		 */
+		public synchronized long getWins() {
+			return _wins;
+		}
+
+		/**
+		 * The mean latency of all answers in milliseconds.
+		 */
+		public synchronized double getMeanMillis() {
+			return _sampleCount == 0 ? 0 : _latencySum / 1e6 / _sampleCount;
+		}
+
+		/**
+		 * Whether this upstream currently receives queries.
+		 */
+		public synchronized boolean isHealthy() {
+			return _failures < MAX_FAILURES;
+		}
+
+		synchronized boolean isHealthy(long now) {
+			return _failures < MAX_FAILURES || now - _retryAt >= 0;
+		}
+
+		synchronized long retryAt() {
+			return _retryAt;
+		}
+
+		/**
+		 * The expected time for an answer, a fast upstream with errors may be worse than a
+		 * slower reliable one.
+		 */
+		synchronized double score() {
+			return _latency / Math.max(0.05, 1 - _errorRate);
+		}
+
+		synchronized void started(long now) {
+			_queries++;
+			if (_failures >= MAX_FAILURES) {
+				// Probe: No further queries until this one succeeds or the next back-off
+				// period has passed.
+				_retryAt = now + _backoff;
+			}
+		}
+
+		synchronized void won() {
+			_wins++;
+		}
+
+		synchronized void success(long nanos) {
+			_latency = _sampleCount == 0 ? nanos : (1 - ALPHA) * _latency + ALPHA * nanos;
+			_errorRate = (1 - ALPHA) * _errorRate;
+			_failures = 0;
+			_backoff = INITIAL_BACKOFF;
+
+			_latencySum += nanos;
+			_samples[(int) (_sampleCount++ % SAMPLES)] = nanos;
+			if (_sampleCount % SAMPLE_INTERVAL == 0) {
+				_hedgeDelay = -1;
+			}
+		}
+
+		synchronized void failure(long now) {
+			_errors++;
+			_errorRate = (1 - ALPHA) * _errorRate + ALPHA;
+			_failures++;
+			if (_failures == MAX_FAILURES) {
+				_retryAt = now + _backoff;
+			} else if (_failures > MAX_FAILURES) {
+				// A probe failed.
+				_backoff = Math.min(MAX_BACKOFF, 2 * _backoff);
+				_retryAt = now + _backoff;
+			}
+		}
+
+		/**
+		 * The time in nanoseconds after which a query to this upstream is hedged.
+		 */
+		synchronized long hedgeDelay(double quantile, Duration timeout) {
+			if (_hedgeDelay < 0) {
+				int count = (int) Math.min(_sampleCount, SAMPLES);
+				long[] sorted = Arrays.copyOf(_samples, count);
+				Arrays.sort(sorted);
+				_hedgeDelay = sorted[Math.min(count - 1, (int) (quantile * count))];
+			}
+			return Math.max(MIN_HEDGE_DELAY, Math.min(_hedgeDelay, timeout.toNanos() / 2));
+		}
+
+		@Override
+		public String toString() {
+			return getName();
+		}
+	}
+
+}
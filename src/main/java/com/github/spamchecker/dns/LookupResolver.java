@@ -0,0 +1,57 @@
+package com.github.spamchecker.dns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.xbill.DNS.Address;
+import org.xbill.DNS.Lookup;
+import org.xbill.DNS.MXRecord;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.TextParseException;
+import org.xbill.DNS.Type;
+
+/**
+ * {@link MailHostResolver} answering each query synchronously with a blocking dnsjava
+ * {@link Lookup} using the default resolver.
+ */
+public class LookupResolver implements MailHostResolver {
+
+	@Override
+	public CompletableFuture<List<String>> lookupMx(String domain) {
+		Record[] records;
+		try {
+			records = new Lookup(domain, Type.MX).run();
+		} catch (TextParseException ex) {
+			records = null;
+		}
+
+		if (records == null) {
+			return CompletableFuture.completedFuture(null);
+		}
+
+		List<String> result = new ArrayList<>(records.length);
+		for (Record record : records) {
+			result.add(((MXRecord) record).getTarget().toString(true).toLowerCase());
+		}
+		return CompletableFuture.completedFuture(result);
+	}
+
+	@Override
+	public CompletableFuture<List<String>> lookupAddresses(String host) {
+		List<String> result = new ArrayList<>();
+		try {
+			for (InetAddress address : Address.getAllByName(host)) {
+				result.add(address.getHostAddress());
+			}
+		} catch (UnknownHostException ex) {
+			// Not resolvable.
+			result = Collections.emptyList();
+		}
+		return CompletableFuture.completedFuture(result);
+	}
+
+}
@@ -0,0 +1,35 @@
+package com.github.spamchecker.dns;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Source of the DNS information needed to classify an e-mail domain.
+ *
+ * <p>
+ * Implementations may answer synchronously by returning completed futures.
+ * </p>
+ *
+ * @see AsyncResolver
+ * @see LookupResolver
+ * @see RecordingResolver
+ * @see ReplayResolver
+ */
+public interface MailHostResolver {
+
+	/**
+	 * Looks up the MX records of the given domain.
+	 *
+	 * @return The mail server names in the order of the DNS answer, or <code>null</code>, if the
+	 *         domain has no MX records (or the lookup failed).
+	 */
+	CompletableFuture<List<String>> lookupMx(String domain);
+
+	/**
+	 * Looks up the IPv4 and IPv6 addresses of the given host.
+	 *
+	 * @return The addresses of the host, an empty list if the host cannot be resolved.
+	 */
+	CompletableFuture<List<String>> lookupAddresses(String host);
+
+}
@@ -0,0 +1,52 @@
+package com.github.spamchecker.dns;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.github.spamchecker.metrics.Metrics;
+import com.github.spamchecker.metrics.Metrics.Lookup;
+import com.github.spamchecker.metrics.Metrics.Outcome;
+
+/**
+ * {@link MailHostResolver} that records the latency and outcome of all lookups of another
+ * {@link MailHostResolver} in {@link Metrics}.
+ */
+public class MeasuringResolver implements MailHostResolver {
+
+	private final MailHostResolver _resolver;
+
+	private final Metrics _metrics;
+
+	/**
+	 * Creates a {@link MeasuringResolver}.
+	 *
+	 * @param resolver The resolver to forward all queries to.
+	 * @param metrics The metrics to record lookups in.
+	 */
+	public MeasuringResolver(MailHostResolver resolver, Metrics metrics) {
+		_resolver = resolver;
+		_metrics = metrics;
+	}
+
+	@Override
+	public CompletableFuture<List<String>> lookupMx(String domain) {
+		long start = _metrics.start();
+		return _resolver.lookupMx(domain).whenComplete((mailServers, ex) ->
+			_metrics.dns(Lookup.MX, outcome(mailServers, ex), start));
+	}
+
+	@Override
+	public CompletableFuture<List<String>> lookupAddresses(String host) {
+		long start = _metrics.start();
+		return _resolver.lookupAddresses(host).whenComplete((addresses, ex) ->
+			_metrics.dns(Lookup.ADDRESS, outcome(addresses, ex), start));
+	}
+
+	private static Outcome outcome(List<String> result, Throwable ex) {
+		if (ex != null) {
+			return Outcome.ERROR;
+		}
+		return result == null || result.isEmpty() ? Outcome.NONE : Outcome.FOUND;
+	}
+
+}
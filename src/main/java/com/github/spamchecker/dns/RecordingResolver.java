@@ -0,0 +1,110 @@
+package com.github.spamchecker.dns;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * {@link MailHostResolver} that records all answers of another {@link MailHostResolver}, so that
+ * they can be served later by a {@link ReplayResolver}.
+ */
+public class RecordingResolver implements MailHostResolver {
+
+	/**
+	 * Marker for a recorded MX lookup without result.
+	 */
+	private static final List<String> NO_MX = new ArrayList<>();
+
+	private final MailHostResolver _resolver;
+
+	private final Map<String, List<String>> _mx = new ConcurrentHashMap<>();
+
+	private final Map<String, List<String>> _addresses = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates a {@link RecordingResolver}.
+	 *
+	 * @param resolver The resolver to forward all queries to.
+	 */
+	public RecordingResolver(MailHostResolver resolver) {
+		_resolver = resolver;
+	}
+
+	/**
+	 * Creates a {@link RecordingResolver} that adds to the answers already recorded in the given
+	 * {@link ReplayResolver}.
+	 */
+	public RecordingResolver(MailHostResolver resolver, ReplayResolver recorded) {
+		this(resolver);
+		recorded.forEachMx((domain, mailServers) -> _mx.put(domain, mailServers == null ? NO_MX : mailServers));
+		_addresses.putAll(recorded.addresses());
+	}
+
+	@Override
+	public CompletableFuture<List<String>> lookupMx(String domain) {
+		return _resolver.lookupMx(domain).thenApply(mailServers -> {
+			_mx.put(domain, mailServers == null ? NO_MX : mailServers);
+			return mailServers;
+		});
+	}
+
+	@Override
+	public CompletableFuture<List<String>> lookupAddresses(String host) {
+		return _resolver.lookupAddresses(host).thenApply(addresses -> {
+			_addresses.put(host, addresses);
+			return addresses;
+		});
+	}
+
+	/**
+	 * The number of recorded answers.
+	 */
+	public int size() {
+		return _mx.size() + _addresses.size();
+	}
+
+	/**
+	 * Writes all recorded answers to the given file in the format read by
+	 * {@link ReplayResolver#load(File)}.
+	 */
+	public void store(File file) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file)), 1 << 16))) {
+			out.writeInt(ReplayResolver.MAGIC);
+			out.writeInt(ReplayResolver.VERSION);
+
+			out.writeInt(_mx.size());
+			for (Entry<String, List<String>> entry : _mx.entrySet()) {
+				out.writeUTF(entry.getKey());
+				List<String> mailServers = entry.getValue();
+				if (mailServers == NO_MX) {
+					out.writeInt(-1);
+				} else {
+					writeStrings(out, mailServers);
+				}
+			}
+
+			out.writeInt(_addresses.size());
+			for (Entry<String, List<String>> entry : _addresses.entrySet()) {
+				out.writeUTF(entry.getKey());
+				writeStrings(out, entry.getValue());
+			}
+		}
+	}
+
+	private static void writeStrings(DataOutputStream out, List<String> values) throws IOException {
+		out.writeInt(values.size());
+		for (String value : values) {
+			out.writeUTF(value);
+		}
+	}
+
+}
@@ -0,0 +1,144 @@
+package com.github.spamchecker.dns;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * {@link MailHostResolver} serving the answers recorded by a {@link RecordingResolver} from
+ * memory without any network access.
+ *
+ * <p>
+ * Names that were not recorded are answered as not resolvable and counted as misses.
+ * </p>
+ *
+ * <pre>
+ * file    = MAGIC VERSION count mx* count host* (gzip compressed)
+ * mx      = domain (count | -1) mailServer*
+ * host    = name count address*
+ * </pre>
+ */
+public class ReplayResolver implements MailHostResolver {
+
+	static final int MAGIC = 0x53505252;
+
+	static final int VERSION = 1;
+
+	private static final CompletableFuture<List<String>> NO_MX = CompletableFuture.completedFuture(null);
+
+	private static final CompletableFuture<List<String>> NO_ADDRESSES = CompletableFuture.completedFuture(Collections.emptyList());
+
+	private final Map<String, List<String>> _mx;
+
+	private final Map<String, List<String>> _addresses;
+
+	private int _misses;
+
+	private ReplayResolver(Map<String, List<String>> mx, Map<String, List<String>> addresses) {
+		_mx = mx;
+		_addresses = addresses;
+	}
+
+	/**
+	 * Reads a recording written by {@link RecordingResolver#store(File)}.
+	 *
+	 * <p>
+	 * A missing file results in an empty recording.
+	 * </p>
+	 */
+	public static ReplayResolver load(File file) throws IOException {
+		Map<String, List<String>> mx = new HashMap<>();
+		Map<String, List<String>> addresses = new HashMap<>();
+		if (!file.exists()) {
+			return new ReplayResolver(mx, addresses);
+		}
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file)), 1 << 16))) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not a DNS recording: " + file);
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported DNS recording version: " + version);
+			}
+
+			for (int n = 0, cnt = in.readInt(); n < cnt; n++) {
+				String domain = in.readUTF();
+				int size = in.readInt();
+				mx.put(domain, size < 0 ? null : readStrings(in, size));
+			}
+			for (int n = 0, cnt = in.readInt(); n < cnt; n++) {
+				String host = in.readUTF();
+				addresses.put(host, readStrings(in, in.readInt()));
+			}
+		}
+		return new ReplayResolver(mx, addresses);
+	}
+
+	@Override
+	public CompletableFuture<List<String>> lookupMx(String domain) {
+		List<String> result = _mx.get(domain);
+		if (result == null) {
+			if (!_mx.containsKey(domain)) {
+				miss();
+			}
+			return NO_MX;
+		}
+		return CompletableFuture.completedFuture(result);
+	}
+
+	@Override
+	public CompletableFuture<List<String>> lookupAddresses(String host) {
+		List<String> result = _addresses.get(host);
+		if (result == null) {
+			miss();
+			return NO_ADDRESSES;
+		}
+		return CompletableFuture.completedFuture(result);
+	}
+
+	private synchronized void miss() {
+		_misses++;
+	}
+
+	/**
+	 * The number of lookups for names that were not recorded.
+	 */
+	public synchronized int getMisses() {
+		return _misses;
+	}
+
+	/**
+	 * Calls the given consumer for each recorded MX lookup, <code>null</code> stands for a domain
+	 * without MX records.
+	 */
+	void forEachMx(BiConsumer<String, List<String>> consumer) {
+		_mx.forEach(consumer);
+	}
+
+	/**
+	 * All recorded address lookups.
+	 */
+	Map<String, List<String>> addresses() {
+		return _addresses;
+	}
+
+	private static List<String> readStrings(DataInputStream in, int size) throws IOException {
+		List<String> result = new ArrayList<>(size);
+		for (int n = 0; n < size; n++) {
+			result.add(in.readUTF());
+		}
+		return result;
+	}
+
+}
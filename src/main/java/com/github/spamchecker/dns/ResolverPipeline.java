@@ -0,0 +1,178 @@
+package com.github.spamchecker.dns;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Predicate;
+
+/**
+ * Resolves e-mail domains concurrently while delivering all results to the thread that feeds the
+ * pipeline.
+ *
+ * <p>
+ * The MX lookup of a domain and the address lookups of its new mail servers run asynchronously
+ * in a {@link MailHostResolver}. Results are handed to the {@link AnswerHandler} only from within
+ * {@link #submit(String, AnswerHandler)} and {@link #finish()}, so handlers may update
+ * non-thread-safe data structures.
+ * </p>
+ */
+public class ResolverPipeline {
+
+	/**
+	 * Callback receiving the {@link DnsAnswer} of a domain.
+	 */
+	public interface AnswerHandler {
+		/**
+		 * Processes the DNS information of a domain.
+		 */
+		void handle(DnsAnswer answer) throws IOException;
+	}
+
+	private final MailHostResolver _resolver;
+
+	private final Predicate<String> _knownMx;
+
+	private final int _maxPending;
+
+	private final BlockingQueue<Runnable> _events = new LinkedBlockingQueue<>();
+
+	private final Set<String> _pending = new HashSet<>();
+
+	/**
+	 * Address lookups of mail servers shared by domains being resolved at the same time.
+	 */
+	private final Map<String, CompletableFuture<List<String>>> _addressLookups = new HashMap<>();
+
+	private IOException _problem;
+
+	private int _resolved;
+
+	private final long _startTime = System.nanoTime();
+
+	/**
+	 * Creates a {@link ResolverPipeline}.
+	 *
+	 * @param resolver The resolver to use.
+	 * @param knownMx Test whether a mail server is already known and need not be resolved. Only
+	 *        called from the feeding thread.
+	 * @param maxPending The maximum number of domains being resolved at the same time.
+	 */
+	public ResolverPipeline(MailHostResolver resolver, Predicate<String> knownMx, int maxPending) {
+		_resolver = resolver;
+		_knownMx = knownMx;
+		_maxPending = maxPending;
+	}
+
+	/**
+	 * Starts resolving the given domain.
+	 *
+	 * <p>
+	 * Blocks while the maximum number of domains is pending and delivers all results available
+	 * so far.
+	 * </p>
+	 *
+	 * @return Whether resolution was started, <code>false</code> if the given domain is already
+	 *         pending.
+	 */
+	public boolean submit(String domain, AnswerHandler handler) throws IOException {
+		if (!_pending.add(domain)) {
+			return false;
+		}
+
+		_resolver.lookupMx(domain).whenComplete((mailServers, ex) ->
+			_events.add(() -> onMx(domain, ex == null ? mailServers : null, handler)));
+
+		while (_pending.size() >= _maxPending) {
+			dispatch(take());
+		}
+		for (Runnable event; (event = _events.poll()) != null; ) {
+			dispatch(event);
+		}
+		return true;
+	}
+
+	/**
+	 * Waits for all pending domains and delivers their results.
+	 */
+	public void finish() throws IOException {
+		while (!_pending.isEmpty()) {
+			dispatch(take());
+		}
+	}
+
+	/**
+	 * The number of domains resolved so far.
+	 */
+	public int getResolved() {
+		return _resolved;
+	}
+
+	/**
+	 * The number of domains resolved per second since the pipeline was created.
+	 */
+	public double getThroughput() {
+		double seconds = (System.nanoTime() - _startTime) / 1e9;
+		return seconds > 0 ? _resolved / seconds : 0;
+	}
+
+	private Runnable take() throws InterruptedIOException {
+		try {
+			return _events.take();
+		} catch (InterruptedException ex) {
+			throw new InterruptedIOException("Interrupted while waiting for DNS answers.");
+		}
+	}
+
+	private void dispatch(Runnable event) throws IOException {
+		event.run();
+
+		if (_problem != null) {
+			IOException problem = _problem;
+			_problem = null;
+			throw problem;
+		}
+	}
+
+	private void onMx(String domain, List<String> mailServers, AnswerHandler handler) {
+		Map<String, CompletableFuture<List<String>>> lookups = new LinkedHashMap<>();
+		for (String host : mailServers == null ? List.of(domain) : mailServers) {
+			if (!_knownMx.test(host) && !lookups.containsKey(host)) {
+				lookups.put(host, _addressLookups.computeIfAbsent(host, _resolver::lookupAddresses));
+			}
+		}
+
+		CompletableFuture.allOf(lookups.values().toArray(new CompletableFuture<?>[0])).whenComplete((x, ex) ->
+			_events.add(() -> onAddresses(domain, mailServers, lookups, handler)));
+	}
+
+	private void onAddresses(String domain, List<String> mailServers, Map<String, CompletableFuture<List<String>>> lookups, AnswerHandler handler) {
+		Map<String, List<String>> addresses = new LinkedHashMap<>();
+		for (Entry<String, CompletableFuture<List<String>>> entry : lookups.entrySet()) {
+			addresses.put(entry.getKey(), entry.getValue().join());
+		}
+
+		_pending.remove(domain);
+		_resolved++;
+
+		try {
+			handler.handle(new DnsAnswer(mailServers, addresses));
+		} catch (IOException ex) {
+			_problem = ex;
+		}
+
+		// The handler has made the mail servers known, later domains need not look them up.
+		for (Entry<String, CompletableFuture<List<String>>> entry : lookups.entrySet()) {
+			_addressLookups.remove(entry.getKey(), entry.getValue());
+		}
+	}
+
+}
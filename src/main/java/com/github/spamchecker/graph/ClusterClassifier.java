@@ -0,0 +1,421 @@
+package com.github.spamchecker.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.github.spamchecker.MxResolver;
+import com.github.spamchecker.compact.NameDictionary;
+import com.github.spamchecker.model.Classification;
+import com.github.spamchecker.model.DomainData;
+import com.github.spamchecker.model.Heuristics;
+import com.github.spamchecker.model.Index;
+import com.github.spamchecker.model.MxData;
+
+/**
+ * Classifies all domains of an {@link Index} from the manually classified domains connected to
+ * them through chains of shared mail servers and addresses.
+ *
+ * <p>
+ * Domains, mail servers and addresses are nodes of a graph, a domain is connected to its mail
+ * servers and a mail server to its addresses. The connected clusters are computed with
+ * union-find in near-linear time. Mail servers and addresses shared by manually classified
+ * domains of different classification (e.g. the servers of a large mail hoster) do not connect
+ * their neighbors, otherwise a few of them would join most domains into a single cluster.
+ * </p>
+ *
+ * <p>
+ * A cluster is classified with the classification of the majority of its manually classified
+ * domains, if at least {@link #CONFIDENCE} of them agree, and as mixed otherwise. All domains of
+ * a cluster are attributed to the services of its manually classified domains. Manual and dead
+ * domains keep their classification, all other domains are classified again. Memory is a few
+ * ints per node besides the names of mail servers and addresses.
+ * </p>
+ */
+public final class ClusterClassifier {
+
+	/**
+	 * The minimum fraction of the manually classified domains of a cluster that must agree on a
+	 * classification, before the cluster is classified the same way.
+	 */
+	public static final double CONFIDENCE = 0.9;
+
+	private static final Classification[] KINDS = Classification.values();
+
+	private final List<DomainData> _domains;
+
+	/**
+	 * The mail server IDs of each domain.
+	 */
+	private final int[][] _domainMx;
+
+	/**
+	 * The address IDs of each mail server.
+	 */
+	private final int[][] _mxAddresses;
+
+	private final int _addressCount;
+
+	/**
+	 * The combined classification of the manually classified domains using a mail server.
+	 */
+	private byte[] _mxSeedKind;
+
+	/**
+	 * The combined classification of the manually classified domains using an address.
+	 */
+	private byte[] _addressSeedKind;
+
+	/**
+	 * The services of manually classified domains using a mail server by mail server ID.
+	 */
+	private final Map<Integer, Set<String>> _mxServices = new HashMap<>();
+
+	/**
+	 * Parent node in the union-find forest, the negative size of the cluster for a root node.
+	 * Domains come first, followed by mail servers and addresses.
+	 */
+	private int[] _parent;
+
+	/**
+	 * The manually classified domains by root node of their cluster.
+	 */
+	private final Map<Integer, Cluster> _clusters = new HashMap<>();
+
+	private int _clusterCount;
+
+	private int _largestCluster;
+
+	private int _mixedClusters;
+
+	private int _classified;
+
+	private int _changed;
+
+	/**
+	 * Creates a {@link ClusterClassifier} for the given database.
+	 */
+	public ClusterClassifier(Index db) {
+		// Note: Names are resolved to IDs once, all further processing only uses int arrays.
+		NameDictionary mailServers = new NameDictionary(db.getMailServers().size());
+		NameDictionary addresses = new NameDictionary(db.getMailServers().size());
+		_mxAddresses = new int[db.getMailServers().size()][];
+		for (Entry<String, MxData> entry : db.getMailServers().entrySet()) {
+			int mx = mailServers.intern(entry.getKey());
+			_mxAddresses[mx] = ids(addresses, entry.getValue().getAddresses(), true);
+		}
+		_addressCount = addresses.size();
+
+		_domains = new ArrayList<>(db.getDomains().values());
+		_domainMx = new int[_domains.size()][];
+		for (int domain = 0, cnt = _domains.size(); domain < cnt; domain++) {
+			_domainMx[domain] = ids(mailServers, _domains.get(domain).getMailServers(), false);
+		}
+	}
+
+	private static int[] ids(NameDictionary dictionary, List<String> names, boolean intern) {
+		int[] result = new int[names.size()];
+		for (int n = 0, cnt = names.size(); n < cnt; n++) {
+			String name = names.get(n);
+			result[n] = intern ? dictionary.intern(name) : dictionary.find(name);
+		}
+		return result;
+	}
+
+	/**
+	 * Classifies all domains that are neither manually classified nor dead.
+	 *
+	 * <p>
+	 * The classification of mail servers is not updated.
+	 * </p>
+	 */
+	public void classify() {
+		computeSeedKinds();
+		buildClusters();
+		collectSeeds();
+
+		for (int domain = 0, cnt = _domains.size(); domain < cnt; domain++) {
+			DomainData data = _domains.get(domain);
+			if (isSeed(data) || !isGuessed(data)) {
+				continue;
+			}
+
+			Classification before = data.getKind();
+			classify(domain, data);
+			_classified++;
+			if (data.getKind() != before) {
+				_changed++;
+			}
+		}
+	}
+
+	/**
+	 * The number of clusters with more than a single node.
+	 */
+	public int getClusterCount() {
+		return _clusterCount;
+	}
+
+	/**
+	 * The number of nodes in the largest cluster.
+	 */
+	public int getLargestCluster() {
+		return _largestCluster;
+	}
+
+	/**
+	 * The number of clusters with manually classified domains that do not agree on a
+	 * classification.
+	 */
+	public int getMixedClusters() {
+		return _mixedClusters;
+	}
+
+	/**
+	 * The number of domains classified.
+	 */
+	public int getClassified() {
+		return _classified;
+	}
+
+	/**
+	 * The number of domains whose classification has changed.
+	 */
+	public int getChanged() {
+		return _changed;
+	}
+
+	private void computeSeedKinds() {
+		_mxSeedKind = new byte[_mxAddresses.length];
+		for (int domain = 0, cnt = _domains.size(); domain < cnt; domain++) {
+			DomainData data = _domains.get(domain);
+			if (!isSeed(data)) {
+				continue;
+			}
+			for (int id : _domainMx[domain]) {
+				_mxSeedKind[id] = (byte) MxResolver.combine(KINDS[_mxSeedKind[id]], data.getKind()).ordinal();
+				if (data.getService() != null) {
+					_mxServices.computeIfAbsent(id, x -> new TreeSet<>()).add(data.getService());
+				}
+			}
+		}
+
+		_addressSeedKind = new byte[_addressCount];
+		for (int mx = 0, cnt = _mxAddresses.length; mx < cnt; mx++) {
+			for (int id : _mxAddresses[mx]) {
+				_addressSeedKind[id] = (byte) MxResolver.combine(KINDS[_addressSeedKind[id]], KINDS[_mxSeedKind[mx]]).ordinal();
+			}
+		}
+	}
+
+	private void buildClusters() {
+		int domains = _domains.size();
+		int mailServers = _mxAddresses.length;
+		_parent = new int[domains + mailServers + _addressCount];
+		Arrays.fill(_parent, -1);
+
+		for (int domain = 0; domain < domains; domain++) {
+			DomainData data = _domains.get(domain);
+			if (!isSeed(data) && !isGuessed(data)) {
+				continue;
+			}
+			for (int id : _domainMx[domain]) {
+				if (KINDS[_mxSeedKind[id]] != Classification.MIXED) {
+					union(domain, domains + id);
+				}
+			}
+		}
+
+		for (int mx = 0; mx < mailServers; mx++) {
+			if (KINDS[_mxSeedKind[mx]] == Classification.MIXED) {
+				continue;
+			}
+			for (int id : _mxAddresses[mx]) {
+				if (KINDS[_addressSeedKind[id]] != Classification.MIXED) {
+					union(domains + mx, domains + mailServers + id);
+				}
+			}
+		}
+
+		for (int size : _parent) {
+			if (size < -1) {
+				_clusterCount++;
+				_largestCluster = Math.max(_largestCluster, -size);
+			}
+		}
+	}
+
+	private void collectSeeds() {
+		for (int domain = 0, cnt = _domains.size(); domain < cnt; domain++) {
+			DomainData data = _domains.get(domain);
+			if (isSeed(data)) {
+				_clusters.computeIfAbsent(find(domain), x -> new Cluster()).add(data);
+			}
+		}
+		for (Cluster cluster : _clusters.values()) {
+			if (cluster.getKind() == Classification.MIXED) {
+				_mixedClusters++;
+			}
+		}
+	}
+
+	private void classify(int domain, DomainData data) {
+		boolean mxSeeded = false;
+		boolean addressSeeded = false;
+		boolean mxShared = false;
+		boolean addressShared = false;
+		Set<String> sharedServices = new TreeSet<>();
+		for (int mxId : _domainMx[domain]) {
+			Classification mxKind = KINDS[_mxSeedKind[mxId]];
+			mxSeeded |= mxKind != Classification.UNKNOWN;
+			if (mxKind == Classification.MIXED) {
+				mxShared = true;
+				sharedServices.addAll(_mxServices.getOrDefault(mxId, Collections.emptySet()));
+			}
+			for (int address : _mxAddresses[mxId]) {
+				Classification addressKind = KINDS[_addressSeedKind[address]];
+				addressSeeded |= addressKind != Classification.UNKNOWN;
+				addressShared |= addressKind == Classification.MIXED;
+			}
+		}
+
+		Cluster cluster = _clusters.get(find(domain));
+		if (cluster != null) {
+			Heuristics heuristics = mxSeeded ? Heuristics.MX : addressSeeded ? Heuristics.IP : Heuristics.CLUSTER;
+			set(data, cluster.getKind(), heuristics, cluster.getServices());
+		} else if (mxShared) {
+			set(data, Classification.MIXED, Heuristics.MX, new ArrayList<>(sharedServices));
+		} else if (addressShared) {
+			set(data, Classification.MIXED, Heuristics.IP, Collections.emptyList());
+		} else {
+			set(data, Classification.UNKNOWN, Heuristics.NONE, Collections.emptyList());
+		}
+	}
+
+	private static void set(DomainData data, Classification kind, Heuristics heuristics, List<String> services) {
+		data.setKind(kind);
+		data.setHeuristics(heuristics);
+		if (services.size() == 1) {
+			data.setService(services.get(0));
+			services = Collections.emptyList();
+		} else {
+			data.setService(null);
+		}
+		
+		// Note: Setting a list copies it element by element, most domains keep their services.
+		if (!data.getPotentialServices().equals(services)) {
+			data.setPotentialServices(services);
+		}
+	}
+
+	/**
+	 * Whether the given domain is a manually classified domain, whose classification is
+	 * propagated to its cluster.
+	 */
+	private static boolean isSeed(DomainData data) {
+		if (data.getHeuristics() != Heuristics.MANUAL) {
+			return false;
+		}
+		switch (data.getKind()) {
+		case DISPOSABLE:
+		case ALIAS:
+		case REGULAR:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Whether the classification of the given domain was guessed and can be computed again.
+	 */
+	private static boolean isGuessed(DomainData data) {
+		if (data.getKind() == Classification.DEAD) {
+			return false;
+		}
+		switch (data.getHeuristics()) {
+		case MX:
+		case IP:
+		case CLUSTER:
+		case FINGERPRINT:
+		case NONE:
+			return true;
+		case MANUAL:
+			return data.getKind() == Classification.UNKNOWN;
+		default:
+			return false;
+		}
+	}
+
+	private int find(int node) {
+		int[] parent = _parent;
+		while (parent[node] >= 0) {
+			int next = parent[node];
+			if (parent[next] >= 0) {
+				// Path halving.
+				parent[node] = parent[next];
+			}
+			node = next;
+		}
+		return node;
+	}
+
+	private void union(int x, int y) {
+		int rootX = find(x);
+		int rootY = find(y);
+		if (rootX == rootY) {
+			return;
+		}
+
+		// Union by size, the size of a root is stored negative.
+		if (_parent[rootX] > _parent[rootY]) {
+			int tmp = rootX;
+			rootX = rootY;
+			rootY = tmp;
+		}
+		_parent[rootX] += _parent[rootY];
+		_parent[rootY] = rootX;
+	}
+
+	/**
+	 * The manually classified domains of a cluster.
+	 */
+	private static final class Cluster {
+		final int[] _counts = new int[KINDS.length];
+		final Set<String> _services = new TreeSet<>();
+		int _total;
+		List<String> _serviceList;
+
+		void add(DomainData seed) {
+			_counts[seed.getKind().ordinal()]++;
+			_total++;
+			if (seed.getService() != null) {
+				_services.add(seed.getService());
+			}
+		}
+
+		List<String> getServices() {
+			if (_serviceList == null) {
+				_serviceList = new ArrayList<>(_services);
+			}
+			return _serviceList;
+		}
+
+		Classification getKind() {
+			int majority = 0;
+			for (int n = 1; n < _counts.length; n++) {
+				if (_counts[n] > _counts[majority]) {
+					majority = n;
+				}
+			}
+			return _counts[majority] >= CONFIDENCE * _total ? KINDS[majority] : Classification.MIXED;
+		}
+	}
+
+}
@@ -0,0 +1,73 @@
+package com.github.spamchecker.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe histogram of durations with exponentially growing buckets.
+ *
+ * <p>
+ * Bucket <code>n</code> counts durations below <code>2^n</code> microseconds. Recording a
+ * duration does not allocate.
+ * </p>
+ */
+public final class LatencyHistogram {
+
+	private static final int BUCKETS = 40;
+
+	private static final int COUNT = 0;
+
+	private static final int SUM = 1;
+
+	private final AtomicLongArray _buckets = new AtomicLongArray(BUCKETS);
+
+	private final AtomicLongArray _totals = new AtomicLongArray(2);
+
+	/**
+	 * Records the given duration.
+	 */
+	public void record(long nanos) {
+		long micros = Math.max(0, nanos / 1000);
+		int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+		_buckets.incrementAndGet(bucket);
+		_totals.incrementAndGet(COUNT);
+		_totals.addAndGet(SUM, nanos);
+	}
+
+	/**
+	 * The number of durations recorded.
+	 */
+	public long getCount() {
+		return _totals.get(COUNT);
+	}
+
+	/**
+	 * The mean of all durations recorded in milliseconds.
+	 */
+	public double getMeanMillis() {
+		long count = getCount();
+		return count == 0 ? 0 : _totals.get(SUM) / 1e6 / count;
+	}
+
+	/**
+	 * Upper bound of the given quantile of all durations recorded in milliseconds.
+	 *
+	 * @param quantile A value between 0 and 1.
+	 */
+	public double getQuantileMillis(double quantile) {
+		long count = getCount();
+		if (count == 0) {
+			return 0;
+		}
+
+		long rank = (long) Math.ceil(quantile * count);
+		long seen = 0;
+		for (int n = 0; n < BUCKETS; n++) {
+			seen += _buckets.get(n);
+			if (seen >= rank) {
+				return (1L << n) / 1000.0;
+			}
+		}
+		return (1L << (BUCKETS - 1)) / 1000.0;
+	}
+
+}
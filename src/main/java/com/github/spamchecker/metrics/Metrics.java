@@ -0,0 +1,342 @@
+package com.github.spamchecker.metrics;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import com.github.spamchecker.model.Heuristics;
+
+import de.haumacher.msgbuf.json.JsonWriter;
+import de.haumacher.msgbuf.server.io.WriterAdapter;
+
+/**
+ * Instrumentation of DNS resolution, processing stages and classification results.
+ *
+ * <p>
+ * All values are available as a flat map of named numbers through {@link #snapshot()}, as
+ * attributes of a JMX bean (see {@link #register()}) and as a periodic JSON progress line (see
+ * {@link #startProgress(int, PrintStream)}). Recording a value does not allocate. A disabled
+ * instance (see {@link #DISABLED}) ignores all values and does not even read the clock.
+ * </p>
+ */
+public final class Metrics implements DynamicMBean {
+
+	private static final Heuristics[] HEURISTICS = Heuristics.values();
+
+	/**
+	 * {@link Metrics} that records nothing.
+	 */
+	public static final Metrics DISABLED = new Metrics(false);
+
+	/**
+	 * The name of the JMX bean.
+	 */
+	public static final String OBJECT_NAME = "com.github.spamchecker:type=Metrics";
+
+	/**
+	 * Kind of DNS lookup.
+	 */
+	public enum Lookup {
+		/** MX records of an e-mail domain. */
+		MX("mx"),
+
+		/** A and AAAA records of a mail server. */
+		ADDRESS("address");
+
+		final String _name;
+
+		Lookup(String name) {
+			_name = name;
+		}
+	}
+
+	/**
+	 * Outcome of a DNS lookup.
+	 */
+	public enum Outcome {
+		/** Records were found. */
+		FOUND("found"),
+
+		/** The name has no records of the requested type. */
+		NONE("none"),
+
+		/** The lookup failed, e.g. with a timeout. */
+		ERROR("error");
+
+		final String _name;
+
+		Outcome(String name) {
+			_name = name;
+		}
+	}
+
+	/**
+	 * A processing stage with its own timer.
+	 */
+	public enum Stage {
+		/** Reading the database file. */
+		LOAD("load"),
+
+		/** Building the cross references of a database. */
+		INDEX("index"),
+
+		/** Propagating domain classifications to mail servers and addresses. */
+		CLASSIFICATIONS("classifications"),
+
+		/** Writing a database or classification result. */
+		SERIALIZE("serialize"),
+
+		/** Storing the database including journals or the relational store. */
+		STORE("store");
+
+		final String _name;
+
+		Stage(String name) {
+			_name = name;
+		}
+	}
+
+	private final boolean _enabled;
+
+	private final long _startTime = System.nanoTime();
+
+	private final LatencyHistogram[] _dns;
+
+	private final AtomicLongArray _stageNanos = new AtomicLongArray(Stage.values().length);
+
+	private final AtomicLongArray _stageCounts = new AtomicLongArray(Stage.values().length);
+
+	private final AtomicLongArray _heuristics = new AtomicLongArray(HEURISTICS.length);
+
+	private final Map<String, LongSupplier> _gauges = new LinkedHashMap<>();
+
+	private ScheduledExecutorService _progress;
+
+	/**
+	 * Creates an enabled {@link Metrics}.
+	 */
+	public Metrics() {
+		this(true);
+	}
+
+	private Metrics(boolean enabled) {
+		_enabled = enabled;
+		_dns = new LatencyHistogram[Lookup.values().length * Outcome.values().length];
+		for (int n = 0; n < _dns.length; n++) {
+			_dns[n] = new LatencyHistogram();
+		}
+	}
+
+	/**
+	 * Whether values are recorded.
+	 */
+	public boolean isEnabled() {
+		return _enabled;
+	}
+
+	/**
+	 * The start time for a measurement, <code>0</code>, if disabled.
+	 */
+	public long start() {
+		return _enabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Records the duration of a DNS lookup.
+	 *
+	 * @param start The value of {@link #start()} before the lookup.
+	 */
+	public void dns(Lookup lookup, Outcome outcome, long start) {
+		if (_enabled) {
+			_dns[lookup.ordinal() * Outcome.values().length + outcome.ordinal()].record(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Records the duration of a processing stage.
+	 *
+	 * @param start The value of {@link #start()} before the stage.
+	 */
+	public void stage(Stage stage, long start) {
+		if (_enabled) {
+			_stageNanos.addAndGet(stage.ordinal(), System.nanoTime() - start);
+			_stageCounts.incrementAndGet(stage.ordinal());
+		}
+	}
+
+	/**
+	 * Counts a domain classification result.
+	 */
+	public void classified(Heuristics heuristics) {
+		if (_enabled) {
+			_heuristics.incrementAndGet(heuristics.ordinal());
+		}
+	}
+
+	/**
+	 * Adds a value that is read on each {@link #snapshot()}, e.g. the hit count of a cache.
+	 */
+	public void gauge(String name, LongSupplier value) {
+		if (_enabled) {
+			synchronized (_gauges) {
+				_gauges.put(name, value);
+			}
+		}
+	}
+
+	/**
+	 * The current values of all metrics by name.
+	 */
+	public Map<String, Number> snapshot() {
+		Map<String, Number> result = new LinkedHashMap<>();
+		result.put("uptimeSeconds", (System.nanoTime() - _startTime) / 1e9);
+
+		long domains = 0;
+		for (int n = 0; n < HEURISTICS.length; n++) {
+			domains += _heuristics.get(n);
+		}
+		result.put("domains", domains);
+		for (int n = 0; n < HEURISTICS.length; n++) {
+			result.put("domains." + HEURISTICS[n].protocolName(), _heuristics.get(n));
+		}
+
+		for (Lookup lookup : Lookup.values()) {
+			for (Outcome outcome : Outcome.values()) {
+				LatencyHistogram histogram = _dns[lookup.ordinal() * Outcome.values().length + outcome.ordinal()];
+				String prefix = "dns." + lookup._name + "." + outcome._name + ".";
+				result.put(prefix + "count", histogram.getCount());
+				result.put(prefix + "meanMillis", histogram.getMeanMillis());
+				result.put(prefix + "p50Millis", histogram.getQuantileMillis(0.5));
+				result.put(prefix + "p99Millis", histogram.getQuantileMillis(0.99));
+			}
+		}
+
+		for (Stage stage : Stage.values()) {
+			result.put("stage." + stage._name + ".count", _stageCounts.get(stage.ordinal()));
+			result.put("stage." + stage._name + ".millis", _stageNanos.get(stage.ordinal()) / 1_000_000);
+		}
+
+		synchronized (_gauges) {
+			for (Entry<String, LongSupplier> entry : _gauges.entrySet()) {
+				result.put(entry.getKey(), entry.getValue().getAsLong());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The current values of all metrics as single-line JSON object.
+	 */
+	public String toJson() {
+		StringWriter buffer = new StringWriter();
+		try (JsonWriter json = new JsonWriter(new WriterAdapter(buffer))) {
+			json.beginObject();
+			for (Entry<String, Number> entry : snapshot().entrySet()) {
+				json.name(entry.getKey()).value(entry.getValue());
+			}
+			json.endObject();
+		} catch (IOException ex) {
+			throw new IllegalStateException("Writing to a string failed.", ex);
+		}
+		return buffer.toString();
+	}
+
+	/**
+	 * Registers these metrics as JMX bean {@link #OBJECT_NAME} with the platform bean server.
+	 */
+	public void register() throws JMException {
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+	}
+
+	/**
+	 * Writes a progress line with the JSON of all metrics to the given stream each given number
+	 * of seconds.
+	 */
+	public void startProgress(int seconds, PrintStream out) {
+		stopProgress();
+		_progress = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "Progress");
+			thread.setDaemon(true);
+			return thread;
+		});
+		_progress.scheduleAtFixedRate(() -> out.println(toJson()), seconds, seconds, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Stops writing progress lines.
+	 */
+	public void stopProgress() {
+		if (_progress != null) {
+			_progress.shutdownNow();
+			_progress = null;
+		}
+	}
+
+	@Override
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+		Number result = snapshot().get(attribute);
+		if (result == null) {
+			throw new AttributeNotFoundException(attribute);
+		}
+		return result;
+	}
+
+	@Override
+	public AttributeList getAttributes(String[] attributes) {
+		Map<String, Number> snapshot = snapshot();
+		AttributeList result = new AttributeList();
+		for (String attribute : attributes) {
+			Number value = snapshot.get(attribute);
+			if (value != null) {
+				result.add(new Attribute(attribute, value));
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException("Read-only attribute: " + attribute.getName());
+	}
+
+	@Override
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	@Override
+	public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+		throw new ReflectionException(new NoSuchMethodException(actionName));
+	}
+
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		Map<String, Number> snapshot = snapshot();
+		MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[snapshot.size()];
+		int n = 0;
+		for (Entry<String, Number> entry : snapshot.entrySet()) {
+			attributes[n++] = new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(), entry.getKey(), true, false, false);
+		}
+		return new MBeanInfo(Metrics.class.getName(), "Spam checker metrics", attributes, null, null, null);
+	}
+
+}
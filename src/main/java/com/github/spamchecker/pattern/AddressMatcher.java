@@ -0,0 +1,168 @@
+package com.github.spamchecker.pattern;
+
+/**
+ * Deterministic automaton matching full e-mail addresses against the address patterns of
+ * fake-mail services, see {@link PatternCompiler}.
+ *
+ * <p>
+ * Addresses are normalized while they are fed into the automaton: The domain is replaced by its
+ * canonical name (<code>googlemail.com</code> by <code>gmail.com</code>), a <code>+</code> tag
+ * is cut off the account name and dots are skipped in account names of providers ignoring them.
+ * The normalized input is <code>domain '@' account END</code>, or <code>domain '@' account '+'
+ * END</code>, if the address has a tag. A match costs one table lookup per character and does not
+ * allocate.
+ * </p>
+ */
+public final class AddressMatcher {
+
+	/**
+	 * Marker for the end of the account name in the normalized input.
+	 */
+	static final char END = '\n';
+
+	/**
+	 * Marker for an account name that had a <code>+</code> tag in the normalized input.
+	 */
+	static final char TAG = '+';
+
+	/**
+	 * Domains with alternative names and special account name rules.
+	 */
+	private static final DomainRule[] RULES = {
+		new DomainRule("gmail.com", "gmail.com", true),
+		new DomainRule("googlemail.com", "gmail.com", true),
+	};
+
+	private final int[] _charClass;
+
+	private final int _classes;
+
+	private final int[] _transitions;
+
+	private final int[] _accept;
+
+	private final String[] _services;
+
+	/**
+	 * Creates a {@link AddressMatcher}.
+	 *
+	 * @param charClass Class of each ASCII character, <code>0</code> for characters not used in
+	 *        any pattern.
+	 * @param classes The number of character classes.
+	 * @param transitions The successor of each state for each character class at index
+	 *        <code>state * classes + class</code>, <code>-1</code> if no pattern can match.
+	 * @param accept The index of the service matched in each state, <code>-1</code> for
+	 *        non-accepting states.
+	 * @param services The service names.
+	 */
+	AddressMatcher(int[] charClass, int classes, int[] transitions, int[] accept, String[] services) {
+		_charClass = charClass;
+		_classes = classes;
+		_transitions = transitions;
+		_accept = accept;
+		_services = services;
+	}
+
+	/**
+	 * The number of states of the automaton.
+	 */
+	public int getStateCount() {
+		return _accept.length;
+	}
+
+	/**
+	 * The service whose address patterns match the given address, <code>null</code>, if the
+	 * address does not match any pattern.
+	 */
+	public String match(String address) {
+		int at = address.lastIndexOf('@');
+		if (at <= 0) {
+			return null;
+		}
+
+		int state = 0;
+		boolean ignoreDots = false;
+		DomainRule rule = rule(address, at + 1);
+		if (rule == null) {
+			state = feed(state, address, at + 1, address.length(), false);
+		} else {
+			state = feed(state, rule._canonical, 0, rule._canonical.length(), false);
+			ignoreDots = rule._ignoreDots;
+		}
+		state = step(state, '@');
+
+		int plus = address.indexOf('+');
+		boolean tagged = plus >= 0 && plus < at;
+		state = feed(state, address, 0, tagged ? plus : at, ignoreDots);
+		if (tagged) {
+			state = step(state, TAG);
+		}
+		state = step(state, END);
+
+		return state < 0 || _accept[state] < 0 ? null : _services[_accept[state]];
+	}
+
+	private int feed(int state, String input, int start, int end, boolean ignoreDots) {
+		for (int n = start; state >= 0 && n < end; n++) {
+			char ch = input.charAt(n);
+			if (ignoreDots && ch == '.') {
+				continue;
+			}
+			state = step(state, Character.toLowerCase(ch));
+		}
+		return state;
+	}
+
+	private int step(int state, char ch) {
+		if (state < 0) {
+			return state;
+		}
+		int charClass = ch < _charClass.length ? _charClass[ch] : 0;
+		return _transitions[state * _classes + charClass];
+	}
+
+	private static DomainRule rule(String address, int domainStart) {
+		int length = address.length() - domainStart;
+		for (DomainRule rule : RULES) {
+			if (rule._domain.length() == length && address.regionMatches(true, domainStart, rule._domain, 0, length)) {
+				return rule;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * The normalized form <code>domain '@' account</code> of the given address, <code>null</code>,
+	 * if it is not an e-mail address.
+	 *
+	 * @see #match(String)
+	 */
+	public static String normalize(String address) {
+		int at = address.lastIndexOf('@');
+		if (at <= 0) {
+			return null;
+		}
+
+		DomainRule rule = rule(address, at + 1);
+		String domain = rule == null ? address.substring(at + 1).toLowerCase() : rule._canonical;
+		int plus = address.indexOf('+');
+		String account = address.substring(0, plus >= 0 && plus < at ? plus : at).toLowerCase();
+		if (rule != null && rule._ignoreDots) {
+			account = account.replace(".", "");
+		}
+		return domain + '@' + account;
+	}
+
+	private static final class DomainRule {
+		final String _domain;
+		final String _canonical;
+		final boolean _ignoreDots;
+
+		DomainRule(String domain, String canonical, boolean ignoreDots) {
+			_domain = domain;
+			_canonical = canonical;
+			_ignoreDots = ignoreDots;
+		}
+	}
+
+}
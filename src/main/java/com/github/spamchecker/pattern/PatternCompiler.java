@@ -0,0 +1,357 @@
+package com.github.spamchecker.pattern;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Learns the address patterns of fake-mail services from sample addresses and compiles them into
+ * an {@link AddressMatcher}.
+ *
+ * <p>
+ * Samples are read from files in the format of <code>pattern.conf</code>: A comment line names
+ * the service, all following lines are addresses generated by this service. Each sample is
+ * normalized (see {@link AddressMatcher#normalize(String)}) and matches exactly its normalized
+ * form. Additionally, services that generate <code>+</code> tags for a pool of accounts often
+ * create these accounts from a common infix, e.g. <code>combtmp</code>, <code>irontmp</code>. An
+ * infix shared by at least half of the tagged accounts of a service is learned as shape
+ * <code>*infix*+</code> that also matches accounts not yet seen, but only if they are used with a
+ * tag. Untagged accounts containing the infix are regular accounts of the mail provider in most
+ * cases.
+ * </p>
+ */
+public class PatternCompiler {
+
+	/**
+	 * The minimum number of tagged accounts sharing an infix for learning a shape.
+	 */
+	private static final int MIN_SHAPE_SUPPORT = 3;
+
+	private static final int MIN_INFIX = 3;
+
+	private static final int MAX_INFIX = 6;
+
+	private static final int POSITION_BITS = 10;
+
+	private static final int MAX_POSITION = (1 << POSITION_BITS) - 1;
+
+	/**
+	 * Pattern item matching any sequence of characters.
+	 */
+	private static final int ANY = -1;
+
+	private final List<String> _services = new ArrayList<>();
+
+	/**
+	 * Service index by normalized address.
+	 */
+	private final Map<String, Integer> _exact = new LinkedHashMap<>();
+
+	/**
+	 * Accounts used with tags by service index and domain.
+	 */
+	private final Map<Integer, Map<String, Set<String>>> _tagged = new LinkedHashMap<>();
+
+	private final List<String> _shapes = new ArrayList<>();
+
+	/**
+	 * Reads sample addresses from the given file.
+	 */
+	public void read(File file) throws IOException {
+		try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+			String line;
+			int service = -1;
+			while ((line = r.readLine()) != null) {
+				if (line.startsWith("#")) {
+					service = service(line.substring(1).trim());
+					continue;
+				}
+
+				String address = line.trim();
+				if (address.isEmpty() || service < 0) {
+					continue;
+				}
+				addSample(service, address);
+			}
+		}
+	}
+
+	private int service(String name) {
+		int result = _services.indexOf(name);
+		if (result < 0) {
+			result = _services.size();
+			_services.add(name);
+		}
+		return result;
+	}
+
+	private void addSample(int service, String address) {
+		String normalized = AddressMatcher.normalize(address);
+		if (normalized == null || normalized.length() >= MAX_POSITION - 1 || !isAscii(normalized)) {
+			// Not representable in the automaton.
+			return;
+		}
+		_exact.putIfAbsent(normalized, service);
+
+		int at = address.lastIndexOf('@');
+		if (address.indexOf('+') >= 0 && address.indexOf('+') < at) {
+			int sep = normalized.indexOf('@');
+			_tagged.computeIfAbsent(service, x -> new LinkedHashMap<>())
+				.computeIfAbsent(normalized.substring(0, sep), x -> new TreeSet<>())
+				.add(normalized.substring(sep + 1));
+		}
+	}
+
+	/**
+	 * The learned shapes in the form <code>domain@*infix*+</code>, available after
+	 * {@link #compile()}.
+	 */
+	public List<String> getShapes() {
+		return Collections.unmodifiableList(_shapes);
+	}
+
+	/**
+	 * The number of distinct normalized sample addresses.
+	 */
+	public int getSampleCount() {
+		return _exact.size();
+	}
+
+	/**
+	 * Compiles all samples read and the shapes learned from them into an {@link AddressMatcher}.
+	 */
+	public AddressMatcher compile() {
+		List<int[]> patterns = new ArrayList<>();
+		List<Integer> patternServices = new ArrayList<>();
+		for (Entry<String, Integer> entry : _exact.entrySet()) {
+			// A sample matches with and without tag.
+			patterns.add(literal(entry.getKey() + AddressMatcher.END));
+			patternServices.add(entry.getValue());
+			patterns.add(literal(entry.getKey() + AddressMatcher.TAG + AddressMatcher.END));
+			patternServices.add(entry.getValue());
+		}
+
+		_shapes.clear();
+		for (Entry<Integer, Map<String, Set<String>>> serviceEntry : _tagged.entrySet()) {
+			for (Entry<String, Set<String>> domainEntry : serviceEntry.getValue().entrySet()) {
+				String domain = domainEntry.getKey();
+				for (String infix : infixes(domainEntry.getValue())) {
+					_shapes.add(domain + "@*" + infix + "*" + AddressMatcher.TAG);
+
+					int[] prefix = literal(domain + '@');
+					int[] pattern = Arrays.copyOf(prefix, prefix.length + infix.length() + 4);
+					pattern[prefix.length] = ANY;
+					for (int n = 0; n < infix.length(); n++) {
+						pattern[prefix.length + 1 + n] = infix.charAt(n);
+					}
+					pattern[pattern.length - 3] = ANY;
+					pattern[pattern.length - 2] = AddressMatcher.TAG;
+					pattern[pattern.length - 1] = AddressMatcher.END;
+					patterns.add(pattern);
+					patternServices.add(serviceEntry.getKey());
+				}
+			}
+		}
+
+		return determinize(patterns, patternServices);
+	}
+
+	/**
+	 * Infixes shared by most of the given accounts, longer infixes first.
+	 */
+	private static List<String> infixes(Set<String> accounts) {
+		int minSupport = Math.max(MIN_SHAPE_SUPPORT, (accounts.size() + 1) / 2);
+		if (accounts.size() < minSupport) {
+			return Collections.emptyList();
+		}
+
+		Map<String, Integer> support = new HashMap<>();
+		for (String account : accounts) {
+			Set<String> infixes = new LinkedHashSet<>();
+			for (int length = MIN_INFIX; length <= MAX_INFIX; length++) {
+				for (int start = 0; start + length <= account.length(); start++) {
+					String infix = account.substring(start, start + length);
+					if (isLetters(infix)) {
+						infixes.add(infix);
+					}
+				}
+			}
+			for (String infix : infixes) {
+				support.merge(infix, 1, Integer::sum);
+			}
+		}
+
+		List<String> candidates = new ArrayList<>();
+		for (Entry<String, Integer> entry : support.entrySet()) {
+			if (entry.getValue() >= minSupport) {
+				candidates.add(entry.getKey());
+			}
+		}
+		candidates.sort((a, b) -> a.length() != b.length() ? b.length() - a.length() : a.compareTo(b));
+
+		List<String> result = new ArrayList<>();
+		for (String candidate : candidates) {
+			if (result.stream().noneMatch(infix -> infix.contains(candidate))) {
+				result.add(candidate);
+			}
+		}
+		return result;
+	}
+
+	private static boolean isLetters(String infix) {
+		for (int n = 0; n < infix.length(); n++) {
+			char ch = infix.charAt(n);
+			if (ch < 'a' || ch > 'z') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isAscii(String text) {
+		for (int n = 0; n < text.length(); n++) {
+			if (text.charAt(n) >= 128) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int[] literal(String text) {
+		int[] result = new int[text.length()];
+		for (int n = 0; n < result.length; n++) {
+			result[n] = text.charAt(n);
+		}
+		return result;
+	}
+
+	/**
+	 * Subset construction of the automaton for the given patterns.
+	 *
+	 * <p>
+	 * A state of the pattern automaton is a pattern index and a position in this pattern, encoded
+	 * as <code>(pattern &lt;&lt; POSITION_BITS) | position</code>. A state of the resulting
+	 * automaton is the sorted set of pattern states reachable with its input.
+	 * </p>
+	 */
+	private AddressMatcher determinize(List<int[]> patterns, List<Integer> patternServices) {
+		int[] charClass = new int[128];
+		int classes = 1;
+		for (int[] pattern : patterns) {
+			for (int item : pattern) {
+				if (item != ANY && charClass[item] == 0) {
+					charClass[item] = classes++;
+				}
+			}
+		}
+
+		Map<Key, Integer> ids = new HashMap<>();
+		List<int[]> states = new ArrayList<>();
+		Deque<Integer> todo = new ArrayDeque<>();
+
+		TreeSet<Integer> start = new TreeSet<>();
+		for (int n = 0, cnt = patterns.size(); n < cnt; n++) {
+			start.add(n << POSITION_BITS);
+		}
+		state(patterns, start, ids, states, todo);
+
+		int[] transitions = new int[0];
+		while (!todo.isEmpty()) {
+			int id = todo.removeFirst();
+			int[] current = states.get(id);
+			if (transitions.length < (id + 1) * classes) {
+				transitions = Arrays.copyOf(transitions, Math.max(2 * transitions.length, (id + 1) * classes));
+			}
+
+			for (int charClassId = 0; charClassId < classes; charClassId++) {
+				TreeSet<Integer> next = new TreeSet<>();
+				for (int patternState : current) {
+					int[] pattern = patterns.get(patternState >>> POSITION_BITS);
+					int position = patternState & MAX_POSITION;
+					if (position == pattern.length) {
+						continue;
+					}
+					int item = pattern[position];
+					if (item == ANY) {
+						next.add(patternState);
+					} else if (charClass[item] == charClassId) {
+						next.add(patternState + 1);
+					}
+				}
+				transitions[id * classes + charClassId] = next.isEmpty() ? -1 : state(patterns, next, ids, states, todo);
+			}
+		}
+
+		int[] accept = new int[states.size()];
+		for (int id = 0; id < accept.length; id++) {
+			accept[id] = -1;
+			for (int patternState : states.get(id)) {
+				if ((patternState & MAX_POSITION) == patterns.get(patternState >>> POSITION_BITS).length) {
+					// Pattern states are sorted, the first pattern wins.
+					accept[id] = patternServices.get(patternState >>> POSITION_BITS);
+					break;
+				}
+			}
+		}
+
+		return new AddressMatcher(charClass, classes, Arrays.copyOf(transitions, states.size() * classes), accept,
+			_services.toArray(new String[0]));
+	}
+
+	/**
+	 * The ID of the state with the given pattern states, a new state is enqueued for computing
+	 * its transitions.
+	 */
+	private static int state(List<int[]> patterns, TreeSet<Integer> patternStates, Map<Key, Integer> ids, List<int[]> states, Deque<Integer> todo) {
+		// Close over any-sequence items that may match the empty sequence.
+		for (Integer patternState : new ArrayList<>(patternStates)) {
+			int[] pattern = patterns.get(patternState >>> POSITION_BITS);
+			for (int position = patternState & MAX_POSITION; position < pattern.length && pattern[position] == ANY; position++) {
+				patternStates.add(patternState - (patternState & MAX_POSITION) + position + 1);
+			}
+		}
+
+		int[] key = patternStates.stream().mapToInt(Integer::intValue).toArray();
+		return ids.computeIfAbsent(new Key(key), x -> {
+			int id = states.size();
+			states.add(key);
+			todo.add(id);
+			return id;
+		});
+	}
+
+	private static final class Key {
+		private final int[] _states;
+
+		Key(int[] states) {
+			_states = states;
+		}
+
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(_states);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Key && Arrays.equals(_states, ((Key) obj)._states);
+		}
+	}
+
+}
@@ -0,0 +1,188 @@
+package com.github.spamchecker.server;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.github.spamchecker.MxResolver;
+import com.github.spamchecker.model.Classification;
+import com.github.spamchecker.model.DomainData;
+import com.github.spamchecker.model.Heuristics;
+import com.github.spamchecker.model.Index;
+
+/**
+ * Immutable, read-optimized classification of all domains of an {@link Index}.
+ *
+ * <p>
+ * Domains are stored in an open-addressing hash table with parallel arrays for classification,
+ * heuristics and service. A lookup does not allocate and the table can be read concurrently by
+ * any number of threads.
+ * </p>
+ */
+public final class ClassificationTable {
+
+	private static final Classification[] KINDS = Classification.values();
+
+	private static final Heuristics[] HEURISTICS = Heuristics.values();
+
+	private final int _mask;
+
+	private final String[] _domains;
+
+	private final byte[] _kinds;
+
+	private final byte[] _heuristics;
+
+	private final int[] _services;
+
+	private final String[] _serviceNames;
+
+	private final int _size;
+
+	/**
+	 * Creates a {@link ClassificationTable} with all domains of the given {@link Index}.
+	 */
+	public ClassificationTable(Index db) {
+		Map<String, DomainData> domains = db.getDomains();
+
+		// Keep the load factor below 0.5 for short probe sequences.
+		int capacity = Integer.highestOneBit(Math.max(1, domains.size()) * 2) * 2;
+		_mask = capacity - 1;
+		_domains = new String[capacity];
+		_kinds = new byte[capacity];
+		_heuristics = new byte[capacity];
+		_services = new int[capacity];
+
+		Map<String, Integer> serviceIds = new HashMap<>();
+		for (Entry<String, DomainData> entry : domains.entrySet()) {
+			String domain = entry.getKey();
+			DomainData data = entry.getValue();
+
+			int slot = hash(domain) & _mask;
+			while (_domains[slot] != null) {
+				slot = (slot + 1) & _mask;
+			}
+
+			_domains[slot] = domain;
+			_kinds[slot] = (byte) data.getKind().ordinal();
+			_heuristics[slot] = (byte) data.getHeuristics().ordinal();
+
+			String service = data.getService();
+			_services[slot] = service == null ? -1 : serviceIds.computeIfAbsent(service, x -> serviceIds.size());
+		}
+
+		_serviceNames = new String[serviceIds.size()];
+		for (Entry<String, Integer> entry : serviceIds.entrySet()) {
+			_serviceNames[entry.getValue()] = entry.getKey();
+		}
+
+		_size = domains.size();
+	}
+
+	/**
+	 * The number of domains in this table.
+	 */
+	public int size() {
+		return _size;
+	}
+
+	/**
+	 * Looks up the given normalized domain name.
+	 *
+	 * @return The slot of the domain to pass to the accessor methods, or <code>-1</code>, if the
+	 *         domain is not known.
+	 */
+	public int lookup(String domain) {
+		return lookup(domain, 0);
+	}
+
+	/**
+	 * Looks up the nearest proper ancestor of the given normalized domain name whose
+	 * classification is inherited by its subdomains (see {@link MxResolver#isClassified(Classification)}),
+	 * e.g. <code>mailinator.com</code> for <code>x7.mailinator.com</code>.
+	 *
+	 * <p>
+	 * Each label suffix of the domain name is looked up in place, nearest first, without
+	 * allocating.
+	 * </p>
+	 *
+	 * @return The slot of the ancestor to pass to the accessor methods, or <code>-1</code>, if
+	 *         there is none.
+	 */
+	public int lookupAncestor(String domain) {
+		for (int dot = domain.indexOf('.'); dot >= 0; dot = domain.indexOf('.', dot + 1)) {
+			int slot = lookup(domain, dot + 1);
+			if (slot >= 0 && MxResolver.isClassified(getKind(slot))) {
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Looks up the suffix of the given domain name starting at the given index.
+	 */
+	private int lookup(String domain, int start) {
+		int length = domain.length() - start;
+		int slot = hash(domain, start) & _mask;
+		while (true) {
+			String candidate = _domains[slot];
+			if (candidate == null) {
+				return -1;
+			}
+			if (candidate.length() == length && domain.regionMatches(start, candidate, 0, length)) {
+				return slot;
+			}
+			slot = (slot + 1) & _mask;
+		}
+	}
+
+	/**
+	 * The classification of the domain in the given slot.
+	 *
+	 * @see #lookup(String)
+	 */
+	public Classification getKind(int slot) {
+		return KINDS[_kinds[slot]];
+	}
+
+	/**
+	 * The heuristics that classified the domain in the given slot.
+	 *
+	 * @see #lookup(String)
+	 */
+	public Heuristics getHeuristics(int slot) {
+		return HEURISTICS[_heuristics[slot]];
+	}
+
+	/**
+	 * The service of the domain in the given slot, <code>null</code> if not known.
+	 *
+	 * @see #lookup(String)
+	 */
+	public String getService(int slot) {
+		int service = _services[slot];
+		return service < 0 ? null : _serviceNames[service];
+	}
+
+	private static int hash(String domain) {
+		int h = domain.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Same as {@link #hash(String)} for the suffix of the given domain name starting at the given
+	 * index.
+	 */
+	private static int hash(String domain, int start) {
+		if (start == 0) {
+			return hash(domain);
+		}
+		int h = 0;
+		for (int n = start, cnt = domain.length(); n < cnt; n++) {
+			h = 31 * h + domain.charAt(n);
+		}
+		return h ^ (h >>> 16);
+	}
+
+}
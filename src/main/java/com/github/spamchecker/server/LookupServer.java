@@ -0,0 +1,214 @@
+package com.github.spamchecker.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.github.spamchecker.model.Classification;
+import com.github.spamchecker.model.Heuristics;
+import com.github.spamchecker.model.LookupResponse;
+import com.github.spamchecker.model.LookupResult;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import de.haumacher.msgbuf.data.DataObject;
+import de.haumacher.msgbuf.json.JsonReader;
+import de.haumacher.msgbuf.json.JsonWriter;
+import de.haumacher.msgbuf.server.io.ReaderAdapter;
+import de.haumacher.msgbuf.server.io.WriterAdapter;
+
+/**
+ * HTTP server answering classification requests from a {@link ClassificationTable}.
+ *
+ * <p>
+ * The server provides a single resource <code>/lookup</code>:
+ * </p>
+ *
+ * <ul>
+ * <li><code>GET /lookup?domain=example.com</code> answers a single {@link LookupResult}. If the
+ * <code>domain</code> parameter is given more than once, a {@link LookupResponse} is
+ * answered.</li>
+ * <li><code>POST /lookup</code> with a JSON array of domain names in the request body answers a
+ * {@link LookupResponse} with one result per requested domain in request order.</li>
+ * </ul>
+ *
+ * <p>
+ * Instead of a domain name, a complete e-mail address may be given.
+ * </p>
+ *
+ * <p>
+ * The JVM should run with the system property {@link #NODELAY} set to <code>true</code>.
+ * Otherwise, small responses on keep-alive connections are delayed by the peer's delayed
+ * acknowledgement, which adds about 40ms latency per request. The JDK reads the property once,
+ * so it must be set before the first {@link HttpServer} is created.
+ * </p>
+ */
+public class LookupServer {
+
+	/**
+	 * The system property enabling <code>TCP_NODELAY</code> for the JDK's {@link HttpServer}.
+	 */
+	public static final String NODELAY = "sun.net.httpserver.nodelay";
+
+	private final ClassificationTable _table;
+
+	private HttpServer _server;
+
+	private ExecutorService _executor;
+
+	/**
+	 * Creates a {@link LookupServer}.
+	 */
+	public LookupServer(ClassificationTable table) {
+		_table = table;
+	}
+
+	/**
+	 * Starts serving requests on the given port.
+	 */
+	public void start(int port, int threads) throws IOException {
+		_executor = Executors.newFixedThreadPool(threads);
+
+		_server = HttpServer.create(new InetSocketAddress(port), 1024);
+		_server.setExecutor(_executor);
+		_server.createContext("/lookup", this::handle);
+		_server.start();
+	}
+
+	/**
+	 * The port the server is listening on, useful after starting on port <code>0</code>.
+	 */
+	public int getPort() {
+		return _server.getAddress().getPort();
+	}
+
+	/**
+	 * Stops the server.
+	 */
+	public void stop() {
+		_server.stop(0);
+		_executor.shutdown();
+	}
+
+	/**
+	 * Classifies the given domain or e-mail address.
+	 *
+	 * <p>
+	 * A domain that is not known is classified like its nearest classified ancestor, see
+	 * {@link ClassificationTable#lookupAncestor(String)}.
+	 * </p>
+	 */
+	public LookupResult lookup(String domain) {
+		String normalized = normalize(domain);
+		int slot = _table.lookup(normalized);
+
+		LookupResult result = LookupResult.create().setDomain(normalized);
+		if (slot < 0) {
+			int ancestor = _table.lookupAncestor(normalized);
+			if (ancestor < 0) {
+				result.setKind(Classification.UNKNOWN).setHeuristics(Heuristics.NONE);
+			} else {
+				result.setKind(_table.getKind(ancestor)).setHeuristics(Heuristics.PARENT).setService(_table.getService(ancestor));
+			}
+		} else {
+			result.setKind(_table.getKind(slot)).setHeuristics(_table.getHeuristics(slot)).setService(_table.getService(slot));
+		}
+		return result;
+	}
+
+	private static String normalize(String domain) {
+		return domain.substring(domain.lastIndexOf('@') + 1).trim().toLowerCase();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			switch (exchange.getRequestMethod()) {
+				case "GET": {
+					List<String> domains = queryParameters(exchange.getRequestURI().getRawQuery(), "domain");
+					if (domains.isEmpty()) {
+						sendError(exchange, 400, "Missing parameter 'domain'.");
+					} else if (domains.size() == 1) {
+						send(exchange, lookup(domains.get(0)));
+					} else {
+						send(exchange, lookupAll(domains));
+					}
+					break;
+				}
+				case "POST": {
+					List<String> domains = new ArrayList<>();
+					try (JsonReader r = new JsonReader(new ReaderAdapter(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)))) {
+						r.beginArray();
+						while (r.hasNext()) {
+							domains.add(r.nextString());
+						}
+						r.endArray();
+					} catch (IOException | RuntimeException ex) {
+						sendError(exchange, 400, "Expected a JSON array of domain names.");
+						break;
+					}
+					send(exchange, lookupAll(domains));
+					break;
+				}
+				default:
+					sendError(exchange, 405, "Method not allowed.");
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private LookupResponse lookupAll(List<String> domains) {
+		LookupResponse response = LookupResponse.create();
+		for (String domain : domains) {
+			response.addResult(lookup(domain));
+		}
+		return response;
+	}
+
+	private static List<String> queryParameters(String query, String name) {
+		List<String> result = new ArrayList<>();
+		if (query == null) {
+			return result;
+		}
+
+		String prefix = name + "=";
+		for (String parameter : query.split("&")) {
+			if (parameter.startsWith(prefix)) {
+				result.add(URLDecoder.decode(parameter.substring(prefix.length()), StandardCharsets.UTF_8));
+			}
+		}
+		return result;
+	}
+
+	private static void send(HttpExchange exchange, DataObject result) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+		try (JsonWriter w = new JsonWriter(new WriterAdapter(new OutputStreamWriter(buffer, StandardCharsets.UTF_8)))) {
+			result.writeTo(w);
+		}
+
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(200, buffer.size());
+		try (OutputStream out = exchange.getResponseBody()) {
+			buffer.writeTo(out);
+		}
+	}
+
+	private static void sendError(HttpExchange exchange, int code, String message) throws IOException {
+		byte[] body = message.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(code, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+}
@@ -0,0 +1,134 @@
+package com.github.spamchecker.smtp;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Hash of the greeting and the EHLO reply of a SMTP server, identifying the mail server software
+ * and its configuration independent of the name and address of the server.
+ *
+ * <p>
+ * Many fake-mail services run a single backend behind many host names and addresses. The
+ * greeting is reduced to its words, e.g. <code>220 mx7.example.com ESMTP Exim 4.96 Sat, 18 Oct
+ * 2026 10:00:00 +0000</code> to <code>220 esmtp exim</code>: Tokens containing digits, dots or
+ * <code>@</code> (host names, addresses, versions, times, queue IDs) and day and month names
+ * are dropped. Of the EHLO reply, the first line (the greeting of the client) is dropped, the
+ * capabilities are kept in their order including parameters such as the maximum message size.
+ * </p>
+ */
+public final class SmtpFingerprint {
+
+	private static final Set<String> DATE_WORDS = new HashSet<>(Arrays.asList(
+		"mon", "tue", "wed", "thu", "fri", "sat", "sun",
+		"jan", "feb", "mar", "apr", "may", "jun", "jul", "aug", "sep", "oct", "nov", "dec",
+		"utc", "gmt"));
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	/**
+	 * The number of bytes of the SHA-256 digest used for the fingerprint.
+	 */
+	private static final int LENGTH = 8;
+
+	private SmtpFingerprint() {
+		// Static utility.
+	}
+
+	/**
+	 * Computes the fingerprint of a SMTP server.
+	 *
+	 * @param greeting The lines of the greeting of the server.
+	 * @param ehlo The lines of the reply to the EHLO command, <code>null</code>, if the command
+	 *        was not sent, because the greeting was not positive.
+	 * @return The fingerprint as hex string.
+	 */
+	public static String compute(List<String> greeting, List<String> ehlo) {
+		StringBuilder features = new StringBuilder();
+		for (String line : greeting) {
+			features.append(code(line));
+			appendWords(features, line);
+			features.append('\n');
+		}
+
+		if (ehlo != null && !ehlo.isEmpty()) {
+			String code = code(ehlo.get(0));
+			if (!code.startsWith("2")) {
+				features.append("ehlo ").append(code).append('\n');
+			} else {
+				for (int n = 1, cnt = ehlo.size(); n < cnt; n++) {
+					String line = ehlo.get(n);
+					features.append(line.length() > 4 ? line.substring(4).trim().toUpperCase(Locale.ROOT) : "").append('\n');
+				}
+			}
+		}
+
+		return hash(features.toString());
+	}
+
+	private static String code(String line) {
+		return line.length() >= 3 ? line.substring(0, 3) : line;
+	}
+
+	private static void appendWords(StringBuilder features, String line) {
+		if (line.length() <= 4) {
+			return;
+		}
+
+		for (String token : line.substring(4).split("\\s+")) {
+			String word = strip(token).toLowerCase(Locale.ROOT);
+			if (word.isEmpty() || DATE_WORDS.contains(word) || !isWord(word)) {
+				continue;
+			}
+			features.append(' ').append(word);
+		}
+	}
+
+	private static String strip(String token) {
+		int start = 0;
+		int end = token.length();
+		while (start < end && isPunctuation(token.charAt(start))) {
+			start++;
+		}
+		while (end > start && isPunctuation(token.charAt(end - 1))) {
+			end--;
+		}
+		return token.substring(start, end);
+	}
+
+	private static boolean isPunctuation(char c) {
+		return "()[]<>{},;:!?\"'".indexOf(c) >= 0;
+	}
+
+	private static boolean isWord(String word) {
+		for (int n = 0, cnt = word.length(); n < cnt; n++) {
+			char c = word.charAt(n);
+			if (Character.isDigit(c) || c == '.' || c == '@') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static String hash(String features) {
+		byte[] digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256").digest(features.getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException("SHA-256 not available.", ex);
+		}
+
+		char[] result = new char[2 * LENGTH];
+		for (int n = 0; n < LENGTH; n++) {
+			result[2 * n] = HEX[(digest[n] >> 4) & 0xF];
+			result[2 * n + 1] = HEX[digest[n] & 0xF];
+		}
+		return new String(result);
+	}
+
+}
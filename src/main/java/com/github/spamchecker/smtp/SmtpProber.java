@@ -0,0 +1,371 @@
+package com.github.spamchecker.smtp;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.net.smtp.SMTPReply;
+
+/**
+ * Computes the {@link SmtpFingerprint} of many SMTP servers concurrently.
+ *
+ * <p>
+ * A probe connects to the server, reads its greeting, sends <code>EHLO</code>, reads the
+ * capabilities and ends the session with <code>QUIT</code>. No mail is sent. All probes are
+ * driven by a single thread with non-blocking sockets and a {@link Selector}, so that thousands
+ * of probes can wait for slow servers at the same time without a thread per connection. Each
+ * step of a probe has a deadline, expired probes are checked a few times per second.
+ * </p>
+ */
+public final class SmtpProber {
+
+	/**
+	 * Callback for the result of a single probe.
+	 */
+	public interface ResultHandler {
+		/**
+		 * Reports the result of probing the server with the given address.
+		 *
+		 * @param fingerprint The {@link SmtpFingerprint} of the server, <code>null</code>, if the
+		 *        server could not be reached or did not answer in time.
+		 */
+		void handle(String address, String fingerprint);
+	}
+
+	/**
+	 * The default SMTP port.
+	 */
+	public static final int SMTP_PORT = 25;
+
+	/**
+	 * The maximum size of a reply, larger replies are not SMTP.
+	 */
+	private static final int MAX_REPLY = 8 * 1024;
+
+	/**
+	 * The interval for checking the deadlines of all probes.
+	 */
+	private static final long CHECK_INTERVAL = Duration.ofMillis(100).toNanos();
+
+	private static final byte[] QUIT = "QUIT\r\n".getBytes(StandardCharsets.US_ASCII);
+
+	private final int _concurrency;
+
+	private final int _port;
+
+	private final long _connectTimeout;
+
+	private final long _readTimeout;
+
+	private final byte[] _ehlo;
+
+	private int _probed;
+
+	private int _answered;
+
+	private int _timeouts;
+
+	private int _failed;
+
+	/**
+	 * Creates a {@link SmtpProber}.
+	 *
+	 * @param concurrency The maximum number of open connections.
+	 * @param port The port to connect to, see {@link #SMTP_PORT}.
+	 * @param connectTimeout The maximum time for establishing a connection.
+	 * @param readTimeout The maximum time for waiting for a reply.
+	 * @param heloName The host name announced with <code>EHLO</code>.
+	 */
+	public SmtpProber(int concurrency, int port, Duration connectTimeout, Duration readTimeout, String heloName) {
+		_concurrency = Math.max(1, concurrency);
+		_port = port;
+		_connectTimeout = connectTimeout.toNanos();
+		_readTimeout = readTimeout.toNanos();
+		_ehlo = ("EHLO " + heloName + "\r\n").getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Probes the servers at all given addresses and reports each result to the given handler.
+	 *
+	 * <p>
+	 * Returns after all probes have completed. The handler is called from the calling thread.
+	 * </p>
+	 */
+	public void probe(Iterator<String> addresses, ResultHandler handler) throws IOException {
+		try (Selector selector = Selector.open()) {
+			ByteBuffer buffer = ByteBuffer.allocate(MAX_REPLY);
+			int active = 0;
+			long nextCheck = System.nanoTime() + CHECK_INTERVAL;
+			while (true) {
+				while (active < _concurrency && addresses.hasNext()) {
+					if (start(selector, addresses.next(), handler)) {
+						active++;
+					}
+				}
+				if (active == 0) {
+					break;
+				}
+
+				long wait = Math.max(1, (nextCheck - System.nanoTime()) / 1_000_000);
+				selector.select(wait);
+
+				long now = System.nanoTime();
+				for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext();) {
+					SelectionKey key = it.next();
+					it.remove();
+					if (!((Probe) key.attachment()).handle(key, buffer, now)) {
+						active--;
+					}
+				}
+
+				if (now - nextCheck >= 0) {
+					for (SelectionKey key : selector.keys()) {
+						Probe probe = (Probe) key.attachment();
+						if (key.isValid() && now - probe._deadline >= 0) {
+							probe.expire();
+							active--;
+						}
+					}
+					nextCheck = now + CHECK_INTERVAL;
+				}
+			}
+		}
+	}
+
+	private boolean start(Selector selector, String address, ResultHandler handler) {
+		_probed++;
+		SocketChannel channel = null;
+		try {
+			channel = SocketChannel.open();
+			channel.configureBlocking(false);
+			Probe probe = new Probe(address, channel, handler);
+			if (channel.connect(new InetSocketAddress(InetAddress.getByName(address), _port))) {
+				probe.expectReply(channel.register(selector, SelectionKey.OP_READ, probe), System.nanoTime());
+			} else {
+				channel.register(selector, SelectionKey.OP_CONNECT, probe);
+				probe._deadline = System.nanoTime() + _connectTimeout;
+			}
+			return true;
+		} catch (IOException | UnresolvedAddressException ex) {
+			close(channel);
+			_failed++;
+			handler.handle(address, null);
+			return false;
+		}
+	}
+
+	private static void close(SocketChannel channel) {
+		if (channel == null) {
+			return;
+		}
+		try {
+			channel.close();
+		} catch (IOException ex) {
+			// Ignore.
+		}
+	}
+
+	/**
+	 * The number of probes started.
+	 */
+	public int getProbed() {
+		return _probed;
+	}
+
+	/**
+	 * The number of probes that resulted in a fingerprint.
+	 */
+	public int getAnswered() {
+		return _answered;
+	}
+
+	/**
+	 * The number of probes that did not complete in time.
+	 */
+	public int getTimeouts() {
+		return _timeouts;
+	}
+
+	/**
+	 * The number of probes that failed for other reasons than a timeout, e.g. because the
+	 * connection was refused or closed, or the reply was not SMTP.
+	 */
+	public int getFailed() {
+		return _failed;
+	}
+
+	/**
+	 * A single SMTP session.
+	 */
+	private final class Probe {
+
+		private final String _address;
+
+		private final SocketChannel _channel;
+
+		private final ResultHandler _handler;
+
+		/**
+		 * The text received but not yet split into lines.
+		 */
+		private final StringBuilder _text = new StringBuilder();
+
+		/**
+		 * The lines of the current reply.
+		 */
+		private final List<String> _lines = new ArrayList<>();
+
+		/**
+		 * The greeting of the server, <code>null</code> while it is being read.
+		 */
+		private List<String> _greeting;
+
+		private ByteBuffer _out;
+
+		private int _received;
+
+		long _deadline;
+
+		Probe(String address, SocketChannel channel, ResultHandler handler) {
+			_address = address;
+			_channel = channel;
+			_handler = handler;
+		}
+
+		/**
+		 * Handles the ready operations of the given key.
+		 *
+		 * @return Whether the probe is still running.
+		 */
+		boolean handle(SelectionKey key, ByteBuffer buffer, long now) {
+			try {
+				if (key.isConnectable()) {
+					_channel.finishConnect();
+					expectReply(key, now);
+					return true;
+				}
+				if (key.isWritable()) {
+					_channel.write(_out);
+					if (!_out.hasRemaining()) {
+						key.interestOps(SelectionKey.OP_READ);
+					}
+					return true;
+				}
+				if (key.isReadable()) {
+					return read(key, buffer, now);
+				}
+				return true;
+			} catch (IOException ex) {
+				finish(null);
+				return false;
+			}
+		}
+
+		void expectReply(SelectionKey key, long now) {
+			key.interestOps(SelectionKey.OP_READ);
+			_deadline = now + _readTimeout;
+		}
+
+		private boolean read(SelectionKey key, ByteBuffer buffer, long now) throws IOException {
+			buffer.clear();
+			int cnt = _channel.read(buffer);
+			if (cnt < 0) {
+				// Closed before the reply was complete.
+				finish(null);
+				return false;
+			}
+
+			_received += cnt;
+			if (_received > MAX_REPLY) {
+				finish(null);
+				return false;
+			}
+			for (int n = 0; n < cnt; n++) {
+				_text.append((char) (buffer.get(n) & 0xFF));
+			}
+
+			int newline;
+			while ((newline = _text.indexOf("\n")) >= 0) {
+				int end = newline > 0 && _text.charAt(newline - 1) == '\r' ? newline - 1 : newline;
+				String line = _text.substring(0, end);
+				_text.delete(0, newline + 1);
+				_lines.add(line);
+				// The EHLO reply may already follow the greeting in the same segment.
+				if (isLast(line) && !replied(key, now)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Whether the given line ends a reply, i.e. it is not followed by a continuation line.
+		 */
+		private boolean isLast(String line) {
+			if (line.length() < 3) {
+				return false;
+			}
+			for (int n = 0; n < 3; n++) {
+				if (!Character.isDigit(line.charAt(n))) {
+					return false;
+				}
+			}
+			return line.length() == 3 || line.charAt(3) != '-';
+		}
+
+		private boolean replied(SelectionKey key, long now) throws IOException {
+			List<String> reply = new ArrayList<>(_lines);
+			_lines.clear();
+			_received = _text.length();
+
+			if (_greeting == null) {
+				_greeting = reply;
+				if (!SMTPReply.isPositiveCompletion(Integer.parseInt(reply.get(reply.size() - 1).substring(0, 3)))) {
+					finish(SmtpFingerprint.compute(_greeting, null));
+					return false;
+				}
+
+				_out = ByteBuffer.wrap(_ehlo);
+				_channel.write(_out);
+				if (_out.hasRemaining()) {
+					key.interestOps(SelectionKey.OP_WRITE);
+				}
+				_deadline = now + _readTimeout;
+				return true;
+			}
+
+			// Best effort, the connection is closed anyway.
+			_channel.write(ByteBuffer.wrap(QUIT));
+			finish(SmtpFingerprint.compute(_greeting, reply));
+			return false;
+		}
+
+		void expire() {
+			close(_channel);
+			_timeouts++;
+			_handler.handle(_address, null);
+		}
+
+		private void finish(String fingerprint) {
+			close(_channel);
+			if (fingerprint == null) {
+				_failed++;
+			} else {
+				_answered++;
+			}
+			_handler.handle(_address, fingerprint);
+		}
+
+	}
+
+}
@@ -0,0 +1,124 @@
+package com.github.spamchecker.store;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import com.github.spamchecker.store.ExternalSorter.Cursor;
+
+/**
+ * Merges sorted domain lists into a blocklist and the delta against its previous version in a
+ * single pass.
+ *
+ * <p>
+ * The blocklist contains all blocked domains that are not allowed. The delta lists domains added
+ * to the blocklist as <code>+domain</code> and domains removed from it as <code>-domain</code>,
+ * in sort order. Only the current line of each input is held in memory. All inputs must be
+ * sorted in {@link ExternalSorter#ORDER}.
+ * </p>
+ */
+public final class BlocklistExport {
+
+	private int _size;
+
+	private int _added;
+
+	private int _removed;
+
+	private int _allowed;
+
+	/**
+	 * Writes the blocklist and its delta.
+	 *
+	 * @param blocked All blocked domains.
+	 * @param allowed Domains that must not be blocked.
+	 * @param previous The previous version of the blocklist.
+	 * @param list The output for the new blocklist.
+	 * @param delta The output for the changes against the previous version.
+	 */
+	public void write(Cursor blocked, Cursor allowed, Cursor previous, Writer list, Writer delta) throws IOException {
+		while (true) {
+			String domain = blocked.current();
+			String before = previous.current();
+			if (domain == null && before == null) {
+				break;
+			}
+
+			// Skip all allowed domains before the next domain.
+			String next = min(domain, before);
+			while (allowed.current() != null && ExternalSorter.ORDER.compare(allowed.current(), next) < 0) {
+				allowed.advance();
+			}
+
+			boolean inList = domain != null && domain.equals(next);
+			boolean inPrevious = before != null && before.equals(next);
+			if (inList) {
+				blocked.advance();
+				if (next.equals(allowed.current())) {
+					_allowed++;
+					inList = false;
+				}
+			}
+			if (inPrevious) {
+				previous.advance();
+			}
+
+			if (inList) {
+				line(list, next);
+				_size++;
+				if (!inPrevious) {
+					delta.write('+');
+					line(delta, next);
+					_added++;
+				}
+			} else if (inPrevious) {
+				delta.write('-');
+				line(delta, next);
+				_removed++;
+			}
+		}
+	}
+
+	private static String min(String x, String y) {
+		if (x == null) {
+			return y;
+		}
+		if (y == null) {
+			return x;
+		}
+		return ExternalSorter.ORDER.compare(x, y) <= 0 ? x : y;
+	}
+
+	private static void line(Writer out, String value) throws IOException {
+		out.write(value);
+		out.write('\n');
+	}
+
+	/**
+	 * The number of domains in the written blocklist.
+	 */
+	public int getSize() {
+		return _size;
+	}
+
+	/**
+	 * The number of domains added since the previous version.
+	 */
+	public int getAdded() {
+		return _added;
+	}
+
+	/**
+	 * The number of domains removed since the previous version.
+	 */
+	public int getRemoved() {
+		return _removed;
+	}
+
+	/**
+	 * The number of blocked domains that were left out, because they are allowed.
+	 */
+	public int getAllowed() {
+		return _allowed;
+	}
+
+}
@@ -0,0 +1,278 @@
+package com.github.spamchecker.store;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts an arbitrary number of lines with bounded memory and removes duplicates.
+ *
+ * <p>
+ * Lines are collected up to a maximum number, sorted and written to a temporary file (a run).
+ * The result is a k-way merge of all runs, reading a single line ahead from each run. Lines must
+ * not contain line breaks. Temporary files are deleted on {@link #close()}.
+ * </p>
+ *
+ * <p>
+ * Lines are sorted in {@link #ORDER}, the order of <code>LC_ALL=C sort -f</code>.
+ * </p>
+ */
+public final class ExternalSorter implements Closeable {
+
+	/**
+	 * Byte order of the UTF-8 encoding with ASCII letters compared as upper case, like
+	 * <code>LC_ALL=C sort -f</code>, e.g. <code>barx.com</code> before <code>bar_x.com</code>.
+	 * Lines differing only in case are ordered by their bytes.
+	 */
+	public static final Comparator<String> ORDER = ExternalSorter::compare;
+
+	/**
+	 * Sorted, duplicate-free sequence of lines.
+	 */
+	public interface Cursor {
+		/**
+		 * The current line, <code>null</code> if the sequence is exhausted.
+		 */
+		String current();
+
+		/**
+		 * Moves to the next line.
+		 */
+		void advance() throws IOException;
+	}
+
+	private final int _runSize;
+
+	private final File _dir;
+
+	private final List<String> _buffer = new ArrayList<>();
+
+	private final List<File> _runs = new ArrayList<>();
+
+	private final List<Closeable> _readers = new ArrayList<>();
+
+	private long _lines;
+
+	/**
+	 * Creates a {@link ExternalSorter}.
+	 *
+	 * @param runSize The maximum number of lines kept in memory.
+	 * @param dir The directory for temporary files, <code>null</code> for the system default.
+	 */
+	public ExternalSorter(int runSize, File dir) {
+		_runSize = Math.max(1, runSize);
+		_dir = dir;
+	}
+
+	/**
+	 * Adds a line.
+	 */
+	public void add(String line) throws IOException {
+		_buffer.add(line);
+		_lines++;
+		if (_buffer.size() >= _runSize) {
+			spill();
+		}
+	}
+
+	/**
+	 * The number of lines added including duplicates.
+	 */
+	public long getLines() {
+		return _lines;
+	}
+
+	/**
+	 * The number of runs written to temporary files.
+	 */
+	public int getRuns() {
+		return _runs.size();
+	}
+
+	private void spill() throws IOException {
+		_buffer.sort(ORDER);
+		File run = File.createTempFile("sort", ".run", _dir);
+		_runs.add(run);
+		try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(run), StandardCharsets.UTF_8), 1 << 16)) {
+			String last = null;
+			for (String line : _buffer) {
+				if (!line.equals(last)) {
+					out.write(line);
+					out.write('\n');
+					last = line;
+				}
+			}
+		}
+		_buffer.clear();
+	}
+
+	/**
+	 * All lines added in sort order without duplicates.
+	 *
+	 * <p>
+	 * No more lines may be added afterwards.
+	 * </p>
+	 */
+	public Cursor sorted() throws IOException {
+		if (_runs.isEmpty()) {
+			_buffer.sort(ORDER);
+			return distinct(new IteratorCursor(_buffer.iterator()));
+		}
+
+		if (!_buffer.isEmpty()) {
+			spill();
+		}
+		PriorityQueue<RunCursor> queue = new PriorityQueue<>(_runs.size(), (x, y) -> ORDER.compare(x.current(), y.current()));
+		for (File run : _runs) {
+			BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(run), StandardCharsets.UTF_8), 1 << 13);
+			_readers.add(in);
+			RunCursor cursor = new RunCursor(in);
+			if (cursor.current() != null) {
+				queue.add(cursor);
+			}
+		}
+		return distinct(new MergeCursor(queue));
+	}
+
+	private static int compare(String x, String y) {
+		for (int n = 0, cnt = Math.min(x.length(), y.length()); n < cnt; n++) {
+			int diff = key(x.charAt(n)) - key(y.charAt(n));
+			if (diff != 0) {
+				return diff;
+			}
+		}
+		if (x.length() != y.length()) {
+			return x.length() - y.length();
+		}
+		return x.compareTo(y);
+	}
+
+	/**
+	 * The sort key of a character, code points above the BMP (encoded as surrogates) sort after
+	 * all others as in UTF-8.
+	 */
+	private static int key(char c) {
+		if (c >= 'a' && c <= 'z') {
+			return c - 'a' + 'A';
+		}
+		if (Character.isSurrogate(c)) {
+			return c + 0x10000;
+		}
+		return c;
+	}
+
+	private static Cursor distinct(Cursor cursor) {
+		return new Cursor() {
+			@Override
+			public String current() {
+				return cursor.current();
+			}
+
+			@Override
+			public void advance() throws IOException {
+				String last = cursor.current();
+				do {
+					cursor.advance();
+				} while (last != null && last.equals(cursor.current()));
+			}
+		};
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (Closeable reader : _readers) {
+			reader.close();
+		}
+		_readers.clear();
+		for (File run : _runs) {
+			run.delete();
+		}
+		_runs.clear();
+		_buffer.clear();
+	}
+
+	private static final class IteratorCursor implements Cursor {
+		private final Iterator<String> _lines;
+
+		private String _current;
+
+		IteratorCursor(Iterator<String> lines) {
+			_lines = lines;
+			advance();
+		}
+
+		@Override
+		public String current() {
+			return _current;
+		}
+
+		@Override
+		public void advance() {
+			_current = _lines.hasNext() ? _lines.next() : null;
+		}
+	}
+
+	private static final class RunCursor implements Cursor {
+		private final BufferedReader _in;
+
+		private String _current;
+
+		RunCursor(BufferedReader in) throws IOException {
+			_in = in;
+			advance();
+		}
+
+		@Override
+		public String current() {
+			return _current;
+		}
+
+		@Override
+		public void advance() throws IOException {
+			_current = _in.readLine();
+		}
+	}
+
+	/**
+	 * K-way merge of runs, the run with the smallest current line is at the head of the queue.
+	 */
+	private static final class MergeCursor implements Cursor {
+		private final PriorityQueue<RunCursor> _queue;
+
+		MergeCursor(PriorityQueue<RunCursor> queue) {
+			_queue = queue;
+		}
+
+		@Override
+		public String current() {
+			RunCursor head = _queue.peek();
+			return head == null ? null : head.current();
+		}
+
+		@Override
+		public void advance() throws IOException {
+			RunCursor head = _queue.poll();
+			if (head == null) {
+				return;
+			}
+			head.advance();
+			if (head.current() != null) {
+				_queue.add(head);
+			}
+		}
+	}
+
+}
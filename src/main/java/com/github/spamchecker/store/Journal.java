@@ -0,0 +1,296 @@
+package com.github.spamchecker.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.github.spamchecker.model.Classification;
+import com.github.spamchecker.model.DomainData;
+import com.github.spamchecker.model.DomainInfo;
+import com.github.spamchecker.model.Heuristics;
+import com.github.spamchecker.model.Index;
+import com.github.spamchecker.model.MxData;
+import com.github.spamchecker.model.MxInfo;
+
+/**
+ * Append-only log of domains and mail servers entered into an {@link Index} since it was last
+ * written completely.
+ *
+ * <p>
+ * Each record holds the complete state of a single domain or mail server, replaying the records
+ * in order onto the last complete database reproduces the state at the time the last record was
+ * written. The cost of a record is independent of the size of the database. Enumeration constants
+ * are written with their protocol names, so that records stay readable when constants are added.
+ * </p>
+ *
+ * <pre>
+ * journal = MAGIC VERSION record*
+ * record  = MX name kind count address* resolved hasFingerprint fingerprint? probed
+ *         | DOMAIN name kind heuristics hasService service? count potentialService* count mailServer* resolved
+ * </pre>
+ *
+ * <p>
+ * The resolution time <code>resolved</code> was added in version 2, the SMTP fingerprint and
+ * probe time <code>probed</code> of mail servers in version 3. Records are appended in the
+ * version of an existing journal.
+ * </p>
+ *
+ * <p>
+ * A record that was only partially written, e.g. because the process was killed, is ignored
+ * and cut off during replay, so that further records can be appended.
+ * </p>
+ */
+public class Journal implements Closeable {
+
+	private static final int MAGIC = 0x53504a4c;
+
+	private static final int VERSION = 3;
+
+	private static final int MX = 1;
+
+	private static final int DOMAIN = 2;
+
+	private final DataOutputStream _out;
+
+	private final int _version;
+
+	private Journal(DataOutputStream out, int version) {
+		_out = out;
+		_version = version;
+	}
+
+	/**
+	 * Opens the journal in the given file for appending, a missing file is created.
+	 */
+	public static Journal open(File file) throws IOException {
+		boolean exists = file.length() > 0;
+		int version = VERSION;
+		if (exists) {
+			try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+				if (in.readInt() != MAGIC) {
+					throw new IOException("Not a domain database journal: " + file);
+				}
+				version = Snapshot.readVarInt(in);
+			}
+		}
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), 1 << 16));
+		if (!exists) {
+			out.writeInt(MAGIC);
+			Snapshot.writeVarInt(out, VERSION);
+		}
+		return new Journal(out, version);
+	}
+
+	/**
+	 * Appends the state of the given mail server.
+	 */
+	public void appendMx(String name, MxData mx) throws IOException {
+		_out.writeByte(MX);
+		_out.writeUTF(name);
+		_out.writeUTF(mx.getKind().protocolName());
+		writeStrings(mx.getAddresses());
+		if (_version >= 2) {
+			_out.writeLong(mx.getResolved());
+		}
+		if (_version >= 3) {
+			_out.writeBoolean(mx.getFingerprint() != null);
+			if (mx.getFingerprint() != null) {
+				_out.writeUTF(mx.getFingerprint());
+			}
+			_out.writeLong(mx.getProbed());
+		}
+	}
+
+	/**
+	 * Appends the state of the given domain.
+	 */
+	public void appendDomain(String name, DomainData domain) throws IOException {
+		_out.writeByte(DOMAIN);
+		_out.writeUTF(name);
+		_out.writeUTF(domain.getKind().protocolName());
+		_out.writeUTF(domain.getHeuristics().protocolName());
+		_out.writeBoolean(domain.getService() != null);
+		if (domain.getService() != null) {
+			_out.writeUTF(domain.getService());
+		}
+		writeStrings(domain.getPotentialServices());
+		writeStrings(domain.getMailServers());
+		if (_version >= 2) {
+			_out.writeLong(domain.getResolved());
+		}
+	}
+
+	/**
+	 * Hands all records appended so far to the operating system, so that they survive a
+	 * termination of the process.
+	 */
+	public void flush() throws IOException {
+		_out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		_out.close();
+	}
+
+	/**
+	 * Applies all records of the journal in the given file to the given {@link Index}.
+	 *
+	 * @return The number of records applied, <code>0</code>, if the file does not exist.
+	 */
+	public static int replay(File file, Index db) throws IOException {
+		if (!file.exists()) {
+			return 0;
+		}
+
+		int result = 0;
+		long valid = 0;
+		try (CountingInputStream counter = new CountingInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+			DataInputStream in = new DataInputStream(counter);
+			boolean header;
+			int version = 0;
+			try {
+				if (in.readInt() != MAGIC) {
+					throw new IOException("Not a domain database journal: " + file);
+				}
+				version = Snapshot.readVarInt(in);
+				if (version < 1 || version > VERSION) {
+					throw new IOException("Unsupported journal version: " + version);
+				}
+				header = true;
+				valid = counter.getPosition();
+			} catch (EOFException ex) {
+				// Incomplete header, the journal is written anew.
+				header = false;
+			}
+
+			while (header) {
+				int type = in.read();
+				if (type < 0) {
+					break;
+				}
+
+				try {
+					switch (type) {
+					case MX: {
+						String name = in.readUTF();
+						MxData mx = MxInfo.create()
+							.setKind(Classification.valueOfProtocol(in.readUTF()))
+							.setAddresses(readStrings(in));
+						if (version >= 2) {
+							mx.setResolved(in.readLong());
+						}
+						if (version >= 3) {
+							if (in.readBoolean()) {
+								mx.setFingerprint(in.readUTF());
+							}
+							mx.setProbed(in.readLong());
+						}
+						db.getMailServers().put(name, mx);
+						break;
+					}
+					case DOMAIN: {
+						String name = in.readUTF();
+						DomainData domain = DomainInfo.create()
+							.setKind(Classification.valueOfProtocol(in.readUTF()))
+							.setHeuristics(Heuristics.valueOfProtocol(in.readUTF()));
+						if (in.readBoolean()) {
+							domain.setService(in.readUTF());
+						}
+						domain.setPotentialServices(readStrings(in));
+						domain.setMailServers(readStrings(in));
+						if (version >= 2) {
+							domain.setResolved(in.readLong());
+						}
+						db.getDomains().put(name, domain);
+						break;
+					}
+					default:
+						throw new IOException("Corrupt journal record of type " + type + " in: " + file);
+					}
+				} catch (EOFException ex) {
+					// Incomplete last record.
+					break;
+				}
+				result++;
+				valid = counter.getPosition();
+			}
+		}
+
+		if (valid < file.length()) {
+			try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+				out.setLength(valid);
+			}
+		}
+		return result;
+	}
+
+	private void writeStrings(List<String> values) throws IOException {
+		Snapshot.writeVarInt(_out, values.size());
+		for (String value : values) {
+			_out.writeUTF(value);
+		}
+	}
+
+	private static List<String> readStrings(DataInputStream in) throws IOException {
+		int cnt = Snapshot.readVarInt(in);
+		List<String> result = new ArrayList<>(cnt);
+		for (int n = 0; n < cnt; n++) {
+			result.add(in.readUTF());
+		}
+		return result;
+	}
+
+	private static final class CountingInputStream extends FilterInputStream {
+
+		private long _position;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		long getPosition() {
+			return _position;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int result = super.read();
+			if (result >= 0) {
+				_position++;
+			}
+			return result;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int result = super.read(b, off, len);
+			if (result > 0) {
+				_position += result;
+			}
+			return result;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long result = super.skip(n);
+			_position += result;
+			return result;
+		}
+
+	}
+
+}
@@ -0,0 +1,351 @@
+package com.github.spamchecker.store;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.github.spamchecker.MxResolver;
+import com.github.spamchecker.model.Classification;
+import com.github.spamchecker.model.DomainData;
+import com.github.spamchecker.model.Heuristics;
+import com.github.spamchecker.model.Index;
+
+import de.haumacher.msgbuf.data.ProtocolEnum;
+
+/**
+ * Immutable lookup artifact with the classification of all domains of an {@link Index}, served
+ * from a memory-mapped file.
+ *
+ * <p>
+ * Opening the file only reads the header and the service names, lookups run a binary search
+ * directly on the mapped file without allocating. The heap usage does not depend on the number
+ * of domains in the file.
+ * </p>
+ *
+ * <pre>
+ * file     = MAGIC VERSION count services kinds heuristics index records
+ * services = count (length utf8)*
+ * kinds    = count (length utf8)*  (protocol names of Classification)
+ * heuristics = count (length utf8)*  (protocol names of Heuristics)
+ * index    = int32* (offset of record, sorted by domain name bytes)
+ * record   = kind heuristics service+1 (int16) length domain (utf8)
+ * </pre>
+ *
+ * <p>
+ * All counts and lengths except where noted are 32 bit integers in big-endian order, kind,
+ * heuristics and the domain length are single bytes.
+ * </p>
+ */
+public class LookupFile implements Closeable {
+
+	private static final int MAGIC = 0x53504c46;
+
+	private static final int VERSION = 1;
+
+	private final FileChannel _channel;
+
+	private final ByteBuffer _buffer;
+
+	private final int _count;
+
+	private final int _indexStart;
+
+	private final String[] _services;
+
+	private final Classification[] _kinds;
+
+	private final Heuristics[] _heuristics;
+
+	private LookupFile(FileChannel channel, MappedByteBuffer buffer) throws IOException {
+		_channel = channel;
+		_buffer = buffer;
+
+		if (buffer.getInt(0) != MAGIC) {
+			throw new IOException("Not a domain lookup file.");
+		}
+		int version = buffer.getInt(4);
+		if (version != VERSION) {
+			throw new IOException("Unsupported lookup file version: " + version);
+		}
+		_count = buffer.getInt(8);
+
+		int[] pos = {12};
+		_services = readStrings(buffer, pos);
+
+		String[] kinds = readStrings(buffer, pos);
+		_kinds = new Classification[kinds.length];
+		for (int n = 0; n < kinds.length; n++) {
+			_kinds[n] = Classification.valueOfProtocol(kinds[n]);
+		}
+
+		String[] heuristics = readStrings(buffer, pos);
+		_heuristics = new Heuristics[heuristics.length];
+		for (int n = 0; n < heuristics.length; n++) {
+			_heuristics[n] = Heuristics.valueOfProtocol(heuristics[n]);
+		}
+
+		_indexStart = pos[0];
+	}
+
+	/**
+	 * Opens the given lookup file.
+	 */
+	public static LookupFile open(File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			return new LookupFile(channel, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} catch (IOException | RuntimeException ex) {
+			channel.close();
+			throw ex;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		_channel.close();
+	}
+
+	/**
+	 * The number of domains in this file.
+	 */
+	public int size() {
+		return _count;
+	}
+
+	/**
+	 * Looks up the given normalized domain name.
+	 *
+	 * @return The position of the domain's record to pass to the accessor methods, or
+	 *         <code>-1</code>, if the domain is not contained in this file.
+	 */
+	public int lookup(CharSequence domain) {
+		return lookup(domain, 0);
+	}
+
+	/**
+	 * Looks up the nearest proper ancestor of the given normalized domain name whose
+	 * classification is inherited by its subdomains (see {@link MxResolver#isClassified(Classification)}),
+	 * e.g. <code>mailinator.com</code> for <code>x7.mailinator.com</code>.
+	 *
+	 * @return The position of the ancestor's record to pass to the accessor methods, or
+	 *         <code>-1</code>, if there is none.
+	 */
+	public int lookupAncestor(CharSequence domain) {
+		for (int n = 0, cnt = domain.length(); n < cnt; n++) {
+			if (domain.charAt(n) != '.') {
+				continue;
+			}
+			int record = lookup(domain, n + 1);
+			if (record >= 0 && MxResolver.isClassified(getKind(record))) {
+				return record;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Looks up the suffix of the given domain name starting at the given index.
+	 */
+	private int lookup(CharSequence domain, int start) {
+		int low = 0;
+		int high = _count - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int record = _buffer.getInt(_indexStart + 4 * mid);
+			int cmp = compare(record, domain, start);
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				return record;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * The classification of the domain with the given record.
+	 *
+	 * @see #lookup(CharSequence)
+	 */
+	public Classification getKind(int record) {
+		return _kinds[_buffer.get(record)];
+	}
+
+	/**
+	 * The heuristics that classified the domain with the given record.
+	 *
+	 * @see #lookup(CharSequence)
+	 */
+	public Heuristics getHeuristics(int record) {
+		return _heuristics[_buffer.get(record + 1)];
+	}
+
+	/**
+	 * The ID of the service of the domain with the given record, <code>-1</code> if unknown.
+	 *
+	 * @see #lookup(CharSequence)
+	 * @see #getServiceName(int)
+	 */
+	public int getServiceId(int record) {
+		return _buffer.getShort(record + 2) - 1;
+	}
+
+	/**
+	 * The name of the service with the given ID.
+	 *
+	 * @see #getServiceId(int)
+	 */
+	public String getServiceName(int serviceId) {
+		return _services[serviceId];
+	}
+
+	/**
+	 * Compares the domain name of the given record with the suffix of the given domain name
+	 * starting at the given index in UTF-8 byte order.
+	 */
+	private int compare(int record, CharSequence domain, int offset) {
+		int length = _buffer.get(record + 4) & 0xFF;
+		int start = record + 5;
+
+		int n = 0;
+		int cnt = domain.length() - offset;
+		for (; n < length && n < cnt; n++) {
+			char ch = domain.charAt(offset + n);
+			if (ch >= 0x80) {
+				return compareEncoded(start, length, domain, offset);
+			}
+			int diff = (_buffer.get(start + n) & 0xFF) - ch;
+			if (diff != 0) {
+				return diff;
+			}
+		}
+		for (; n < cnt; n++) {
+			if (domain.charAt(offset + n) >= 0x80) {
+				return compareEncoded(start, length, domain, offset);
+			}
+		}
+		return length - cnt;
+	}
+
+	private int compareEncoded(int start, int length, CharSequence domain, int offset) {
+		byte[] bytes = domain.subSequence(offset, domain.length()).toString().getBytes(StandardCharsets.UTF_8);
+		for (int n = 0; n < length && n < bytes.length; n++) {
+			int diff = (_buffer.get(start + n) & 0xFF) - (bytes[n] & 0xFF);
+			if (diff != 0) {
+				return diff;
+			}
+		}
+		return length - bytes.length;
+	}
+
+	private static String[] readStrings(ByteBuffer buffer, int[] pos) {
+		int cnt = buffer.getInt(pos[0]);
+		pos[0] += 4;
+
+		String[] result = new String[cnt];
+		for (int n = 0; n < cnt; n++) {
+			int length = buffer.getInt(pos[0]);
+			byte[] bytes = new byte[length];
+			ByteBuffer source = buffer.duplicate();
+			source.position(pos[0] + 4);
+			source.get(bytes);
+			result[n] = new String(bytes, StandardCharsets.UTF_8);
+			pos[0] += 4 + length;
+		}
+		return result;
+	}
+
+	/**
+	 * Writes a lookup file with all domains of the given {@link Index}.
+	 */
+	public static void write(Index db, File file) throws IOException {
+		List<byte[]> names = new ArrayList<>(db.getDomains().size());
+		Map<String, Integer> serviceIds = new HashMap<>();
+		List<String> services = new ArrayList<>();
+		for (Entry<String, DomainData> entry : db.getDomains().entrySet()) {
+			byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+			if (name.length > 0xFF) {
+				// Not a valid domain name.
+				continue;
+			}
+			names.add(name);
+
+			String service = entry.getValue().getService();
+			if (service != null && serviceIds.putIfAbsent(service, services.size()) == null) {
+				services.add(service);
+			}
+		}
+		if (services.size() >= Short.MAX_VALUE) {
+			throw new IOException("Too many services for lookup file: " + services.size());
+		}
+		names.sort(Arrays::compareUnsigned);
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(names.size());
+
+			int headerSize = 12;
+			headerSize += writeStrings(out, services);
+			headerSize += writeStrings(out, protocolNames(Classification.values()));
+			headerSize += writeStrings(out, protocolNames(Heuristics.values()));
+
+			long offset = headerSize + 4L * names.size();
+			for (byte[] name : names) {
+				if (offset > Integer.MAX_VALUE) {
+					throw new IOException("Too many domains for lookup file: " + names.size());
+				}
+				out.writeInt((int) offset);
+				offset += 5 + name.length;
+			}
+
+			for (byte[] name : names) {
+				DomainData domain = db.getDomains().get(new String(name, StandardCharsets.UTF_8));
+				String service = domain.getService();
+
+				out.writeByte(domain.getKind().ordinal());
+				out.writeByte(domain.getHeuristics().ordinal());
+				out.writeShort(service == null ? 0 : serviceIds.get(service) + 1);
+				out.writeByte(name.length);
+				out.write(name);
+			}
+		}
+	}
+
+	private static List<String> protocolNames(ProtocolEnum[] values) {
+		List<String> result = new ArrayList<>(values.length);
+		for (ProtocolEnum value : values) {
+			result.add(value.protocolName());
+		}
+		return result;
+	}
+
+	private static int writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+		int size = 4;
+		out.writeInt(strings.size());
+		for (String string : strings) {
+			byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+			size += 4 + bytes.length;
+		}
+		return size;
+	}
+
+}
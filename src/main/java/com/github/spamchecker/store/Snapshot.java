@@ -0,0 +1,303 @@
+package com.github.spamchecker.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.github.spamchecker.model.Classification;
+import com.github.spamchecker.model.DomainData;
+import com.github.spamchecker.model.DomainInfo;
+import com.github.spamchecker.model.Heuristics;
+import com.github.spamchecker.model.Index;
+import com.github.spamchecker.model.MxData;
+import com.github.spamchecker.model.MxInfo;
+
+import de.haumacher.msgbuf.data.ProtocolEnum;
+
+/**
+ * Compact binary representation of an {@link Index}.
+ *
+ * <p>
+ * All names (domains, mail servers, addresses and services) are stored once in a string
+ * dictionary. Mail servers and domains refer to names by their position in the dictionary. All
+ * numbers are written as variable-length integers. Enumeration constants are stored as positions
+ * in a table of their protocol names, so that adding constants does not invalidate snapshots.
+ * </p>
+ *
+ * <pre>
+ * snapshot    = MAGIC VERSION enums strings mailServers domains
+ * enums       = count name* (Classification) count name* (Heuristics)
+ * strings     = count utf*
+ * mailServers = count (name kind count address* resolved fingerprint+1 probed)*
+ * domains     = count (name kind heuristics service+1 count potentialService* count mailServer* resolved)*
+ * </pre>
+ *
+ * <p>
+ * The resolution time <code>resolved</code> was added in version 2, the SMTP fingerprint and
+ * probe time <code>probed</code> of mail servers in version 3.
+ * </p>
+ */
+public class Snapshot {
+
+	private static final int MAGIC = 0x53504d58;
+
+	private static final int VERSION = 3;
+
+	/**
+	 * Writes the given {@link Index} to the given file.
+	 *
+	 * <p>
+	 * The snapshot is written to a temporary file in the same directory that replaces the given
+	 * file when complete, so that an interrupted write does not destroy the previous snapshot.
+	 * </p>
+	 */
+	public static void write(Index db, File file) throws IOException {
+		File tmp = File.createTempFile(file.getName(), "", file.getAbsoluteFile().getParentFile());
+		try (OutputStream out = new FileOutputStream(tmp)) {
+			write(db, out);
+		}
+		if (!tmp.renameTo(file)) {
+			file.delete();
+			if (!tmp.renameTo(file)) {
+				throw new IOException("Cannot replace snapshot file: " + file);
+			}
+		}
+	}
+
+	/**
+	 * Writes the given {@link Index} to the given stream.
+	 */
+	public static void write(Index db, OutputStream stream) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+
+		Map<String, Integer> ids = new HashMap<>();
+		List<String> strings = new ArrayList<>();
+		for (Entry<String, MxData> entry : db.getMailServers().entrySet()) {
+			intern(ids, strings, entry.getKey());
+			for (String address : entry.getValue().getAddresses()) {
+				intern(ids, strings, address);
+			}
+			if (entry.getValue().getFingerprint() != null) {
+				intern(ids, strings, entry.getValue().getFingerprint());
+			}
+		}
+		for (Entry<String, DomainData> entry : db.getDomains().entrySet()) {
+			DomainData domain = entry.getValue();
+			intern(ids, strings, entry.getKey());
+			if (domain.getService() != null) {
+				intern(ids, strings, domain.getService());
+			}
+			for (String service : domain.getPotentialServices()) {
+				intern(ids, strings, service);
+			}
+			for (String mx : domain.getMailServers()) {
+				intern(ids, strings, mx);
+			}
+		}
+
+		out.writeInt(MAGIC);
+		writeVarInt(out, VERSION);
+
+		writeEnum(out, Classification.values());
+		writeEnum(out, Heuristics.values());
+
+		writeVarInt(out, strings.size());
+		for (String string : strings) {
+			out.writeUTF(string);
+		}
+
+		writeVarInt(out, db.getMailServers().size());
+		for (Entry<String, MxData> entry : db.getMailServers().entrySet()) {
+			MxData mx = entry.getValue();
+			writeVarInt(out, ids.get(entry.getKey()));
+			writeVarInt(out, mx.getKind().ordinal());
+			writeRefs(out, ids, mx.getAddresses());
+			writeVarLong(out, mx.getResolved());
+			writeVarInt(out, mx.getFingerprint() == null ? 0 : ids.get(mx.getFingerprint()) + 1);
+			writeVarLong(out, mx.getProbed());
+		}
+
+		writeVarInt(out, db.getDomains().size());
+		for (Entry<String, DomainData> entry : db.getDomains().entrySet()) {
+			DomainData domain = entry.getValue();
+			writeVarInt(out, ids.get(entry.getKey()));
+			writeVarInt(out, domain.getKind().ordinal());
+			writeVarInt(out, domain.getHeuristics().ordinal());
+			writeVarInt(out, domain.getService() == null ? 0 : ids.get(domain.getService()) + 1);
+			writeRefs(out, ids, domain.getPotentialServices());
+			writeRefs(out, ids, domain.getMailServers());
+			writeVarLong(out, domain.getResolved());
+		}
+
+		out.flush();
+	}
+
+	/**
+	 * Reads an {@link Index} from the given file.
+	 */
+	public static Index read(File file) throws IOException {
+		try (InputStream in = new FileInputStream(file)) {
+			return read(in);
+		}
+	}
+
+	/**
+	 * Reads an {@link Index} from the given stream.
+	 */
+	public static Index read(InputStream stream) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 1 << 16));
+
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Not a domain database snapshot.");
+		}
+		int version = readVarInt(in);
+		if (version < 1 || version > VERSION) {
+			throw new IOException("Unsupported snapshot version: " + version);
+		}
+
+		Classification[] kinds = readEnum(in, Classification::valueOfProtocol, new Classification[0]);
+		Heuristics[] heuristics = readEnum(in, Heuristics::valueOfProtocol, new Heuristics[0]);
+
+		String[] strings = new String[readVarInt(in)];
+		for (int n = 0; n < strings.length; n++) {
+			strings[n] = in.readUTF();
+		}
+
+		Index db = Index.create();
+
+		int mxCount = readVarInt(in);
+		for (int n = 0; n < mxCount; n++) {
+			String name = strings[readVarInt(in)];
+			MxData mx = MxInfo.create()
+				.setKind(kinds[readVarInt(in)])
+				.setAddresses(readRefs(in, strings));
+			if (version >= 2) {
+				mx.setResolved(readVarLong(in));
+			}
+			if (version >= 3) {
+				int fingerprint = readVarInt(in);
+				if (fingerprint > 0) {
+					mx.setFingerprint(strings[fingerprint - 1]);
+				}
+				mx.setProbed(readVarLong(in));
+			}
+			db.putMailServer(name, mx);
+		}
+
+		int domainCount = readVarInt(in);
+		for (int n = 0; n < domainCount; n++) {
+			String name = strings[readVarInt(in)];
+			DomainData domain = DomainInfo.create()
+				.setKind(kinds[readVarInt(in)])
+				.setHeuristics(heuristics[readVarInt(in)]);
+			int service = readVarInt(in);
+			if (service > 0) {
+				domain.setService(strings[service - 1]);
+			}
+			domain.setPotentialServices(readRefs(in, strings));
+			domain.setMailServers(readRefs(in, strings));
+			if (version >= 2) {
+				domain.setResolved(readVarLong(in));
+			}
+			db.putDomain(name, domain);
+		}
+
+		return db;
+	}
+
+	private static void intern(Map<String, Integer> ids, List<String> strings, String value) {
+		if (ids.putIfAbsent(value, strings.size()) == null) {
+			strings.add(value);
+		}
+	}
+
+	private static void writeEnum(DataOutput out, ProtocolEnum[] values) throws IOException {
+		writeVarInt(out, values.length);
+		for (ProtocolEnum value : values) {
+			out.writeUTF(value.protocolName());
+		}
+	}
+
+	private interface EnumParser<E> {
+		E valueOfProtocol(String name);
+	}
+
+	private static <E> E[] readEnum(DataInput in, EnumParser<E> parser, E[] type) throws IOException {
+		List<E> result = new ArrayList<>();
+		for (int n = 0, cnt = readVarInt(in); n < cnt; n++) {
+			result.add(parser.valueOfProtocol(in.readUTF()));
+		}
+		return result.toArray(type);
+	}
+
+	private static void writeRefs(DataOutput out, Map<String, Integer> ids, List<String> values) throws IOException {
+		writeVarInt(out, values.size());
+		for (String value : values) {
+			writeVarInt(out, ids.get(value));
+		}
+	}
+
+	private static List<String> readRefs(DataInput in, String[] strings) throws IOException {
+		int cnt = readVarInt(in);
+		List<String> result = new ArrayList<>(cnt);
+		for (int n = 0; n < cnt; n++) {
+			result.add(strings[readVarInt(in)]);
+		}
+		return result;
+	}
+
+	static void writeVarInt(DataOutput out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	static void writeVarLong(DataOutput out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	static long readVarLong(DataInput in) throws IOException {
+		long result = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			result |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return result;
+			}
+		}
+		throw new IOException("Malformed variable-length integer.");
+	}
+
+	static int readVarInt(DataInput in) throws IOException {
+		int result = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.readUnsignedByte();
+			result |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return result;
+			}
+		}
+		throw new IOException("Malformed variable-length integer.");
+	}
+
+}
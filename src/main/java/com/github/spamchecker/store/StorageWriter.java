@@ -0,0 +1,318 @@
+package com.github.spamchecker.store;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import com.github.spamchecker.XRefIndex;
+import com.github.spamchecker.model.Domain;
+import com.github.spamchecker.model.DomainData;
+import com.github.spamchecker.model.Host;
+import com.github.spamchecker.model.Index;
+import com.github.spamchecker.model.MailServer;
+import com.github.spamchecker.model.MxData;
+import com.github.spamchecker.model.Service;
+import com.github.spamchecker.model.Storage;
+
+import de.haumacher.msgbuf.json.JsonWriter;
+import de.haumacher.msgbuf.server.io.WriterAdapter;
+
+/**
+ * Writes the {@link Storage} representation of an {@link Index} without creating the complete
+ * {@link Storage} object graph.
+ *
+ * <p>
+ * The sections are written one after another in the order of {@link Storage#writeTo(JsonWriter)},
+ * each entry is created from the {@link Index} and its {@link XRefIndex} directly before it is
+ * written and dropped afterwards. The output is the same as writing the fully cross-referenced
+ * and sorted {@link Storage}.
+ * </p>
+ *
+ * <p>
+ * In parallel mode, the entries of each section are created and serialized in chunks by the
+ * threads of a {@link ForkJoinPool}. The serialized chunks are written in order, so that the
+ * output is the same as in sequential mode.
+ * </p>
+ */
+public class StorageWriter {
+
+	/**
+	 * The number of entries serialized in a single task in parallel mode.
+	 */
+	private static final int CHUNK_SIZE = 1024;
+
+	/**
+	 * The line break and indentation before an entry of a section array.
+	 */
+	private static final String ENTRY_INDENT = "\n\t\t";
+
+	private final Index _db;
+
+	private final XRefIndex _index;
+
+	private final JsonWriter _out;
+
+	private final ForkJoinPool _pool;
+
+	private StorageWriter(Index db, XRefIndex index, JsonWriter out, ForkJoinPool pool) {
+		_db = db;
+		_index = index;
+		_out = out;
+		_pool = pool;
+	}
+
+	/**
+	 * Callback writing the section entry with the given key.
+	 */
+	private interface EntryWriter {
+		void write(JsonWriter out, String key) throws IOException;
+	}
+
+	/**
+	 * Writes the given {@link Index} as {@link Storage} to the given stream and closes it.
+	 *
+	 * @param index The cross references of the given {@link Index}.
+	 */
+	public static void write(Index db, XRefIndex index, OutputStream out) throws IOException {
+		write(db, index, out, null);
+	}
+
+	/**
+	 * Writes the given {@link Index} as {@link Storage} to the given stream and closes it.
+	 *
+	 * @param index The cross references of the given {@link Index}.
+	 * @param pool The threads to create the entries with, <code>null</code> for sequential
+	 *        writing.
+	 */
+	public static void write(Index db, XRefIndex index, OutputStream out, ForkJoinPool pool) throws IOException {
+		try (JsonWriter w = new JsonWriter(new WriterAdapter(new OutputStreamWriter(out, StandardCharsets.UTF_8)))) {
+			w.setIndent("\t");
+
+			new StorageWriter(db, index, w, pool).write();
+		}
+	}
+
+	private void write() throws IOException {
+		_out.beginObject();
+		writeServices();
+		writeDomains();
+		writeMailServers();
+		writeHosts();
+		_out.endObject();
+	}
+
+	private void writeServices() throws IOException {
+		Map<String, List<String>> domainsByService = new HashMap<>();
+		for (Entry<String, DomainData> entry : _db.getDomains().entrySet()) {
+			DomainData domain = entry.getValue();
+			if (domain.getService() != null) {
+				domainsByService.computeIfAbsent(domain.getService(), x -> new ArrayList<>()).add(entry.getKey());
+			}
+			for (String potentialService : domain.getPotentialServices()) {
+				domainsByService.computeIfAbsent(potentialService, x -> new ArrayList<>()).add(entry.getKey());
+			}
+		}
+
+		writeSection(Storage.SERVICES__PROP, sortedKeys(domainsByService), (out, name) -> {
+			List<String> serviceDomains = domainsByService.get(name);
+
+			Set<String> mailServers = new TreeSet<>();
+			for (String domain : serviceDomains) {
+				mailServers.addAll(_db.getDomains().get(domain).getMailServers());
+			}
+
+			Set<String> addresses = new TreeSet<>();
+			for (String mx : mailServers) {
+				addresses.addAll(_db.getMailServers().get(mx).getAddresses());
+			}
+
+			Service.create()
+				.setName(name)
+				.setDomains(sorted(serviceDomains))
+				.setMailServers(new ArrayList<>(mailServers))
+				.setAddresses(new ArrayList<>(addresses))
+				.writeTo(out);
+		});
+	}
+
+	private void writeDomains() throws IOException {
+		writeSection(Storage.DOMAINS__PROP, sortedKeys(_db.getDomains()), (out, name) -> {
+			DomainData domain = _db.getDomains().get(name);
+			Domain.create()
+				.setName(name)
+				.setHeuristics(domain.getHeuristics())
+				.setKind(domain.getKind())
+				.setMailServers(sorted(domain.getMailServers()))
+				.setPotentialServices(sorted(domain.getPotentialServices()))
+				.setService(domain.getService())
+				.setResolved(domain.getResolved())
+				.writeContent(out);
+		});
+	}
+
+	private void writeMailServers() throws IOException {
+		writeSection(Storage.MAIL_SERVERS__PROP, sortedKeys(_db.getMailServers()), (out, name) -> {
+			MxData mx = _db.getMailServers().get(name);
+			MailServer.create()
+				.setName(name)
+				.setAddresses(sorted(mx.getAddresses()))
+				.setKind(mx.getKind())
+				.setServices(new ArrayList<>(mxServices(name)))
+				.setDomains(sorted(_index.getDomainsByMx(name)))
+				.setResolved(mx.getResolved())
+				.setFingerprint(mx.getFingerprint())
+				.setProbed(mx.getProbed())
+				.writeContent(out);
+		});
+	}
+
+	private void writeHosts() throws IOException {
+		Set<String> addressSet = new HashSet<>();
+		for (MxData mx : _db.getMailServers().values()) {
+			addressSet.addAll(mx.getAddresses());
+		}
+		String[] addresses = sort(addressSet.toArray(new String[0]));
+		addressSet = null;
+
+		writeSection(Storage.HOSTS__PROP, addresses, (out, address) -> {
+			Set<String> services = new TreeSet<>();
+			Set<String> domains = new TreeSet<>();
+			Set<String> mailServers = _index.getMxByAddress(address);
+			for (String mx : mailServers) {
+				services.addAll(mxServices(mx));
+				domains.addAll(_index.getDomainsByMx(mx));
+			}
+
+			Host.create()
+				.setAddress(address)
+				.setServices(new ArrayList<>(services))
+				.setDomains(new ArrayList<>(domains))
+				.setMailServers(sorted(mailServers))
+				.writeTo(out);
+		});
+	}
+
+	/**
+	 * Writes the array property with the given name with one entry for each of the given keys.
+	 */
+	private void writeSection(String property, String[] keys, EntryWriter entries) throws IOException {
+		_out.name(property);
+		_out.beginArray();
+		if (_pool == null) {
+			for (String key : keys) {
+				entries.write(_out, key);
+			}
+		} else {
+			// Keep a bounded number of chunks in flight, so that only a small part of the output
+			// is buffered in memory.
+			Deque<Future<String>> pending = new ArrayDeque<>();
+			for (int start = 0; start < keys.length; start += CHUNK_SIZE) {
+				int from = start;
+				int to = Math.min(keys.length, start + CHUNK_SIZE);
+				pending.add(_pool.submit(() -> serialize(keys, from, to, entries)));
+				if (pending.size() >= 2 * _pool.getParallelism()) {
+					writeChunk(pending.removeFirst());
+				}
+			}
+			while (!pending.isEmpty()) {
+				writeChunk(pending.removeFirst());
+			}
+		}
+		_out.endArray();
+	}
+
+	/**
+	 * Serializes the entries for the given range of keys in the format of a section array,
+	 * without the separator before the first entry.
+	 */
+	private static String serialize(String[] keys, int from, int to, EntryWriter entries) throws IOException {
+		StringWriter buffer = new StringWriter();
+		JsonWriter out = new JsonWriter(new WriterAdapter(buffer));
+		out.setIndent("\t");
+
+		// Same nesting as a section array in the storage object.
+		out.beginObject();
+		out.name("");
+		out.beginArray();
+		out.flush();
+		int start = buffer.getBuffer().length() + ENTRY_INDENT.length();
+
+		for (int n = from; n < to; n++) {
+			entries.write(out, keys[n]);
+		}
+		out.flush();
+		return buffer.getBuffer().substring(start);
+	}
+
+	private void writeChunk(Future<String> chunk) throws IOException {
+		String data;
+		try {
+			data = chunk.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing storage.", ex);
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof IOException) {
+				throw (IOException) ex.getCause();
+			}
+			throw new IOException(ex.getCause());
+		}
+
+		// The writer emits the separator before the chunk like before a single entry.
+		_out.jsonValue(data);
+	}
+
+	/**
+	 * The services and potential services of all domains using the given mail server.
+	 */
+	private Set<String> mxServices(String mx) {
+		Set<String> result = new TreeSet<>();
+		for (String domainName : _index.getDomainsByMx(mx)) {
+			DomainData domain = _db.getDomains().get(domainName);
+			if (domain.getService() != null) {
+				result.add(domain.getService());
+			}
+			result.addAll(domain.getPotentialServices());
+		}
+		return result;
+	}
+
+	private String[] sortedKeys(Map<String, ?> map) {
+		return sort(map.keySet().toArray(new String[0]));
+	}
+
+	private String[] sort(String[] values) {
+		if (_pool == null) {
+			Arrays.sort(values);
+		} else {
+			_pool.submit(() -> Arrays.parallelSort(values)).join();
+		}
+		return values;
+	}
+
+	private static List<String> sorted(Collection<String> values) {
+		if (values.isEmpty()) {
+			return Collections.emptyList();
+		}
+		return new ArrayList<>(new TreeSet<>(values));
+	}
+
+}
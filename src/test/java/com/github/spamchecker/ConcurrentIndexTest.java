@@ -0,0 +1,184 @@
+package com.github.spamchecker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.RepeatedTest;
+
+import com.github.spamchecker.model.Classification;
+import com.github.spamchecker.model.DomainData;
+import com.github.spamchecker.model.DomainInfo;
+import com.github.spamchecker.model.Heuristics;
+import com.github.spamchecker.model.Index;
+import com.github.spamchecker.model.MxData;
+import com.github.spamchecker.model.MxInfo;
+
+/**
+ * Stress test for {@link ConcurrentIndex}: Many threads enter domains sharing a small number of
+ * mail servers.
+ */
+class ConcurrentIndexTest {
+
+	private static final int THREADS = 16;
+
+	private static final int DOMAINS = 20_000;
+
+	private static final int MAIL_SERVERS = 200;
+
+	/**
+	 * Mail servers with a number below are part of the base index.
+	 */
+	private static final int KNOWN_MAIL_SERVERS = 50;
+
+	private static final Classification[] KINDS = {
+		Classification.UNKNOWN, Classification.DISPOSABLE, Classification.REGULAR, Classification.ALIAS, Classification.DEAD,
+	};
+
+	@RepeatedTest(5)
+	void testConcurrentImport() throws Exception {
+		Random rnd = new Random(42);
+		Index db = createBase(rnd);
+
+		// Names include duplicates, the same domain may be entered by several threads.
+		List<String> names = new ArrayList<>();
+		for (int n = 0; n < DOMAINS; n++) {
+			names.add("d" + rnd.nextInt(DOMAINS / 2) + ".example");
+		}
+		Map<String, List<String>> domainMx = new HashMap<>();
+		Map<String, Classification> domainKind = new HashMap<>();
+		for (String name : names) {
+			domainMx.computeIfAbsent(name, x -> mailServers(rnd));
+			domainKind.computeIfAbsent(name, x -> KINDS[rnd.nextInt(KINDS.length)]);
+		}
+
+		ConcurrentIndex staged = new ConcurrentIndex(db);
+		Map<String, AtomicInteger> lookups = new ConcurrentHashMap<>();
+		CountDownLatch start = new CountDownLatch(1);
+
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Future<?>> tasks = new ArrayList<>();
+			for (int thread = 0; thread < THREADS; thread++) {
+				List<String> part = names.subList(thread * DOMAINS / THREADS, (thread + 1) * DOMAINS / THREADS);
+				tasks.add(pool.submit(() -> {
+					start.await();
+					for (String name : part) {
+						DomainData domain = DomainInfo.create().setKind(domainKind.get(name)).setHeuristics(Heuristics.MANUAL);
+						for (String mx : domainMx.get(name)) {
+							staged.enterMailServer(mx, x -> {
+								lookups.computeIfAbsent(x, y -> new AtomicInteger()).incrementAndGet();
+								Thread.yield();
+								return Collections.singletonList(address(x));
+							});
+							domain.addMailServer(mx);
+						}
+						staged.putDomain(name, domain);
+					}
+					return null;
+				}));
+			}
+			start.countDown();
+			for (Future<?> task : tasks) {
+				task.get();
+			}
+		} finally {
+			pool.shutdown();
+		}
+
+		// Each new mail server is resolved exactly once, known ones never.
+		Set<String> newMx = new HashSet<>();
+		for (List<String> mailServers : domainMx.values()) {
+			for (String mx : mailServers) {
+				if (!db.getMailServers().containsKey(mx)) {
+					newMx.add(mx);
+				}
+			}
+		}
+		assertEquals(newMx, lookups.keySet());
+		for (Map.Entry<String, AtomicInteger> entry : lookups.entrySet()) {
+			assertEquals(1, entry.getValue().get(), "Lookups of " + entry.getKey());
+		}
+		assertEquals(newMx.size(), staged.getMxCount());
+		assertEquals(domainMx.size(), staged.getDomainCount());
+
+		Map<String, Classification> stagedKinds = new HashMap<>();
+		for (int n = 0; n < MAIL_SERVERS; n++) {
+			String mx = mx(n);
+			stagedKinds.put(mx, staged.getMxKind(mx));
+		}
+
+		staged.commit(null);
+		assertEquals(domainMx.size() + baseDomains(db), db.getDomains().size());
+		assertFalse(staged.hasDomain("unknown.example"));
+
+		// The concurrent classification equals the one computed sequentially.
+		MxResolver.recomputeClassifications(db);
+		for (int n = 0; n < MAIL_SERVERS; n++) {
+			String mx = mx(n);
+			MxData data = db.getMailServers().get(mx);
+			assertEquals(data == null ? Classification.UNKNOWN : data.getKind(), stagedKinds.get(mx), "Kind of " + mx);
+			if (data != null && n >= KNOWN_MAIL_SERVERS) {
+				assertEquals(Arrays.asList(address(mx)), data.getAddresses());
+			}
+		}
+		assertNull(db.getMailServers().get("unused.example"));
+	}
+
+	private static Index createBase(Random rnd) {
+		Index db = Index.create();
+		for (int n = 0; n < KNOWN_MAIL_SERVERS; n++) {
+			db.putMailServer(mx(n), MxInfo.create().setAddresses(Collections.singletonList(address(mx(n)))));
+		}
+		for (int n = 0; n < 100; n++) {
+			DomainData domain = DomainInfo.create().setKind(KINDS[rnd.nextInt(KINDS.length)]).setHeuristics(Heuristics.MANUAL);
+			domain.addMailServer(mx(rnd.nextInt(KNOWN_MAIL_SERVERS)));
+			db.putDomain("base" + n + ".example", domain);
+		}
+		MxResolver.recomputeClassifications(db);
+		return db;
+	}
+
+	private static int baseDomains(Index db) {
+		int result = 0;
+		for (String name : db.getDomains().keySet()) {
+			if (name.startsWith("base")) {
+				result++;
+			}
+		}
+		return result;
+	}
+
+	private static List<String> mailServers(Random rnd) {
+		Set<String> result = new HashSet<>();
+		for (int n = 0, cnt = 1 + rnd.nextInt(3); n < cnt; n++) {
+			result.add(mx(rnd.nextInt(MAIL_SERVERS)));
+		}
+		return new ArrayList<>(result);
+	}
+
+	private static String mx(int n) {
+		return "mx" + n + ".example";
+	}
+
+	private static String address(String mx) {
+		return "10.0." + (mx.hashCode() & 0xFF) + ".1";
+	}
+
+}
@@ -0,0 +1,73 @@
+package com.github.spamchecker.db;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.github.spamchecker.model.Classification;
+import com.github.spamchecker.model.DomainData;
+import com.github.spamchecker.model.DomainInfo;
+import com.github.spamchecker.model.Heuristics;
+import com.github.spamchecker.model.Index;
+import com.github.spamchecker.model.MxInfo;
+
+/**
+ * Test case for {@link SqlStore}.
+ */
+class SqlStoreTest {
+
+	@TempDir
+	File _dir;
+
+	@Test
+	void testReplaceReferences() throws IOException {
+		try (SqlStore store = SqlStore.open(new File(_dir, "domains"))) {
+			Index db = Index.create();
+			db.putMailServer("mx1.example", MxInfo.create().setKind(Classification.DISPOSABLE).setAddresses(Arrays.asList("10.0.0.1", "10.0.0.2")));
+			db.putMailServer("mx2.example", MxInfo.create().setKind(Classification.DISPOSABLE).setAddresses(Arrays.asList("10.0.0.3")));
+			db.putDomain("fake.example", DomainInfo.create()
+				.setKind(Classification.DISPOSABLE)
+				.setHeuristics(Heuristics.MX)
+				.setMailServers(Arrays.asList("mx1.example", "mx2.example"))
+				.setPotentialServices(Arrays.asList("https://fake.example/")));
+			store.store(db);
+
+			assertEquals(set("mx1.example", "mx2.example"), set(store.getDomain("fake.example").getMailServers()));
+			assertEquals(set("10.0.0.1", "10.0.0.2"), set(store.getMailServer("mx1.example").getAddresses()));
+
+			// Changed references replace the stored ones.
+			db.getMailServers().get("mx1.example").setAddresses(Arrays.asList("10.0.0.4"));
+			DomainData domain = db.getDomains().get("fake.example");
+			domain.setMailServers(Arrays.asList("mx2.example"));
+			domain.setPotentialServices(Collections.emptyList());
+			store.store(db);
+
+			DomainData stored = store.getDomain("fake.example");
+			assertEquals(set("mx2.example"), set(stored.getMailServers()));
+			assertEquals(set(), set(stored.getPotentialServices()));
+			assertEquals(set("10.0.0.4"), set(store.getMailServer("mx1.example").getAddresses()));
+			assertEquals(set("10.0.0.3"), set(store.getMailServer("mx2.example").getAddresses()));
+
+			Index loaded = store.loadIndex();
+			assertEquals(set("mx2.example"), set(loaded.getDomains().get("fake.example").getMailServers()));
+			assertEquals(set("10.0.0.4"), set(loaded.getMailServers().get("mx1.example").getAddresses()));
+		}
+	}
+
+	private static HashSet<String> set(String... values) {
+		return new HashSet<>(Arrays.asList(values));
+	}
+
+	private static HashSet<String> set(List<String> values) {
+		return new HashSet<>(values);
+	}
+
+}
@@ -0,0 +1,235 @@
+package com.github.spamchecker.dns;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.EDNSOption;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Resolver;
+import org.xbill.DNS.TSIG;
+import org.xbill.DNS.TextParseException;
+import org.xbill.DNS.Type;
+
+/**
+ * Test case for {@link HedgingResolver}.
+ */
+class HedgingResolverTest {
+
+	@Test
+	void testHedgeAfterQuantile() throws Exception {
+		StubResolver primary = new StubResolver(5);
+		StubResolver backup = new StubResolver(30);
+		HedgingResolver resolver = new HedgingResolver(Arrays.asList(primary, backup), 0.5);
+
+		// Collect latencies, the faster primary receives all further queries.
+		for (int n = 0; n < 48; n++) {
+			resolver.send(query());
+		}
+		HedgingResolver.Upstream upstream = resolver.getUpstreams().get(0);
+		long delay = upstream.hedgeDelay(0.5, resolver.getTimeout());
+		assertTrue(delay < TimeUnit.MILLISECONDS.toNanos(100), "Hedge delay: " + delay);
+
+		primary._delayMillis = 2000;
+		backup._delayMillis = 0;
+		long hedgeWins = resolver.getHedgeWins();
+		long backupCalls = backup._calls.get();
+
+		long start = System.nanoTime();
+		resolver.send(query());
+		long elapsed = System.nanoTime() - start;
+
+		assertTrue(elapsed >= delay, "Answered before the hedge delay: " + elapsed);
+		assertTrue(elapsed < TimeUnit.MILLISECONDS.toNanos(1000), "Not hedged: " + elapsed);
+		assertEquals(hedgeWins + 1, resolver.getHedgeWins());
+		assertEquals(backupCalls + 1, backup._calls.get());
+	}
+
+	@Test
+	void testHedgeBudget() throws Exception {
+		StubResolver primary = new StubResolver(0);
+		primary._hold = true;
+		StubResolver backup = new StubResolver(0);
+		HedgingResolver resolver = new HedgingResolver(Arrays.asList(primary, backup), 0.5);
+
+		// Hedged queries are sent from a single thread, so that the budget is checked
+		// sequentially.
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			// Give the backup a latency, afterwards the primary that never answered is preferred.
+			resolver.sendAsync(query(), executor).toCompletableFuture().get(5, TimeUnit.SECONDS);
+			long warmupHedges = resolver.getHedges();
+
+			List<CompletableFuture<Message>> answers = new ArrayList<>();
+			for (int n = 0; n < 200; n++) {
+				answers.add(resolver.sendAsync(query(), executor).toCompletableFuture());
+			}
+			Thread.sleep(500);
+			executor.submit(() -> null).get();
+
+			// 10 + 10% of 201 queries.
+			assertEquals(31, resolver.getHedges());
+			assertEquals(31, resolver.getHedgeWins());
+			assertEquals(31 - warmupHedges, answers.stream().filter(CompletableFuture::isDone).count());
+
+			primary.release();
+			for (CompletableFuture<Message> answer : answers) {
+				answer.get(5, TimeUnit.SECONDS);
+			}
+			assertEquals(31, resolver.getHedges());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	void testBackoff() throws Exception {
+		StubResolver primary = new StubResolver(0);
+		primary._fail = true;
+		StubResolver backup = new StubResolver(0);
+		HedgingResolver resolver = new HedgingResolver(Arrays.asList(primary, backup), 0);
+		HedgingResolver.Upstream upstream = resolver.getUpstreams().get(0);
+
+		// A failing primary is retried with the backup.
+		for (int n = 0; n < 10 && primary._calls.get() < HedgingResolver.MAX_FAILURES; n++) {
+			resolver.send(query());
+		}
+		assertEquals(HedgingResolver.MAX_FAILURES, primary._calls.get());
+		assertFalse(upstream.isHealthy());
+
+		// No queries during back-off.
+		for (int n = 0; n < 5; n++) {
+			resolver.send(query());
+		}
+		assertEquals(HedgingResolver.MAX_FAILURES, primary._calls.get());
+
+		// A failing probe doubles the back-off period.
+		Thread.sleep(1100);
+		resolver.send(query());
+		assertEquals(HedgingResolver.MAX_FAILURES + 1, primary._calls.get());
+		assertFalse(upstream.isHealthy());
+
+		Thread.sleep(1100);
+		resolver.send(query());
+		assertEquals(HedgingResolver.MAX_FAILURES + 1, primary._calls.get());
+
+		// A successful probe recovers the upstream.
+		primary._fail = false;
+		Thread.sleep(1000);
+		resolver.send(query());
+		assertEquals(HedgingResolver.MAX_FAILURES + 2, primary._calls.get());
+		assertTrue(upstream.isHealthy());
+		assertEquals(1, upstream.getWins());
+	}
+
+	private static Message query() throws TextParseException {
+		return Message.newQuery(Record.newRecord(Name.fromString("example.com."), Type.MX, DClass.IN));
+	}
+
+	/**
+	 * In-process upstream answering after a configurable delay, failing, or holding its
+	 * answers until released.
+	 */
+	private static final class StubResolver implements Resolver {
+
+		final AtomicInteger _calls = new AtomicInteger();
+
+		volatile long _delayMillis;
+
+		volatile boolean _fail;
+
+		volatile boolean _hold;
+
+		private final List<CompletableFuture<Message>> _held = new ArrayList<>();
+
+		StubResolver(long delayMillis) {
+			_delayMillis = delayMillis;
+		}
+
+		@Override
+		public CompletionStage<Message> sendAsync(Message query, Executor executor) {
+			_calls.incrementAndGet();
+			if (_fail) {
+				return CompletableFuture.failedFuture(new IOException("Stub failure."));
+			}
+
+			Message answer = query.clone();
+			answer.getHeader().setFlag(Flags.QR);
+			if (_hold) {
+				CompletableFuture<Message> result = new CompletableFuture<>();
+				synchronized (_held) {
+					_held.add(result);
+				}
+				return result;
+			}
+			long delay = _delayMillis;
+			if (delay == 0) {
+				return CompletableFuture.completedFuture(answer);
+			}
+			return CompletableFuture.supplyAsync(() -> answer, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS));
+		}
+
+		/**
+		 * Answers all held queries.
+		 */
+		void release() {
+			List<CompletableFuture<Message>> held;
+			synchronized (_held) {
+				held = new ArrayList<>(_held);
+				_held.clear();
+			}
+			for (CompletableFuture<Message> result : held) {
+				result.complete(new Message());
+			}
+		}
+
+		@Override
+		public void setPort(int port) {
+			// Ignore.
+		}
+
+		@Override
+		public void setTCP(boolean flag) {
+			// Ignore.
+		}
+
+		@Override
+		public void setIgnoreTruncation(boolean flag) {
+			// Ignore.
+		}
+
+		@Override
+		public void setEDNS(int version, int payloadSize, int flags, List<EDNSOption> options) {
+			// Ignore.
+		}
+
+		@Override
+		public void setTSIGKey(TSIG key) {
+			// Ignore.
+		}
+
+		@Override
+		public void setTimeout(Duration timeout) {
+			// Ignore.
+		}
+	}
+
+}
@@ -0,0 +1,79 @@
+package com.github.spamchecker.pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Test case for {@link PatternCompiler} and {@link AddressMatcher}.
+ */
+class PatternCompilerTest {
+
+	private static final String SERVICE = "https://tmp.example";
+
+	@TempDir
+	File _dir;
+
+	private PatternCompiler _compiler;
+
+	private AddressMatcher _matcher;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		File samples = new File(_dir, "pattern.conf");
+		Files.write(samples.toPath(), Arrays.asList(
+			"# " + SERVICE,
+			"combtmp+jol0x@gmail.com",
+			"irontmp+890hj@gmail.com",
+			"tinytmp+av0zo@gmail.com",
+			"jocktmp+obsqm@gmail.com",
+			"x.y.z@other.example"), StandardCharsets.UTF_8);
+
+		_compiler = new PatternCompiler();
+		_compiler.read(samples);
+		_matcher = _compiler.compile();
+	}
+
+	@Test
+	void testShape() {
+		assertEquals(Collections.singletonList("gmail.com@*tmp*+"), _compiler.getShapes());
+	}
+
+	@Test
+	void testSamples() {
+		assertEquals(SERVICE, _matcher.match("combtmp+jol0x@gmail.com"));
+		assertEquals(SERVICE, _matcher.match("combtmp+other@gmail.com"));
+		assertEquals(SERVICE, _matcher.match("c.o.m.b.t.m.p@googlemail.com"));
+		assertEquals(SERVICE, _matcher.match("X.Y.Z@other.example"));
+		assertEquals(SERVICE, _matcher.match("x.y.z+tag@other.example"));
+		assertNull(_matcher.match("xyz@other.example"));
+	}
+
+	@Test
+	void testShapeRequiresTag() {
+		assertEquals(SERVICE, _matcher.match("newtmp+q1w2e@gmail.com"));
+		assertEquals(SERVICE, _matcher.match("tmp+q1w2e@gmail.com"));
+
+		// Untagged accounts containing the infix are regular accounts.
+		assertNull(_matcher.match("jimtmpson@gmail.com"));
+		assertNull(_matcher.match("newtmp@gmail.com"));
+	}
+
+	@Test
+	void testNoMatch() {
+		assertNull(_matcher.match("newtmp+q1w2e@example.com"));
+		assertNull(_matcher.match("jimson+tag@gmail.com"));
+		assertNull(_matcher.match("no-address"));
+	}
+
+}
@@ -0,0 +1,83 @@
+package com.github.spamchecker.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.spamchecker.model.Classification;
+import com.github.spamchecker.model.DomainInfo;
+import com.github.spamchecker.model.Heuristics;
+import com.github.spamchecker.model.Index;
+import com.github.spamchecker.model.LookupResult;
+
+/**
+ * Test case for {@link ClassificationTable} and {@link LookupServer#lookup(String)}.
+ */
+class ClassificationTableTest {
+
+	private static Index createDb() {
+		Index db = Index.create();
+		db.putDomain("mailinator.com", DomainInfo.create().setKind(Classification.DISPOSABLE).setHeuristics(Heuristics.MANUAL).setService("mailinator"));
+		db.putDomain("mx.mailinator.com", DomainInfo.create().setKind(Classification.UNKNOWN).setHeuristics(Heuristics.NONE));
+		db.putDomain("gmail.com", DomainInfo.create().setKind(Classification.REGULAR).setHeuristics(Heuristics.MANUAL));
+		db.putDomain("webhook.site", DomainInfo.create().setKind(Classification.REGULAR).setHeuristics(Heuristics.MANUAL));
+		db.putDomain("email.webhook.site", DomainInfo.create().setKind(Classification.DISPOSABLE).setHeuristics(Heuristics.MANUAL));
+		db.putDomain("dead.example", DomainInfo.create().setKind(Classification.DEAD).setHeuristics(Heuristics.NO_RESOLVABLE_MX));
+		return db;
+	}
+
+	@Test
+	void testLookup() {
+		ClassificationTable table = new ClassificationTable(createDb());
+		assertEquals(6, table.size());
+
+		int slot = table.lookup("mailinator.com");
+		assertEquals(Classification.DISPOSABLE, table.getKind(slot));
+		assertEquals("mailinator", table.getService(slot));
+		assertEquals(-1, table.lookup("x7.mailinator.com"));
+		assertEquals(-1, table.lookup("inator.com"));
+	}
+
+	@Test
+	void testLookupAncestor() {
+		ClassificationTable table = new ClassificationTable(createDb());
+
+		assertEquals(table.lookup("mailinator.com"), table.lookupAncestor("x7.mailinator.com"));
+
+		// An unclassified intermediate domain is skipped.
+		assertEquals(table.lookup("mailinator.com"), table.lookupAncestor("a.mx.mailinator.com"));
+
+		// The nearest classified ancestor wins.
+		assertEquals(table.lookup("email.webhook.site"), table.lookupAncestor("x.email.webhook.site"));
+		assertEquals(table.lookup("webhook.site"), table.lookupAncestor("other.webhook.site"));
+
+		// Only proper ancestors with a classification that is inherited.
+		assertEquals(-1, table.lookupAncestor("mailinator.com"));
+		assertEquals(-1, table.lookupAncestor("x.dead.example"));
+		assertEquals(-1, table.lookupAncestor("xmailinator.com"));
+		assertEquals(-1, table.lookupAncestor("com"));
+	}
+
+	@Test
+	void testServerLookup() {
+		LookupServer server = new LookupServer(new ClassificationTable(createDb()));
+
+		LookupResult exact = server.lookup("Someone@Mailinator.com");
+		assertEquals("mailinator.com", exact.getDomain());
+		assertEquals(Classification.DISPOSABLE, exact.getKind());
+		assertEquals(Heuristics.MANUAL, exact.getHeuristics());
+
+		LookupResult inherited = server.lookup("someone@x7.mailinator.com");
+		assertEquals("x7.mailinator.com", inherited.getDomain());
+		assertEquals(Classification.DISPOSABLE, inherited.getKind());
+		assertEquals(Heuristics.PARENT, inherited.getHeuristics());
+		assertEquals("mailinator", inherited.getService());
+
+		LookupResult unknown = server.lookup("x.unknown.example");
+		assertEquals(Classification.UNKNOWN, unknown.getKind());
+		assertEquals(Heuristics.NONE, unknown.getHeuristics());
+		assertNull(unknown.getService());
+	}
+
+}
@@ -0,0 +1,204 @@
+package com.github.spamchecker.smtp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test case for {@link SmtpProber}.
+ */
+class SmtpProberTest {
+
+	private static final String ADDRESS = "127.0.0.1";
+
+	private static final List<String> GREETING = Arrays.asList("220 mx.example.com ESMTP Postfix");
+
+	private static final List<String> EHLO = Arrays.asList(
+		"250-mx.example.com",
+		"250-PIPELINING",
+		"250-SIZE 10240000",
+		"250 8BITMIME");
+
+	@Test
+	void testMultiLineEhlo() throws Exception {
+		try (StubServer server = new StubServer(session -> {
+			session.send(GREETING);
+			session.receive();
+			session.send(EHLO);
+		})) {
+			SmtpProber prober = prober(server, Duration.ofSeconds(5));
+			assertEquals(SmtpFingerprint.compute(GREETING, EHLO), probe(prober));
+			assertEquals(1, prober.getAnswered());
+
+			server.join();
+			assertEquals(Arrays.asList("EHLO probe.example.com", "QUIT"), server.received());
+		}
+	}
+
+	@Test
+	void testPipelinedReply() throws Exception {
+		// Greeting and EHLO reply arrive in a single segment.
+		List<String> all = new ArrayList<>(GREETING);
+		all.addAll(EHLO);
+		try (StubServer server = new StubServer(session -> session.send(all))) {
+			SmtpProber prober = prober(server, Duration.ofSeconds(5));
+			assertEquals(SmtpFingerprint.compute(GREETING, EHLO), probe(prober));
+			assertEquals(1, prober.getAnswered());
+			assertEquals(0, prober.getTimeouts());
+		}
+	}
+
+	@Test
+	void testNegativeGreeting() throws Exception {
+		List<String> greeting = Arrays.asList("554 mx.example.com No SMTP service here");
+		try (StubServer server = new StubServer(session -> session.send(greeting))) {
+			SmtpProber prober = prober(server, Duration.ofSeconds(5));
+			assertEquals(SmtpFingerprint.compute(greeting, null), probe(prober));
+			assertEquals(1, prober.getAnswered());
+
+			server.join();
+			assertEquals(Collections.emptyList(), server.received());
+		}
+	}
+
+	@Test
+	void testTimeout() throws Exception {
+		try (StubServer server = new StubServer(session -> {
+			// Never answer.
+		})) {
+			SmtpProber prober = prober(server, Duration.ofMillis(300));
+			assertNull(probe(prober));
+			assertEquals(1, prober.getTimeouts());
+			assertEquals(0, prober.getFailed());
+
+			// The connection of the expired probe is closed.
+			server.join();
+			assertFalse(server.isAlive());
+		}
+	}
+
+	@Test
+	void testOversizedReply() throws Exception {
+		List<String> greeting = new ArrayList<>();
+		for (int n = 0; n < 200; n++) {
+			greeting.add("220-mx.example.com continues with a rather long line of text");
+		}
+		try (StubServer server = new StubServer(session -> session.send(greeting))) {
+			SmtpProber prober = prober(server, Duration.ofSeconds(5));
+			assertNull(probe(prober));
+			assertEquals(1, prober.getFailed());
+			assertEquals(0, prober.getTimeouts());
+		}
+	}
+
+	private static SmtpProber prober(StubServer server, Duration readTimeout) {
+		return new SmtpProber(4, server.getPort(), Duration.ofSeconds(5), readTimeout, "probe.example.com");
+	}
+
+	private static String probe(SmtpProber prober) throws IOException {
+		Map<String, String> results = new HashMap<>();
+		prober.probe(Collections.singletonList(ADDRESS).iterator(), results::put);
+		assertEquals(Collections.singleton(ADDRESS), results.keySet());
+		assertEquals(1, prober.getProbed());
+		return results.get(ADDRESS);
+	}
+
+	/**
+	 * The part of a SMTP session played by a {@link StubServer}.
+	 */
+	private interface Script {
+		void run(StubServer session) throws IOException;
+	}
+
+	/**
+	 * SMTP server accepting a single connection on a local port and running a {@link Script}.
+	 * Afterwards, all lines sent by the client are recorded until it closes the connection.
+	 */
+	private static final class StubServer implements AutoCloseable {
+
+		private final ServerSocket _serverSocket;
+
+		private final Thread _thread;
+
+		private final List<String> _received = Collections.synchronizedList(new ArrayList<>());
+
+		private BufferedReader _in;
+
+		private OutputStream _out;
+
+		StubServer(Script script) throws IOException {
+			_serverSocket = new ServerSocket(0, 1, InetAddress.getByName(ADDRESS));
+			_thread = new Thread(() -> {
+				try (Socket socket = _serverSocket.accept()) {
+					_in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+					_out = socket.getOutputStream();
+					script.run(this);
+					while (receive() != null) {
+						// Record.
+					}
+				} catch (IOException ex) {
+					// Connection closed by the prober.
+				}
+			}, "smtp-stub");
+			_thread.setDaemon(true);
+			_thread.start();
+		}
+
+		int getPort() {
+			return _serverSocket.getLocalPort();
+		}
+
+		void send(List<String> lines) throws IOException {
+			StringBuilder text = new StringBuilder();
+			for (String line : lines) {
+				text.append(line).append("\r\n");
+			}
+			_out.write(text.toString().getBytes(StandardCharsets.US_ASCII));
+			_out.flush();
+		}
+
+		String receive() throws IOException {
+			String line = _in.readLine();
+			if (line != null) {
+				_received.add(line);
+			}
+			return line;
+		}
+
+		List<String> received() {
+			return new ArrayList<>(_received);
+		}
+
+		void join() throws InterruptedException {
+			_thread.join(5000);
+		}
+
+		boolean isAlive() {
+			return _thread.isAlive();
+		}
+
+		@Override
+		public void close() throws IOException {
+			_serverSocket.close();
+		}
+	}
+
+}
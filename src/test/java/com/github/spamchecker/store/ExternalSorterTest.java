@@ -0,0 +1,49 @@
+package com.github.spamchecker.store;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.github.spamchecker.store.ExternalSorter.Cursor;
+
+/**
+ * Test case for {@link ExternalSorter}.
+ */
+class ExternalSorterTest {
+
+	@TempDir
+	File _dir;
+
+	@Test
+	void testOrder() throws IOException {
+		// Order of LC_ALL=C sort -f.
+		List<String> expected = Arrays.asList("bar", "bar-x.com", "barx.com", "bar[x.com", "bar_x.com", "bar~x.com", "zzu.com", "zz\u00fc.com");
+
+		for (int runSize : new int[] {100, 2}) {
+			try (ExternalSorter sorter = new ExternalSorter(runSize, _dir)) {
+				for (int n = expected.size() - 1; n >= 0; n--) {
+					sorter.add(expected.get(n));
+					sorter.add(expected.get(n));
+				}
+				assertEquals(expected, lines(sorter.sorted()));
+			}
+			assertEquals(0, _dir.list().length);
+		}
+	}
+
+	private static List<String> lines(Cursor cursor) throws IOException {
+		List<String> result = new ArrayList<>();
+		for (; cursor.current() != null; cursor.advance()) {
+			result.add(cursor.current());
+		}
+		return result;
+	}
+
+}
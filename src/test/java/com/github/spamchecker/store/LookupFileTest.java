@@ -0,0 +1,57 @@
+package com.github.spamchecker.store;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.github.spamchecker.model.Classification;
+import com.github.spamchecker.model.DomainInfo;
+import com.github.spamchecker.model.Heuristics;
+import com.github.spamchecker.model.Index;
+
+/**
+ * Test case for {@link LookupFile}.
+ */
+class LookupFileTest {
+
+	@TempDir
+	File _dir;
+
+	@Test
+	void testLookup() throws IOException {
+		Index db = Index.create();
+		db.putDomain("mailinator.com", DomainInfo.create().setKind(Classification.DISPOSABLE).setHeuristics(Heuristics.MANUAL).setService("mailinator"));
+		db.putDomain("mx.mailinator.com", DomainInfo.create().setKind(Classification.UNKNOWN).setHeuristics(Heuristics.NONE));
+		db.putDomain("webhook.site", DomainInfo.create().setKind(Classification.REGULAR).setHeuristics(Heuristics.MANUAL));
+		db.putDomain("email.webhook.site", DomainInfo.create().setKind(Classification.DISPOSABLE).setHeuristics(Heuristics.MANUAL));
+		db.putDomain("dead.example", DomainInfo.create().setKind(Classification.DEAD).setHeuristics(Heuristics.NO_RESOLVABLE_MX));
+		db.putDomain("b\u00fccher.example", DomainInfo.create().setKind(Classification.REGULAR).setHeuristics(Heuristics.MANUAL));
+
+		File file = new File(_dir, "domains.lookup");
+		LookupFile.write(db, file);
+
+		try (LookupFile lookup = LookupFile.open(file)) {
+			assertEquals(6, lookup.size());
+
+			int mailinator = lookup.lookup("mailinator.com");
+			assertEquals(Classification.DISPOSABLE, lookup.getKind(mailinator));
+			assertEquals("mailinator", lookup.getServiceName(lookup.getServiceId(mailinator)));
+			assertEquals(-1, lookup.lookup("x7.mailinator.com"));
+
+			assertEquals(mailinator, lookup.lookupAncestor("x7.mailinator.com"));
+			assertEquals(mailinator, lookup.lookupAncestor("a.mx.mailinator.com"));
+			assertEquals(lookup.lookup("email.webhook.site"), lookup.lookupAncestor("x.email.webhook.site"));
+			assertEquals(lookup.lookup("webhook.site"), lookup.lookupAncestor("other.webhook.site"));
+			assertEquals(lookup.lookup("b\u00fccher.example"), lookup.lookupAncestor("x.b\u00fccher.example"));
+
+			assertEquals(-1, lookup.lookupAncestor("mailinator.com"));
+			assertEquals(-1, lookup.lookupAncestor("x.dead.example"));
+			assertEquals(-1, lookup.lookupAncestor("xmailinator.com"));
+		}
+	}
+
+}
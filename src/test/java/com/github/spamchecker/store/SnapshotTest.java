@@ -0,0 +1,49 @@
+package com.github.spamchecker.store;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.github.spamchecker.model.Classification;
+import com.github.spamchecker.model.DomainInfo;
+import com.github.spamchecker.model.Heuristics;
+import com.github.spamchecker.model.Index;
+import com.github.spamchecker.model.MxInfo;
+
+/**
+ * Test case for {@link Snapshot}.
+ */
+class SnapshotTest {
+
+	@TempDir
+	File _dir;
+
+	@Test
+	void testReplace() throws IOException {
+		Index db = Index.create();
+		db.putMailServer("mx.example", MxInfo.create().setKind(Classification.DISPOSABLE).setAddresses(Arrays.asList("10.0.0.1")));
+		db.putDomain("fake.example", DomainInfo.create()
+			.setKind(Classification.DISPOSABLE)
+			.setHeuristics(Heuristics.MX)
+			.setMailServers(Arrays.asList("mx.example")));
+
+		File file = new File(_dir, "domains.snapshot");
+		Snapshot.write(Index.create(), file);
+		Snapshot.write(db, file);
+
+		// The previous snapshot is replaced, no temporary file is left.
+		assertArrayEquals(new String[] {file.getName()}, _dir.list());
+
+		Index loaded = Snapshot.read(file);
+		assertEquals(Classification.DISPOSABLE, loaded.getDomains().get("fake.example").getKind());
+		assertEquals(Arrays.asList("mx.example"), loaded.getDomains().get("fake.example").getMailServers());
+		assertEquals(Arrays.asList("10.0.0.1"), loaded.getMailServers().get("mx.example").getAddresses());
+	}
+
+}
@@ -0,0 +1,56 @@
+package com.github.spamchecker.store;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.spamchecker.XRefIndex;
+import com.github.spamchecker.model.Classification;
+import com.github.spamchecker.model.DomainInfo;
+import com.github.spamchecker.model.Heuristics;
+import com.github.spamchecker.model.Index;
+import com.github.spamchecker.model.MxInfo;
+
+/**
+ * Test case for {@link StorageWriter}.
+ */
+class StorageWriterTest {
+
+	@Test
+	void testParallel() throws IOException {
+		Index db = Index.create();
+		for (int n = 0; n < 300; n++) {
+			db.putMailServer("mx" + n + ".example", MxInfo.create().setKind(Classification.REGULAR)
+				.setAddresses(Arrays.asList("10.0." + (n % 50) + ".1", "10.1." + n / 256 + "." + n % 256)));
+		}
+		for (int n = 0; n < 5000; n++) {
+			db.putDomain("d" + n + ".b\u00fccher.example", DomainInfo.create()
+				.setKind(Classification.REGULAR)
+				.setHeuristics(Heuristics.MX)
+				.setService(n % 7 == 0 ? "service" + n % 3 : null)
+				.setMailServers(Arrays.asList("mx" + n % 300 + ".example")));
+		}
+		XRefIndex index = new XRefIndex(db);
+
+		String expected = write(db, index, null);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			assertEquals(expected, write(db, index, pool));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private static String write(Index db, XRefIndex index, ForkJoinPool pool) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		StorageWriter.write(db, index, out, pool);
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+}